@@ -0,0 +1,407 @@
+package com.savci.facedetection.client;
+
+import com.savci.facedetection.entity.FrameHeader;
+import com.savci.facedetection.model.DetectionLevel;
+import com.savci.facedetection.service.ImageUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+import org.bytedeco.opencv.global.opencv_imgcodecs;
+import org.bytedeco.opencv.opencv_core.Mat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Load generator for the /face-detection/{userId} endpoint. Opens N concurrent
+ * sessions, each sending frames from a local image directory or video file at a
+ * target FPS, and records end-to-end latency by matching results to requests on
+ * frameId.
+ * <p>
+ * In OPEN loop mode frames are sent on a fixed schedule regardless of responses;
+ * a frame is dropped when the session already has maxInFlight frames pending, and
+ * latency is measured from the intended send time so queueing is not hidden. In
+ * CLOSED loop mode each session sends its next frame only after the previous
+ * result arrived (or timed out), capped at the target FPS.
+ * <p>
+ * Arguments are --key=value pairs, e.g.
+ *
+ * <pre>
+ * --url=ws://localhost:8080/face-detection --sessions=8 --fps=10 --duration=60
+ * --mode=open --corpus=images/ --output=load-report.json --level=refined --delivery=ordered
+ * </pre>
+ * With --delivery each session is pipelined and the server is told its
+ * maxInFlight. With --raw=true frames are sent as uncompressed BGR.
+ */
+public class FaceDetectionLoadGenerator {
+
+    public enum Mode {
+        OPEN, CLOSED
+    }
+
+    private final String url;
+    private final int sessions;
+    private final double fps;
+    private final long durationNanos;
+    private final long warmupNanos;
+    private final long timeoutNanos;
+    private final int maxInFlight;
+    private final Mode mode;
+    private final List<byte[]> frames;
+
+    private final Histogram latency = new ConcurrentHistogram(3);
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    private volatile long measureStartNanos;
+    private volatile DetectionLevel detectionLevel;
+    private volatile FrameHeader.Delivery delivery;
+
+    public FaceDetectionLoadGenerator(String url, int sessions, double fps, long durationSeconds,
+            long warmupSeconds, long timeoutMillis, int maxInFlight, Mode mode, List<byte[]> frames) {
+        if (frames.isEmpty()) {
+            throw new IllegalArgumentException("Frame corpus is empty");
+        }
+        this.url = url;
+        this.sessions = sessions;
+        this.fps = fps;
+        this.durationNanos = TimeUnit.SECONDS.toNanos(durationSeconds);
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(warmupSeconds);
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.maxInFlight = maxInFlight;
+        this.mode = mode;
+        this.frames = frames;
+    }
+
+    public void setDetectionLevel(DetectionLevel detectionLevel) {
+        this.detectionLevel = detectionLevel;
+    }
+
+    public void setDelivery(FrameHeader.Delivery delivery) {
+        this.delivery = delivery;
+    }
+
+    public Map<String, Object> run() throws InterruptedException {
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+                Math.min(sessions, Runtime.getRuntime().availableProcessors()));
+        List<SessionDriver> drivers = new ArrayList<>();
+        for (int i = 0; i < sessions; i++) {
+            drivers.add(new SessionDriver(i, scheduler));
+        }
+        for (SessionDriver driver : drivers) {
+            driver.client.connect(url).join();
+        }
+
+        long start = System.nanoTime();
+        measureStartNanos = start + warmupNanos;
+        long end = measureStartNanos + durationNanos;
+        for (SessionDriver driver : drivers) {
+            driver.start(start, end);
+        }
+
+        scheduler.scheduleAtFixedRate(() -> drivers.forEach(SessionDriver::expireTimedOut),
+                timeoutNanos, timeoutNanos / 4 + 1, TimeUnit.NANOSECONDS);
+
+        TimeUnit.NANOSECONDS.sleep(end - System.nanoTime() + timeoutNanos);
+        scheduler.shutdownNow();
+        drivers.forEach(SessionDriver::expireAll);
+        drivers.forEach(driver -> driver.client.close());
+
+        return report(durationNanos);
+    }
+
+    private Map<String, Object> report(long elapsedNanos) {
+        double seconds = Math.max(elapsedNanos, 1) / 1e9;
+        Map<String, Object> latencyMicros = new LinkedHashMap<>();
+        latencyMicros.put("p50", latency.getValueAtPercentile(50));
+        latencyMicros.put("p90", latency.getValueAtPercentile(90));
+        latencyMicros.put("p99", latency.getValueAtPercentile(99));
+        latencyMicros.put("p999", latency.getValueAtPercentile(99.9));
+        latencyMicros.put("max", latency.getMaxValue());
+        latencyMicros.put("mean", latency.getMean());
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("mode", mode);
+        report.put("sessions", sessions);
+        report.put("targetFps", fps);
+        report.put("maxInFlight", maxInFlight);
+        report.put("delivery", delivery);
+        report.put("durationSeconds", seconds);
+        report.put("sent", sent.get());
+        report.put("completed", completed.get());
+        report.put("dropped", dropped.get());
+        report.put("rejectedBusy", rejected.get());
+        report.put("timedOut", timedOut.get());
+        report.put("errors", errors.get());
+        report.put("offeredFps", sent.get() / seconds);
+        report.put("throughputFps", completed.get() / seconds);
+        report.put("latencyMicros", latencyMicros);
+        return report;
+    }
+
+    private boolean measuring(long nanos) {
+        return nanos >= measureStartNanos;
+    }
+
+    private class SessionDriver {
+        private final FaceDetectionWebSocketClient client;
+        private final ScheduledExecutorService scheduler;
+        // frameId -> intended send time
+        private final Map<String, Long> pending = new ConcurrentHashMap<>();
+        private final int index;
+        private final AtomicInteger frameCursor;
+        private final long periodNanos = (long) (1e9 / fps);
+        private volatile long endNanos;
+        private volatile long nextSendNanos;
+
+        SessionDriver(int index, ScheduledExecutorService scheduler) {
+            this.client = new FaceDetectionWebSocketClient(UUID.randomUUID().toString(), 1024, 2);
+            this.client.setVerbose(false);
+            this.client.setResultListener(this::onResult);
+            this.client.setBusyListener(this::onBusy);
+            this.client.setDetectionLevel(detectionLevel);
+            if (delivery != null) {
+                this.client.setPipeline(delivery, maxInFlight);
+            }
+            this.scheduler = scheduler;
+            this.index = index;
+            this.frameCursor = new AtomicInteger(index);
+        }
+
+        void start(long startNanos, long endNanos) {
+            this.endNanos = endNanos;
+            // Spread session start times across one period to avoid synchronized bursts
+            long offset = periodNanos * index / sessions;
+            nextSendNanos = startNanos + offset;
+            if (mode == Mode.OPEN) {
+                scheduler.scheduleAtFixedRate(this::openLoopTick, offset, periodNanos, TimeUnit.NANOSECONDS);
+            } else {
+                scheduler.schedule(this::closedLoopSend, offset, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private void openLoopTick() {
+            long intended = nextSendNanos;
+            nextSendNanos += periodNanos;
+            if (intended >= endNanos) {
+                return;
+            }
+            if (pending.size() >= maxInFlight) {
+                if (measuring(intended)) {
+                    dropped.incrementAndGet();
+                }
+                return;
+            }
+            send(intended);
+        }
+
+        private void closedLoopSend() {
+            long now = System.nanoTime();
+            if (now >= endNanos) {
+                return;
+            }
+            nextSendNanos = Math.max(nextSendNanos + periodNanos, now);
+            send(now);
+        }
+
+        private void send(long intendedNanos) {
+            String frameId = UUID.randomUUID().toString();
+            byte[] frame = frames.get(Math.floorMod(frameCursor.getAndAdd(sessions), frames.size()));
+            pending.put(frameId, intendedNanos);
+            if (measuring(intendedNanos)) {
+                sent.incrementAndGet();
+            }
+            client.sendFrame(frameId, frame).exceptionally(ex -> {
+                if (pending.remove(frameId) != null) {
+                    if (measuring(intendedNanos)) {
+                        errors.incrementAndGet();
+                    }
+                    scheduleNextClosedLoop();
+                }
+                return null;
+            });
+        }
+
+        private void onResult(String frameId, byte[] result) {
+            long now = System.nanoTime();
+            Long intended = pending.remove(frameId);
+            if (intended == null) {
+                return; // already expired
+            }
+            if (measuring(intended)) {
+                completed.incrementAndGet();
+                latency.recordValue(TimeUnit.NANOSECONDS.toMicros(now - intended));
+            }
+            scheduleNextClosedLoop();
+        }
+
+        private void onBusy(String frameId, long retryAfterMillis) {
+            Long intended = pending.remove(frameId);
+            if (intended == null) {
+                return;
+            }
+            if (measuring(intended)) {
+                rejected.incrementAndGet();
+            }
+            scheduleNextClosedLoop();
+        }
+
+        private void scheduleNextClosedLoop() {
+            if (mode == Mode.CLOSED && !scheduler.isShutdown()) {
+                long delay = Math.max(0, nextSendNanos - System.nanoTime());
+                scheduler.schedule(this::closedLoopSend, delay, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        void expireTimedOut() {
+            long now = System.nanoTime();
+            pending.forEach((frameId, intended) -> {
+                if (now - intended > timeoutNanos && pending.remove(frameId) != null) {
+                    if (measuring(intended)) {
+                        timedOut.incrementAndGet();
+                    }
+                    scheduleNextClosedLoop();
+                }
+            });
+        }
+
+        void expireAll() {
+            pending.forEach((frameId, intended) -> {
+                if (pending.remove(frameId) != null && measuring(intended)) {
+                    timedOut.incrementAndGet();
+                }
+            });
+        }
+    }
+
+    /**
+     * Loads frames from a directory of images (sent as their encoded file bytes)
+     * or from a video file (each decoded frame re-encoded as PNG).
+     */
+    static List<byte[]> loadCorpus(Path corpus, int maxFrames) throws IOException {
+        List<byte[]> frames = new ArrayList<>();
+        if (Files.isDirectory(corpus)) {
+            try (Stream<Path> files = Files.list(corpus)) {
+                for (Path file : files.filter(FaceDetectionLoadGenerator::isImage).sorted().toList()) {
+                    if (frames.size() >= maxFrames) {
+                        break;
+                    }
+                    frames.add(Files.readAllBytes(file));
+                }
+            }
+        } else if (isImage(corpus)) {
+            frames.add(Files.readAllBytes(corpus));
+        } else {
+            OpenCVFrameConverter.ToMat converter = new OpenCVFrameConverter.ToMat();
+            try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(corpus.toFile())) {
+                grabber.start();
+                Frame frame;
+                while (frames.size() < maxFrames && (frame = grabber.grabImage()) != null) {
+                    // The converter owns and reuses this Mat for the next frame, so it stays open
+                    Mat mat = converter.convert(frame);
+                    try (BytePointer encoded = new BytePointer()) {
+                        opencv_imgcodecs.imencode(".png", mat, encoded);
+                        byte[] bytes = new byte[(int) encoded.limit()];
+                        encoded.get(bytes);
+                        frames.add(bytes);
+                    }
+                }
+                grabber.stop();
+            }
+        }
+        return frames;
+    }
+
+    private static byte[] toRawFrame(byte[] encoded) {
+        try (Mat image = ImageUtils.byteArrayToMat(encoded)) {
+            return FaceDetectionWebSocketClient.toRawFrame(image);
+        }
+    }
+
+    private static boolean isImage(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return Stream.of(".png", ".jpg", ".jpeg", ".bmp").anyMatch(name::endsWith);
+    }
+
+    private static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --key=value but got: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        return options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseArgs(args);
+        String corpus = options.getOrDefault("corpus",
+                "facedetection/src/main/java/com/savci/facedetection/client/image.png");
+        List<byte[]> frames = loadCorpus(Path.of(corpus),
+                Integer.parseInt(options.getOrDefault("maxFrames", "300")));
+        if (Boolean.parseBoolean(options.getOrDefault("raw", "false"))) {
+            frames = frames.stream().map(FaceDetectionLoadGenerator::toRawFrame).toList();
+        }
+
+        FaceDetectionLoadGenerator generator = new FaceDetectionLoadGenerator(
+                options.getOrDefault("url", "ws://localhost:8080/face-detection"),
+                Integer.parseInt(options.getOrDefault("sessions", "4")),
+                Double.parseDouble(options.getOrDefault("fps", "5")),
+                Long.parseLong(options.getOrDefault("duration", "30")),
+                Long.parseLong(options.getOrDefault("warmup", "5")),
+                Long.parseLong(options.getOrDefault("timeout", "10000")),
+                Integer.parseInt(options.getOrDefault("maxInFlight", "4")),
+                Mode.valueOf(options.getOrDefault("mode", "open").toUpperCase(Locale.ROOT)),
+                frames);
+        String level = options.get("level");
+        if (level != null) {
+            generator.setDetectionLevel(DetectionLevel.valueOf(level.toUpperCase(Locale.ROOT)));
+        }
+        String delivery = options.get("delivery");
+        if (delivery != null) {
+            generator.setDelivery(FrameHeader.Delivery.valueOf(delivery.toUpperCase(Locale.ROOT)));
+        }
+
+        System.out.println("Running " + Arrays.toString(args) + " with " + frames.size() + " frames");
+        Map<String, Object> report = generator.run();
+
+        ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        String json = mapper.writeValueAsString(report);
+        System.out.println(json);
+        String output = options.get("output");
+        if (output != null) {
+            mapper.writeValue(new File(output), report);
+        }
+        System.exit(0);
+    }
+}
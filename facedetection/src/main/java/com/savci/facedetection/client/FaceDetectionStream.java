@@ -0,0 +1,415 @@
+package com.savci.facedetection.client;
+
+import com.savci.facedetection.entity.ControlMessage;
+import com.savci.facedetection.entity.DetectionMessage;
+import com.savci.facedetection.entity.FrameHeader;
+import com.savci.facedetection.entity.RawFrame;
+import com.savci.facedetection.model.DetectionLevel;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.handler.BinaryWebSocketHandler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * High-throughput client for a continuous feed of frames. Opens a pipelined
+ * session that returns detections instead of annotated images
+ * ({@code ?result=faces}), and keeps up to maxInFlight frames at the server.
+ * <p>
+ * Frames are split into chunks written into pooled buffers on the submitting
+ * thread, and a single sender thread writes them to the socket in submission
+ * order, so chunks of different frames never interleave and sequence numbers
+ * reach the server in order. {@link #submit} blocks while maxInFlight frames
+ * are unanswered. Results complete the future returned by {@link #submit} and
+ * are published to subscribers; a subscriber that falls behind its buffer
+ * holds back receiving and so, through maxInFlight, sending.
+ * <p>
+ * Configure with the setters, then {@link #connect}.
+ */
+public class FaceDetectionStream implements Flow.Publisher<FrameResult>, AutoCloseable {
+
+    /**
+     * Tomcat's default limit for a binary message, header included.
+     */
+    public static final int DEFAULT_MESSAGE_BYTES = 8192;
+
+    private static final Outgoing STOP = new Outgoing(null, null);
+
+    private record Outgoing(String frameId, ByteBuffer buffer) {
+    }
+
+    /**
+     * Frame bytes by offset, copied into chunk buffers without an intermediate
+     * array.
+     */
+    private interface Payload {
+        int length();
+
+        void copy(int offset, ByteBuffer target, int length);
+    }
+
+    private final String userId;
+    private int chunkSize = DEFAULT_MESSAGE_BYTES - FrameHeader.SEQUENCED_BYTES;
+    private int maxInFlight = 8;
+    private int bufferPoolSize = 64;
+    private FrameHeader.Delivery delivery = FrameHeader.Delivery.ORDERED;
+    private DetectionLevel detectionLevel;
+
+    private final SubmissionPublisher<FrameResult> publisher = new SubmissionPublisher<>();
+    private final LinkedBlockingQueue<Outgoing> outbox = new LinkedBlockingQueue<>();
+    private final Map<String, CompletableFuture<FrameResult>> pending = new ConcurrentHashMap<>();
+    private final Map<String, Map<Integer, byte[]>> resultChunks = new ConcurrentHashMap<>();
+    private final AtomicLong nextSequence = new AtomicLong();
+    private BlockingQueue<ByteBuffer> bufferPool;
+    private Semaphore permits;
+    private Thread sender;
+    private volatile WebSocketSession session;
+    private volatile boolean closed;
+
+    public FaceDetectionStream(String userId) {
+        this.userId = userId;
+    }
+
+    /**
+     * Frame bytes per message. The header adds {@link FrameHeader#SEQUENCED_BYTES},
+     * and the total must fit the server's binary message buffer.
+     *
+     * @throws IllegalStateException once connected, the pooled chunk buffers are
+     *         sized for the chunk size at {@link #connect}
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive");
+        }
+        requireUnconnected("chunkSize");
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Frames sent but not answered before {@link #submit} blocks. The server
+     * caps it with face-detection.pipeline.max-in-flight and answers frames
+     * beyond its cap busy.
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        }
+        requireUnconnected("maxInFlight");
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Chunk buffers kept for reuse; more are allocated when all are queued.
+     */
+    public void setBufferPoolSize(int bufferPoolSize) {
+        requireUnconnected("bufferPoolSize");
+        this.bufferPoolSize = Math.max(1, bufferPoolSize);
+    }
+
+    public void setDelivery(FrameHeader.Delivery delivery) {
+        requireUnconnected("delivery");
+        this.delivery = delivery;
+    }
+
+    public void setDetectionLevel(DetectionLevel detectionLevel) {
+        requireUnconnected("detectionLevel");
+        this.detectionLevel = detectionLevel;
+    }
+
+    // Settings are sent in the session's query or size its buffers, so they are fixed by connect
+    private void requireUnconnected(String setting) {
+        if (bufferPool != null) {
+            throw new IllegalStateException("Cannot change " + setting + " after connect");
+        }
+    }
+
+    public CompletableFuture<Void> connect(String baseUrl) {
+        if (bufferPool != null) {
+            throw new IllegalStateException("Already connected");
+        }
+        List<String> query = new ArrayList<>();
+        query.add("pipeline=" + delivery.name().toLowerCase(Locale.ROOT));
+        query.add("inflight=" + maxInFlight);
+        query.add("result=faces");
+        if (detectionLevel != null) {
+            query.add("level=" + detectionLevel.name().toLowerCase(Locale.ROOT));
+        }
+        bufferPool = new ArrayBlockingQueue<>(bufferPoolSize);
+        permits = new Semaphore(maxInFlight);
+
+        CompletableFuture<Void> connected = new CompletableFuture<>();
+        new StandardWebSocketClient().execute(new BinaryWebSocketHandler() {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) {
+                FaceDetectionStream.this.session = session;
+                sender = new Thread(FaceDetectionStream.this::sendLoop, "face-detection-stream-sender");
+                sender.setDaemon(true);
+                sender.start();
+                connected.complete(null);
+            }
+
+            @Override
+            public void handleBinaryMessage(WebSocketSession session, BinaryMessage message) {
+                receive(message.getPayload());
+            }
+
+            @Override
+            public void handleTransportError(WebSocketSession session, Throwable exception) {
+                connected.completeExceptionally(exception);
+                shutdown(exception);
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+                shutdown(new IllegalStateException("WebSocket session closed: " + status));
+            }
+        }, baseUrl + "/" + userId + "?" + String.join("&", query)).whenComplete((s, ex) -> {
+            if (ex != null) {
+                connected.completeExceptionally(ex);
+            }
+        });
+        return connected;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super FrameResult> subscriber) {
+        publisher.subscribe(subscriber);
+    }
+
+    /**
+     * Calls the consumer with every result, on the publisher's executor.
+     */
+    public CompletableFuture<Void> onResult(Consumer<FrameResult> consumer) {
+        return publisher.consume(consumer);
+    }
+
+    /**
+     * Sends a decoded 8-bit BGR frame uncompressed, copying its pixels straight
+     * into the chunk buffers. Blocks while maxInFlight frames are unanswered.
+     */
+    public CompletableFuture<FrameResult> submit(Mat bgr) throws InterruptedException {
+        if (bgr.type() != opencv_core.CV_8UC3) {
+            throw new IllegalArgumentException("Expected an 8-bit BGR frame");
+        }
+        try (Mat continuous = bgr.isContinuous() ? null : bgr.clone()) {
+            Mat source = continuous == null ? bgr : continuous;
+            byte[] header = RawFrame.header(RawFrame.Format.BGR, source.cols(), source.rows(), source.cols() * 3);
+            BytePointer pixels = source.data();
+            int pixelBytes = (int) (source.total() * 3);
+            return submit(new Payload() {
+                @Override
+                public int length() {
+                    return header.length + pixelBytes;
+                }
+
+                @Override
+                public void copy(int offset, ByteBuffer target, int length) {
+                    if (offset < header.length) {
+                        int fromHeader = Math.min(length, header.length - offset);
+                        target.put(header, offset, fromHeader);
+                        offset += fromHeader;
+                        length -= fromHeader;
+                    }
+                    if (length > 0) {
+                        pixels.position(offset - header.length)
+                                .get(target.array(), target.arrayOffset() + target.position(), length);
+                        target.position(target.position() + length);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Sends an encoded image or a {@link RawFrame} payload. Blocks while
+     * maxInFlight frames are unanswered.
+     */
+    public CompletableFuture<FrameResult> submit(byte[] frameData) throws InterruptedException {
+        return submit(new Payload() {
+            @Override
+            public int length() {
+                return frameData.length;
+            }
+
+            @Override
+            public void copy(int offset, ByteBuffer target, int length) {
+                target.put(frameData, offset, length);
+            }
+        });
+    }
+
+    private CompletableFuture<FrameResult> submit(Payload payload) throws InterruptedException {
+        if (session == null || closed) {
+            throw new IllegalStateException("Stream is not connected");
+        }
+        permits.acquire();
+        String frameId = UUID.randomUUID().toString();
+        CompletableFuture<FrameResult> result = new CompletableFuture<>();
+        pending.put(frameId, result);
+        int totalChunks = Math.max(1, (payload.length() + chunkSize - 1) / chunkSize);
+        // One frame's chunks are queued together and in sequence order
+        synchronized (outbox) {
+            FrameHeader header = new FrameHeader(frameId, 0, totalChunks, nextSequence.getAndIncrement(),
+                    System.nanoTime());
+            for (int i = 0; i < totalChunks; i++) {
+                int offset = i * chunkSize;
+                ByteBuffer buffer = acquireBuffer();
+                header.chunk(i, totalChunks).write(buffer, true);
+                payload.copy(offset, buffer, Math.min(chunkSize, payload.length() - offset));
+                buffer.flip();
+                outbox.add(new Outgoing(frameId, buffer));
+            }
+        }
+        if (closed) {
+            fail(frameId, new IllegalStateException("Stream closed"));
+        }
+        return result;
+    }
+
+    private ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = bufferPool.poll();
+        return buffer != null ? buffer : ByteBuffer.allocate(FrameHeader.SEQUENCED_BYTES + chunkSize);
+    }
+
+    private void sendLoop() {
+        try {
+            while (true) {
+                Outgoing next = outbox.take();
+                if (next == STOP) {
+                    return;
+                }
+                // Frames that already failed are not sent further
+                if (pending.containsKey(next.frameId())) {
+                    try {
+                        session.sendMessage(new BinaryMessage(next.buffer()));
+                    } catch (IOException | RuntimeException e) {
+                        fail(next.frameId(), e);
+                    }
+                }
+                next.buffer().clear();
+                bufferPool.offer(next.buffer());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void receive(ByteBuffer message) {
+        byte[] payload = new byte[message.remaining()];
+        message.get(payload);
+        FrameHeader header = FrameHeader.read(payload, true);
+        byte[] chunk = new byte[payload.length - FrameHeader.SEQUENCED_BYTES];
+        System.arraycopy(payload, FrameHeader.SEQUENCED_BYTES, chunk, 0, chunk.length);
+        if (header.totalChunks() == 1) {
+            complete(header, chunk);
+            return;
+        }
+        Map<Integer, byte[]> chunks = resultChunks.computeIfAbsent(header.frameId(),
+                k -> new ConcurrentHashMap<>());
+        chunks.put(header.chunkIndex(), chunk);
+        if (chunks.size() == header.totalChunks()) {
+            resultChunks.remove(header.frameId());
+            ByteBuffer complete = ByteBuffer.allocate(chunks.values().stream().mapToInt(c -> c.length).sum());
+            for (int i = 0; i < header.totalChunks(); i++) {
+                complete.put(chunks.get(i));
+            }
+            complete(header, complete.array());
+        }
+    }
+
+    private void complete(FrameHeader header, byte[] resultData) {
+        CompletableFuture<FrameResult> result = pending.remove(header.frameId());
+        if (result == null) {
+            return;
+        }
+        permits.release();
+        long latency = System.nanoTime() - header.timestamp();
+        FrameResult frameResult;
+        if (ControlMessage.isBusy(resultData)) {
+            frameResult = new FrameResult(header.frameId(), header.sequence(), latency, null,
+                    ControlMessage.retryAfterMillis(resultData));
+        } else if (DetectionMessage.isDetections(resultData)) {
+            try {
+                frameResult = new FrameResult(header.frameId(), header.sequence(), latency,
+                        DetectionMessage.decode(resultData), 0);
+            } catch (IllegalArgumentException e) {
+                result.completeExceptionally(e);
+                return;
+            }
+        } else {
+            result.completeExceptionally(new IllegalStateException(
+                    "Unexpected result of " + resultData.length + " bytes for frame " + header.frameId()));
+            return;
+        }
+        result.complete(frameResult);
+        if (!publisher.isClosed()) {
+            publisher.submit(frameResult);
+        }
+    }
+
+    private void fail(String frameId, Throwable cause) {
+        CompletableFuture<FrameResult> result = pending.remove(frameId);
+        if (result != null) {
+            permits.release();
+            result.completeExceptionally(cause);
+        }
+    }
+
+    private void shutdown(Throwable cause) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        outbox.clear();
+        outbox.add(STOP);
+        pending.keySet().forEach(frameId -> fail(frameId, cause));
+        resultChunks.clear();
+        publisher.closeExceptionally(cause);
+    }
+
+    /**
+     * Closes the session without waiting for frames in flight, which fail.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        outbox.clear();
+        outbox.add(STOP);
+        pending.keySet().forEach(frameId -> fail(frameId, new IllegalStateException("Stream closed")));
+        resultChunks.clear();
+        publisher.close();
+        WebSocketSession current = session;
+        if (current != null && current.isOpen()) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+        }
+    }
+}
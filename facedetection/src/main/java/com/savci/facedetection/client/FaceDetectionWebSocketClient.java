@@ -1,5 +1,6 @@
 package com.savci.facedetection.client;
 
+import org.bytedeco.opencv.global.opencv_core;
 import org.bytedeco.opencv.global.opencv_imgcodecs;
 import org.bytedeco.opencv.opencv_core.Mat;
 import org.springframework.web.socket.BinaryMessage;
@@ -7,12 +8,23 @@ import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.client.standard.StandardWebSocketClient;
 import org.springframework.web.socket.handler.BinaryWebSocketHandler;
 
+import com.savci.facedetection.entity.ControlMessage;
+import com.savci.facedetection.entity.FrameHeader;
+import com.savci.facedetection.entity.RawFrame;
+import com.savci.facedetection.model.AlignedFaces;
+import com.savci.facedetection.model.DetectionLevel;
 import com.savci.facedetection.service.ImageUtils;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -30,6 +42,16 @@ public class FaceDetectionWebSocketClient {
     private final ExecutorService executorService;
     private WebSocketSession session;
     private final CompletableFuture<Void> connectFuture = new CompletableFuture<>();
+    private volatile BiConsumer<String, byte[]> resultListener = FaceDetectionWebSocketClient::writeResultImage;
+    private volatile BiConsumer<String, List<Mat>> alignedFacesListener;
+    private volatile BiConsumer<String, Long> busyListener = (frameId, retryAfterMillis) -> System.out
+            .println("Server busy, frame " + frameId + " rejected, retry after " + retryAfterMillis + " ms");
+    private volatile boolean verbose = true;
+    private volatile DetectionLevel detectionLevel;
+    private volatile FrameHeader.Delivery delivery;
+    private volatile int maxInFlight;
+    private volatile BiConsumer<FrameHeader, byte[]> pipelinedResultListener;
+    private final AtomicLong nextSequence = new AtomicLong();
 
     // Map to hold chunks for each frame
     private final Map<String, Map<Integer, byte[]>> resultChunks = new ConcurrentHashMap<>();
@@ -40,8 +62,78 @@ public class FaceDetectionWebSocketClient {
         this.executorService = Executors.newFixedThreadPool(threadPoolSize);
     }
 
+    /**
+     * Replaces the default result handling (writing output.png) with a callback
+     * receiving the frameId and the reassembled result bytes.
+     */
+    public void setResultListener(BiConsumer<String, byte[]> resultListener) {
+        this.resultListener = resultListener;
+    }
+
+    /**
+     * Receives the aligned face crops the server sends after a frame's result when
+     * the session was opened with ?align=raw or ?align=jpeg.
+     */
+    public void setAlignedFacesListener(BiConsumer<String, List<Mat>> alignedFacesListener) {
+        this.alignedFacesListener = alignedFacesListener;
+    }
+
+    /**
+     * Receives the frameId and suggested retry delay of frames the server
+     * rejected because it is overloaded.
+     */
+    public void setBusyListener(BiConsumer<String, Long> busyListener) {
+        this.busyListener = busyListener;
+    }
+
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /**
+     * Asks the server to stop the cascade early for this session; must be set
+     * before {@link #connect(String)}. Unset means the server default (FULL).
+     */
+    public void setDetectionLevel(DetectionLevel detectionLevel) {
+        this.detectionLevel = detectionLevel;
+    }
+
+    /**
+     * Opens a pipelined session: chunk headers carry a sequence number and a
+     * timestamp the server echoes, and the server detects up to maxInFlight of
+     * this session's frames at once, 0 for its own limit. Results arrive ordered
+     * by sequence number or as each completes. Must be set before
+     * {@link #connect(String)}.
+     */
+    public void setPipeline(FrameHeader.Delivery delivery, int maxInFlight) {
+        this.delivery = delivery;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Receives the results of a pipelined session with the echoed sequence
+     * number and timestamp, in place of the result listener.
+     */
+    public void setPipelinedResultListener(BiConsumer<FrameHeader, byte[]> pipelinedResultListener) {
+        this.pipelinedResultListener = pipelinedResultListener;
+    }
+
+    private boolean isPipelined() {
+        return delivery != null;
+    }
+
     public CompletableFuture<Void> connect(String baseUrl) {
-        String fullUrl = baseUrl + "/" + userId;
+        List<String> query = new ArrayList<>();
+        if (detectionLevel != null) {
+            query.add("level=" + detectionLevel.name().toLowerCase(Locale.ROOT));
+        }
+        if (isPipelined()) {
+            query.add("pipeline=" + delivery.name().toLowerCase(Locale.ROOT));
+            if (maxInFlight > 0) {
+                query.add("inflight=" + maxInFlight);
+            }
+        }
+        String fullUrl = baseUrl + "/" + userId + (query.isEmpty() ? "" : "?" + String.join("&", query));
         StandardWebSocketClient client = new StandardWebSocketClient();
         client.execute(new BinaryWebSocketHandler() {
             @Override
@@ -56,30 +148,42 @@ public class FaceDetectionWebSocketClient {
                 byte[] payload = new byte[buffer.remaining()];
                 buffer.get(payload);
 
-                // Extract frameId (UUID), chunkIndex, totalChunks, and chunkData
-                String frameId = new String(payload, 0, 36);
-                int chunkIndex = ByteBuffer.wrap(payload, 36, 4).getInt();
-                int totalChunks = ByteBuffer.wrap(payload, 40, 4).getInt();
-                byte[] chunkData = new byte[payload.length - 44];
-                System.arraycopy(payload, 44, chunkData, 0, chunkData.length);
+                // Extract frameId (UUID), chunkIndex, totalChunks, the echoed sequence if any, and chunkData
+                FrameHeader header = FrameHeader.read(payload, isPipelined());
+                String frameId = header.frameId();
+                int chunkIndex = header.chunkIndex();
+                int totalChunks = header.totalChunks();
+                byte[] chunkData = Arrays.copyOfRange(payload, FrameHeader.length(isPipelined()), payload.length);
 
                 // Store the chunk data
                 Map<Integer, byte[]> chunks = resultChunks.computeIfAbsent(frameId, k -> new ConcurrentHashMap<>());
                 chunks.put(chunkIndex, chunkData);
 
-                System.out.println("Received chunk " + (chunkIndex + 1) + "/" + totalChunks + " for frame: " + frameId
-                        + " chunk size: " + chunks.size());
+                if (verbose) {
+                    System.out.println("Received chunk " + (chunkIndex + 1) + "/" + totalChunks + " for frame: "
+                            + frameId + " chunk size: " + chunks.size());
+                }
 
                 // Check if all chunks for this frame have been received
                 if (chunks.size() == totalChunks) {
-                    processCompleteResult(frameId, chunks, totalChunks);
+                    processCompleteResult(header, chunks, totalChunks);
                 }
             }
-        }, fullUrl);
+
+            @Override
+            public void handleTransportError(WebSocketSession session, Throwable exception) {
+                connectFuture.completeExceptionally(exception);
+            }
+        }, fullUrl).whenComplete((s, ex) -> {
+            if (ex != null) {
+                connectFuture.completeExceptionally(ex);
+            }
+        });
         return connectFuture;
     }
 
-    private void processCompleteResult(String frameId, Map<Integer, byte[]> chunks, int totalChunks) {
+    private void processCompleteResult(FrameHeader header, Map<Integer, byte[]> chunks, int totalChunks) {
+        String frameId = header.frameId();
         ByteBuffer completeResult = ByteBuffer.allocate(
                 chunks.values().stream().mapToInt(chunk -> chunk.length).sum());
         for (int i = 0; i < totalChunks; i++) {
@@ -87,21 +191,61 @@ public class FaceDetectionWebSocketClient {
         }
 
         byte[] resultData = completeResult.array();
-        // Handle the complete result data (e.g., log or process it)
-        System.out.println("Processing complete result for frame: " + frameId + ", size: " + resultData.length);
+        resultChunks.remove(frameId); // Clear the chunks for this frame after processing
+        if (verbose) {
+            System.out.println("Processing complete result for frame: " + frameId + ", size: " + resultData.length);
+        }
+        if (ControlMessage.isBusy(resultData)) {
+            busyListener.accept(frameId, ControlMessage.retryAfterMillis(resultData));
+            return;
+        }
+        if (AlignedFaces.isEncoded(resultData)) {
+            BiConsumer<String, List<Mat>> listener = alignedFacesListener;
+            if (listener != null) {
+                listener.accept(frameId, AlignedFaces.decode(resultData));
+            }
+            return;
+        }
+        BiConsumer<FrameHeader, byte[]> pipelined = pipelinedResultListener;
+        if (pipelined != null && isPipelined()) {
+            pipelined.accept(header, resultData);
+            return;
+        }
+        resultListener.accept(frameId, resultData);
+    }
+
+    private static void writeResultImage(String frameId, byte[] resultData) {
         // Convert byte array to Mat
         Mat img = ImageUtils.byteArrayToMat(resultData);
         opencv_imgcodecs.imwrite("output.png", img);
-        resultChunks.remove(frameId); // Clear the chunks for this frame after processing
     }
 
     public CompletableFuture<Void> sendFrame(byte[] frameData) {
+        return sendFrame(UUID.randomUUID().toString(), frameData);
+    }
+
+    /**
+     * Sends a frame under the given frameId, which must be a 36 character UUID
+     * string. The server echoes it in the result. Pipelined sessions number the
+     * frames in send order and stamp them with {@link System#nanoTime()}.
+     */
+    public CompletableFuture<Void> sendFrame(String frameId, byte[] frameData) {
+        return sendFrame(frameId, isPipelined() ? nextSequence.getAndIncrement() : FrameHeader.UNSEQUENCED,
+                System.nanoTime(), frameData);
+    }
+
+    /**
+     * Sends a frame with an explicit sequence number and timestamp; both are
+     * only transmitted on pipelined sessions.
+     */
+    public CompletableFuture<Void> sendFrame(String frameId, long sequence, long timestamp, byte[] frameData) {
         if (session == null || !session.isOpen()) {
             return CompletableFuture.failedFuture(new IllegalStateException("WebSocket session is not open"));
         }
 
-        String frameId = UUID.randomUUID().toString();
-        System.out.println("Data length: " + frameData.length);
+        if (verbose) {
+            System.out.println("Data length: " + frameData.length);
+        }
         int totalChunks = (int) Math.ceil((double) frameData.length / chunkSize);
 
         @SuppressWarnings("unchecked")
@@ -117,10 +261,9 @@ public class FaceDetectionWebSocketClient {
                         byte[] chunk = new byte[end - start];
                         System.arraycopy(frameData, start, chunk, 0, chunk.length);
 
-                        ByteBuffer message = ByteBuffer.allocate(44 + chunk.length);
-                        message.put(frameId.getBytes());
-                        message.putInt(chunkIndex);
-                        message.putInt(totalChunks);
+                        ByteBuffer message = ByteBuffer.allocate(FrameHeader.length(isPipelined()) + chunk.length);
+                        new FrameHeader(frameId, chunkIndex, totalChunks, sequence, timestamp)
+                                .write(message, isPipelined());
                         message.put(chunk);
                         message.flip();
 
@@ -131,10 +274,42 @@ public class FaceDetectionWebSocketClient {
                 }
             }, executorService);
         }
-        System.out.println("Total chunks: " + totalChunks);
+        if (verbose) {
+            System.out.println("Total chunks: " + totalChunks);
+        }
         return CompletableFuture.allOf(futures);
     }
 
+    /**
+     * Sends a decoded BGR frame uncompressed, sparing the PNG encode here and
+     * the decode on the server. Meant for co-located feeds where bandwidth is
+     * cheaper than the codec.
+     */
+    public CompletableFuture<Void> sendRawFrame(String frameId, Mat bgr) {
+        return sendFrame(frameId, toRawFrame(bgr));
+    }
+
+    /**
+     * Sends pixels as produced by a camera or decoder, e.g. NV12 or I420,
+     * which the server converts with cvtColor.
+     */
+    public CompletableFuture<Void> sendRawFrame(String frameId, RawFrame.Format format, int width, int height,
+            int stride, byte[] pixels) {
+        return sendFrame(frameId, RawFrame.encode(format, width, height, stride, pixels));
+    }
+
+    public static byte[] toRawFrame(Mat bgr) {
+        if (bgr.type() != opencv_core.CV_8UC3) {
+            throw new IllegalArgumentException("Expected an 8-bit BGR frame");
+        }
+        try (Mat continuous = bgr.isContinuous() ? null : bgr.clone()) {
+            Mat source = continuous == null ? bgr : continuous;
+            byte[] pixels = new byte[(int) (source.total() * 3)];
+            source.data().get(pixels);
+            return RawFrame.encode(RawFrame.Format.BGR, source.cols(), source.rows(), source.cols() * 3, pixels);
+        }
+    }
+
     public CompletableFuture<Void> close() {
         if (session != null && session.isOpen()) {
             try {
@@ -0,0 +1,24 @@
+package com.savci.facedetection.client;
+
+import com.savci.facedetection.model.FaceDetections;
+
+/**
+ * The server's answer to one frame of a {@link FaceDetectionStream}.
+ *
+ * @param frameId          the frameId the frame was sent under
+ * @param sequence         the frame's sequence number in its stream
+ * @param latencyNanos     from submitting the frame to the complete answer
+ * @param faces            the detections, null when the frame was rejected
+ * @param retryAfterMillis suggested back-off of a rejected frame
+ */
+public record FrameResult(String frameId, long sequence, long latencyNanos, FaceDetections faces,
+        long retryAfterMillis) {
+
+    /**
+     * Whether the server rejected the frame because it or this session was
+     * at capacity.
+     */
+    public boolean isBusy() {
+        return faces == null;
+    }
+}
@@ -0,0 +1,159 @@
+package com.savci.facedetection.client;
+
+import com.savci.facedetection.entity.ControlMessage;
+import com.savci.facedetection.entity.DetectionMessage;
+import com.savci.facedetection.entity.RawFrame;
+import com.savci.facedetection.ingest.FrameRing;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.opencv_core.Mat;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Feeds frames to a detector on the same host through the ring file of one
+ * shared-memory channel, see {@link FrameRing}. A frame costs one copy into
+ * the mapping and no socket round trip. Up to one thread may publish while
+ * another takes results; results come back in publishing order, and a slot is
+ * only reused after its previous result was taken, so a producer that stops
+ * taking results eventually blocks.
+ */
+public class SharedMemoryFrameProducer {
+
+    private static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final FrameRing ring;
+    private final String channel;
+    private volatile long nextFrame;
+    private volatile long nextResult;
+
+    private SharedMemoryFrameProducer(FrameRing ring, String channel) {
+        this.ring = ring;
+        this.channel = channel;
+        // Results of a previous producer on this ring are not ours to take
+        this.nextFrame = ring.published();
+        this.nextResult = nextFrame;
+    }
+
+    /**
+     * Attaches to the ring of a channel, e.g.
+     * {@code /dev/shm/facedetection/camera-1.ring}; the detector creates it on
+     * startup.
+     */
+    public static SharedMemoryFrameProducer attach(Path ringFile) throws IOException {
+        String name = ringFile.getFileName().toString();
+        return new SharedMemoryFrameProducer(FrameRing.open(ringFile),
+                name.endsWith(".ring") ? name.substring(0, name.length() - ".ring".length()) : name);
+    }
+
+    /**
+     * Copies an 8-bit BGR frame into the next free slot, waiting for one, and
+     * returns its sequence number.
+     */
+    public long publish(Mat bgr) throws InterruptedException {
+        if (bgr.type() != opencv_core.CV_8UC3) {
+            throw new IllegalArgumentException("Expected an 8-bit BGR frame");
+        }
+        RawFrame frame = RawFrame.of(RawFrame.Format.BGR, bgr.cols(), bgr.rows(), bgr.cols() * 3);
+        long sequence = acquire(frame);
+        try (Mat slot = new Mat(bgr.rows(), bgr.cols(), opencv_core.CV_8UC3, new BytePointer(ring.pixels(sequence)),
+                frame.getStride())) {
+            bgr.copyTo(slot);
+        }
+        return publish(sequence, frame);
+    }
+
+    /**
+     * Copies raw pixels laid out as a {@link RawFrame} describes into the next
+     * free slot, waiting for one, and returns its sequence number.
+     */
+    public long publish(RawFrame.Format format, int width, int height, int stride, byte[] pixels)
+            throws InterruptedException {
+        RawFrame frame = RawFrame.of(format, width, height, stride);
+        if (pixels.length < frame.pixelBytes()) {
+            throw new IllegalArgumentException("Need " + frame.pixelBytes() + " pixel bytes but got " + pixels.length);
+        }
+        long sequence = acquire(frame);
+        ring.pixels(sequence).put(pixels, 0, frame.pixelBytes());
+        return publish(sequence, frame);
+    }
+
+    /**
+     * The result of the oldest frame not taken yet, or null while it is still
+     * in detection.
+     *
+     * @throws IllegalStateException if the detector could not process the frame
+     */
+    public FrameResult poll() {
+        long sequence = nextResult;
+        if (sequence == nextFrame || !ring.hasResult(sequence)) {
+            return null;
+        }
+        long latency = System.nanoTime() - ring.timestamp(sequence);
+        byte[] result = ring.readResult(sequence);
+        nextResult = sequence + 1;
+        if (result != null && ControlMessage.isBusy(result)) {
+            return new FrameResult(channel, sequence, latency, null, ControlMessage.retryAfterMillis(result));
+        }
+        if (result != null && DetectionMessage.isDetections(result)) {
+            return new FrameResult(channel, sequence, latency, DetectionMessage.decode(result), 0);
+        }
+        throw new IllegalStateException("Frame " + sequence + " of channel " + channel + " failed");
+    }
+
+    /**
+     * Waits for the result of the oldest frame not taken yet.
+     */
+    public FrameResult take() throws InterruptedException {
+        while (true) {
+            FrameResult result = poll();
+            if (result != null) {
+                return result;
+            }
+            await(() -> nextResult < nextFrame && ring.hasResult(nextResult));
+        }
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    private long acquire(RawFrame frame) throws InterruptedException {
+        if (frame.pixelBytes() > ring.getFrameBytes()) {
+            throw new IllegalArgumentException("Frame of " + frame.pixelBytes() + " bytes does not fit slots of "
+                    + ring.getFrameBytes() + " bytes");
+        }
+        long sequence = nextFrame;
+        int slots = ring.getSlotCount();
+        // The slot's last frame must be answered, also one of a previous producer, and its result taken
+        await(() -> sequence - nextResult < slots && (sequence < slots || ring.hasResult(sequence - slots)));
+        return sequence;
+    }
+
+    private long publish(long sequence, RawFrame frame) {
+        ring.writeFrame(sequence, System.nanoTime(), frame);
+        nextFrame = sequence + 1;
+        ring.publish(nextFrame);
+        return sequence;
+    }
+
+    private static void await(BooleanSupplier ready) throws InterruptedException {
+        long start = System.nanoTime();
+        while (!ready.getAsBoolean()) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (System.nanoTime() - start < SPIN_NANOS) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.savci.facedetection.client;
+
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.FrameGrabber;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+import org.bytedeco.javacv.OpenCVFrameGrabber;
+import org.bytedeco.opencv.opencv_core.Mat;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Feeds a webcam or a video file or stream into a {@link FaceDetectionStream}
+ * on its own thread. Each grabbed frame is submitted uncompressed, so the
+ * stream's maxInFlight paces the grabber; a webcam drops the frames it
+ * captures meanwhile rather than queueing them.
+ */
+public class VideoFrameSource implements AutoCloseable {
+
+    private final FrameGrabber grabber;
+    private volatile boolean running;
+    private Thread thread;
+
+    private VideoFrameSource(FrameGrabber grabber) {
+        this.grabber = grabber;
+    }
+
+    public static VideoFrameSource webcam(int deviceNumber) {
+        return new VideoFrameSource(new OpenCVFrameGrabber(deviceNumber));
+    }
+
+    /**
+     * A video file or anything FFmpeg opens, e.g. an RTSP URL.
+     */
+    public static VideoFrameSource video(String fileOrUrl) {
+        return new VideoFrameSource(new FFmpegFrameGrabber(fileOrUrl));
+    }
+
+    /**
+     * Starts grabbing into the stream. The future completes at the end of the
+     * video or after {@link #close}, and fails when grabbing or submitting does.
+     */
+    public synchronized CompletableFuture<Void> start(FaceDetectionStream stream) {
+        if (thread != null) {
+            throw new IllegalStateException("Already started");
+        }
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        running = true;
+        thread = new Thread(() -> {
+            OpenCVFrameConverter.ToMat converter = new OpenCVFrameConverter.ToMat();
+            try {
+                grabber.start();
+                try {
+                    Frame frame;
+                    while (running && (frame = grabber.grab()) != null) {
+                        if (frame.image == null) {
+                            continue;
+                        }
+                        // The converted Mat shares the grabber's buffer and is only valid until the next grab
+                        Mat image = converter.convert(frame);
+                        stream.submit(image);
+                    }
+                } finally {
+                    grabber.stop();
+                }
+                done.complete(null);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                done.complete(null);
+            } catch (Exception e) {
+                done.completeExceptionally(e);
+            }
+        }, "video-frame-source");
+        thread.setDaemon(true);
+        thread.start();
+        return done;
+    }
+
+    @Override
+    public void close() throws Exception {
+        running = false;
+        Thread current;
+        synchronized (this) {
+            current = thread;
+        }
+        if (current != null) {
+            current.interrupt();
+            current.join();
+        }
+        grabber.release();
+    }
+}
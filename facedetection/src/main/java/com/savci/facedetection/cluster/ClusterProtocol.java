@@ -0,0 +1,51 @@
+package com.savci.facedetection.cluster;
+
+import com.savci.facedetection.model.FaceDetections;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Length-prefixed binary messages between gateway and workers, written with
+ * DataOutputStream (big-endian).
+ * <p>
+ * Registry connection, worker to gateway: {@link #REGISTER} workerId, host,
+ * port, lanes; then {@link #HEARTBEAT} queueDepth at a fixed interval. Closing
+ * the connection deregisters the worker.
+ * <p>
+ * Data connection, gateway to worker: {@link #DETECT} requestId, detection
+ * level ordinal (byte), session key (empty for none), length, encoded image.
+ * The worker answers out of order with {@link #RESULT} requestId, faces,
+ * {@link #BUSY} requestId, admission level, retryAfterMillis when it is
+ * overloaded, or {@link #ERROR} requestId, message.
+ * Faces are sent as {@link FaceDetections#writeTo} writes them: count, landmark
+ * flag and the raw float values.
+ */
+final class ClusterProtocol {
+
+    static final byte REGISTER = 'R';
+    static final byte HEARTBEAT = 'H';
+    static final byte DETECT = 'D';
+    static final byte RESULT = 'O';
+    static final byte ERROR = 'E';
+    static final byte BUSY = 'B';
+
+    /** Upper bound for a frame on the wire, guards against a corrupt length. */
+    static final int MAX_FRAME_BYTES = 64 * 1024 * 1024;
+
+    /** Upper bound for the faces in one result, same purpose. */
+    static final int MAX_FACES = 65536;
+
+    private ClusterProtocol() {
+        throw new UnsupportedOperationException("Utility class.");
+    }
+
+    static void writeFaces(DataOutputStream out, FaceDetections faces) throws IOException {
+        faces.writeTo(out);
+    }
+
+    static FaceDetections readFaces(DataInputStream in) throws IOException {
+        return FaceDetections.readFrom(in, MAX_FACES);
+    }
+}
@@ -0,0 +1,380 @@
+package com.savci.facedetection.cluster;
+
+import com.savci.facedetection.config.FaceDetectionProperties;
+import com.savci.facedetection.exception.ServiceBusyException;
+import com.savci.facedetection.model.DetectionLevel;
+import com.savci.facedetection.model.FaceDetections;
+import com.savci.facedetection.service.AdmissionController;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Gateway side of the gateway/worker mode: accepts worker registrations on the
+ * registry port and dispatches complete frames to the least-loaded healthy
+ * worker. A worker is healthy while its data connection is open and its last
+ * heartbeat is recent.
+ */
+public class WorkerPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WorkerPool.class);
+
+    private final FaceDetectionProperties.Cluster cluster;
+    private final Map<String, Worker> workers = new ConcurrentHashMap<>();
+    private final Map<String, Worker> affinity = new ConcurrentHashMap<>();
+    private final AtomicLong requestIds = new AtomicLong();
+    private final ExecutorService io = Executors.newCachedThreadPool();
+    private volatile boolean running;
+    private ServerSocket registry;
+
+    public WorkerPool(FaceDetectionProperties properties) {
+        this.cluster = properties.getCluster();
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        running = true;
+        registry = new ServerSocket();
+        registry.bind(new InetSocketAddress(cluster.getBindAddress(), cluster.getRegistryPort()));
+        io.execute(this::acceptRegistrations);
+        LOGGER.info("Gateway accepting worker registrations on {}", registry.getLocalSocketAddress());
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        running = false;
+        registry.close();
+        workers.values().forEach(Worker::close);
+        io.shutdownNow();
+    }
+
+    /**
+     * Sends the encoded frame to a worker. With session affinity enabled, frames
+     * of the same key stay on one worker while it is healthy.
+     */
+    public CompletableFuture<FaceDetections> detect(String affinityKey, byte[] imageData) {
+        return detect(affinityKey, imageData, DetectionLevel.FULL);
+    }
+
+    public CompletableFuture<FaceDetections> detect(String affinityKey, byte[] imageData, DetectionLevel level) {
+        Worker worker = select(affinityKey);
+        if (worker == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("No healthy inference worker"));
+        }
+        return worker.send(requestIds.incrementAndGet(), affinityKey, level, imageData)
+                .orTimeout(cluster.getRequestTimeoutMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Snapshot of the registered workers for monitoring: id to reported queue
+     * depth, or -1 when unhealthy.
+     */
+    public Map<String, Integer> getWorkerLoads() {
+        Map<String, Integer> loads = new ConcurrentHashMap<>();
+        workers.values().forEach(w -> loads.put(w.id + "@" + w.address, w.isHealthy() ? w.load() : -1));
+        return loads;
+    }
+
+    int getRegistryPort() {
+        return registry.getLocalPort();
+    }
+
+    public void releaseAffinity(String affinityKey) {
+        affinity.remove(affinityKey);
+    }
+
+    private Worker select(String affinityKey) {
+        if (cluster.isSessionAffinity() && affinityKey != null) {
+            Worker pinned = affinity.get(affinityKey);
+            if (pinned != null && pinned.isHealthy()) {
+                return pinned;
+            }
+        }
+        List<Worker> healthy = workers.values().stream().filter(Worker::isHealthy).toList();
+        Worker selected = healthy.stream()
+                .min(Comparator.comparingDouble(Worker::relativeLoad))
+                .orElse(null);
+        if (selected != null && cluster.isSessionAffinity() && affinityKey != null) {
+            affinity.put(affinityKey, selected);
+        }
+        return selected;
+    }
+
+    private void acceptRegistrations() {
+        while (running) {
+            try {
+                Socket socket = registry.accept();
+                io.execute(() -> track(socket));
+            } catch (IOException e) {
+                if (running) {
+                    LOGGER.warn("Failed to accept worker registration", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the registration and heartbeats of one worker until its registry
+     * connection closes.
+     */
+    private void track(Socket socket) {
+        Worker worker = null;
+        try (socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            if (in.readByte() != ClusterProtocol.REGISTER) {
+                throw new IOException("Expected a registration from " + socket.getRemoteSocketAddress());
+            }
+            String id = in.readUTF();
+            String host = in.readUTF();
+            int port = in.readInt();
+            int lanes = in.readInt();
+            worker = new Worker(id, new InetSocketAddress(host, port), lanes);
+            worker.connect();
+            workers.put(id, worker);
+            LOGGER.info("Worker {} at {}:{} registered with {} lanes", id, host, port, lanes);
+            while (running) {
+                if (in.readByte() != ClusterProtocol.HEARTBEAT) {
+                    throw new IOException("Expected a heartbeat from worker " + id);
+                }
+                worker.reportedQueueDepth = in.readInt();
+                worker.lastHeartbeat = System.nanoTime();
+            }
+        } catch (IOException e) {
+            if (running) {
+                LOGGER.info("Worker registry connection {} closed: {}", socket.getRemoteSocketAddress(),
+                        e.getMessage());
+            }
+        } finally {
+            if (worker != null) {
+                workers.remove(worker.id, worker);
+                affinity.values().removeIf(worker::equals);
+                worker.close();
+            }
+        }
+    }
+
+    private final class Worker {
+
+        private final String id;
+        private final InetSocketAddress address;
+        private final int lanes;
+        private final Map<Long, CompletableFuture<FaceDetections>> pending = new ConcurrentHashMap<>();
+        // Frames are written by this thread, so a slow worker never blocks the request threads
+        private final ThreadPoolExecutor writer;
+        private volatile int reportedQueueDepth;
+        private volatile long lastHeartbeat = System.nanoTime();
+        // Null while the data connection is down
+        private volatile Connection connection;
+        private volatile boolean closed;
+
+        private record Connection(Socket socket, DataOutputStream out) {
+        }
+
+        Worker(String id, InetSocketAddress address, int lanes) {
+            this.id = id;
+            this.address = address;
+            this.lanes = Math.max(1, lanes);
+            this.writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(Math.max(1, cluster.getMaxPendingSends())), task -> {
+                        Thread thread = new Thread(task, "worker-writer-" + id);
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+
+        synchronized void connect() throws IOException {
+            Socket socket = new Socket();
+            try {
+                socket.setTcpNoDelay(true);
+                socket.connect(address, (int) cluster.getRequestTimeoutMillis());
+                Connection opened = new Connection(socket,
+                        new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())));
+                connection = opened;
+                io.execute(() -> readResults(opened));
+            } catch (IOException | RuntimeException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Opens a new data connection after the last one failed, unless the worker
+         * was closed or another thread got there first. The worker stays unhealthy
+         * when it cannot be reached.
+         */
+        private synchronized void reconnect() {
+            if (closed || connection != null) {
+                return;
+            }
+            try {
+                connect();
+                LOGGER.info("Reconnected to worker {}", id);
+            } catch (IOException | RejectedExecutionException e) {
+                LOGGER.warn("Could not reconnect to worker {}: {}", id, e.getMessage());
+            }
+        }
+
+        boolean isHealthy() {
+            long silence = System.nanoTime() - lastHeartbeat;
+            return connection != null && silence < TimeUnit.MILLISECONDS.toNanos(cluster.getHeartbeatMillis() * 3);
+        }
+
+        /**
+         * Our own in-flight count is exact but misses other gateways; the reported
+         * depth covers them but lags by up to one heartbeat.
+         */
+        int load() {
+            return Math.max(pending.size(), reportedQueueDepth);
+        }
+
+        double relativeLoad() {
+            return (double) load() / lanes;
+        }
+
+        CompletableFuture<FaceDetections> send(long requestId, String sessionKey, DetectionLevel level,
+                byte[] imageData) {
+            CompletableFuture<FaceDetections> future = new CompletableFuture<>();
+            pending.put(requestId, future);
+            future.whenComplete((faces, ex) -> pending.remove(requestId));
+            try {
+                writer.execute(() -> write(requestId, sessionKey, level, imageData, future));
+            } catch (RejectedExecutionException e) {
+                // Too many frames waiting for this worker's connection, back off as on overload
+                future.completeExceptionally(connection != null
+                        ? new ServiceBusyException(AdmissionController.Level.REJECT.ordinal(), 0)
+                        : disconnected());
+            }
+            return future;
+        }
+
+        private void write(long requestId, String sessionKey, DetectionLevel level, byte[] imageData,
+                CompletableFuture<FaceDetections> future) {
+            if (future.isDone()) {
+                return; // timed out while queued
+            }
+            Connection current = connection;
+            if (current == null) {
+                future.completeExceptionally(disconnected());
+                return;
+            }
+            try {
+                DataOutputStream out = current.out();
+                out.writeByte(ClusterProtocol.DETECT);
+                out.writeLong(requestId);
+                out.writeByte(level.ordinal());
+                // The worker schedules fairly by session, like a standalone node
+                out.writeUTF(sessionKey == null ? "" : sessionKey);
+                out.writeInt(imageData.length);
+                out.write(imageData);
+                out.flush();
+            } catch (IOException e) {
+                LOGGER.warn("Lost data connection to worker {}: {}", id, e.getMessage());
+                disconnect(current);
+                future.completeExceptionally(e);
+                reconnect();
+            }
+        }
+
+        private void readResults(Connection current) {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(current.socket().getInputStream()));
+                while (connection == current) {
+                    byte type = in.readByte();
+                    long requestId = in.readLong();
+                    if (type == ClusterProtocol.RESULT) {
+                        FaceDetections faces = ClusterProtocol.readFaces(in);
+                        complete(requestId, faces, null);
+                    } else if (type == ClusterProtocol.BUSY) {
+                        complete(requestId, null, new ServiceBusyException(in.readInt(), in.readLong()));
+                    } else if (type == ClusterProtocol.ERROR) {
+                        complete(requestId, null, new IllegalStateException("Worker " + id + ": " + in.readUTF()));
+                    } else {
+                        throw new IOException("Unexpected message type " + type);
+                    }
+                }
+            } catch (IOException e) {
+                if (connection == current) {
+                    LOGGER.warn("Lost data connection to worker {}", id, e);
+                }
+            } finally {
+                disconnect(current);
+                reconnect();
+            }
+        }
+
+        private void complete(long requestId, FaceDetections faces, Throwable error) {
+            CompletableFuture<FaceDetections> future = pending.get(requestId);
+            if (future == null) {
+                return; // already timed out
+            }
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(faces);
+            }
+        }
+
+        /**
+         * Marks the worker dead and fails every frame sent on the connection at once,
+         * rather than each at its request timeout; their results can no longer
+         * arrive. Does nothing if the connection was already replaced.
+         */
+        private void disconnect(Connection dropped) {
+            synchronized (this) {
+                if (connection != dropped) {
+                    return;
+                }
+                connection = null;
+            }
+            try {
+                dropped.socket().close();
+            } catch (IOException e) {
+                LOGGER.debug("Error closing connection to worker {}", id, e);
+            }
+            failPending();
+        }
+
+        void close() {
+            closed = true;
+            writer.shutdownNow();
+            Connection current = connection;
+            if (current != null) {
+                disconnect(current);
+            }
+            failPending();
+        }
+
+        private void failPending() {
+            IllegalStateException gone = disconnected();
+            pending.values().forEach(future -> future.completeExceptionally(gone));
+        }
+
+        private IllegalStateException disconnected() {
+            return new IllegalStateException("Worker " + id + " disconnected");
+        }
+    }
+}
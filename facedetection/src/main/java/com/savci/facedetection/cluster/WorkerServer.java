@@ -0,0 +1,240 @@
+package com.savci.facedetection.cluster;
+
+import com.savci.facedetection.config.FaceDetectionProperties;
+import com.savci.facedetection.entity.FaceDetectionResult;
+import com.savci.facedetection.exception.ServiceBusyException;
+import com.savci.facedetection.model.Cancellation;
+import com.savci.facedetection.model.DetectionLevel;
+import com.savci.facedetection.service.AdmissionController;
+import com.savci.facedetection.service.FaceDetectionService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Worker side of the gateway/worker mode: accepts frames from gateways on the
+ * worker port, runs them through the local {@link FaceDetectionService}, and
+ * keeps itself registered with the gateway's registry, reporting its queue
+ * depth with every heartbeat. Frames go through the same bounded decoder pool,
+ * fair scheduler, admission control and memory budget as on a standalone node;
+ * what they reject, and frames beyond the queued byte limit, is answered
+ * {@link ClusterProtocol#BUSY}.
+ */
+public class WorkerServer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WorkerServer.class);
+
+    private final FaceDetectionService service;
+    private final FaceDetectionProperties.Cluster cluster;
+    private final int lanes;
+    private final String workerId = UUID.randomUUID().toString();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final ExecutorService io = Executors.newCachedThreadPool();
+    private volatile boolean running;
+    private ServerSocket serverSocket;
+
+    public WorkerServer(FaceDetectionService service, FaceDetectionProperties properties) {
+        this.service = service;
+        this.cluster = properties.getCluster();
+        this.lanes = Math.max(1, properties.getInference().getLanes());
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        running = true;
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(cluster.getBindAddress(), cluster.getWorkerPort()));
+        io.execute(this::acceptGateways);
+        io.execute(this::register);
+        LOGGER.info("Worker {} listening on {}", workerId, serverSocket.getLocalSocketAddress());
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        running = false;
+        serverSocket.close();
+        for (Socket socket : connections) {
+            socket.close();
+        }
+        io.shutdownNow();
+    }
+
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    private void acceptGateways() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                connections.add(socket);
+                io.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (running) {
+                    LOGGER.warn("Failed to accept gateway connection", e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        // Frames of a gateway that went away are not worth finishing
+        Cancellation connection = Cancellation.create();
+        // Results are written by one thread per connection, never by the detecting threads
+        ExecutorService writer = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "worker-result-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            while (running) {
+                byte type = in.readByte();
+                if (type != ClusterProtocol.DETECT) {
+                    throw new IOException("Unexpected message type " + type);
+                }
+                long requestId = in.readLong();
+                int level = in.readUnsignedByte();
+                if (level >= DetectionLevel.values().length) {
+                    throw new IOException("Invalid detection level " + level);
+                }
+                String sessionKey = in.readUTF();
+                int length = in.readInt();
+                if (length < 0 || length > ClusterProtocol.MAX_FRAME_BYTES) {
+                    throw new IOException("Invalid frame length " + length);
+                }
+                byte[] frame = new byte[length];
+                in.readFully(frame);
+                detect(out, writer, requestId, sessionKey.isEmpty() ? null : sessionKey,
+                        DetectionLevel.values()[level], frame, connection);
+            }
+        } catch (EOFException e) {
+            LOGGER.info("Gateway {} disconnected", socket.getRemoteSocketAddress());
+        } catch (IOException e) {
+            if (running) {
+                LOGGER.warn("Gateway connection {} failed", socket.getRemoteSocketAddress(), e);
+            }
+        } finally {
+            connection.cancel("Gateway disconnected");
+            writer.shutdown();
+            connections.remove(socket);
+        }
+    }
+
+    private void detect(DataOutputStream out, ExecutorService writer, long requestId, String sessionKey,
+            DetectionLevel level, byte[] frame, Cancellation connection) {
+        // Encoded frames waiting for a decoder are heap the budget does not see, so they have a limit of their own
+        if (queuedBytes.addAndGet(frame.length) > cluster.getWorkerMaxQueuedBytes()) {
+            queuedBytes.addAndGet(-frame.length);
+            reply(out, writer, requestId, null, busy());
+            return;
+        }
+        queueDepth.incrementAndGet();
+        service.detectFaces(sessionKey, frame, level, false, connection)
+                .whenComplete((result, e) -> {
+                    queuedBytes.addAndGet(-frame.length);
+                    queueDepth.decrementAndGet();
+                    reply(out, writer, requestId, result, e);
+                });
+    }
+
+    private void reply(DataOutputStream out, ExecutorService writer, long requestId, FaceDetectionResult result,
+            Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof CancellationException) {
+            return; // the gateway is gone
+        }
+        try {
+            writer.execute(() -> {
+                try {
+                    if (cause instanceof ServiceBusyException busy) {
+                        out.writeByte(ClusterProtocol.BUSY);
+                        out.writeLong(requestId);
+                        out.writeInt(busy.getLevel());
+                        out.writeLong(busy.getRetryAfterMillis());
+                    } else if (cause != null) {
+                        out.writeByte(ClusterProtocol.ERROR);
+                        out.writeLong(requestId);
+                        out.writeUTF(String.valueOf(cause.getMessage()));
+                    } else {
+                        out.writeByte(ClusterProtocol.RESULT);
+                        out.writeLong(requestId);
+                        ClusterProtocol.writeFaces(out, result.getDetections());
+                    }
+                    out.flush();
+                } catch (IOException ex) {
+                    LOGGER.warn("Failed to send result for request {}", requestId, ex);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            LOGGER.debug("Dropping result for request {}, the gateway connection closed", requestId);
+        }
+    }
+
+    private static ServiceBusyException busy() {
+        return new ServiceBusyException(AdmissionController.Level.REJECT.ordinal(), 0);
+    }
+
+    /**
+     * Keeps a registry connection to the gateway, reconnecting until stopped.
+     */
+    private void register() {
+        while (running) {
+            try (Socket socket = new Socket(cluster.getGatewayHost(), cluster.getRegistryPort())) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                out.writeByte(ClusterProtocol.REGISTER);
+                out.writeUTF(workerId);
+                out.writeUTF(cluster.getAdvertisedHost());
+                out.writeInt(serverSocket.getLocalPort());
+                out.writeInt(lanes);
+                out.flush();
+                LOGGER.info("Worker {} registered with gateway {}:{}", workerId, cluster.getGatewayHost(),
+                        cluster.getRegistryPort());
+                while (running) {
+                    out.writeByte(ClusterProtocol.HEARTBEAT);
+                    out.writeInt(queueDepth.get());
+                    out.flush();
+                    Thread.sleep(cluster.getHeartbeatMillis());
+                }
+            } catch (IOException e) {
+                LOGGER.debug("Gateway registry not reachable, retrying", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                Thread.sleep(cluster.getHeartbeatMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.savci.facedetection.config;
+
+import com.savci.facedetection.model.MTCNNAutotuner;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+
+/**
+ * Actuator endpoint for the startup autotuner. GET returns the stored result for
+ * this host, POST re-runs the benchmark and stores the result if it met the
+ * latency ceiling; it is applied on the next start with
+ * facedetection.autotune.enabled=true. The benchmark competes with live traffic,
+ * so run it on an idle instance. Needs "autotune" in
+ * management.endpoints.web.exposure.include.
+ */
+@Endpoint(id = "autotune")
+public class AutotuneEndpoint {
+
+    private final FaceDetectionProperties properties;
+
+    public AutotuneEndpoint(FaceDetectionProperties properties) {
+        this.properties = properties;
+    }
+
+    @ReadOperation
+    public MTCNNAutotuner.Result stored() {
+        return new MTCNNAutotuner(properties).load().orElse(null);
+    }
+
+    @WriteOperation
+    public MTCNNAutotuner.Result retune() {
+        MTCNNAutotuner autotuner = new MTCNNAutotuner(properties);
+        MTCNNAutotuner.Result result = autotuner.tune();
+        autotuner.store(result);
+        return result;
+    }
+}
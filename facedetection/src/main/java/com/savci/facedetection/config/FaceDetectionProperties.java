@@ -0,0 +1,986 @@
+package com.savci.facedetection.config;
+
+import com.savci.facedetection.model.AlignedFaces;
+import com.savci.facedetection.model.BoxKernels;
+import com.savci.facedetection.model.InferenceBackend;
+import com.savci.facedetection.model.ModelPrecision;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@ConfigurationProperties(prefix = "facedetection")
+public class FaceDetectionProperties {
+
+    private final Model model = new Model();
+    private final Inference inference = new Inference();
+    private final Warmup warmup = new Warmup();
+    private final Postprocessing postprocessing = new Postprocessing();
+    private final Autotune autotune = new Autotune();
+    private final Alignment alignment = new Alignment();
+    private final Cluster cluster = new Cluster();
+    private final Scheduling scheduling = new Scheduling();
+    private final Admission admission = new Admission();
+    private final ResultLog resultLog = new ResultLog();
+    private final Memory memory = new Memory();
+    private final Tiling tiling = new Tiling();
+    private final Pipeline pipeline = new Pipeline();
+    private final SharedMemory sharedMemory = new SharedMemory();
+
+    public Model getModel() {
+        return model;
+    }
+
+    public Inference getInference() {
+        return inference;
+    }
+
+    public Warmup getWarmup() {
+        return warmup;
+    }
+
+    public Postprocessing getPostprocessing() {
+        return postprocessing;
+    }
+
+    public Autotune getAutotune() {
+        return autotune;
+    }
+
+    public Alignment getAlignment() {
+        return alignment;
+    }
+
+    public Cluster getCluster() {
+        return cluster;
+    }
+
+    public Scheduling getScheduling() {
+        return scheduling;
+    }
+
+    public Admission getAdmission() {
+        return admission;
+    }
+
+    public ResultLog getResultLog() {
+        return resultLog;
+    }
+
+    public Memory getMemory() {
+        return memory;
+    }
+
+    public Tiling getTiling() {
+        return tiling;
+    }
+
+    public Pipeline getPipeline() {
+        return pipeline;
+    }
+
+    public SharedMemory getSharedMemory() {
+        return sharedMemory;
+    }
+
+    public static class Model {
+        /**
+         * Directory holding pnet.pb, rnet.pb and onet.pb. The files are memory
+         * mapped. When unset the models bundled on the classpath are used.
+         */
+        private String directory;
+
+        private final Precision precision = new Precision();
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public Precision getPrecision() {
+            return precision;
+        }
+    }
+
+    public static class Precision {
+        private ModelPrecision pnet = ModelPrecision.FP32;
+        private ModelPrecision rnet = ModelPrecision.FP32;
+        private ModelPrecision onet = ModelPrecision.FP32;
+
+        public ModelPrecision getPnet() {
+            return pnet;
+        }
+
+        public void setPnet(ModelPrecision pnet) {
+            this.pnet = pnet;
+        }
+
+        public ModelPrecision getRnet() {
+            return rnet;
+        }
+
+        public void setRnet(ModelPrecision rnet) {
+            this.rnet = rnet;
+        }
+
+        public ModelPrecision getOnet() {
+            return onet;
+        }
+
+        public void setOnet(ModelPrecision onet) {
+            this.onet = onet;
+        }
+    }
+
+    public static class Inference {
+        /**
+         * Number of independent PNet/RNet/ONet session sets, i.e. frames that can be
+         * detected concurrently.
+         */
+        private int lanes = 2;
+
+        private InferenceBackend.Type backend = InferenceBackend.Type.TENSORFLOW;
+
+        /**
+         * TensorFlow intra-op threads per session, 0 lets TensorFlow decide.
+         */
+        private int intraOpThreads = 0;
+
+        private int interOpThreads = 8;
+
+        /**
+         * Maximum number of crops per RNet/ONet run, 0 runs all crops of a frame at
+         * once.
+         */
+        private int batchSize = 128;
+
+        /**
+         * Whether idle lanes help a frame with more crops than batchSize by taking
+         * some of its sub-batches.
+         */
+        private boolean parallelBatches = true;
+
+        public int getLanes() {
+            return lanes;
+        }
+
+        public void setLanes(int lanes) {
+            this.lanes = lanes;
+        }
+
+        public InferenceBackend.Type getBackend() {
+            return backend;
+        }
+
+        public void setBackend(InferenceBackend.Type backend) {
+            this.backend = backend;
+        }
+
+        public int getIntraOpThreads() {
+            return intraOpThreads;
+        }
+
+        public void setIntraOpThreads(int intraOpThreads) {
+            this.intraOpThreads = intraOpThreads;
+        }
+
+        public int getInterOpThreads() {
+            return interOpThreads;
+        }
+
+        public void setInterOpThreads(int interOpThreads) {
+            this.interOpThreads = interOpThreads;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public boolean isParallelBatches() {
+            return parallelBatches;
+        }
+
+        public void setParallelBatches(boolean parallelBatches) {
+            this.parallelBatches = parallelBatches;
+        }
+    }
+
+    public static class Warmup {
+        private boolean enabled = true;
+
+        /**
+         * Synthetic frame sizes (WIDTHxHEIGHT) run through every lane at startup.
+         */
+        private List<String> resolutions = new ArrayList<>(List.of("640x480", "1280x720"));
+
+        private int iterations = 2;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public List<String> getResolutions() {
+            return resolutions;
+        }
+
+        public void setResolutions(List<String> resolutions) {
+            this.resolutions = resolutions;
+        }
+
+        public int getIterations() {
+            return iterations;
+        }
+
+        public void setIterations(int iterations) {
+            this.iterations = iterations;
+        }
+    }
+
+    public static class Postprocessing {
+        /**
+         * Implementation of generateBoundingBox, bbreg, rerec and pad.
+         */
+        private BoxKernels.Mode kernel = BoxKernels.Mode.VECTOR;
+
+        public BoxKernels.Mode getKernel() {
+            return kernel;
+        }
+
+        public void setKernel(BoxKernels.Mode kernel) {
+            this.kernel = kernel;
+        }
+    }
+
+    public static class Autotune {
+        /**
+         * Apply the stored tuning result for this host at startup, running the
+         * benchmark first when there is none.
+         */
+        private boolean enabled = false;
+
+        private String file = System.getProperty("user.home") + "/.facedetection/autotune.json";
+
+        /**
+         * Configurations whose p95 frame latency exceeds this are not eligible.
+         */
+        private long latencyCeilingMillis = 250;
+
+        private int durationSeconds = 3;
+
+        private String resolution = "640x480";
+
+        /**
+         * Benchmark frame, scaled to the resolution; a frame with faces exercises
+         * RNet and ONet like real traffic does.
+         */
+        private String image = "src/main/java/com/savci/facedetection/client/image.png";
+
+        private List<Integer> lanes = new ArrayList<>(List.of(1, 2, 4));
+
+        private List<Integer> intraOpThreads = new ArrayList<>(List.of(1, 2, 4));
+
+        private List<Integer> interOpThreads = new ArrayList<>(List.of(1, 2));
+
+        private List<Integer> batchSizes = new ArrayList<>(List.of(0, 16, 64, 256));
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getFile() {
+            return file;
+        }
+
+        public void setFile(String file) {
+            this.file = file;
+        }
+
+        public long getLatencyCeilingMillis() {
+            return latencyCeilingMillis;
+        }
+
+        public void setLatencyCeilingMillis(long latencyCeilingMillis) {
+            this.latencyCeilingMillis = latencyCeilingMillis;
+        }
+
+        public int getDurationSeconds() {
+            return durationSeconds;
+        }
+
+        public void setDurationSeconds(int durationSeconds) {
+            this.durationSeconds = durationSeconds;
+        }
+
+        public String getResolution() {
+            return resolution;
+        }
+
+        public void setResolution(String resolution) {
+            this.resolution = resolution;
+        }
+
+        public String getImage() {
+            return image;
+        }
+
+        public void setImage(String image) {
+            this.image = image;
+        }
+
+        public List<Integer> getLanes() {
+            return lanes;
+        }
+
+        public void setLanes(List<Integer> lanes) {
+            this.lanes = lanes;
+        }
+
+        public List<Integer> getIntraOpThreads() {
+            return intraOpThreads;
+        }
+
+        public void setIntraOpThreads(List<Integer> intraOpThreads) {
+            this.intraOpThreads = intraOpThreads;
+        }
+
+        public List<Integer> getInterOpThreads() {
+            return interOpThreads;
+        }
+
+        public void setInterOpThreads(List<Integer> interOpThreads) {
+            this.interOpThreads = interOpThreads;
+        }
+
+        public List<Integer> getBatchSizes() {
+            return batchSizes;
+        }
+
+        public void setBatchSizes(List<Integer> batchSizes) {
+            this.batchSizes = batchSizes;
+        }
+    }
+
+    public static class Alignment {
+        /**
+         * Aligned face crops sent after each result unless a session asks otherwise
+         * with ?align=raw|jpeg|none. NONE skips alignment entirely.
+         */
+        private AlignedFaces.Format output = AlignedFaces.Format.NONE;
+
+        private int jpegQuality = 90;
+
+        public AlignedFaces.Format getOutput() {
+            return output;
+        }
+
+        public void setOutput(AlignedFaces.Format output) {
+            this.output = output;
+        }
+
+        public int getJpegQuality() {
+            return jpegQuality;
+        }
+
+        public void setJpegQuality(int jpegQuality) {
+            this.jpegQuality = jpegQuality;
+        }
+    }
+
+    public static class Cluster {
+        public enum Role {
+            /** Terminates WebSockets and runs inference in the same JVM. */
+            STANDALONE,
+            /** Terminates WebSockets and dispatches frames to workers, loads no models. */
+            GATEWAY,
+            /** Runs inference for gateways. */
+            WORKER
+        }
+
+        private Role role = Role.STANDALONE;
+
+        private String gatewayHost = "127.0.0.1";
+
+        /**
+         * Interface the registry and worker ports listen on. The protocol has no
+         * authentication, so only bind it to a network all hosts on it are trusted.
+         */
+        private String bindAddress = "127.0.0.1";
+
+        /**
+         * Gateway port workers register on.
+         */
+        private int registryPort = 9400;
+
+        /**
+         * Port a worker accepts frames on; give each worker on a host its own.
+         */
+        private int workerPort = 9401;
+
+        /**
+         * Host the gateway uses to reach this worker.
+         */
+        private String advertisedHost = "127.0.0.1";
+
+        /**
+         * A worker is unhealthy after three missed heartbeats.
+         */
+        private long heartbeatMillis = 500;
+
+        private long requestTimeoutMillis = 5000;
+
+        /**
+         * Keep a session's frames on one worker while it is healthy. Only useful
+         * once workers hold per-session state.
+         */
+        private boolean sessionAffinity = false;
+
+        /**
+         * Encoded frame bytes a worker holds while they wait for a decoder;
+         * frames beyond it are answered busy.
+         */
+        private long workerMaxQueuedBytes = 256L * 1024 * 1024;
+
+        /**
+         * Frames a gateway queues for sending to one worker; frames beyond it are
+         * answered busy.
+         */
+        private int maxPendingSends = 64;
+
+        public Role getRole() {
+            return role;
+        }
+
+        public void setRole(Role role) {
+            this.role = role;
+        }
+
+        public String getGatewayHost() {
+            return gatewayHost;
+        }
+
+        public void setGatewayHost(String gatewayHost) {
+            this.gatewayHost = gatewayHost;
+        }
+
+        public String getBindAddress() {
+            return bindAddress;
+        }
+
+        public void setBindAddress(String bindAddress) {
+            this.bindAddress = bindAddress;
+        }
+
+        public int getRegistryPort() {
+            return registryPort;
+        }
+
+        public void setRegistryPort(int registryPort) {
+            this.registryPort = registryPort;
+        }
+
+        public int getWorkerPort() {
+            return workerPort;
+        }
+
+        public void setWorkerPort(int workerPort) {
+            this.workerPort = workerPort;
+        }
+
+        public String getAdvertisedHost() {
+            return advertisedHost;
+        }
+
+        public void setAdvertisedHost(String advertisedHost) {
+            this.advertisedHost = advertisedHost;
+        }
+
+        public long getHeartbeatMillis() {
+            return heartbeatMillis;
+        }
+
+        public void setHeartbeatMillis(long heartbeatMillis) {
+            this.heartbeatMillis = heartbeatMillis;
+        }
+
+        public long getRequestTimeoutMillis() {
+            return requestTimeoutMillis;
+        }
+
+        public void setRequestTimeoutMillis(long requestTimeoutMillis) {
+            this.requestTimeoutMillis = requestTimeoutMillis;
+        }
+
+        public boolean isSessionAffinity() {
+            return sessionAffinity;
+        }
+
+        public void setSessionAffinity(boolean sessionAffinity) {
+            this.sessionAffinity = sessionAffinity;
+        }
+
+        public long getWorkerMaxQueuedBytes() {
+            return workerMaxQueuedBytes;
+        }
+
+        public void setWorkerMaxQueuedBytes(long workerMaxQueuedBytes) {
+            this.workerMaxQueuedBytes = workerMaxQueuedBytes;
+        }
+
+        public int getMaxPendingSends() {
+            return maxPendingSends;
+        }
+
+        public void setMaxPendingSends(int maxPendingSends) {
+            this.maxPendingSends = maxPendingSends;
+        }
+    }
+
+    public static class Scheduling {
+        /**
+         * Pixels credited to a user per round, multiplied by its weight. One VGA
+         * frame by default.
+         */
+        private long quantum = 640 * 480;
+
+        private int defaultWeight = 1;
+
+        /**
+         * Weight per userId, e.g. facedetection.scheduling.weights.premium-cam=4.
+         */
+        private Map<String, Integer> weights = new HashMap<>();
+
+        /**
+         * Frames a single user may have waiting; further frames are rejected.
+         */
+        private int maxQueuedPerUser = 32;
+
+        /**
+         * Threads decoding frames before they are queued, 0 for one per core.
+         */
+        private int decodeThreads = 0;
+
+        /**
+         * Frames waiting for a decoder thread; further frames are rejected as busy.
+         */
+        private int maxQueuedDecodes = 256;
+
+        public long getQuantum() {
+            return quantum;
+        }
+
+        public void setQuantum(long quantum) {
+            this.quantum = quantum;
+        }
+
+        public int getDefaultWeight() {
+            return defaultWeight;
+        }
+
+        public void setDefaultWeight(int defaultWeight) {
+            this.defaultWeight = defaultWeight;
+        }
+
+        public Map<String, Integer> getWeights() {
+            return weights;
+        }
+
+        public void setWeights(Map<String, Integer> weights) {
+            this.weights = weights;
+        }
+
+        public int getMaxQueuedPerUser() {
+            return maxQueuedPerUser;
+        }
+
+        public void setMaxQueuedPerUser(int maxQueuedPerUser) {
+            this.maxQueuedPerUser = maxQueuedPerUser;
+        }
+
+        public int getDecodeThreads() {
+            return decodeThreads;
+        }
+
+        public void setDecodeThreads(int decodeThreads) {
+            this.decodeThreads = decodeThreads;
+        }
+
+        public int getMaxQueuedDecodes() {
+            return maxQueuedDecodes;
+        }
+
+        public void setMaxQueuedDecodes(int maxQueuedDecodes) {
+            this.maxQueuedDecodes = maxQueuedDecodes;
+        }
+    }
+
+    public static class Admission {
+        private boolean enabled = false;
+
+        /**
+         * Target for the time a frame waits before inference starts.
+         */
+        private long latencySloMillis = 200;
+
+        /**
+         * Queue delay as a fraction of the SLO at which each degradation level
+         * starts: raised min face size, capped resolution, no landmarks, reject.
+         */
+        private List<Double> thresholds = new ArrayList<>(List.of(0.5, 0.75, 1.0, 1.5));
+
+        private int degradedMinFaceSize = 40;
+
+        /**
+         * Longer frame side once resolution is capped.
+         */
+        private int maxInputSide = 960;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getLatencySloMillis() {
+            return latencySloMillis;
+        }
+
+        public void setLatencySloMillis(long latencySloMillis) {
+            this.latencySloMillis = latencySloMillis;
+        }
+
+        public List<Double> getThresholds() {
+            return thresholds;
+        }
+
+        public void setThresholds(List<Double> thresholds) {
+            this.thresholds = thresholds;
+        }
+
+        public int getDegradedMinFaceSize() {
+            return degradedMinFaceSize;
+        }
+
+        public void setDegradedMinFaceSize(int degradedMinFaceSize) {
+            this.degradedMinFaceSize = degradedMinFaceSize;
+        }
+
+        public int getMaxInputSide() {
+            return maxInputSide;
+        }
+
+        public void setMaxInputSide(int maxInputSide) {
+            this.maxInputSide = maxInputSide;
+        }
+    }
+
+    public static class ResultLog {
+        private boolean enabled = false;
+
+        private String directory = "results";
+
+        /**
+         * Size each segment file is mapped at; a new segment starts when a record
+         * no longer fits.
+         */
+        private long segmentBytes = 64L * 1024 * 1024;
+
+        /**
+         * Oldest segments are deleted beyond this count, 0 keeps everything.
+         */
+        private int maxSegments = 0;
+
+        /**
+         * Records waiting for the writer thread; results beyond this are dropped
+         * and counted rather than slowing down detection.
+         */
+        private int queueCapacity = 65536;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public long getSegmentBytes() {
+            return segmentBytes;
+        }
+
+        public void setSegmentBytes(long segmentBytes) {
+            this.segmentBytes = segmentBytes;
+        }
+
+        public int getMaxSegments() {
+            return maxSegments;
+        }
+
+        public void setMaxSegments(int maxSegments) {
+            this.maxSegments = maxSegments;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+    }
+
+    public static class Memory {
+        /**
+         * Native memory frames in flight may claim together; frames beyond it are
+         * rejected as busy. 0 disables the limit.
+         */
+        private long frameBudgetBytes = 1024L * 1024 * 1024;
+
+        /**
+         * Estimated native bytes per input pixel while a frame is in flight: the
+         * decoded image plus its float pyramid and crop tensors.
+         */
+        private int bytesPerPixel = 32;
+
+        /**
+         * Frame plans (scale list and preallocated pyramid Mats) each lane keeps,
+         * one per resolution and face size options. 0 builds a plan per frame.
+         */
+        private int planCacheSize = 4;
+
+        /**
+         * Seconds a lane may sit unused before its plans and buffers are freed.
+         * 0 keeps them until shutdown.
+         */
+        private long planIdleSeconds = 60;
+
+        public long getFrameBudgetBytes() {
+            return frameBudgetBytes;
+        }
+
+        public void setFrameBudgetBytes(long frameBudgetBytes) {
+            this.frameBudgetBytes = frameBudgetBytes;
+        }
+
+        public int getBytesPerPixel() {
+            return bytesPerPixel;
+        }
+
+        public void setBytesPerPixel(int bytesPerPixel) {
+            this.bytesPerPixel = bytesPerPixel;
+        }
+
+        public int getPlanCacheSize() {
+            return planCacheSize;
+        }
+
+        public void setPlanCacheSize(int planCacheSize) {
+            this.planCacheSize = planCacheSize;
+        }
+
+        public long getPlanIdleSeconds() {
+            return planIdleSeconds;
+        }
+
+        public void setPlanIdleSeconds(long planIdleSeconds) {
+            this.planIdleSeconds = planIdleSeconds;
+        }
+    }
+
+    public static class Tiling {
+        /**
+         * Detect frames whose longer side exceeds min-image-side as overlapping
+         * tiles spread across the lanes instead of as one huge pyramid.
+         */
+        private boolean enabled = true;
+
+        private int minImageSide = 3000;
+
+        private int tileSize = 1536;
+
+        /**
+         * Largest face the tiles look for; neighbouring tiles overlap by about this
+         * much. Larger faces are found by one coarse pass over the whole frame.
+         */
+        private int maxFaceSize = 320;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMinImageSide() {
+            return minImageSide;
+        }
+
+        public void setMinImageSide(int minImageSide) {
+            this.minImageSide = minImageSide;
+        }
+
+        public int getTileSize() {
+            return tileSize;
+        }
+
+        public void setTileSize(int tileSize) {
+            this.tileSize = tileSize;
+        }
+
+        public int getMaxFaceSize() {
+            return maxFaceSize;
+        }
+
+        public void setMaxFaceSize(int maxFaceSize) {
+            this.maxFaceSize = maxFaceSize;
+        }
+    }
+
+    public static class Pipeline {
+        /**
+         * Frames one session may have in detection at once; clients can ask for
+         * fewer with ?inflight=. Frames beyond it are answered busy. 0 means no
+         * limit.
+         */
+        private int maxInFlight = 8;
+
+        public int getMaxInFlight() {
+            return maxInFlight;
+        }
+
+        public void setMaxInFlight(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+        }
+    }
+
+    public static class SharedMemory {
+        private boolean enabled = false;
+
+        /**
+         * Where the ring files live; a tmpfs such as /dev/shm keeps them off disk.
+         */
+        private String directory = "/dev/shm/facedetection";
+
+        /**
+         * One ring file per co-located producer, named after its channel.
+         */
+        private List<String> channels = new ArrayList<>();
+
+        /**
+         * Frames a producer may have in flight; the producer waits for a result
+         * before reusing its slot.
+         */
+        private int slots = 8;
+
+        /**
+         * Largest frame in pixel bytes including row padding, 1080p BGR by default.
+         */
+        private int maxFrameBytes = 1920 * 1080 * 3;
+
+        /**
+         * Room for an encoded result in each slot; results that do not fit are
+         * reported as failed.
+         */
+        private int resultBytes = 64 * 1024;
+
+        /**
+         * How long an idle poller spins before parking, trading a core for the
+         * wake-up latency of a park.
+         */
+        private long spinMicros = 50;
+
+        private long parkMicros = 100;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public List<String> getChannels() {
+            return channels;
+        }
+
+        public void setChannels(List<String> channels) {
+            this.channels = channels;
+        }
+
+        public int getSlots() {
+            return slots;
+        }
+
+        public void setSlots(int slots) {
+            this.slots = slots;
+        }
+
+        public int getMaxFrameBytes() {
+            return maxFrameBytes;
+        }
+
+        public void setMaxFrameBytes(int maxFrameBytes) {
+            this.maxFrameBytes = maxFrameBytes;
+        }
+
+        public int getResultBytes() {
+            return resultBytes;
+        }
+
+        public void setResultBytes(int resultBytes) {
+            this.resultBytes = resultBytes;
+        }
+
+        public long getSpinMicros() {
+            return spinMicros;
+        }
+
+        public void setSpinMicros(long spinMicros) {
+            this.spinMicros = spinMicros;
+        }
+
+        public long getParkMicros() {
+            return parkMicros;
+        }
+
+        public void setParkMicros(long parkMicros) {
+            this.parkMicros = parkMicros;
+        }
+    }
+}
@@ -1,5 +1,13 @@
 package com.savci.facedetection.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.actuate.info.InfoContributor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
@@ -7,14 +15,33 @@ import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
 import org.springframework.web.socket.WebSocketHandler;
 import org.springframework.web.socket.handler.PerConnectionWebSocketHandler;
+
+import java.io.IOException;
+
+import com.savci.facedetection.cluster.WorkerPool;
+import com.savci.facedetection.cluster.WorkerServer;
 import com.savci.facedetection.handler.FaceDetectionWebSocketHandler;
+import com.savci.facedetection.ingest.SharedMemoryIngestion;
 import com.savci.facedetection.model.MTCNN;
+import com.savci.facedetection.resultlog.ResultLog;
+import com.savci.facedetection.service.AdmissionController;
 import com.savci.facedetection.service.FaceDetectionService;
+import com.savci.facedetection.service.FairScheduler;
+import com.savci.facedetection.service.NativeMemoryBudget;
 
 @Configuration
 @EnableWebSocket
+@EnableConfigurationProperties(FaceDetectionProperties.class)
 public class WebSocketConfig implements WebSocketConfigurer {
 
+    private static final String NOT_GATEWAY = "!'gateway'.equalsIgnoreCase('${facedetection.cluster.role:standalone}')";
+
+    private final FaceDetectionProperties properties;
+
+    public WebSocketConfig(FaceDetectionProperties properties) {
+        this.properties = properties;
+    }
+
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
         registry.addHandler(faceDetectionWebSocketHandler(), "/face-detection/{userId}")
@@ -27,12 +54,86 @@ public class WebSocketConfig implements WebSocketConfigurer {
     }
 
     @Bean
-    public FaceDetectionService faceDetectionService() {
-        return new FaceDetectionService(mtcnn());
+    public FaceDetectionService faceDetectionService(ObjectProvider<MTCNN> mtcnn,
+            ObjectProvider<FairScheduler> scheduler, ObjectProvider<AdmissionController> admission,
+            ObjectProvider<WorkerPool> workerPool, ObjectProvider<NativeMemoryBudget> memoryBudget) {
+        WorkerPool pool = workerPool.getIfAvailable();
+        return pool != null ? new FaceDetectionService(pool)
+                : new FaceDetectionService(mtcnn.getObject(), scheduler.getObject(), admission.getIfAvailable(),
+                        memoryBudget.getIfAvailable(), properties.getScheduling());
+    }
+
+    @Bean
+    @ConditionalOnExpression(NOT_GATEWAY)
+    public NativeMemoryBudget nativeMemoryBudget(MTCNN mtcnn, ObjectProvider<MeterRegistry> meterRegistry) {
+        return new NativeMemoryBudget(properties.getMemory(), meterRegistry.getIfAvailable(SimpleMeterRegistry::new),
+                mtcnn::getFrameWorkspaceBytes);
     }
 
     @Bean
+    @ConditionalOnExpression(NOT_GATEWAY + " and ${facedetection.admission.enabled:false}")
+    public AdmissionController admissionController(ObjectProvider<MeterRegistry> meterRegistry,
+            ApplicationEventPublisher events) {
+        return new AdmissionController(properties.getAdmission(),
+                meterRegistry.getIfAvailable(SimpleMeterRegistry::new), events);
+    }
+
+    // One dispatcher per lane, so a lane never waits while another user's frame is queued
+    @Bean(destroyMethod = "close")
+    @ConditionalOnExpression(NOT_GATEWAY)
+    public FairScheduler fairScheduler(MTCNN mtcnn, ObjectProvider<MeterRegistry> meterRegistry) {
+        return new FairScheduler(properties.getScheduling(), mtcnn.getLaneCount(),
+                meterRegistry.getIfAvailable(SimpleMeterRegistry::new));
+    }
+
+    // A gateway only dispatches frames, so it does not load the models
+    @Bean
+    @ConditionalOnExpression(NOT_GATEWAY)
     public MTCNN mtcnn() {
-        return new MTCNN();
+        return new MTCNN(properties);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "facedetection.cluster.role", havingValue = "gateway")
+    public WorkerPool workerPool() {
+        return new WorkerPool(properties);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "facedetection.cluster.role", havingValue = "worker")
+    public WorkerServer workerServer(FaceDetectionService faceDetectionService) {
+        return new WorkerServer(faceDetectionService, properties);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "facedetection.cluster.role", havingValue = "gateway")
+    public InfoContributor workerPoolInfoContributor(WorkerPool workerPool) {
+        return builder -> builder.withDetail("workerLoads", workerPool.getWorkerLoads());
+    }
+
+    @Bean
+    @ConditionalOnExpression(NOT_GATEWAY)
+    public InfoContributor mtcnnStartupInfoContributor(MTCNN mtcnn) {
+        return builder -> builder.withDetail("mtcnnStartupMillis", mtcnn.getStartupTimings());
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "facedetection.result-log.enabled", havingValue = "true")
+    public ResultLog resultLog(ObjectProvider<MeterRegistry> meterRegistry) throws IOException {
+        return new ResultLog(properties.getResultLog(), meterRegistry.getIfAvailable(SimpleMeterRegistry::new));
+    }
+
+    // Producers on this host hand over frames through memory-mapped rings, so only a node with the models reads them
+    @Bean(destroyMethod = "close")
+    @ConditionalOnExpression(NOT_GATEWAY + " and ${facedetection.shared-memory.enabled:false}")
+    public SharedMemoryIngestion sharedMemoryIngestion(FaceDetectionService service,
+            ObjectProvider<MeterRegistry> meterRegistry) throws IOException {
+        return new SharedMemoryIngestion(properties.getSharedMemory(), service,
+                meterRegistry.getIfAvailable(SimpleMeterRegistry::new));
+    }
+
+    @Bean
+    public AutotuneEndpoint autotuneEndpoint() {
+        return new AutotuneEndpoint(properties);
     }
 }
\ No newline at end of file
@@ -0,0 +1,32 @@
+package com.savci.facedetection.entity;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Control payloads sent in place of a frame's result, framed like any result.
+ * Busy: the ASCII magic {@code BUSY}, an int degradation level and a long
+ * retry-after in milliseconds.
+ */
+public final class ControlMessage {
+
+    private static final byte[] BUSY = "BUSY".getBytes(StandardCharsets.US_ASCII);
+    private static final int BUSY_BYTES = 16;
+
+    private ControlMessage() {
+        throw new UnsupportedOperationException("Utility class.");
+    }
+
+    public static byte[] busy(int level, long retryAfterMillis) {
+        return ByteBuffer.allocate(BUSY_BYTES).put(BUSY).putInt(level).putLong(retryAfterMillis).array();
+    }
+
+    public static boolean isBusy(byte[] payload) {
+        return payload.length == BUSY_BYTES && payload[0] == BUSY[0] && payload[1] == BUSY[1]
+                && payload[2] == BUSY[2] && payload[3] == BUSY[3];
+    }
+
+    public static long retryAfterMillis(byte[] busy) {
+        return ByteBuffer.wrap(busy).getLong(8);
+    }
+}
@@ -0,0 +1,54 @@
+package com.savci.facedetection.entity;
+
+import com.savci.facedetection.model.FaceDetections;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Detections sent in place of the annotated image to sessions opened with
+ * {@code ?result=faces}: the ASCII magic {@code FACE}, then
+ * {@link FaceDetections#writeTo} output. Spares the server drawing and PNG
+ * encoding and the client decoding.
+ */
+public final class DetectionMessage {
+
+    public static final int MAX_FACES = 65536;
+
+    private static final byte[] MAGIC = "FACE".getBytes(StandardCharsets.US_ASCII);
+
+    private DetectionMessage() {
+        throw new UnsupportedOperationException("Utility class.");
+    }
+
+    public static byte[] encode(FaceDetections faces) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                MAGIC.length + 5 + faces.count() * FaceDetections.STRIDE * Float.BYTES);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.write(MAGIC);
+            faces.writeTo(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static boolean isDetections(byte[] payload) {
+        return payload.length > MAGIC.length && payload[0] == MAGIC[0] && payload[1] == MAGIC[1]
+                && payload[2] == MAGIC[2] && payload[3] == MAGIC[3];
+    }
+
+    public static FaceDetections decode(byte[] payload) {
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(payload, MAGIC.length, payload.length - MAGIC.length))) {
+            return FaceDetections.readFrom(in, MAX_FACES);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed detection message", e);
+        }
+    }
+}
@@ -1,25 +1,43 @@
 package com.savci.facedetection.entity;
 
+import com.savci.facedetection.model.AlignedFaces;
 import com.savci.facedetection.model.FaceAnnotation;
+import com.savci.facedetection.model.FaceDetections;
 
 public class FaceDetectionResult {
-    private FaceAnnotation[] faces;
-    private int totalFaces;
+    private FaceDetections detections = FaceDetections.empty();
+    // Only set when alignment was requested; holds native memory until closed
+    private AlignedFaces alignedFaces;
 
     // Getters and setters
+    public FaceDetections getDetections() {
+        return detections;
+    }
+
+    public void setDetections(FaceDetections detections) {
+        this.detections = detections;
+    }
+
+    /**
+     * Object view of {@link #getDetections()}, built on first access.
+     */
     public FaceAnnotation[] getFaces() {
-        return faces;
+        return detections.toAnnotations();
     }
 
     public void setFaces(FaceAnnotation[] faces) {
-        this.faces = faces;
+        this.detections = FaceDetections.fromAnnotations(faces);
     }
 
     public int getTotalFaces() {
-        return totalFaces;
+        return detections.count();
+    }
+
+    public AlignedFaces getAlignedFaces() {
+        return alignedFaces;
     }
 
-    public void setTotalFaces(int totalFaces) {
-        this.totalFaces = totalFaces;
+    public void setAlignedFaces(AlignedFaces alignedFaces) {
+        this.alignedFaces = alignedFaces;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,58 @@
+package com.savci.facedetection.entity;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Header in front of every WebSocket chunk, in both directions: the 36
+ * character frameId, the chunk index and the chunk count. Sessions opened with
+ * {@code ?pipeline=} append the client's sequence number and timestamp, which
+ * the server echoes unchanged on every chunk of the frame's results.
+ */
+public record FrameHeader(String frameId, int chunkIndex, int totalChunks, long sequence, long timestamp) {
+
+    public static final int BYTES = 44;
+    public static final int SEQUENCED_BYTES = BYTES + 2 * Long.BYTES;
+    public static final long UNSEQUENCED = -1;
+
+    /**
+     * How a pipelined session gets its results: ORDERED by sequence number, or
+     * as soon as each frame is done.
+     */
+    public enum Delivery {
+        ORDERED, COMPLETED
+    }
+
+    public static int length(boolean sequenced) {
+        return sequenced ? SEQUENCED_BYTES : BYTES;
+    }
+
+    public static FrameHeader read(byte[] payload, boolean sequenced) {
+        if (payload.length < length(sequenced)) {
+            throw new IllegalArgumentException("Chunk of " + payload.length + " bytes has no complete header");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        String frameId = new String(payload, 0, 36, StandardCharsets.US_ASCII);
+        int chunkIndex = buffer.getInt(36);
+        int totalChunks = buffer.getInt(40);
+        return sequenced ? new FrameHeader(frameId, chunkIndex, totalChunks, buffer.getLong(44), buffer.getLong(52))
+                : new FrameHeader(frameId, chunkIndex, totalChunks, UNSEQUENCED, 0);
+    }
+
+    /**
+     * The same frame, sequence and timestamp for another chunk.
+     */
+    public FrameHeader chunk(int chunkIndex, int totalChunks) {
+        return new FrameHeader(frameId, chunkIndex, totalChunks, sequence, timestamp);
+    }
+
+    public void write(ByteBuffer buffer, boolean sequenced) {
+        buffer.put(frameId.getBytes(StandardCharsets.US_ASCII));
+        buffer.putInt(chunkIndex);
+        buffer.putInt(totalChunks);
+        if (sequenced) {
+            buffer.putLong(sequence);
+            buffer.putLong(timestamp);
+        }
+    }
+}
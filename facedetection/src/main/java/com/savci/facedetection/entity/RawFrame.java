@@ -0,0 +1,141 @@
+package com.savci.facedetection.entity;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Uncompressed frame payload, sent in place of an encoded image: the ASCII
+ * magic {@code RAWF}, then int pixel format, width, height and row stride in
+ * bytes, then the pixels. YUV frames have even dimensions and their planes
+ * follow each other: NV12 has the luma plane then interleaved UV rows, both at
+ * the stride; I420 has the luma plane at the stride then U and V at half of it.
+ */
+public final class RawFrame {
+
+    public enum Format {
+        BGR, RGB, NV12, I420
+    }
+
+    public static final int HEADER_BYTES = 20;
+    public static final int MAX_SIDE = 16384;
+
+    private static final byte[] MAGIC = "RAWF".getBytes(StandardCharsets.US_ASCII);
+
+    private final Format format;
+    private final int width;
+    private final int height;
+    private final int stride;
+
+    private RawFrame(Format format, int width, int height, int stride) {
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+    }
+
+    public static boolean isRaw(byte[] payload) {
+        return payload.length >= HEADER_BYTES && payload[0] == MAGIC[0] && payload[1] == MAGIC[1]
+                && payload[2] == MAGIC[2] && payload[3] == MAGIC[3];
+    }
+
+    /**
+     * Prefixes the pixels with the header, copying them once.
+     */
+    public static byte[] encode(Format format, int width, int height, int stride, byte[] pixels) {
+        RawFrame frame = validate(format, width, height, stride);
+        if (pixels.length < frame.pixelBytes()) {
+            throw new IllegalArgumentException("Need " + frame.pixelBytes() + " pixel bytes but got " + pixels.length);
+        }
+        return frame.writeHeader(ByteBuffer.allocate(HEADER_BYTES + frame.pixelBytes()))
+                .put(pixels, 0, frame.pixelBytes()).array();
+    }
+
+    /**
+     * Just the header, for senders that stream the pixels from elsewhere.
+     */
+    public static byte[] header(Format format, int width, int height, int stride) {
+        return validate(format, width, height, stride).writeHeader(ByteBuffer.allocate(HEADER_BYTES)).array();
+    }
+
+    private ByteBuffer writeHeader(ByteBuffer buffer) {
+        return buffer.put(MAGIC).putInt(format.ordinal()).putInt(width).putInt(height).putInt(stride);
+    }
+
+    /**
+     * Validates a header received apart from its pixels.
+     */
+    public static RawFrame of(Format format, int width, int height, int stride) {
+        return validate(format, width, height, stride);
+    }
+
+    /**
+     * Reads and validates the header of a payload for which {@link #isRaw} holds.
+     */
+    public static RawFrame read(byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        int format = buffer.getInt(4);
+        if (format < 0 || format >= Format.values().length) {
+            throw new IllegalArgumentException("Unknown raw pixel format " + format);
+        }
+        RawFrame frame = validate(Format.values()[format], buffer.getInt(8), buffer.getInt(12), buffer.getInt(16));
+        if (payload.length - HEADER_BYTES < frame.pixelBytes()) {
+            throw new IllegalArgumentException("Raw " + frame.format + " frame " + frame.width + "x" + frame.height
+                    + " needs " + frame.pixelBytes() + " pixel bytes but got " + (payload.length - HEADER_BYTES));
+        }
+        return frame;
+    }
+
+    private static RawFrame validate(Format format, int width, int height, int stride) {
+        if (width <= 0 || height <= 0 || width > MAX_SIDE || height > MAX_SIDE) {
+            throw new IllegalArgumentException("Invalid raw frame size " + width + "x" + height);
+        }
+        boolean yuv = format == Format.NV12 || format == Format.I420;
+        if (yuv && (width % 2 != 0 || height % 2 != 0 || stride % 2 != 0)) {
+            throw new IllegalArgumentException(format + " frames need even dimensions and stride");
+        }
+        int rowBytes = yuv ? width : width * 3;
+        if (stride < rowBytes || stride > 4 * MAX_SIDE) {
+            throw new IllegalArgumentException("Stride " + stride + " does not fit rows of " + rowBytes + " bytes");
+        }
+        // In long, a large YUV stride times height overflows int and would slip past the length checks
+        long pixelBytes = pixelBytes(format, height, stride);
+        if (pixelBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Raw frame of " + pixelBytes + " bytes is too large");
+        }
+        return new RawFrame(format, width, height, stride);
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * Bytes of pixel data after the header, including row padding.
+     */
+    public int pixelBytes() {
+        // validate() ensures this fits an int
+        return (int) pixelBytes(format, height, stride);
+    }
+
+    private static long pixelBytes(Format format, int height, int stride) {
+        switch (format) {
+            case NV12:
+            case I420:
+                return (long) stride * height * 3 / 2;
+            default:
+                return (long) stride * height;
+        }
+    }
+}
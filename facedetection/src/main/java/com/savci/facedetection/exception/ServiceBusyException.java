@@ -0,0 +1,25 @@
+package com.savci.facedetection.exception;
+
+/**
+ * The admission controller refused a frame because queue delay is over the
+ * latency SLO.
+ */
+public class ServiceBusyException extends RuntimeException {
+
+    private final int level;
+    private final long retryAfterMillis;
+
+    public ServiceBusyException(int level, long retryAfterMillis) {
+        super("Service busy, retry after " + retryAfterMillis + " ms");
+        this.level = level;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
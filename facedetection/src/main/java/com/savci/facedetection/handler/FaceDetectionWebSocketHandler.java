@@ -1,15 +1,27 @@
 package com.savci.facedetection.handler;
 
-import com.savci.facedetection.model.FaceAnnotation;
-import com.savci.facedetection.model.MTCNNUtils;
+import com.savci.facedetection.config.FaceDetectionProperties;
+import com.savci.facedetection.entity.ControlMessage;
+import com.savci.facedetection.entity.DetectionMessage;
+import com.savci.facedetection.entity.FaceDetectionResult;
+import com.savci.facedetection.entity.FrameHeader;
+import com.savci.facedetection.exception.ServiceBusyException;
+import com.savci.facedetection.model.AlignedFaces;
+import com.savci.facedetection.model.Cancellation;
+import com.savci.facedetection.model.DetectionLevel;
+import com.savci.facedetection.model.FaceDetections;
+import com.savci.facedetection.resultlog.ResultLog;
 import com.savci.facedetection.service.FaceDetectionService;
 import com.savci.facedetection.service.ImageUtils;
 
+import org.bytedeco.javacpp.PointerScope;
 import org.bytedeco.opencv.opencv_core.Mat;
 import org.bytedeco.opencv.opencv_core.Point;
 import org.bytedeco.opencv.opencv_core.Scalar;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.util.MultiValueMap;
 import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.WebSocketSession;
@@ -19,9 +31,12 @@ import org.springframework.web.util.UriComponentsBuilder;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
@@ -33,104 +48,251 @@ import static org.bytedeco.opencv.global.opencv_imgproc.rectangle;
 
 public class FaceDetectionWebSocketHandler extends BinaryWebSocketHandler {
 
-    private final Map<String, WebSocketSession> userSessions = new ConcurrentHashMap<>();
+    private final Map<String, PipelinedSession> userSessions = new ConcurrentHashMap<>();
     private final Map<String, Map<Integer, byte[]>> frameChunks = new ConcurrentHashMap<>();
     private static final Logger LOGGER = LoggerFactory.getLogger(FaceDetectionWebSocketHandler.class);
     private static final ExecutorService SERVICE = Executors
             .newFixedThreadPool(Runtime.getRuntime().availableProcessors());
     private final FaceDetectionService faceDetectionService;
+    private final FaceDetectionProperties properties;
+    private final ResultLog resultLog;
 
-    public FaceDetectionWebSocketHandler(FaceDetectionService faceDetectionService) {
+    public FaceDetectionWebSocketHandler(FaceDetectionService faceDetectionService,
+            FaceDetectionProperties properties, ObjectProvider<ResultLog> resultLog) {
         this.faceDetectionService = faceDetectionService;
+        this.properties = properties;
+        this.resultLog = resultLog.getIfAvailable();
     }
 
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
         String userId = extractUserId(session);
-        userSessions.put(userId, session);
-        LOGGER.info("WebSocket connection established for user: {}", userId);
+        MultiValueMap<String, String> query = UriComponentsBuilder.fromUri(session.getUri()).build().getQueryParams();
+        AlignedFaces.Format alignment;
+        DetectionLevel detectionLevel;
+        FrameHeader.Delivery delivery;
+        int maxInFlight = properties.getPipeline().getMaxInFlight();
+        try {
+            alignment = option(query, "align", AlignedFaces.Format.class, properties.getAlignment().getOutput());
+            detectionLevel = option(query, "level", DetectionLevel.class, DetectionLevel.FULL);
+            // ?pipeline=ordered|completed switches to sequenced chunk headers, ?inflight= lowers the limit
+            delivery = option(query, "pipeline", FrameHeader.Delivery.class, null);
+            String inFlight = query.getFirst("inflight");
+            if (inFlight != null) {
+                int requested = positive("inflight", inFlight);
+                maxInFlight = maxInFlight > 0 ? Math.min(maxInFlight, requested) : requested;
+            }
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Refusing WebSocket connection of user {} with query {}: {}", userId, query, e.getMessage());
+            session.close(CloseStatus.BAD_DATA.withReason(e.getMessage()));
+            return;
+        }
+        PipelinedSession state = new PipelinedSession(session, alignment, detectionLevel, delivery != null,
+                delivery != null ? delivery : FrameHeader.Delivery.COMPLETED,
+                maxInFlight, "faces".equalsIgnoreCase(query.getFirst("result")),
+                Boolean.parseBoolean(query.getFirst("supersede")));
+        userSessions.put(userId, state);
+        LOGGER.info("WebSocket connection established for user: {}, detection level: {}, aligned faces: {}, "
+                + "delivery: {}, max in flight: {}, supersede: {}", userId, detectionLevel, alignment,
+                state.getDelivery(), state.getMaxInFlight(), state.isSupersede());
     }
 
     @Override
     protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) throws Exception {
         String userId = extractUserId(session);
+        PipelinedSession state = userSessions.get(userId);
+        if (state == null) {
+            return;
+        }
         ByteBuffer buffer = message.getPayload();
         byte[] payload = new byte[buffer.remaining()];
         buffer.get(payload);
 
-        String frameId = new String(payload, 0, 36); // Assuming UUID as frameId
-        int chunkIndex = ByteBuffer.wrap(payload, 36, 4).getInt();
-        int totalChunks = ByteBuffer.wrap(payload, 40, 4).getInt();
-        byte[] chunkData = new byte[payload.length - 44];
-        System.arraycopy(payload, 44, chunkData, 0, chunkData.length);
+        FrameHeader header = FrameHeader.read(payload, state.isSequenced());
+        int headerBytes = FrameHeader.length(state.isSequenced());
+        byte[] chunkData = Arrays.copyOfRange(payload, headerBytes, payload.length);
 
-        String frameKey = userId + ";" + frameId;
+        String frameKey = userId + ";" + header.frameId();
         Map<Integer, byte[]> chunks = frameChunks.computeIfAbsent(frameKey, k -> new ConcurrentHashMap<>());
-        chunks.put(chunkIndex, chunkData);
+        chunks.put(header.chunkIndex(), chunkData);
 
-        LOGGER.info("Received chunk {}/{} for frame {} from user {}", chunkIndex + 1, totalChunks, frameId, userId);
+        LOGGER.info("Received chunk {}/{} for frame {} from user {}", header.chunkIndex() + 1, header.totalChunks(),
+                header.frameId(), userId);
 
         // Check if all chunks have been received
-        if (chunks.size() == totalChunks) {
-            processCompleteFrame(userId, frameId, chunks, totalChunks);
+        if (chunks.size() == header.totalChunks()) {
+            processCompleteFrame(state, userId, header, chunks);
         }
     }
 
-    private void processCompleteFrame(String userId, String frameId, Map<Integer, byte[]> chunks, int totalChunks) {
+    private void processCompleteFrame(PipelinedSession state, String userId, FrameHeader header,
+            Map<Integer, byte[]> chunks) {
+        String frameId = header.frameId();
         ByteBuffer completeFrame = ByteBuffer.allocate(chunks.values().stream().mapToInt(chunk -> chunk.length).sum());
-        for (int i = 0; i < totalChunks; i++) {
+        for (int i = 0; i < header.totalChunks(); i++) {
             completeFrame.put(chunks.get(i));
         }
 
         byte[] frameData = completeFrame.array();
         frameChunks.remove(userId + ";" + frameId);
 
+        PipelinedSession.Slot slot = state.register(header);
+        if (!state.tryAcquire()) {
+            // The client ignored the in-flight limit it was given; answer at once so it backs off
+            ServiceBusyException busy = new ServiceBusyException(0, 0);
+            state.complete(slot, false, () -> sendBusy(state, userId, header, busy));
+            return;
+        }
+
         LOGGER.info("Processing complete frame: {} for user: {}", frameId, userId);
 
-        faceDetectionService.detectFaces(frameData)
-                .thenAccept(result -> {
-                    try {
-                        Mat image = ImageUtils.byteArrayToMat(frameData);
-                        List<Mat> alignedFace = new ArrayList<>();
-                        FaceAnnotation[] faceAnnotations = result.getFaces();
-                        if (faceAnnotations.length != 0) {
-                            for (FaceAnnotation faceAnnotation : faceAnnotations) {
-
-                                alignedFace.add(MTCNNUtils.faceAligner(image, faceAnnotation));
-
-                                FaceAnnotation.BoundingBox bbox = faceAnnotation.getBoundingBox();
-                                Point x1y1 = new Point(bbox.getX(), bbox.getY());
-                                Point x2y2 = new Point(bbox.getX() + bbox.getW(), bbox.getY() + bbox.getH());
-                                rectangle(image, x1y1, x2y2, new Scalar(0, 255, 0, 0));
-                                for (FaceAnnotation.Landmark lm : faceAnnotation.getLandmarks()) {
-                                    Point keyPoint = new Point(lm.getPosition().getX(), lm.getPosition().getY());
-                                    circle(image, keyPoint, 2, new Scalar(0, 255, 0, 0), -1, 0, 0);
-                                }
-                            }
-                        }
-                        byte[] imageArray = ImageUtils.convertMatToByteArray(image);
-                        // Send the result back to the client via WebSocket
-                        sendDetectionResult(userId, imageArray);
-                        LOGGER.info("Face detection result sent for frame: {} to user: {}", frameId, userId);
-                    } catch (Exception e) {
-                        LOGGER.error("Error sending face detection result for user: {}", userId, e);
+        AlignedFaces.Format alignmentOutput = state.getAlignment();
+        Cancellation cancellation = state.start(slot);
+        faceDetectionService.detectFaces(userId, frameData, state.getDetectionLevel(),
+                alignmentOutput != AlignedFaces.Format.NONE, cancellation)
+                // Draw and encode off the inference threads, in parallel even when delivery is ordered
+                .thenApplyAsync(result -> render(state, userId, frameId, frameData, result, alignmentOutput), SERVICE)
+                .whenComplete((replies, ex) -> state.complete(slot, true, () -> {
+                    if (ex == null) {
+                        return sendReplies(state, userId, header, replies);
+                    }
+                    ServiceBusyException busy = busyCause(ex);
+                    if (busy != null) {
+                        return sendBusy(state, userId, header, busy);
+                    }
+                    if (isCancellation(ex)) {
+                        // A superseded frame is answered like a rejected one, a closed session gets nothing
+                        return state.isClosed() ? CompletableFuture.completedFuture(null)
+                                : sendBusy(state, userId, header, new ServiceBusyException(0, 0));
                     }
-                })
-                .exceptionally(ex -> {
                     LOGGER.error("Error processing frame {} for user {}", frameId, userId, ex);
-                    return null;
+                    return CompletableFuture.completedFuture(null);
+                }));
+    }
+
+    /**
+     * The annotated frame or just the detections, followed by the aligned faces
+     * when requested.
+     */
+    private List<byte[]> render(PipelinedSession state, String userId, String frameId, byte[] frameData,
+            FaceDetectionResult result, AlignedFaces.Format alignmentOutput) {
+        if (resultLog != null) {
+            resultLog.append(userId, frameId, result.getDetections());
+        }
+        if (state.isFacesOnly()) {
+            try {
+                List<byte[]> replies = new ArrayList<>(2);
+                replies.add(DetectionMessage.encode(result.getDetections()));
+                if (result.getAlignedFaces() != null) {
+                    replies.add(result.getAlignedFaces().encode(alignmentOutput,
+                            properties.getAlignment().getJpegQuality()));
+                }
+                return replies;
+            } finally {
+                if (result.getAlignedFaces() != null) {
+                    result.getAlignedFaces().close();
+                }
+            }
+        }
+        // Frees the decoded frame, points and scalars when drawing is done instead of on GC
+        try (PointerScope scope = new PointerScope()) {
+            Mat image = ImageUtils.byteArrayToMat(frameData);
+            FaceDetections faces = result.getDetections();
+            for (int i = 0; i < faces.count(); i++) {
+                Point x1y1 = new Point(faces.x(i), faces.y(i));
+                Point x2y2 = new Point(faces.x(i) + faces.width(i), faces.y(i) + faces.height(i));
+                rectangle(image, x1y1, x2y2, new Scalar(0, 255, 0, 0));
+                for (int j = 0; faces.hasLandmarks() && j < FaceDetections.LANDMARKS; j++) {
+                    Point keyPoint = new Point(faces.landmarkX(i, j), faces.landmarkY(i, j));
+                    circle(image, keyPoint, 2, new Scalar(0, 255, 0, 0), -1, 0, 0);
+                }
+            }
+            List<byte[]> replies = new ArrayList<>(2);
+            replies.add(ImageUtils.convertMatToByteArray(image));
+            if (result.getAlignedFaces() != null) {
+                replies.add(result.getAlignedFaces().encode(alignmentOutput,
+                        properties.getAlignment().getJpegQuality()));
+            }
+            return replies;
+        } finally {
+            if (result.getAlignedFaces() != null) {
+                result.getAlignedFaces().close();
+            }
+        }
+    }
+
+    // Same frameId, so the aligned faces must follow the annotated image rather than interleave with it
+    private CompletableFuture<Void> sendReplies(PipelinedSession state, String userId, FrameHeader header,
+            List<byte[]> replies) {
+        CompletableFuture<Void> sent = CompletableFuture.completedFuture(null);
+        for (byte[] reply : replies) {
+            sent = sent.thenCompose(v -> send(state, header, reply));
+        }
+        return sent.whenComplete((v, ex) -> {
+            if (ex != null) {
+                LOGGER.error("Error sending face detection result for frame {} to user {}", header.frameId(),
+                        userId, ex);
+            } else {
+                LOGGER.info("Face detection result sent for frame: {} to user: {}", header.frameId(), userId);
+            }
+        });
+    }
+
+    private static ServiceBusyException busyCause(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ServiceBusyException busy) {
+                return busy;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isCancellation(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof CancellationException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Answers the frame with a busy control message instead of a result so the client can back off
+    private CompletableFuture<Void> sendBusy(PipelinedSession state, String userId, FrameHeader header,
+            ServiceBusyException busy) {
+        LOGGER.debug("Rejected frame {} for user {}: {}", header.frameId(), userId, busy.getMessage());
+        return send(state, header, ControlMessage.busy(busy.getLevel(), busy.getRetryAfterMillis()))
+                .whenComplete((v, ex) -> {
+                    if (ex != null) {
+                        LOGGER.error("Error sending busy message for frame {} to user {}", header.frameId(), userId,
+                                ex);
+                    }
                 });
     }
 
     public CompletableFuture<Void> sendDetectionResult(String userId, byte[] result) throws Exception {
-        WebSocketSession session = userSessions.get(userId);
-        if (session == null || !session.isOpen()) {
+        return sendDetectionResult(userId, UUID.randomUUID().toString(), result);
+    }
+
+    // Echoes the request frameId so clients can match results to the frames they sent
+    public CompletableFuture<Void> sendDetectionResult(String userId, String frameId, byte[] result)
+            throws Exception {
+        PipelinedSession state = userSessions.get(userId);
+        if (state == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("WebSocket session is not open"));
+        }
+        return send(state, new FrameHeader(frameId, 0, 0, FrameHeader.UNSEQUENCED, 0), result);
+    }
+
+    // Every chunk repeats the request's frameId and, on pipelined sessions, its sequence and timestamp
+    private CompletableFuture<Void> send(PipelinedSession state, FrameHeader request, byte[] result) {
+        WebSocketSession session = state.getSession();
+        if (!session.isOpen()) {
             return CompletableFuture.failedFuture(new IllegalStateException("WebSocket session is not open"));
         }
 
-        String frameId = UUID.randomUUID().toString();
         int chunkSize = 1024;
         int totalChunks = (int) Math.ceil((double) result.length / chunkSize);
+        int headerBytes = FrameHeader.length(state.isSequenced());
 
         List<CompletableFuture<Void>> futures = new ArrayList<>();
 
@@ -141,15 +303,11 @@ public class FaceDetectionWebSocketHandler extends BinaryWebSocketHandler {
                     try {
                         int start = chunkIndex * chunkSize;
                         int end = Math.min(start + chunkSize, result.length);
-                        byte[] chunk = new byte[end - start];
-                        System.arraycopy(result, start, chunk, 0, chunk.length);
 
                         // Allocate ByteBuffer with correct size
-                        ByteBuffer message = ByteBuffer.allocate(36 + 4 + 4 + chunk.length);
-                        message.put(frameId.getBytes()); // Put the frameId (UUID)
-                        message.putInt(chunkIndex); // Put the chunkIndex
-                        message.putInt(totalChunks); // Put totalChunks
-                        message.put(chunk); // Put the actual chunk data
+                        ByteBuffer message = ByteBuffer.allocate(headerBytes + end - start);
+                        request.chunk(chunkIndex, totalChunks).write(message, state.isSequenced());
+                        message.put(result, start, end - start); // Put the actual chunk data
                         message.flip();
 
                         // Send binary message
@@ -161,14 +319,19 @@ public class FaceDetectionWebSocketHandler extends BinaryWebSocketHandler {
             }, SERVICE));
         }
 
-        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
-                .thenRun(() -> System.out.println("All result chunks sent successfully."));
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
     }
 
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
         String userId = extractUserId(session);
-        userSessions.remove(userId);
+        PipelinedSession state = userSessions.remove(userId);
+        if (state != null) {
+            // Its queued and running frames stop at their next check instead of detecting for nobody
+            state.close();
+        }
+        frameChunks.keySet().removeIf(frameKey -> frameKey.startsWith(userId + ";"));
+        faceDetectionService.releaseSession(userId);
         LOGGER.info("WebSocket connection closed for user: {}. Status: {}", userId, status);
     }
 
@@ -178,6 +341,33 @@ public class FaceDetectionWebSocketHandler extends BinaryWebSocketHandler {
         LOGGER.error("Transport error occurred for user: {}. Error: {}", userId, exception.getMessage());
     }
 
+    private static <E extends Enum<E>> E option(MultiValueMap<String, String> query, String name, Class<E> type,
+            E defaultValue) {
+        String value = query.getFirst(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(type, value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            // Close reasons are limited to 123 bytes, so the value itself is only logged
+            throw new IllegalArgumentException("Invalid " + name + " parameter, expected one of "
+                    + Arrays.toString(type.getEnumConstants()), e);
+        }
+    }
+
+    private static int positive(String name, String value) {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed > 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Answered below, like a number that is out of range
+        }
+        throw new IllegalArgumentException("Invalid " + name + " parameter, expected a positive integer");
+    }
+
     private String extractUserId(WebSocketSession session) {
         String path = session.getUri().getPath();
         UriComponents uriComponents = UriComponentsBuilder.fromUriString(path).build();
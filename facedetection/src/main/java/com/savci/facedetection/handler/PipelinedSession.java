@@ -0,0 +1,180 @@
+package com.savci.facedetection.handler;
+
+import com.savci.facedetection.entity.FrameHeader;
+import com.savci.facedetection.model.AlignedFaces;
+import com.savci.facedetection.model.Cancellation;
+import com.savci.facedetection.model.DetectionLevel;
+
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * A client session with its options and the frames it has in flight. Up to
+ * maxInFlight frames are detected concurrently; the rest are answered busy.
+ * With ORDERED delivery every frame's reply, busy or not, waits until the
+ * replies of all earlier received frames with a lower sequence number are sent.
+ * Closing the session cancels its frames; with supersede a new frame also
+ * cancels the frames still being detected.
+ */
+class PipelinedSession {
+
+    /**
+     * Orders frames by sequence number, then by arrival for repeated or
+     * missing sequence numbers.
+     */
+    record Slot(long sequence, long arrival) implements Comparable<Slot> {
+        @Override
+        public int compareTo(Slot other) {
+            int bySequence = Long.compare(sequence, other.sequence);
+            return bySequence != 0 ? bySequence : Long.compare(arrival, other.arrival);
+        }
+    }
+
+    private final WebSocketSession session;
+    private final AlignedFaces.Format alignment;
+    private final DetectionLevel detectionLevel;
+    private final boolean sequenced;
+    private final FrameHeader.Delivery delivery;
+    private final int maxInFlight;
+    private final boolean facesOnly;
+    private final boolean supersede;
+    private final Cancellation cancellation = Cancellation.create();
+
+    // Guarded by this
+    private final TreeSet<Slot> outstanding = new TreeSet<>();
+    private final Map<Slot, Supplier<CompletableFuture<Void>>> ready = new HashMap<>();
+    private final Map<Slot, Cancellation> detecting = new HashMap<>();
+    private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+    private long arrivals;
+    private int inFlight;
+
+    PipelinedSession(WebSocketSession session, AlignedFaces.Format alignment, DetectionLevel detectionLevel,
+            boolean sequenced, FrameHeader.Delivery delivery, int maxInFlight, boolean facesOnly,
+            boolean supersede) {
+        this.session = session;
+        this.alignment = alignment;
+        this.detectionLevel = detectionLevel;
+        this.sequenced = sequenced;
+        this.delivery = delivery;
+        this.maxInFlight = maxInFlight;
+        this.facesOnly = facesOnly;
+        this.supersede = supersede;
+    }
+
+    WebSocketSession getSession() {
+        return session;
+    }
+
+    AlignedFaces.Format getAlignment() {
+        return alignment;
+    }
+
+    DetectionLevel getDetectionLevel() {
+        return detectionLevel;
+    }
+
+    /**
+     * Whether chunk headers carry a sequence number and timestamp.
+     */
+    boolean isSequenced() {
+        return sequenced;
+    }
+
+    FrameHeader.Delivery getDelivery() {
+        return delivery;
+    }
+
+    int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Whether results are sent as a {@link com.savci.facedetection.entity.DetectionMessage}
+     * instead of the annotated image.
+     */
+    boolean isFacesOnly() {
+        return facesOnly;
+    }
+
+    /**
+     * Whether a new frame cancels the detection of older ones, for clients that
+     * only care about the latest frame.
+     */
+    boolean isSupersede() {
+        return supersede;
+    }
+
+    /**
+     * Starts detecting an acquired frame. Its cancellation fires when the
+     * session closes or, with supersede, when the next frame starts.
+     */
+    synchronized Cancellation start(Slot slot) {
+        if (supersede) {
+            detecting.values().forEach(older -> older.cancel("Superseded by a newer frame"));
+        }
+        Cancellation frame = cancellation.child();
+        detecting.put(slot, frame);
+        return frame;
+    }
+
+    void close() {
+        cancellation.cancel("Session closed");
+    }
+
+    boolean isClosed() {
+        return cancellation.isCancelled();
+    }
+
+    /**
+     * Registers a reassembled frame; it holds back later replies under ORDERED
+     * delivery until {@link #complete} sends its own.
+     */
+    synchronized Slot register(FrameHeader header) {
+        long arrival = arrivals++;
+        Slot slot = new Slot(sequenced ? header.sequence() : arrival, arrival);
+        outstanding.add(slot);
+        return slot;
+    }
+
+    /**
+     * Claims an in-flight slot, false when maxInFlight frames are being detected.
+     */
+    synchronized boolean tryAcquire() {
+        if (maxInFlight > 0 && inFlight >= maxInFlight) {
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * Releases the frame's in-flight slot if it held one and sends its reply,
+     * now or once it is the lowest outstanding frame.
+     *
+     * @param reply starts sending the reply; its future completes when sent
+     */
+    void complete(Slot slot, boolean acquired, Supplier<CompletableFuture<Void>> reply) {
+        synchronized (this) {
+            if (acquired) {
+                inFlight--;
+            }
+            detecting.remove(slot);
+            if (delivery == FrameHeader.Delivery.ORDERED) {
+                ready.put(slot, reply);
+                while (!outstanding.isEmpty() && ready.containsKey(outstanding.first())) {
+                    Supplier<CompletableFuture<Void>> next = ready.remove(outstanding.pollFirst());
+                    // A failed send must not stall the replies behind it
+                    tail = tail.handle((v, ex) -> null).thenCompose(v -> next.get());
+                }
+                return;
+            }
+            outstanding.remove(slot);
+        }
+        reply.get();
+    }
+}
@@ -0,0 +1,243 @@
+package com.savci.facedetection.ingest;
+
+import com.savci.facedetection.entity.RawFrame;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A memory-mapped file shared by one frame producer and the detector, for
+ * co-located capture processes. Each slot carries a raw frame and, once
+ * detected, its result, so no pixels cross a socket.
+ * <p>
+ * Layout, little-endian: a {@value #RING_HEADER_BYTES} byte header (magic,
+ * version, slot count, frame bytes, result bytes, slot bytes; then the
+ * published count at offset 64, written only by the producer, and the taken
+ * count at offset 128, written only by the detector, each on its own cache
+ * line), followed by the slots. Frame n lives in slot n % slotCount. A slot is
+ * a {@value #SLOT_HEADER_BYTES} byte header (result sequence, frame sequence,
+ * producer timestamp, {@link RawFrame.Format} ordinal, width, height, stride,
+ * result length), the pixels, then the result: a
+ * {@link com.savci.facedetection.entity.DetectionMessage} or a busy
+ * {@link com.savci.facedetection.entity.ControlMessage}, or a length of -1 for
+ * a failed frame.
+ * <p>
+ * The producer fills a slot and publishes it by raising the published count.
+ * The detector writes the result and publishes it by setting the slot's
+ * result sequence to n + 1; from then on it no longer reads the pixels and the
+ * producer may reuse the slot once it has read the result. Counts and result
+ * sequences are written with release and read with acquire semantics.
+ */
+public final class FrameRing {
+
+    static final int MAGIC = 0x46445352; // "FDSR"
+    static final int VERSION = 1;
+
+    public static final int RING_HEADER_BYTES = 256;
+    public static final int SLOT_HEADER_BYTES = 64;
+
+    private static final int SLOT_COUNT_OFFSET = 8;
+    private static final int FRAME_BYTES_OFFSET = 12;
+    private static final int RESULT_BYTES_OFFSET = 16;
+    private static final int SLOT_BYTES_OFFSET = 20;
+    private static final int PUBLISHED_OFFSET = 64;
+    private static final int TAKEN_OFFSET = 128;
+
+    private static final int RESULT_SEQUENCE_OFFSET = 0;
+    private static final int SEQUENCE_OFFSET = 8;
+    private static final int TIMESTAMP_OFFSET = 16;
+    private static final int FORMAT_OFFSET = 24;
+    private static final int WIDTH_OFFSET = 28;
+    private static final int HEIGHT_OFFSET = 32;
+    private static final int STRIDE_OFFSET = 36;
+    private static final int RESULT_LENGTH_OFFSET = 40;
+
+    public static final int FAILED = -1;
+
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class,
+            ByteOrder.LITTLE_ENDIAN);
+
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final int slotCount;
+    private final int frameBytes;
+    private final int resultBytes;
+    private final int slotBytes;
+
+    private FrameRing(Path path, MappedByteBuffer buffer) {
+        this.path = path;
+        this.buffer = buffer;
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException(path + " is not a version " + VERSION + " frame ring");
+        }
+        this.slotCount = buffer.getInt(SLOT_COUNT_OFFSET);
+        this.frameBytes = buffer.getInt(FRAME_BYTES_OFFSET);
+        this.resultBytes = buffer.getInt(RESULT_BYTES_OFFSET);
+        this.slotBytes = buffer.getInt(SLOT_BYTES_OFFSET);
+        if (slotCount <= 0 || frameBytes <= 0 || resultBytes <= 0
+                || slotBytes < SLOT_HEADER_BYTES + (long) frameBytes + resultBytes
+                || RING_HEADER_BYTES + (long) slotCount * slotBytes > buffer.capacity()) {
+            throw new IllegalArgumentException(path + " is truncated or has a corrupt header");
+        }
+    }
+
+    /**
+     * Creates or replaces the ring file; any producer attached to the old file
+     * must attach again.
+     */
+    public static FrameRing create(Path path, int slotCount, int frameBytes, int resultBytes) throws IOException {
+        // Cache line aligned slots keep one slot's header off its neighbour's line
+        long slotBytes = (SLOT_HEADER_BYTES + (long) frameBytes + resultBytes + 63) & ~63L;
+        long size = RING_HEADER_BYTES + slotCount * slotBytes;
+        if (slotCount <= 0 || frameBytes <= 0 || resultBytes <= 0 || size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid frame ring geometry: " + slotCount + " slots of "
+                    + frameBytes + " frame and " + resultBytes + " result bytes");
+        }
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(SLOT_COUNT_OFFSET, slotCount);
+            buffer.putInt(FRAME_BYTES_OFFSET, frameBytes);
+            buffer.putInt(RESULT_BYTES_OFFSET, resultBytes);
+            buffer.putInt(SLOT_BYTES_OFFSET, (int) slotBytes);
+            buffer.putInt(4, VERSION);
+            // Magic last, so a producer attaching meanwhile never sees a half-written header
+            buffer.putInt(0, MAGIC);
+            return new FrameRing(path, buffer);
+        }
+    }
+
+    public static FrameRing open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return new FrameRing(path, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    /**
+     * Largest frame a slot holds, in pixel bytes including row padding.
+     */
+    public int getFrameBytes() {
+        return frameBytes;
+    }
+
+    public int getResultBytes() {
+        return resultBytes;
+    }
+
+    public long published() {
+        return (long) LONG.getAcquire(buffer, PUBLISHED_OFFSET);
+    }
+
+    public void publish(long count) {
+        LONG.setRelease(buffer, PUBLISHED_OFFSET, count);
+    }
+
+    public long taken() {
+        return (long) LONG.getAcquire(buffer, TAKEN_OFFSET);
+    }
+
+    public void take(long count) {
+        LONG.setRelease(buffer, TAKEN_OFFSET, count);
+    }
+
+    int slot(long sequence) {
+        return RING_HEADER_BYTES + (int) (sequence % slotCount) * slotBytes;
+    }
+
+    /**
+     * Writes a frame's header into its slot; the pixels go to {@link #pixels}
+     * first.
+     */
+    public void writeFrame(long sequence, long timestamp, RawFrame frame) {
+        int slot = slot(sequence);
+        buffer.putLong(slot + SEQUENCE_OFFSET, sequence);
+        buffer.putLong(slot + TIMESTAMP_OFFSET, timestamp);
+        buffer.putInt(slot + FORMAT_OFFSET, frame.getFormat().ordinal());
+        buffer.putInt(slot + WIDTH_OFFSET, frame.getWidth());
+        buffer.putInt(slot + HEIGHT_OFFSET, frame.getHeight());
+        buffer.putInt(slot + STRIDE_OFFSET, frame.getStride());
+    }
+
+    /**
+     * Reads and validates the header of a published frame.
+     */
+    public RawFrame readFrame(long sequence) {
+        int slot = slot(sequence);
+        int format = buffer.getInt(slot + FORMAT_OFFSET);
+        if (format < 0 || format >= RawFrame.Format.values().length) {
+            throw new IllegalArgumentException("Unknown raw pixel format " + format);
+        }
+        RawFrame frame = RawFrame.of(RawFrame.Format.values()[format], buffer.getInt(slot + WIDTH_OFFSET),
+                buffer.getInt(slot + HEIGHT_OFFSET), buffer.getInt(slot + STRIDE_OFFSET));
+        // A producer may write any header, compare in long so no size can wrap
+        long rows = frame.getFormat() == RawFrame.Format.NV12 || frame.getFormat() == RawFrame.Format.I420
+                ? frame.getHeight() * 3L / 2 : frame.getHeight();
+        if ((long) frame.getStride() * rows > frameBytes) {
+            throw new IllegalArgumentException("Frame of " + (long) frame.getStride() * rows
+                    + " bytes does not fit slots of " + frameBytes + " bytes");
+        }
+        return frame;
+    }
+
+    public long timestamp(long sequence) {
+        return buffer.getLong(slot(sequence) + TIMESTAMP_OFFSET);
+    }
+
+    /**
+     * The slot's pixel area as a view of the mapping, for wrapping in a Mat or
+     * writing into.
+     */
+    public ByteBuffer pixels(long sequence) {
+        return buffer.slice(slot(sequence) + SLOT_HEADER_BYTES, frameBytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Writes the result and publishes it; the result must fit
+     * {@link #getResultBytes()}, pass null to mark the frame failed.
+     */
+    public void writeResult(long sequence, byte[] result) {
+        int slot = slot(sequence);
+        if (result != null) {
+            buffer.put(slot + SLOT_HEADER_BYTES + frameBytes, result, 0, result.length);
+        }
+        buffer.putInt(slot + RESULT_LENGTH_OFFSET, result == null ? FAILED : result.length);
+        LONG.setRelease(buffer, slot + RESULT_SEQUENCE_OFFSET, sequence + 1);
+    }
+
+    public boolean hasResult(long sequence) {
+        return (long) LONG.getAcquire(buffer, slot(sequence) + RESULT_SEQUENCE_OFFSET) == sequence + 1;
+    }
+
+    /**
+     * The published result of the frame, null when it failed.
+     */
+    public byte[] readResult(long sequence) {
+        int slot = slot(sequence);
+        int length = buffer.getInt(slot + RESULT_LENGTH_OFFSET);
+        if (length == FAILED) {
+            return null;
+        }
+        byte[] result = new byte[length];
+        buffer.get(slot + SLOT_HEADER_BYTES + frameBytes, result);
+        return result;
+    }
+}
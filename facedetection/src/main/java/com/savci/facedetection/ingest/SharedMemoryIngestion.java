@@ -0,0 +1,169 @@
+package com.savci.facedetection.ingest;
+
+import com.savci.facedetection.config.FaceDetectionProperties;
+import com.savci.facedetection.entity.ControlMessage;
+import com.savci.facedetection.entity.DetectionMessage;
+import com.savci.facedetection.entity.FaceDetectionResult;
+import com.savci.facedetection.entity.RawFrame;
+import com.savci.facedetection.exception.ServiceBusyException;
+import com.savci.facedetection.model.Cancellation;
+import com.savci.facedetection.model.DetectionLevel;
+import com.savci.facedetection.service.FaceDetectionService;
+import com.savci.facedetection.service.ImageUtils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
+
+/**
+ * Takes frames from co-located producers through {@link FrameRing} files
+ * instead of the WebSocket, sparing the encoding, the socket copies and the
+ * decode. One poller thread per channel spins briefly, then parks, while its
+ * ring is empty, and hands every published frame to the
+ * {@link FaceDetectionService} as soon as it sees it; BGR slots are wrapped as
+ * a Mat in place. Frames go through the same fair scheduler, admission control
+ * and memory budget as socket frames, keyed by channel name.
+ */
+public class SharedMemoryIngestion implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SharedMemoryIngestion.class);
+    private static final Pattern CHANNEL_NAME = Pattern.compile("[A-Za-z0-9._-]+");
+
+    private final FaceDetectionService service;
+    private final long spinNanos;
+    private final long parkNanos;
+    private final Cancellation cancellation = Cancellation.create();
+    private final List<Thread> pollers = new ArrayList<>();
+    private final Counter frames;
+    private final Counter failed;
+    private volatile boolean running = true;
+
+    public SharedMemoryIngestion(FaceDetectionProperties.SharedMemory config, FaceDetectionService service,
+            MeterRegistry meterRegistry) throws IOException {
+        this.service = service;
+        this.spinNanos = TimeUnit.MICROSECONDS.toNanos(config.getSpinMicros());
+        this.parkNanos = Math.max(1, TimeUnit.MICROSECONDS.toNanos(config.getParkMicros()));
+        this.frames = Counter.builder("facedetection.shm.frames")
+                .description("Frames taken from shared-memory rings")
+                .register(meterRegistry);
+        this.failed = Counter.builder("facedetection.shm.failed")
+                .description("Shared-memory frames answered as failed")
+                .register(meterRegistry);
+        Path directory = Path.of(config.getDirectory());
+        List<FrameRing> rings = new ArrayList<>();
+        for (String channel : config.getChannels()) {
+            if (!CHANNEL_NAME.matcher(channel).matches()) {
+                throw new IllegalArgumentException("Invalid shared-memory channel name " + channel);
+            }
+            rings.add(FrameRing.create(directory.resolve(channel + ".ring"), config.getSlots(),
+                    config.getMaxFrameBytes(), config.getResultBytes()));
+        }
+        for (int i = 0; i < rings.size(); i++) {
+            String channel = config.getChannels().get(i);
+            FrameRing ring = rings.get(i);
+            Thread poller = new Thread(() -> poll(channel, ring), "shm-ingest-" + channel);
+            poller.setDaemon(true);
+            poller.start();
+            pollers.add(poller);
+            LOGGER.info("Taking frames of channel {} from {}", channel, ring.getPath().toAbsolutePath());
+        }
+    }
+
+    /**
+     * Stops polling and cancels frames still in detection; their slots get a
+     * busy result so a waiting producer wakes up. Producers attaching to a
+     * restarted detector start over.
+     */
+    @Override
+    public void close() {
+        running = false;
+        cancellation.cancel("Shared-memory ingestion closed");
+        for (Thread poller : pollers) {
+            LockSupport.unpark(poller);
+            try {
+                poller.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void poll(String channel, FrameRing ring) {
+        long next = ring.taken();
+        long idleSince = 0;
+        while (running) {
+            if (ring.published() > next) {
+                ingest(channel, ring, next);
+                ring.take(++next);
+                idleSince = 0;
+                continue;
+            }
+            long now = System.nanoTime();
+            if (idleSince == 0) {
+                idleSince = now;
+            }
+            if (now - idleSince < spinNanos) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(this, parkNanos);
+            }
+        }
+    }
+
+    private void ingest(String channel, FrameRing ring, long sequence) {
+        frames.increment();
+        CompletableFuture<FaceDetectionResult> result;
+        try {
+            RawFrame frame = ring.readFrame(sequence);
+            // The service keeps its own header, ours can go right away
+            try (Mat image = ImageUtils.rawPixelsToMat(frame, ring.pixels(sequence))) {
+                result = service.detectFaces(channel, image, DetectionLevel.FULL, cancellation);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.warn("Rejecting frame {} of channel {}: {}", sequence, channel, e.getMessage());
+            failed.increment();
+            ring.writeResult(sequence, null);
+            return;
+        }
+        result.whenComplete((detected, e) -> complete(channel, ring, sequence, detected, e));
+    }
+
+    private void complete(String channel, FrameRing ring, long sequence, FaceDetectionResult detected,
+            Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        byte[] payload = null;
+        if (cause instanceof CancellationException) {
+            // The producer waits for every slot's result, so a cancelled frame is answered like a superseded one
+            payload = ControlMessage.busy(0, 0);
+        } else if (cause instanceof ServiceBusyException busy) {
+            payload = ControlMessage.busy(busy.getLevel(), busy.getRetryAfterMillis());
+        } else if (cause != null) {
+            LOGGER.warn("Frame {} of channel {} failed: {}", sequence, channel, cause.getMessage());
+        } else if (detected.getDetections().count() <= DetectionMessage.MAX_FACES) {
+            payload = DetectionMessage.encode(detected.getDetections());
+        }
+        if (payload != null && payload.length > ring.getResultBytes()) {
+            LOGGER.warn("Result of frame {} of channel {} needs {} bytes, slots hold {}", sequence, channel,
+                    payload.length, ring.getResultBytes());
+            payload = null;
+        }
+        if (payload == null) {
+            failed.increment();
+        }
+        ring.writeResult(sequence, payload);
+    }
+}
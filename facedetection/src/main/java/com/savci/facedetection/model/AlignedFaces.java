@@ -0,0 +1,174 @@
+package com.savci.facedetection.model;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.opencv.global.opencv_imgcodecs;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Scalar;
+import org.bytedeco.opencv.opencv_core.Size;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.bytedeco.opencv.global.opencv_core.BORDER_CONSTANT;
+import static org.bytedeco.opencv.global.opencv_core.CV_8UC1;
+import static org.bytedeco.opencv.global.opencv_core.CV_8UC3;
+import static org.bytedeco.opencv.global.opencv_imgproc.INTER_CUBIC;
+import static org.bytedeco.opencv.global.opencv_imgproc.warpAffine;
+
+/**
+ * Aligned 224x224 BGR face crops of one frame, stored back to back in a single
+ * contiguous N x 224 x 224 x 3 buffer (a Mat of N * 224 rows).
+ * <p>
+ * Wire format of {@link #encode}: the ASCII magic {@code ALGN}, then big-endian
+ * ints count, size and format (1 = raw, 2 = JPEG). Raw is followed by
+ * count * size * size * 3 BGR bytes; JPEG by an int length and the encoded bytes
+ * for each face.
+ */
+public final class AlignedFaces implements AutoCloseable {
+
+    public enum Format {
+        /** No alignment work at all. */
+        NONE,
+        RAW,
+        JPEG
+    }
+
+    static final byte[] MAGIC = "ALGN".getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER_BYTES = 16;
+
+    private final Mat buffer;
+    private final int count;
+
+    private AlignedFaces(Mat buffer, int count) {
+        this.buffer = buffer;
+        this.count = count;
+    }
+
+    /**
+     * Computes every face's affine transform up front, then warps the faces in
+     * parallel, each straight into its slot of the shared buffer.
+     */
+    public static AlignedFaces align(Mat image, FaceAnnotation[] faces) {
+        int size = MTCNNUtils.ALIGNED_FACE_SIZE;
+        Mat[] matrices = new Mat[faces.length];
+        for (int i = 0; i < faces.length; i++) {
+            matrices[i] = MTCNNUtils.alignmentMatrix(faces[i]);
+        }
+        Mat buffer = new Mat(Math.max(1, faces.length) * size, size, CV_8UC3);
+        Size dsize = new Size(size, size);
+        IntStream.range(0, faces.length).parallel().forEach(i -> {
+            // warpAffine keeps a destination of matching size and type, so it writes into the slot in place
+            try (Mat slot = buffer.rowRange(i * size, (i + 1) * size)) {
+                warpAffine(image, slot, matrices[i], dsize, INTER_CUBIC, BORDER_CONSTANT, Scalar.ZERO);
+            }
+        });
+        for (Mat matrix : matrices) {
+            matrix.close();
+        }
+        dsize.close();
+        return new AlignedFaces(buffer, faces.length);
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * View of the i-th crop; shares memory with the buffer.
+     */
+    public Mat getFace(int index) {
+        int size = MTCNNUtils.ALIGNED_FACE_SIZE;
+        return buffer.rowRange(index * size, (index + 1) * size);
+    }
+
+    /**
+     * The whole N x 224 x 224 x 3 buffer.
+     */
+    public Mat getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Frees the crop buffer; views from {@link #getFace} become invalid.
+     */
+    @Override
+    public void close() {
+        buffer.close();
+    }
+
+    public byte[] encode(Format format, int jpegQuality) {
+        int size = MTCNNUtils.ALIGNED_FACE_SIZE;
+        if (format == Format.RAW) {
+            int length = count * size * size * 3;
+            ByteBuffer out = header(HEADER_BYTES + length, 1);
+            byte[] pixels = new byte[length];
+            buffer.data().get(pixels, 0, length);
+            return out.put(pixels).array();
+        }
+        if (format != Format.JPEG) {
+            throw new IllegalArgumentException("Cannot encode aligned faces as " + format);
+        }
+        List<byte[]> encoded = new ArrayList<>(count);
+        IntPointer params = new IntPointer(opencv_imgcodecs.IMWRITE_JPEG_QUALITY, jpegQuality);
+        for (int i = 0; i < count; i++) {
+            BytePointer jpeg = new BytePointer();
+            try (Mat face = getFace(i)) {
+                opencv_imgcodecs.imencode(".jpg", face, jpeg, params);
+            }
+            byte[] bytes = new byte[(int) jpeg.limit()];
+            jpeg.get(bytes);
+            jpeg.deallocate();
+            encoded.add(bytes);
+        }
+        params.deallocate();
+        ByteBuffer out = header(HEADER_BYTES + encoded.stream().mapToInt(bytes -> 4 + bytes.length).sum(), 2);
+        for (byte[] bytes : encoded) {
+            out.putInt(bytes.length).put(bytes);
+        }
+        return out.array();
+    }
+
+    private ByteBuffer header(int length, int format) {
+        return ByteBuffer.allocate(length).put(MAGIC).putInt(count).putInt(MTCNNUtils.ALIGNED_FACE_SIZE)
+                .putInt(format);
+    }
+
+    public static boolean isEncoded(byte[] payload) {
+        return payload.length >= HEADER_BYTES && payload[0] == MAGIC[0] && payload[1] == MAGIC[1]
+                && payload[2] == MAGIC[2] && payload[3] == MAGIC[3];
+    }
+
+    /**
+     * Decodes a payload written by {@link #encode} into one BGR Mat per face.
+     */
+    public static List<Mat> decode(byte[] payload) {
+        if (!isEncoded(payload)) {
+            throw new IllegalArgumentException("Not an aligned faces payload");
+        }
+        ByteBuffer in = ByteBuffer.wrap(payload, MAGIC.length, payload.length - MAGIC.length);
+        int count = in.getInt();
+        int size = in.getInt();
+        int format = in.getInt();
+        List<Mat> faces = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (format == 1) {
+                byte[] pixels = new byte[size * size * 3];
+                in.get(pixels);
+                Mat face = new Mat(size, size, CV_8UC3);
+                face.data().put(pixels);
+                faces.add(face);
+            } else {
+                byte[] jpeg = new byte[in.getInt()];
+                in.get(jpeg);
+                Mat encoded = new Mat(1, jpeg.length, CV_8UC1);
+                encoded.data().put(jpeg);
+                faces.add(opencv_imgcodecs.imdecode(encoded, opencv_imgcodecs.IMREAD_COLOR));
+            }
+        }
+        return faces;
+    }
+}
@@ -0,0 +1,46 @@
+package com.savci.facedetection.model;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The elementwise box post-processing steps of MTCNN. All implementations take
+ * and return the same INDArray layouts as {@link MTCNNUtils} so they can be
+ * swapped without touching the pipeline.
+ */
+public interface BoxKernels {
+
+    enum Mode {
+        /** The original INDArray column-view implementation in {@link MTCNNUtils}. */
+        NDARRAY,
+        /** Struct-of-arrays float[] loops. */
+        SCALAR,
+        /** SCALAR with jdk.incubator.vector loops; falls back to SCALAR when the module is absent. */
+        VECTOR
+    }
+
+    INDArray[] generateBoundingBox(INDArray imap, INDArray reg, double scale, double stepThreshold);
+
+    INDArray bbreg(INDArray boundingBox, INDArray reg);
+
+    INDArray rerec(INDArray bbox);
+
+    FaceDetectionDto pad(INDArray totalBoxes, int w, int h);
+
+    static BoxKernels create(Mode mode) {
+        switch (mode) {
+            case NDARRAY:
+                return new NdArrayBoxKernels();
+            case VECTOR:
+                if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+                    return new VectorBoxKernels();
+                }
+                Logger logger = LoggerFactory.getLogger(BoxKernels.class);
+                logger.info("jdk.incubator.vector is not enabled (--add-modules), using scalar box kernels");
+                return new ScalarBoxKernels();
+            default:
+                return new ScalarBoxKernels();
+        }
+    }
+}
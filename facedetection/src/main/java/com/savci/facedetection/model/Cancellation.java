@@ -0,0 +1,52 @@
+package com.savci.facedetection.model;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Cooperative cancellation of a frame. Detection checks it before it takes a
+ * lane, after every pyramid level, between cascade stages and before every
+ * RNet/ONet sub-batch, and gives up with a {@link CancellationException}. A
+ * child is also cancelled once its parent is, e.g. a frame when its session
+ * closes.
+ */
+public final class Cancellation {
+
+    /**
+     * Never cancelled.
+     */
+    public static final Cancellation NONE = new Cancellation(null);
+
+    private final Cancellation parent;
+    private volatile String reason;
+
+    private Cancellation(Cancellation parent) {
+        this.parent = parent;
+    }
+
+    public static Cancellation create() {
+        return new Cancellation(null);
+    }
+
+    public Cancellation child() {
+        return new Cancellation(this);
+    }
+
+    public void cancel(String reason) {
+        if (this != NONE && this.reason == null) {
+            this.reason = reason;
+        }
+    }
+
+    public boolean isCancelled() {
+        return reason != null || parent != null && parent.isCancelled();
+    }
+
+    public void throwIfCancelled() {
+        if (reason != null) {
+            throw new CancellationException(reason);
+        }
+        if (parent != null) {
+            parent.throwIfCancelled();
+        }
+    }
+}
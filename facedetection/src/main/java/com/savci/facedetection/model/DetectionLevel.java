@@ -0,0 +1,18 @@
+package com.savci.facedetection.model;
+
+/**
+ * How far through the MTCNN cascade detection runs. Earlier levels are cheaper
+ * and return boxes without landmarks.
+ */
+public enum DetectionLevel {
+    /** PNet only: calibrated proposal boxes with PNet confidence. */
+    PROPOSAL_ONLY,
+    /** PNet and RNet: refined boxes with RNet confidence, ONet is skipped. */
+    REFINED,
+    /** The whole cascade: ONet boxes and landmarks. */
+    FULL;
+
+    public DetectionLevel atMost(DetectionLevel other) {
+        return compareTo(other) <= 0 ? this : other;
+    }
+}
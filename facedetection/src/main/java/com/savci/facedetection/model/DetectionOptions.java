@@ -0,0 +1,27 @@
+package com.savci.facedetection.model;
+
+/**
+ * Per-frame knobs of {@link MTCNN#detectFace(org.bytedeco.opencv.opencv_core.Mat, DetectionOptions)}.
+ *
+ * @param minFaceSize  smallest face in pixels the scale pyramid looks for; larger
+ *                     values mean fewer pyramid levels
+ * @param maxFaceSize  largest face in pixels the scale pyramid looks for, 0 for
+ *                     no limit; used by tiled detection, whose tiles only need
+ *                     the faces a tile can hold
+ * @param maxInputSide frames whose longer side exceeds this are downscaled before
+ *                     detection and the results scaled back, 0 for no cap;
+ *                     minFaceSize then applies to the downscaled frame
+ * @param level        last cascade stage to run; only FULL yields landmarks
+ */
+public record DetectionOptions(int minFaceSize, int maxFaceSize, int maxInputSide, DetectionLevel level) {
+
+    public static final DetectionOptions DEFAULT = new DetectionOptions(20, 0, 0, DetectionLevel.FULL);
+
+    public DetectionOptions withLevelAtMost(DetectionLevel cap) {
+        return new DetectionOptions(minFaceSize, maxFaceSize, maxInputSide, level.atMost(cap));
+    }
+
+    public DetectionOptions withFaceSizes(int minFaceSize, int maxFaceSize) {
+        return new DetectionOptions(minFaceSize, maxFaceSize, maxInputSide, level);
+    }
+}
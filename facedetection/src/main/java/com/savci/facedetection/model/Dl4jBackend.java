@@ -0,0 +1,118 @@
+package com.savci.facedetection.model;
+
+import com.savci.facedetection.config.FaceDetectionProperties;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.modelimport.keras.KerasModelImport;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.io.ByteArrayInputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+
+/**
+ * The bundled Keras models (pnet.h5, rnet.h5, onet.h5) imported into DL4J
+ * ComputationGraphs. Runs in-process on ND4J without a TensorFlow session per
+ * call. The Keras models are channels-last and are fed the same [N, W, H, 3]
+ * tensors as the TensorFlow graphs.
+ */
+class Dl4jBackend implements InferenceBackend {
+
+    // Output order of the Keras models, the same order the TF graph outputs are listed in
+    private static final String[] P_NET_OUTPUTS = { BBOX, CLASS };
+    private static final String[] R_NET_OUTPUTS = { BBOX, CLASS };
+    private static final String[] O_NET_OUTPUTS = { BBOX, LANDMARK, CLASS };
+
+    private final ComputationGraph pNet;
+    private final ComputationGraph rNet;
+    private final ComputationGraph oNet;
+
+    Dl4jBackend(ComputationGraph pNet, ComputationGraph rNet, ComputationGraph oNet) {
+        this.pNet = pNet;
+        this.rNet = rNet;
+        this.oNet = oNet;
+    }
+
+    @Override
+    public Map<String, INDArray> runPNet(INDArray input) {
+        return outputs(pNet.output(input), P_NET_OUTPUTS);
+    }
+
+    @Override
+    public Map<String, INDArray> runRNet(INDArray input) {
+        return outputs(rNet.output(input), R_NET_OUTPUTS);
+    }
+
+    @Override
+    public Map<String, INDArray> runONet(INDArray input) {
+        return outputs(oNet.output(input), O_NET_OUTPUTS);
+    }
+
+    private static Map<String, INDArray> outputs(INDArray[] values, String[] keys) {
+        Map<String, INDArray> outputs = new LinkedHashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            outputs.put(keys[i], values[i]);
+        }
+        return outputs;
+    }
+
+    @Override
+    public void close() {
+        // ComputationGraph holds no session; its arrays are released with the graph
+    }
+
+    static class Loader implements InferenceBackend.Loader {
+
+        private final FaceDetectionProperties properties;
+        private ComputationGraph pNet;
+        private ComputationGraph rNet;
+        private ComputationGraph oNet;
+
+        Loader(FaceDetectionProperties properties) {
+            this.properties = properties;
+        }
+
+        @Override
+        public void load(Function<String, byte[]> readModel, ExecutorService executor) {
+            FaceDetectionProperties.Precision precision = properties.getModel().getPrecision();
+            if (precision.getPnet() != ModelPrecision.FP32 || precision.getRnet() != ModelPrecision.FP32
+                    || precision.getOnet() != ModelPrecision.FP32) {
+                throw new IllegalStateException("Reduced-precision models are only available for the tensorflow backend");
+            }
+            CompletableFuture<ComputationGraph> p = CompletableFuture.supplyAsync(
+                    () -> importGraph("pnet.h5", readModel, P_NET_OUTPUTS.length), executor);
+            CompletableFuture<ComputationGraph> r = CompletableFuture.supplyAsync(
+                    () -> importGraph("rnet.h5", readModel, R_NET_OUTPUTS.length), executor);
+            CompletableFuture<ComputationGraph> o = CompletableFuture.supplyAsync(
+                    () -> importGraph("onet.h5", readModel, O_NET_OUTPUTS.length), executor);
+            pNet = p.join();
+            rNet = r.join();
+            oNet = o.join();
+        }
+
+        @Override
+        public InferenceBackend create() {
+            // ComputationGraph is not thread safe, every lane gets its own copy of the parameters
+            return new Dl4jBackend(pNet.clone(), rNet.clone(), oNet.clone());
+        }
+
+        private static ComputationGraph importGraph(String fileName, Function<String, byte[]> readModel,
+                int outputs) {
+            ComputationGraph graph;
+            try {
+                graph = KerasModelImport.importKerasModelAndWeights(
+                        new ByteArrayInputStream(readModel.apply(fileName)), false);
+            } catch (Exception e) {
+                throw new IllegalStateException(String.format("Failed to import Keras model [%s]", fileName), e);
+            }
+            if (graph.getNumOutputArrays() != outputs) {
+                throw new IllegalStateException(String.format("Keras model [%s] has %d outputs, expected %d",
+                        fileName, graph.getNumOutputArrays(), outputs));
+            }
+            return graph;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.savci.facedetection.model;
+
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.nd4j.linalg.indexing.NDArrayIndex.all;
+import static org.nd4j.linalg.indexing.NDArrayIndex.interval;
+
+/**
+ * All faces of one frame in a single {@code float[]}, {@value #STRIDE} values
+ * per face in MTCNN's own layout: x1, y1, x2, y2, score, then the five
+ * landmark x coordinates followed by the five y coordinates. It is filled with
+ * one bulk copy out of the output arrays and written to the wire as is.
+ * <p>
+ * {@link #toAnnotations()} builds the object-per-field {@link FaceAnnotation}
+ * view on first use for callers that still want it.
+ */
+public final class FaceDetections {
+
+    public static final int STRIDE = 15;
+    public static final int LANDMARKS = 5;
+
+    private static final int SCORE = 4;
+    private static final int LANDMARK_X = 5;
+    private static final int LANDMARK_Y = LANDMARK_X + LANDMARKS;
+
+    private static final FaceDetections EMPTY = new FaceDetections(new float[0], 0, true);
+
+    private final float[] data;
+    private final int count;
+    private final boolean landmarks;
+    private volatile FaceAnnotation[] annotations;
+
+    /**
+     * @param landmarks whether the landmark values are set; false for results
+     *                  that stopped before ONet, whose landmark slots are zero
+     */
+    public FaceDetections(float[] data, int count, boolean landmarks) {
+        if (data.length < count * STRIDE) {
+            throw new IllegalArgumentException("Need " + count * STRIDE + " values but got " + data.length);
+        }
+        this.data = data;
+        this.count = count;
+        this.landmarks = landmarks;
+    }
+
+    public static FaceDetections empty() {
+        return EMPTY;
+    }
+
+    /**
+     * ONet output: boxes [n, 5+] with the score in column 4 and points [n, 10].
+     */
+    static FaceDetections fromCascade(INDArray boxes, INDArray points) {
+        if (boxes.isEmpty()) {
+            return EMPTY;
+        }
+        org.springframework.util.Assert.isTrue(boxes.rows() == points.rows(), "Inconsistent number of boxes ("
+                + boxes.rows() + ") + and points (" + points.rows() + ")");
+        INDArray flat = Nd4j.hstack(boxes.get(all(), interval(0, SCORE + 1)).castTo(DataType.FLOAT),
+                points.castTo(DataType.FLOAT));
+        return new FaceDetections(flat.dup('c').data().asFloat(), boxes.rows(), true);
+    }
+
+    /**
+     * Boxes [n, 4+] with their scores [n] from an earlier stage, no landmarks.
+     */
+    static FaceDetections fromBoxes(INDArray boxes, INDArray scores) {
+        if (boxes.isEmpty()) {
+            return new FaceDetections(new float[0], 0, false);
+        }
+        int n = boxes.rows();
+        INDArray flat = Nd4j.hstack(boxes.get(all(), interval(0, SCORE)).castTo(DataType.FLOAT),
+                scores.reshape(n, 1).castTo(DataType.FLOAT), Nd4j.zeros(DataType.FLOAT, n, 2 * LANDMARKS));
+        return new FaceDetections(flat.dup('c').data().asFloat(), n, false);
+    }
+
+    public static FaceDetections fromAnnotations(FaceAnnotation[] faces) {
+        float[] data = new float[faces.length * STRIDE];
+        boolean landmarks = true;
+        for (int i = 0; i < faces.length; i++) {
+            FaceAnnotation.BoundingBox box = faces[i].getBoundingBox();
+            int base = i * STRIDE;
+            data[base] = box.getX();
+            data[base + 1] = box.getY();
+            data[base + 2] = box.getX() + box.getW();
+            data[base + 3] = box.getY() + box.getH();
+            data[base + SCORE] = (float) faces[i].getConfidence();
+            FaceAnnotation.Landmark[] points = faces[i].getLandmarks();
+            landmarks &= points.length == LANDMARKS;
+            for (int j = 0; j < Math.min(points.length, LANDMARKS); j++) {
+                data[base + LANDMARK_X + j] = points[j].getPosition().getX();
+                data[base + LANDMARK_Y + j] = points[j].getPosition().getY();
+            }
+        }
+        return new FaceDetections(data, faces.length, landmarks);
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public boolean hasLandmarks() {
+        return landmarks;
+    }
+
+    // Integer accessors truncate like INDArray.getInt did, so boxes match the annotation view
+
+    public int x(int face) {
+        return (int) data[face * STRIDE];
+    }
+
+    public int y(int face) {
+        return (int) data[face * STRIDE + 1];
+    }
+
+    public int width(int face) {
+        return (int) data[face * STRIDE + 2] - x(face);
+    }
+
+    public int height(int face) {
+        return (int) data[face * STRIDE + 3] - y(face);
+    }
+
+    public float score(int face) {
+        return data[face * STRIDE + SCORE];
+    }
+
+    public int landmarkX(int face, int landmark) {
+        return (int) data[face * STRIDE + LANDMARK_X + landmark];
+    }
+
+    public int landmarkY(int face, int landmark) {
+        return (int) data[face * STRIDE + LANDMARK_Y + landmark];
+    }
+
+    /**
+     * The backing array, {@link #STRIDE} values per face; do not modify.
+     */
+    public float[] data() {
+        return data;
+    }
+
+    /**
+     * A copy with every coordinate multiplied by the factor, for results
+     * detected on a downscaled frame.
+     */
+    public FaceDetections scaled(double factor) {
+        float[] scaled = new float[count * STRIDE];
+        for (int i = 0; i < scaled.length; i++) {
+            scaled[i] = i % STRIDE == SCORE ? data[i] : (float) (data[i] * factor);
+        }
+        return new FaceDetections(scaled, count, landmarks);
+    }
+
+    /**
+     * Object-per-field view, built once on first call.
+     */
+    public FaceAnnotation[] toAnnotations() {
+        FaceAnnotation[] faces = annotations;
+        if (faces == null) {
+            FaceAnnotation.Landmark.LandmarkType[] types = FaceAnnotation.Landmark.LandmarkType.values();
+            faces = new FaceAnnotation[count];
+            for (int i = 0; i < count; i++) {
+                FaceAnnotation face = new FaceAnnotation();
+                face.setBoundingBox(FaceAnnotation.BoundingBox.of(x(i), y(i), width(i), height(i)));
+                face.setConfidence(score(i));
+                FaceAnnotation.Landmark[] points = new FaceAnnotation.Landmark[landmarks ? LANDMARKS : 0];
+                for (int j = 0; j < points.length; j++) {
+                    points[j] = FaceAnnotation.Landmark.of(types[j],
+                            FaceAnnotation.Landmark.Position.of(landmarkX(i, j), landmarkY(i, j)));
+                }
+                face.setLandmarks(points);
+                faces[i] = face;
+            }
+            annotations = faces;
+        }
+        return faces;
+    }
+
+    /**
+     * Count, landmark flag, then the raw floats big-endian.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(count);
+        out.writeBoolean(landmarks);
+        ByteBuffer bytes = ByteBuffer.allocate(count * STRIDE * Float.BYTES);
+        bytes.asFloatBuffer().put(data, 0, count * STRIDE);
+        out.write(bytes.array());
+    }
+
+    public static FaceDetections readFrom(DataInput in, int maxFaces) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > maxFaces) {
+            throw new IOException("Invalid face count " + count);
+        }
+        boolean landmarks = in.readBoolean();
+        byte[] bytes = new byte[count * STRIDE * Float.BYTES];
+        in.readFully(bytes);
+        float[] data = new float[count * STRIDE];
+        ByteBuffer.wrap(bytes).asFloatBuffer().get(data);
+        return new FaceDetections(data, count, landmarks);
+    }
+}
@@ -0,0 +1,112 @@
+package com.savci.facedetection.model;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Size;
+
+import java.util.List;
+
+import static org.bytedeco.opencv.global.opencv_core.CV_8UC3;
+import static org.bytedeco.opencv.global.opencv_imgproc.INTER_AREA;
+import static org.bytedeco.opencv.global.opencv_imgproc.resize;
+
+/**
+ * What a frame's pyramid looks like for one resolution and set of face size
+ * options: the scale list and a preallocated Mat for the downscaled input and
+ * for every pyramid level. A fixed-resolution stream resizes into the same
+ * Mats frame after frame, so the pyramid allocates nothing after the first.
+ * <p>
+ * The Mats are reused by the next frame, so a plan must only be used by one
+ * thread at a time; each {@link InferenceLane} keeps its own in a
+ * {@link FramePlanCache}.
+ */
+final class FramePlan implements AutoCloseable {
+
+    record Key(int width, int height, int minFaceSize, int maxFaceSize, int maxInputSide) {
+    }
+
+    // Owned by the FramePlanCache, only touched by the thread holding the lane
+    int pins;
+    boolean evicted;
+
+    private final double downscale;
+    private final Mat downscaled;
+    private final List<Double> scales;
+    private final Mat[] levels;
+
+    FramePlan(Key key, double scaleFactor) {
+        int longerSide = Math.max(key.width(), key.height());
+        if (key.maxInputSide() > 0 && longerSide > key.maxInputSide()) {
+            // The cascade runs on the downscaled frame, which has a plan of its own
+            downscale = (double) key.maxInputSide() / longerSide;
+            downscaled = new Mat(scaledSide(key.height(), downscale), scaledSide(key.width(), downscale), CV_8UC3);
+            scales = List.of();
+            levels = new Mat[0];
+            return;
+        }
+        downscale = 1;
+        downscaled = null;
+
+        double m = 12D / key.minFaceSize();
+        List<Double> pyramid = MTCNNUtils.computeScalePyramid(m, Math.min(key.width(), key.height()) * m,
+                scaleFactor);
+        if (key.maxFaceSize() > 0) {
+            // A scale finds faces of about 12 / scale pixels
+            pyramid.removeIf(scale -> 12D / scale > key.maxFaceSize());
+        }
+        scales = List.copyOf(pyramid);
+        levels = new Mat[scales.size()];
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = new Mat(scaledSide(key.height(), scales.get(i)), scaledSide(key.width(), scales.get(i)),
+                    CV_8UC3);
+        }
+    }
+
+    private static int scaledSide(int side, double scale) {
+        // Rounded like MTCNNUtils.scaleImage
+        return (int) Math.ceil(side * scale);
+    }
+
+    /**
+     * The factor frames are downscaled by before detection, 1 when they are not.
+     */
+    double downscale() {
+        return downscale;
+    }
+
+    /**
+     * Resizes the frame into the plan's downscaled input, valid until the next
+     * call.
+     */
+    Mat downscaled(Mat image) {
+        try (Size size = downscaled.size()) {
+            resize(image, downscaled, size, 0, 0, INTER_AREA);
+        }
+        return downscaled;
+    }
+
+    List<Double> scales() {
+        return scales;
+    }
+
+    /**
+     * Resizes the frame into the given pyramid level, valid until the next call
+     * for that level.
+     */
+    Mat level(Mat image, int level) {
+        Mat target = levels[level];
+        try (Size size = target.size()) {
+            resize(image, target, size, 0, 0, INTER_AREA);
+        }
+        return target;
+    }
+
+    @Override
+    public void close() {
+        if (downscaled != null) {
+            downscaled.close();
+        }
+        for (Mat level : levels) {
+            level.close();
+        }
+    }
+}
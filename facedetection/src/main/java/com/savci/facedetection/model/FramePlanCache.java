@@ -0,0 +1,86 @@
+package com.savci.facedetection.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The {@link FramePlan}s of one lane by resolution and options, least recently
+ * used first. Plans past the capacity are closed on eviction, and all of them
+ * when the lane has been idle for a while, but never while a frame still pins
+ * them. Not thread-safe; it is only used by the thread holding the lane.
+ */
+final class FramePlanCache implements AutoCloseable {
+
+    private final int capacity;
+    private final double scaleFactor;
+    private final Map<FramePlan.Key, FramePlan> plans = new LinkedHashMap<>(16, 0.75f, true);
+    private long lastUsedNanos = System.nanoTime();
+
+    FramePlanCache(int capacity, double scaleFactor) {
+        this.capacity = capacity;
+        this.scaleFactor = scaleFactor;
+    }
+
+    /**
+     * The plan for the key, created on first use and pinned until
+     * {@link #release}. A plan evicted while pinned, e.g. a downscaled frame's
+     * outer plan while the inner one is created, stays open until it is
+     * released. With a capacity of 0 every call gets a fresh plan, closed on
+     * release.
+     */
+    FramePlan acquire(FramePlan.Key key) {
+        lastUsedNanos = System.nanoTime();
+        FramePlan plan = capacity <= 0 ? null : plans.get(key);
+        if (plan == null) {
+            plan = new FramePlan(key, scaleFactor);
+            if (capacity <= 0) {
+                plan.evicted = true;
+            } else {
+                plans.put(key, plan);
+                var eldest = plans.values().iterator();
+                while (plans.size() > capacity) {
+                    FramePlan evicted = eldest.next();
+                    eldest.remove();
+                    evicted.evicted = true;
+                    if (evicted.pins == 0) {
+                        evicted.close();
+                    }
+                }
+            }
+        }
+        plan.pins++;
+        return plan;
+    }
+
+    void release(FramePlan plan) {
+        if (--plan.pins == 0 && plan.evicted) {
+            plan.close();
+        }
+    }
+
+    /**
+     * Closes every plan if none was used for idleNanos; returns whether it did.
+     */
+    boolean releaseIfIdle(long now, long idleNanos) {
+        if (plans.isEmpty() || now - lastUsedNanos < idleNanos) {
+            return false;
+        }
+        close();
+        return true;
+    }
+
+    int size() {
+        return plans.size();
+    }
+
+    @Override
+    public void close() {
+        for (FramePlan plan : plans.values()) {
+            plan.evicted = true;
+            if (plan.pins == 0) {
+                plan.close();
+            }
+        }
+        plans.clear();
+    }
+}
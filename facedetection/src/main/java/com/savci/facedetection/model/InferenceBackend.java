@@ -0,0 +1,56 @@
+package com.savci.facedetection.model;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+
+/**
+ * Runs the three MTCNN networks on a batch. Inputs are the normalized,
+ * width-major [N, W, H, 3] tensors built by {@link TensorPreprocessor}; outputs
+ * are keyed by {@link #BBOX}, {@link #CLASS} and {@link #LANDMARK} so the
+ * pipeline does not depend on graph node names. An instance belongs to one
+ * {@link InferenceLane} and is used by one thread at a time.
+ */
+public interface InferenceBackend extends AutoCloseable {
+
+    enum Type {
+        /** Frozen TensorFlow graphs (*.pb) through nd4j-tensorflow GraphRunner. */
+        TENSORFLOW,
+        /** Keras models (*.h5) imported into DL4J ComputationGraphs, run natively by ND4J. */
+        DL4J
+    }
+
+    String BBOX = "bbox";
+    String CLASS = "class";
+    String LANDMARK = "landmark";
+
+    /** Returns {@link #BBOX} [N, w, h, 4] and {@link #CLASS} [N, w, h, 2]. */
+    Map<String, INDArray> runPNet(INDArray input);
+
+    /** Returns {@link #BBOX} [N, 4] and {@link #CLASS} [N, 2]. */
+    Map<String, INDArray> runRNet(INDArray input);
+
+    /** Returns {@link #BBOX} [N, 4], {@link #LANDMARK} [N, 10] and {@link #CLASS} [N, 2]. */
+    Map<String, INDArray> runONet(INDArray input);
+
+    @Override
+    void close();
+
+    /**
+     * Parses the model files once and hands out independent backends, one per
+     * lane.
+     */
+    interface Loader {
+
+        /**
+         * Reads the networks with {@code readModel}, which maps a file name to its
+         * bytes. Called once before {@link #create()}.
+         */
+        void load(Function<String, byte[]> readModel, ExecutorService executor);
+
+        /** May be called concurrently, once per lane. */
+        InferenceBackend create();
+    }
+}
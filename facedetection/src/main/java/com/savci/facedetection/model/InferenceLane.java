@@ -0,0 +1,52 @@
+package com.savci.facedetection.model;
+
+/**
+ * One independent inference backend instance for PNet, RNet and ONet. A lane
+ * is used by a single frame at a time; {@link MTCNN} keeps a pool of them.
+ */
+class InferenceLane implements AutoCloseable {
+
+    private final int id;
+    private final InferenceBackend backend;
+    private final TensorPreprocessor preprocessor = new TensorPreprocessor();
+    private final FramePlanCache plans;
+
+    InferenceLane(int id, InferenceBackend backend, FramePlanCache plans) {
+        this.id = id;
+        this.backend = backend;
+        this.plans = plans;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    InferenceBackend getBackend() {
+        return backend;
+    }
+
+    TensorPreprocessor getPreprocessor() {
+        return preprocessor;
+    }
+
+    FramePlanCache getPlans() {
+        return plans;
+    }
+
+    /**
+     * Frees the plans and preprocessing buffers of a lane unused for idleNanos;
+     * the next frame allocates them again.
+     */
+    void releaseIfIdle(long now, long idleNanos) {
+        if (plans.releaseIfIdle(now, idleNanos)) {
+            preprocessor.release();
+        }
+    }
+
+    @Override
+    public void close() {
+        plans.close();
+        preprocessor.release();
+        backend.close();
+    }
+}
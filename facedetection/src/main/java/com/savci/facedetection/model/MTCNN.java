@@ -1,115 +1,586 @@
 package com.savci.facedetection.model;
 
+import com.savci.facedetection.config.FaceDetectionProperties;
+
 import org.apache.commons.io.IOUtils;
 import org.bytedeco.opencv.opencv_core.Mat;
-import org.bytedeco.opencv.opencv_core.Size;
-import org.datavec.image.loader.NativeImageLoader;
-import org.nd4j.common.io.Assert;
+import org.bytedeco.opencv.opencv_core.Rect;
 import org.nd4j.common.io.ClassPathResource;
 import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.memory.conf.WorkspaceConfiguration;
+import org.nd4j.linalg.api.memory.enums.AllocationPolicy;
+import org.nd4j.linalg.api.memory.enums.LearningPolicy;
+import org.nd4j.linalg.api.memory.enums.ResetPolicy;
+import org.nd4j.linalg.api.memory.enums.SpillPolicy;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.indexing.INDArrayIndex;
 import org.nd4j.linalg.indexing.conditions.Conditions;
-import org.nd4j.tensorflow.conversion.graphrunner.GraphRunner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.stereotype.Component;
-import org.tensorflow.framework.ConfigProto;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
-import static org.bytedeco.opencv.global.opencv_imgproc.CV_INTER_AREA;
-import static org.bytedeco.opencv.global.opencv_imgproc.resize;
 import static org.nd4j.linalg.indexing.NDArrayIndex.*;
 
-@Component
 public class MTCNN {
 
     public enum NMS_METHOD {
         MIN, UNION
     }
 
-    private static final int minFaceSize = 20;
     private static final double scaleFactor = 0.709;
     private static final List<Double> stepsTreshold = Arrays.asList(0.6, 0.7, 0.7);
-    private static final NativeImageLoader loader = new NativeImageLoader();
-    private static GraphRunner pNet;
-    private static GraphRunner rNet;
-    private static GraphRunner oNet;
     private static final Logger LOGGER = LoggerFactory.getLogger(MTCNN.class);
 
+    // Sized by the first frame, grows when a larger one needs more; workspaces are per thread
+    private static final String FRAME_WORKSPACE = "MTCNN_FRAME";
+    private static final WorkspaceConfiguration FRAME_WORKSPACE_CONFIG = WorkspaceConfiguration.builder()
+            .policyAllocation(AllocationPolicy.OVERALLOCATE)
+            .overallocationLimit(0.2)
+            .policyLearning(LearningPolicy.FIRST_LOOP)
+            .policyReset(ResetPolicy.BLOCK_LEFT)
+            .policySpill(SpillPolicy.REALLOCATE)
+            .build();
+
+    private final FaceDetectionProperties properties;
+    private final BoxKernels boxKernels;
+    private final List<InferenceLane> allLanes = new ArrayList<>();
+    private final BlockingQueue<InferenceLane> lanes = new LinkedBlockingQueue<>();
+    private final Map<String, Long> startupTimings = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Map<Thread, MemoryWorkspace> frameWorkspaces = new ConcurrentHashMap<>();
+    private ExecutorService tileExecutor;
+    private ExecutorService batchExecutor;
+    private ScheduledExecutorService planSweeper;
+
+    public MTCNN(FaceDetectionProperties properties) {
+        this.properties = properties;
+        this.boxKernels = BoxKernels.create(properties.getPostprocessing().getKernel());
+    }
+
     @PostConstruct
     public void initialize() {
         Nd4j.setDefaultDataTypes(DataType.FLOAT, DataType.FLOAT);
+        long start = System.nanoTime();
+        if (properties.getAutotune().isEnabled()) {
+            new MTCNNAutotuner(properties).resolve();
+            start = recordPhase("autotune", start);
+        }
+        int laneCount = Math.max(1, properties.getInference().getLanes());
+        ExecutorService loaders = Executors.newFixedThreadPool(
+                Math.min(laneCount * 3, Runtime.getRuntime().availableProcessors()));
+        try {
+            long phase = System.nanoTime();
+            InferenceBackend.Loader loader = loader(properties.getInference().getBackend());
+            loader.load(this::readModel, loaders);
+            phase = recordPhase("modelRead", phase);
+
+            List<CompletableFuture<InferenceLane>> laneFutures = new ArrayList<>();
+            for (int id = 0; id < laneCount; id++) {
+                final int laneId = id;
+                laneFutures.add(CompletableFuture.supplyAsync(() -> new InferenceLane(laneId, loader.create(),
+                        new FramePlanCache(properties.getMemory().getPlanCacheSize(), scaleFactor)), loaders));
+            }
+            laneFutures.forEach(future -> allLanes.add(future.join()));
+            phase = recordPhase("sessionCreation", phase);
+
+            if (properties.getWarmup().isEnabled()) {
+                CompletableFuture.allOf(allLanes.stream()
+                        .map(lane -> CompletableFuture.runAsync(() -> {
+                            try {
+                                warmUp(lane);
+                            } finally {
+                                // The loader threads go away with the pool, their workspaces must not outlive them
+                                destroyFrameWorkspace();
+                            }
+                        }, loaders))
+                        .toArray(CompletableFuture[]::new)).join();
+                recordPhase("warmup", phase);
+            }
+        } finally {
+            loaders.shutdown();
+        }
+        lanes.addAll(allLanes);
+        if (properties.getTiling().isEnabled()) {
+            AtomicInteger tileThreads = new AtomicInteger();
+            tileExecutor = Executors.newFixedThreadPool(laneCount, task -> {
+                Thread thread = new Thread(task, "mtcnn-tile-" + tileThreads.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        if (laneCount > 1 && properties.getInference().isParallelBatches()) {
+            AtomicInteger batchThreads = new AtomicInteger();
+            batchExecutor = Executors.newFixedThreadPool(laneCount - 1, task -> {
+                Thread thread = new Thread(task, "mtcnn-batch-" + batchThreads.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        long planIdleSeconds = properties.getMemory().getPlanIdleSeconds();
+        if (planIdleSeconds > 0 && properties.getMemory().getPlanCacheSize() > 0) {
+            planSweeper = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "mtcnn-plan-sweeper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(1, planIdleSeconds / 2);
+            planSweeper.scheduleWithFixedDelay(() -> releaseIdleLanes(TimeUnit.SECONDS.toNanos(planIdleSeconds)),
+                    period, period, TimeUnit.SECONDS);
+        }
+        recordPhase("total", start);
+        LOGGER.info("MTCNN ready with {} {} lanes, precision pnet={} rnet={} onet={}, startup phases (ms): {}",
+                laneCount, properties.getInference().getBackend(), properties.getModel().getPrecision().getPnet(),
+                properties.getModel().getPrecision().getRnet(), properties.getModel().getPrecision().getOnet(),
+                startupTimings);
+    }
 
-        pNet = createGraphRunner("model/pnet.pb", "input_1:0", "conv2d_5/BiasAdd:0", "softmax_1/truediv:0");
-        rNet = createGraphRunner("model/rnet.pb", "input_2:0", "dense_3/BiasAdd:0", "softmax_2/Softmax:0");
-        oNet = createGraphRunner("model/onet.pb", "input_3:0", "dense_6/BiasAdd:0", "dense_7/BiasAdd:0",
-                "softmax_3/Softmax:0");
+    @PreDestroy
+    public void close() {
+        if (tileExecutor != null) {
+            tileExecutor.shutdownNow();
+        }
+        if (batchExecutor != null) {
+            batchExecutor.shutdownNow();
+        }
+        if (planSweeper != null) {
+            planSweeper.shutdownNow();
+        }
+        allLanes.forEach(InferenceLane::close);
+        frameWorkspaces.clear();
     }
 
-    private GraphRunner createGraphRunner(String tensorflowModelUri, String inputName, String... outputName) {
+    /**
+     * Frees the frame plans and buffers of lanes that sat idle for idleNanos. A
+     * lane is only touched while it is out of the pool, so never mid-frame.
+     */
+    private void releaseIdleLanes(long idleNanos) {
+        long now = System.nanoTime();
+        for (InferenceLane lane : allLanes) {
+            if (lanes.remove(lane)) {
+                try {
+                    lane.releaseIfIdle(now, idleNanos);
+                } finally {
+                    lanes.offer(lane);
+                }
+            }
+        }
+    }
+
+    /**
+     * Off-heap bytes currently reserved by the per-frame workspaces of all
+     * detecting threads.
+     */
+    public long getFrameWorkspaceBytes() {
+        // Dropping a finished thread's entry lets ND4J free its workspace along with the thread's locals
+        frameWorkspaces.keySet().removeIf(thread -> !thread.isAlive());
+        return frameWorkspaces.values().stream().mapToLong(MemoryWorkspace::getCurrentSize).sum();
+    }
+
+    private void destroyFrameWorkspace() {
+        MemoryWorkspace workspace = frameWorkspaces.remove(Thread.currentThread());
+        if (workspace != null) {
+            Nd4j.getWorkspaceManager().destroyWorkspace(workspace);
+        }
+    }
+
+    public int getLaneCount() {
+        return allLanes.size();
+    }
+
+    /**
+     * Startup phase durations in milliseconds, in the order they ran.
+     */
+    public Map<String, Long> getStartupTimings() {
+        return Collections.unmodifiableMap(startupTimings);
+    }
+
+    private long recordPhase(String name, long phaseStart) {
+        long now = System.nanoTime();
+        startupTimings.put(name, TimeUnit.NANOSECONDS.toMillis(now - phaseStart));
+        return now;
+    }
+
+    byte[] readModel(String fileName) {
+        String directory = properties.getModel().getDirectory();
         try {
-            ConfigProto configProto = ConfigProto.newBuilder()
-                    .setInterOpParallelismThreads(8)
-                    .build();
-
-            return GraphRunner.builder()
-                    .graphBytes(IOUtils.toByteArray(new ClassPathResource(tensorflowModelUri).getInputStream()))
-                    .inputNames(Collections.singletonList(inputName))
-                    .outputNames(Arrays.asList(outputName))
-                    .sessionOptionsConfigProto(configProto)
-                    .build();
+            if (directory == null || directory.isBlank()) {
+                try (InputStream in = new ClassPathResource("model/" + fileName).getInputStream()) {
+                    return IOUtils.toByteArray(in);
+                }
+            }
+            try (FileChannel channel = FileChannel.open(Path.of(directory, fileName), StandardOpenOption.READ)) {
+                // Both backends need the whole model as a byte[], so the mapping saves the stream copies but not this one
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                byte[] graph = new byte[mapped.remaining()];
+                mapped.get(graph);
+                return graph;
+            }
         } catch (IOException e) {
-            throw new IllegalStateException(
-                    String.format("Failed to load TF model [%s] and input [%s]:", tensorflowModelUri, inputName), e);
+            throw new UncheckedIOException(String.format(
+                    "Failed to read model [%s]; reduced-precision models are generated by tools/quantize_models.py",
+                    fileName), e);
+        }
+    }
+
+    InferenceBackend.Loader loader(InferenceBackend.Type type) {
+        switch (type) {
+            case DL4J:
+                return new Dl4jBackend.Loader(properties);
+            default:
+                return new TensorFlowBackend.Loader(properties);
+        }
+    }
+
+    /**
+     * Runs synthetic frames at the configured resolutions through the lane, then
+     * feeds RNet and ONet directly since noise rarely yields PNet proposals.
+     */
+    private void warmUp(InferenceLane lane) {
+        FaceDetectionProperties.Warmup warmup = properties.getWarmup();
+        Random random = new Random(lane.getId());
+        try {
+            for (String resolution : warmup.getResolutions()) {
+                try (Mat frame = MTCNNUtils.syntheticFrame(resolution, random)) {
+                    for (int i = 0; i < warmup.getIterations(); i++) {
+                        detect(lane, frame);
+                    }
+                }
+            }
+            for (int batch : new int[] { 1, 16 }) {
+                lane.getBackend().runRNet(Nd4j.zeros(batch, 24, 24, 3));
+                lane.getBackend().runONet(Nd4j.zeros(batch, 48, 48, 3));
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Warm-up failed on lane " + lane.getId(), e);
+        }
+    }
+
+    /**
+     * Runs RNet then ONet on a batch of blank crops and returns the elapsed nanos,
+     * honouring the configured batch size. Used by the autotuner.
+     */
+    long timeRefinementStages(int crops) throws InterruptedException {
+        InferenceLane lane = lanes.take();
+        try {
+            long start = System.nanoTime();
+            runBatched(lane.getBackend()::runRNet, Nd4j.zeros(crops, 24, 24, 3));
+            runBatched(lane.getBackend()::runONet, Nd4j.zeros(crops, 48, 48, 3));
+            return System.nanoTime() - start;
+        } finally {
+            lanes.offer(lane);
+        }
+    }
+
+    /**
+     * Runs the graph on slices of at most inference.batch-size crops and
+     * concatenates the outputs, or on the whole batch when the size is 0.
+     */
+    private Map<String, INDArray> runBatched(Function<INDArray, Map<String, INDArray>> net, INDArray batch) {
+        int batchSize = properties.getInference().getBatchSize();
+        long total = batch.size(0);
+        if (batchSize <= 0 || total <= batchSize) {
+            return net.apply(batch);
+        }
+        Map<String, List<INDArray>> parts = new LinkedHashMap<>();
+        for (long from = 0; from < total; from += batchSize) {
+            INDArray slice = batch.get(interval(from, Math.min(from + batchSize, total)), all(), all(), all()).dup();
+            net.apply(slice)
+                    .forEach((name, value) -> parts.computeIfAbsent(name, k -> new ArrayList<>()).add(value));
         }
+        Map<String, INDArray> merged = new LinkedHashMap<>();
+        parts.forEach((name, values) -> merged.put(name, Nd4j.concat(0, values.toArray(new INDArray[0]))));
+        return merged;
+    }
+
+    /**
+     * Crops the boxes and runs the net on them in sub-batches of at most
+     * inference.batch-size crops, and concatenates the outputs in box order.
+     * Lanes idle at the time help: each claims the next sub-batch, crops it with
+     * its own buffers and runs it on its own sessions, so one lane's cropping
+     * overlaps another's inference. The frame's own lane works through the
+     * sub-batches too, so the frame never waits for a lane.
+     */
+    private Map<String, INDArray> runCropBatches(InferenceLane lane, Mat image, FaceDetectionDto faceDetectionDto,
+            int numBoxes, int size, BiFunction<InferenceBackend, INDArray, Map<String, INDArray>> net,
+            Cancellation cancellation) {
+        int batchSize = properties.getInference().getBatchSize();
+        if (batchSize <= 0 || numBoxes <= batchSize) {
+            return net.apply(lane.getBackend(),
+                    lane.getPreprocessor().cropBatch(image, faceDetectionDto, numBoxes, size));
+        }
+        // Read once here, the helpers must not touch this thread's workspace arrays
+        TensorPreprocessor.CropBoxes boxes = TensorPreprocessor.CropBoxes.of(faceDetectionDto);
+        int parts = (numBoxes + batchSize - 1) / batchSize;
+        List<Map<String, INDArray>> outputs = new ArrayList<>(Collections.nCopies(parts, null));
+        AtomicInteger nextPart = new AtomicInteger();
+        Consumer<InferenceLane> worker = working -> {
+            for (int part = nextPart.getAndIncrement(); part < parts; part = nextPart.getAndIncrement()) {
+                cancellation.throwIfCancelled();
+                int from = part * batchSize;
+                INDArray crops = working.getPreprocessor().cropBatch(image, boxes, from,
+                        Math.min(from + batchSize, numBoxes), size);
+                outputs.set(part, net.apply(working.getBackend(), crops));
+            }
+        };
+
+        List<CompletableFuture<Void>> helpers = new ArrayList<>();
+        for (int i = 1; batchExecutor != null && i < parts; i++) {
+            InferenceLane idle = lanes.poll();
+            if (idle == null) {
+                break;
+            }
+            try {
+                helpers.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        worker.accept(idle);
+                    } finally {
+                        lanes.offer(idle);
+                    }
+                }, batchExecutor));
+            } catch (RejectedExecutionException e) {
+                lanes.offer(idle);
+                break;
+            }
+        }
+        RuntimeException failure = null;
+        try {
+            worker.accept(lane);
+        } catch (RuntimeException e) {
+            // Stops the helpers after their current sub-batch
+            nextPart.set(parts);
+            failure = e;
+        }
+        // Wait for every helper before failing, they read the caller's image
+        try {
+            CompletableFuture.allOf(helpers.toArray(CompletableFuture[]::new)).join();
+        } catch (CompletionException e) {
+            if (failure == null) {
+                failure = e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+
+        Map<String, List<INDArray>> byName = new LinkedHashMap<>();
+        outputs.forEach(output -> output
+                .forEach((name, value) -> byName.computeIfAbsent(name, k -> new ArrayList<>()).add(value)));
+        Map<String, INDArray> merged = new LinkedHashMap<>();
+        byName.forEach((name, values) -> merged.put(name, Nd4j.concat(0, values.toArray(new INDArray[0]))));
+        return merged;
     }
 
     public FaceAnnotation[] detectFace(Mat image) throws Exception {
-        double m = 12D / minFaceSize;
-        double minLayer = Math.min(image.rows(), image.cols()) * m;
+        return detect(image, DetectionOptions.DEFAULT).toAnnotations();
+    }
 
-        List<Double> scales = MTCNNUtils.computeScalePyramid(m, minLayer, scaleFactor);
+    public FaceAnnotation[] detectFace(Mat image, DetectionOptions options) throws Exception {
+        return detect(image, options).toAnnotations();
+    }
 
-        Object[] proposalResult = proposal(image, scales);
+    public FaceDetections detect(Mat image) throws Exception {
+        return detect(image, DetectionOptions.DEFAULT);
+    }
 
-        Object[] refinementResult = refinement(image, (INDArray) proposalResult[0],
-                (FaceDetectionDto) proposalResult[1]);
+    public FaceDetections detect(Mat image, DetectionOptions options) throws Exception {
+        return detect(image, options, Cancellation.NONE);
+    }
 
-        INDArray[] outputResult = output(image, (INDArray) refinementResult[0], (FaceDetectionDto) refinementResult[1]);
+    /**
+     * Detects unless cancelled first, see {@link Cancellation} for where it is
+     * checked.
+     */
+    public FaceDetections detect(Mat image, DetectionOptions options, Cancellation cancellation) throws Exception {
+        if (isTiled(image, options)) {
+            return detectTiled(image, options, cancellation);
+        }
+        InferenceLane lane = lanes.take();
+        try {
+            return detect(lane, image, options, cancellation);
+        } finally {
+            lanes.offer(lane);
+        }
+    }
 
-        INDArray totalBoxes = outputResult[0];
-        INDArray points = outputResult[1];
+    /**
+     * Frames above tiling.min-image-side are tiled unless the options already
+     * cap their resolution, which bounds the pyramid on its own.
+     */
+    private boolean isTiled(Mat image, DetectionOptions options) {
+        FaceDetectionProperties.Tiling tiling = properties.getTiling();
+        return tileExecutor != null && options.maxInputSide() == 0 && options.maxFaceSize() == 0
+                && options.minFaceSize() < tiling.getMaxFaceSize()
+                && Math.max(image.rows(), image.cols()) > tiling.getMinImageSide();
+    }
 
-        FaceAnnotation[] faceAnnotation = toFaceAnnotation(totalBoxes, points);
+    /**
+     * Detects faces up to tiling.max-face-size on overlapping tiles and larger
+     * ones with a coarse pass over the whole frame, whose pyramid starts at that
+     * size and so stays small. The passes run in parallel, each on its own lane
+     * and frame workspace, so no single pyramid spans the full resolution.
+     */
+    private FaceDetections detectTiled(Mat image, DetectionOptions options, Cancellation cancellation)
+            throws Exception {
+        FaceDetectionProperties.Tiling tiling = properties.getTiling();
+        int maxFaceSize = tiling.getMaxFaceSize();
+        List<TiledDetection.Tile> tiles = new ArrayList<>(TiledDetection.tiles(image.cols(), image.rows(),
+                tiling.getTileSize(), TiledDetection.overlap(maxFaceSize)));
+        List<DetectionOptions> tileOptions = new ArrayList<>(Collections.nCopies(tiles.size(),
+                options.withFaceSizes(options.minFaceSize(), maxFaceSize)));
+        tiles.add(new TiledDetection.Tile(0, 0, image.cols(), image.rows()));
+        tileOptions.add(options.withFaceSizes(maxFaceSize, 0));
+
+        List<CompletableFuture<FaceDetections>> futures = new ArrayList<>(tiles.size());
+        for (int i = 0; i < tiles.size(); i++) {
+            TiledDetection.Tile tile = tiles.get(i);
+            DetectionOptions tileOption = tileOptions.get(i);
+            futures.add(CompletableFuture.supplyAsync(() -> detectTile(image, tile, tileOption, cancellation),
+                    tileExecutor));
+        }
+        // Wait for every tile before failing, the tiles are views of the caller's image
+        try {
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+        List<FaceDetections> parts = futures.stream().map(CompletableFuture::join).toList();
+        return TiledDetection.merge(tiles, parts, image.cols(), image.rows(),
+                options.level() == DetectionLevel.FULL);
+    }
 
-        return faceAnnotation;
+    private FaceDetections detectTile(Mat image, TiledDetection.Tile tile, DetectionOptions options,
+            Cancellation cancellation) {
+        try (Rect rect = new Rect(tile.x(), tile.y(), tile.width(), tile.height());
+                Mat view = image.apply(rect)) {
+            InferenceLane lane = lanes.take();
+            try {
+                return detect(lane, view, options, cancellation);
+            } finally {
+                lanes.offer(lane);
+            }
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
     }
 
-    Object[] proposal(Mat image, List<Double> scales) throws IOException {
-        INDArray totalBoxes = Nd4j.empty();
+    FaceDetections detect(InferenceLane lane, Mat image) throws Exception {
+        return detect(lane, image, DetectionOptions.DEFAULT);
+    }
 
-        for (Double scale : scales) {
-            Mat scaledImage = MTCNNUtils.scaleImage(image, scale);
+    /**
+     * Every INDArray of the frame is allocated in this thread's frame workspace
+     * and its memory is reused by the next frame once the scope closes; only the
+     * Java-side result leaves it.
+     */
+    FaceDetections detect(InferenceLane lane, Mat image, DetectionOptions options) throws Exception {
+        return detect(lane, image, options, Cancellation.NONE);
+    }
 
-            INDArray img = loader.asMatrix(scaledImage);
+    FaceDetections detect(InferenceLane lane, Mat image, DetectionOptions options, Cancellation cancellation)
+            throws Exception {
+        // The frame may have been cancelled while it waited for the lane
+        cancellation.throwIfCancelled();
+        try (MemoryWorkspace workspace = Nd4j.getWorkspaceManager()
+                .getAndActivateWorkspace(FRAME_WORKSPACE_CONFIG, FRAME_WORKSPACE)) {
+            frameWorkspaces.put(Thread.currentThread(), workspace);
+            return runCascade(lane, image, options, cancellation);
+        }
+    }
+
+    /**
+     * Runs the cascade with the lane's plan for this resolution and options, so
+     * a fixed-resolution stream reuses its scale list and pyramid Mats.
+     */
+    private FaceDetections runCascade(InferenceLane lane, Mat image, DetectionOptions options,
+            Cancellation cancellation) throws Exception {
+        FramePlanCache plans = lane.getPlans();
+        FramePlan plan = plans.acquire(new FramePlan.Key(image.cols(), image.rows(), options.minFaceSize(),
+                options.maxFaceSize(), options.maxInputSide()));
+        try {
+            return runCascade(lane, image, options, plan, cancellation);
+        } finally {
+            plans.release(plan);
+        }
+    }
 
-            img = img.permute(0, 3, 2, 1);
-            INDArray imgNormalized = img.sub(127.5).mul(0.0078125);
+    private FaceDetections runCascade(InferenceLane lane, Mat image, DetectionOptions options, FramePlan plan,
+            Cancellation cancellation) throws Exception {
+        if (plan.downscale() < 1) {
+            return runCascade(lane, plan.downscaled(image), new DetectionOptions(options.minFaceSize(),
+                    options.maxFaceSize(), 0, options.level()), cancellation).scaled(1 / plan.downscale());
+        }
+
+        Object[] proposalResult = proposal(lane, image, plan, cancellation);
+
+        if (options.level() == DetectionLevel.PROPOSAL_ONLY) {
+            return FaceDetections.fromBoxes((INDArray) proposalResult[0], (INDArray) proposalResult[2]);
+        }
+
+        cancellation.throwIfCancelled();
+        Object[] refinementResult = refinement(lane, image, (INDArray) proposalResult[0],
+                (FaceDetectionDto) proposalResult[1], cancellation);
+
+        if (options.level() == DetectionLevel.REFINED) {
+            return FaceDetections.fromBoxes((INDArray) refinementResult[0], (INDArray) refinementResult[2]);
+        }
+
+        cancellation.throwIfCancelled();
+        INDArray[] outputResult = output(lane, image, (INDArray) refinementResult[0],
+                (FaceDetectionDto) refinementResult[1], cancellation);
+
+        return FaceDetections.fromCascade(outputResult[0], outputResult[1]);
+    }
+
+    /**
+     * Returns the calibrated boxes, their padding and their PNet scores.
+     */
+    Object[] proposal(InferenceLane lane, Mat image, FramePlan plan, Cancellation cancellation) throws IOException {
+        INDArray totalBoxes = Nd4j.empty();
+        INDArray scores = Nd4j.empty();
 
-            Map<String, INDArray> resultMap = pNet.run(Collections.singletonMap("input_1:0", imgNormalized));
-            INDArray proposal_class = resultMap.get("softmax_1/truediv:0");
-            INDArray proposal_bbox = resultMap.get("conv2d_5/BiasAdd:0");
+        List<Double> scales = plan.scales();
+        for (int level = 0; level < scales.size(); level++) {
+            cancellation.throwIfCancelled();
+            double scale = scales.get(level);
+            INDArray imgNormalized = lane.getPreprocessor().toPNetInput(plan.level(image, level));
 
-            INDArray boxes = MTCNNUtils.generateBoundingBox(
+            Map<String, INDArray> resultMap = lane.getBackend().runPNet(imgNormalized);
+            INDArray proposal_class = resultMap.get(InferenceBackend.CLASS);
+            INDArray proposal_bbox = resultMap.get(InferenceBackend.BBOX);
+
+            INDArray boxes = boxKernels.generateBoundingBox(
                     proposal_class.get(point(0), all(), all(), point(1)),
                     proposal_bbox.get(point(0), all(), all(), all()), scale, stepsTreshold.get(0))[0];
 
@@ -130,6 +601,7 @@ public class MTCNN {
         if (!totalBoxes.isEmpty()) {
             INDArray pick = MTCNNUtils.nms(totalBoxes, 0.7, NMS_METHOD.UNION);
             totalBoxes = totalBoxes.get(indices(pick.toLongVector()), all());
+            scores = totalBoxes.get(all(), point(4)).dup();
 
             INDArray x2 = totalBoxes.get(all(), point(2));
             INDArray x1 = totalBoxes.get(all(), point(0));
@@ -145,26 +617,27 @@ public class MTCNN {
             INDArray qq4 = y2.add(totalBoxes.get(all(), point(8)).mul(regh));
 
             totalBoxes = Nd4j.vstack(qq1, qq2, qq3, qq4).transpose();
-            totalBoxes = MTCNNUtils.rerec(totalBoxes.dup());
+            totalBoxes = boxKernels.rerec(totalBoxes.dup());
 
         }
-        return new Object[] { totalBoxes, MTCNNUtils.pad(totalBoxes, image.cols(), image.rows()) };
+        return new Object[] { totalBoxes, boxKernels.pad(totalBoxes, image.cols(), image.rows()), scores };
     }
 
-    Object[] refinement(Mat image, INDArray totalBoxes, FaceDetectionDto faceDetectionDto) throws IOException {
+    /**
+     * Returns the refined boxes, their padding and their RNet scores, taken
+     * before rerec floors the score column.
+     */
+    Object[] refinement(InferenceLane lane, Mat image, INDArray totalBoxes, FaceDetectionDto faceDetectionDto,
+            Cancellation cancellation) throws IOException {
         int numBoxes = totalBoxes.isEmpty() ? 0 : (int) totalBoxes.shape()[0];
 
         if (numBoxes == 0) {
-            return new Object[] { totalBoxes, faceDetectionDto };
+            return new Object[] { totalBoxes, faceDetectionDto, Nd4j.empty() };
         }
-        INDArray img = loader.asMatrix(image);
-        img = img.get(point(0), all(), all(), all()).permute(1, 2, 0);
-
-        INDArray tempImg1 = computeTempImage(img, numBoxes, faceDetectionDto, 24);
-
-        Map<String, INDArray> resultMap = rNet.run(Collections.singletonMap("input_2:0", tempImg1));
-        INDArray refinement_class = resultMap.get("softmax_2/Softmax:0");
-        INDArray refinement_bbox = resultMap.get("dense_3/BiasAdd:0");
+        Map<String, INDArray> resultMap = runCropBatches(lane, image, faceDetectionDto, numBoxes, 24,
+                InferenceBackend::runRNet, cancellation);
+        INDArray refinement_class = resultMap.get(InferenceBackend.CLASS);
+        INDArray refinement_bbox = resultMap.get(InferenceBackend.BBOX);
 
         INDArray score = refinement_class.get(all(), point(1));
 
@@ -172,7 +645,7 @@ public class MTCNN {
                 null, null)[0];
 
         if (ipass.length() == 0) {
-            return new Object[] { Nd4j.empty(), faceDetectionDto };
+            return new Object[] { Nd4j.empty(), faceDetectionDto, Nd4j.empty() };
         }
 
         INDArray boxes = totalBoxes.get(indices(ipass.toLongVector()), all()).dup();
@@ -180,39 +653,38 @@ public class MTCNN {
         totalBoxes = Nd4j.hstack(boxes, Nd4j.expandDims(s, 1));
 
         INDArray mv = refinement_bbox.get(indices(ipass.toLongVector()), all());
+        INDArray scores = Nd4j.empty();
 
         if (!totalBoxes.isEmpty() && totalBoxes.shape()[0] > 0) {
             INDArray pick = MTCNNUtils.nms(totalBoxes.dup(), 0.7, NMS_METHOD.UNION);
 
             totalBoxes = totalBoxes.get(indices(pick.toLongVector()), all());
+            scores = totalBoxes.get(all(), point(4)).dup();
 
-            totalBoxes = MTCNNUtils.bbreg(totalBoxes, mv.get(indices(pick.toLongVector()), all()));
+            totalBoxes = boxKernels.bbreg(totalBoxes, mv.get(indices(pick.toLongVector()), all()));
 
-            totalBoxes = MTCNNUtils.rerec(totalBoxes); // rerec include floor
+            totalBoxes = boxKernels.rerec(totalBoxes); // rerec include floor
         }
 
-        faceDetectionDto = MTCNNUtils.pad(totalBoxes, image.cols(), image.rows());
+        faceDetectionDto = boxKernels.pad(totalBoxes, image.cols(), image.rows());
 
-        return new Object[] { totalBoxes, faceDetectionDto };
+        return new Object[] { totalBoxes, faceDetectionDto, scores };
     }
 
-    INDArray[] output(Mat image, INDArray totalBoxes, FaceDetectionDto faceDetectionDto) throws IOException {
+    INDArray[] output(InferenceLane lane, Mat image, INDArray totalBoxes, FaceDetectionDto faceDetectionDto,
+            Cancellation cancellation) throws IOException {
         int numBoxes = totalBoxes.isEmpty() ? 0 : (int) totalBoxes.shape()[0];
 
         if (numBoxes == 0) {
             return new INDArray[] { totalBoxes, Nd4j.empty() };
         }
 
-        INDArray img = loader.asMatrix(image);
-        img = img.get(point(0), all(), all(), all()).permute(1, 2, 0);
-
-        INDArray tempImg1 = computeTempImage(img, numBoxes, faceDetectionDto, 48);
-
-        Map<String, INDArray> resultMap = oNet.run(Collections.singletonMap("input_3:0", tempImg1));
+        Map<String, INDArray> resultMap = runCropBatches(lane, image, faceDetectionDto, numBoxes, 48,
+                InferenceBackend::runONet, cancellation);
 
-        INDArray output_class = resultMap.get("softmax_3/Softmax:0");
-        INDArray output_bbox = resultMap.get("dense_6/BiasAdd:0");
-        INDArray output_landmark = resultMap.get("dense_7/BiasAdd:0");
+        INDArray output_class = resultMap.get(InferenceBackend.CLASS);
+        INDArray output_bbox = resultMap.get(InferenceBackend.BBOX);
+        INDArray output_landmark = resultMap.get(InferenceBackend.LANDMARK);
 
         INDArray score = output_class.get(all(), point(1));
 
@@ -248,7 +720,7 @@ public class MTCNN {
 
         if (totalBoxes.shape()[0] > 0) {
 
-            totalBoxes = MTCNNUtils.bbreg(totalBoxes.dup(), mv);
+            totalBoxes = boxKernels.bbreg(totalBoxes.dup(), mv);
 
             INDArray pick = MTCNNUtils.nms(totalBoxes.dup(), 0.7, NMS_METHOD.MIN);
 
@@ -259,92 +731,4 @@ public class MTCNN {
 
         return new INDArray[] { totalBoxes, points };
     }
-
-    INDArray computeTempImage(INDArray image, int numBoxes, FaceDetectionDto faceDetectionDto, int size)
-            throws IOException {
-
-        INDArray tempImg = Nd4j.zeros(size, size, 3, numBoxes);
-
-        Size newSize = new Size(size, size);
-
-        for (int k = 0; k < numBoxes; k++) {
-            INDArray tmp = Nd4j.zeros(faceDetectionDto.getTmph().getInt(k), faceDetectionDto.getTmpw().getInt(k), 3);
-
-            tmp.put(new INDArrayIndex[] {
-                    interval(faceDetectionDto.getDy().getInt(k) - 1, faceDetectionDto.getEdy().getInt(k)),
-                    interval(faceDetectionDto.getDx().getInt(k) - 1, faceDetectionDto.getEdx().getInt(k)),
-                    all() },
-                    image.get(
-                            interval(faceDetectionDto.getY().getInt(k) - 1, faceDetectionDto.getEy().getInt(k)),
-                            interval(faceDetectionDto.getX().getInt(k) - 1, faceDetectionDto.getEx().getInt(k)),
-                            all()));
-
-            if ((tmp.shape()[0] > 0 && tmp.shape()[1] > 0) || (tmp.shape()[0] == 0 && tmp.shape()[1] == 0)) {
-
-                INDArray resizedImage = resizeArray(tmp.permute(2, 0, 1).dup(), newSize)
-                        .get(point(0), all(), all(), all()).permute(1, 2, 0).dup();
-
-                tempImg.put(new INDArrayIndex[] { all(), all(), all(), point(k) }, resizedImage);
-            } else {
-                return Nd4j.empty();
-            }
-        }
-
-        tempImg = tempImg.subi(127.5).muli(0.0078125);
-
-        INDArray tempImg1 = tempImg.permutei(3, 1, 0, 2).dup();
-
-        return tempImg1;
-    }
-
-    INDArray resizeArray(INDArray imageCHW, Size newSizeWH) throws IOException {
-        Assert.isTrue(imageCHW.size(0) == 3, "Input image is expected to have the [3, W, H] dimensions");
-        // Mat expects [C, H, W] dimensions
-        Mat mat = loader.asMat(imageCHW);
-        resize(mat, mat, newSizeWH, 0, 0, CV_INTER_AREA);
-        // [0, W, H, 3]
-        return loader.asMatrix(mat);
-    }
-
-    FaceAnnotation[] toFaceAnnotation(INDArray totalBoxes, INDArray points) {
-
-        if (totalBoxes.isEmpty()) {
-            return new FaceAnnotation[0];
-        }
-
-        org.springframework.util.Assert.isTrue(totalBoxes.rows() == points.rows(), "Inconsistent number of boxes ("
-                + totalBoxes.rows() + ") + and points (" + points.rows() + ")");
-
-        FaceAnnotation[] faceAnnotations = new FaceAnnotation[totalBoxes.rows()];
-        for (int i = 0; i < totalBoxes.rows(); i++) {
-            FaceAnnotation faceAnnotation = new FaceAnnotation();
-
-            faceAnnotation.setBoundingBox(FaceAnnotation.BoundingBox.of(totalBoxes.getInt(i, 0), // x
-                    totalBoxes.getInt(i, 1), // y
-                    totalBoxes.getInt(i, 2) - totalBoxes.getInt(i, 0), // w
-                    totalBoxes.getInt(i, 3) - totalBoxes.getInt(i, 1))); // h
-
-            faceAnnotation.setConfidence(totalBoxes.getDouble(i, 4));
-
-            faceAnnotation.setLandmarks(new FaceAnnotation.Landmark[5]);
-            faceAnnotation.getLandmarks()[0] = FaceAnnotation.Landmark.of(FaceAnnotation.Landmark.LandmarkType.LEFT_EYE,
-                    FaceAnnotation.Landmark.Position.of(points.getInt(i, 0), points.getInt(i, 5)));
-            faceAnnotation.getLandmarks()[1] = FaceAnnotation.Landmark.of(
-                    FaceAnnotation.Landmark.LandmarkType.RIGHT_EYE,
-                    FaceAnnotation.Landmark.Position.of(points.getInt(i, 1), points.getInt(i, 6)));
-            faceAnnotation.getLandmarks()[2] = FaceAnnotation.Landmark.of(FaceAnnotation.Landmark.LandmarkType.NOSE,
-                    FaceAnnotation.Landmark.Position.of(points.getInt(i, 2), points.getInt(i, 7)));
-            faceAnnotation.getLandmarks()[3] = FaceAnnotation.Landmark.of(
-                    FaceAnnotation.Landmark.LandmarkType.MOUTH_LEFT,
-                    FaceAnnotation.Landmark.Position.of(points.getInt(i, 3), points.getInt(i, 8)));
-            faceAnnotation.getLandmarks()[4] = FaceAnnotation.Landmark.of(
-                    FaceAnnotation.Landmark.LandmarkType.MOUTH_RIGHT,
-                    FaceAnnotation.Landmark.Position.of(points.getInt(i, 4), points.getInt(i, 9)));
-
-            faceAnnotations[i] = faceAnnotation;
-        }
-
-        return faceAnnotations;
-    }
-
-}
\ No newline at end of file
+}
@@ -0,0 +1,173 @@
+package com.savci.facedetection.model;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.savci.facedetection.config.FaceDetectionProperties;
+
+import org.bytedeco.opencv.global.opencv_imgcodecs;
+import org.bytedeco.opencv.opencv_core.Mat;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Compares a reduced-precision model configuration against FP32 on a local
+ * directory of images. FP32 detections are the reference: a candidate face
+ * matches when its box IoU with an unmatched reference face is at least the
+ * threshold. Reports recall/precision against FP32, IoU, confidence and
+ * landmark deltas, and mean detection time of both configurations.
+ *
+ * <pre>
+ * --images=eval/ --pnet=int8 --rnet=fp32 --onet=fp32 --iou=0.5 --output=precision-report.json
+ * </pre>
+ */
+public class MTCNNAccuracyReport {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Expected --key=value but got: " + arg);
+            }
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        Path images = Path.of(
+                options.getOrDefault("images", "facedetection/src/main/java/com/savci/facedetection/client"));
+        double iouThreshold = Double.parseDouble(options.getOrDefault("iou", "0.5"));
+
+        FaceDetectionProperties referenceProperties = properties(options.get("directory"));
+        FaceDetectionProperties candidateProperties = properties(options.get("directory"));
+        FaceDetectionProperties.Precision precision = candidateProperties.getModel().getPrecision();
+        precision.setPnet(precision(options.get("pnet")));
+        precision.setRnet(precision(options.get("rnet")));
+        precision.setOnet(precision(options.get("onet")));
+
+        MTCNN reference = new MTCNN(referenceProperties);
+        MTCNN candidate = new MTCNN(candidateProperties);
+        reference.initialize();
+        candidate.initialize();
+
+        List<Path> files;
+        try (Stream<Path> list = Files.isDirectory(images) ? Files.list(images) : Stream.of(images)) {
+            files = list.filter(MTCNNAccuracyReport::isImage).sorted().toList();
+        }
+
+        long referenceFaces = 0;
+        long candidateFaces = 0;
+        long matched = 0;
+        double iouSum = 0;
+        double confidenceDeltaSum = 0;
+        double landmarkErrorSum = 0;
+        long referenceNanos = 0;
+        long candidateNanos = 0;
+
+        for (Path file : files) {
+            FaceAnnotation[] expected;
+            FaceAnnotation[] actual;
+            try (Mat image = opencv_imgcodecs.imread(file.toString(), opencv_imgcodecs.IMREAD_COLOR)) {
+                if (image.empty()) {
+                    continue;
+                }
+                long start = System.nanoTime();
+                expected = reference.detectFace(image);
+                long middle = System.nanoTime();
+                actual = candidate.detectFace(image);
+                referenceNanos += middle - start;
+                candidateNanos += System.nanoTime() - middle;
+            }
+
+            referenceFaces += expected.length;
+            candidateFaces += actual.length;
+            boolean[] used = new boolean[expected.length];
+            for (FaceAnnotation face : actual) {
+                int best = -1;
+                double bestIou = iouThreshold;
+                for (int i = 0; i < expected.length; i++) {
+                    double iou = iou(face.getBoundingBox(), expected[i].getBoundingBox());
+                    if (!used[i] && iou >= bestIou) {
+                        best = i;
+                        bestIou = iou;
+                    }
+                }
+                if (best >= 0) {
+                    used[best] = true;
+                    matched++;
+                    iouSum += bestIou;
+                    confidenceDeltaSum += Math.abs(face.getConfidence() - expected[best].getConfidence());
+                    landmarkErrorSum += landmarkError(face, expected[best]);
+                }
+            }
+        }
+        reference.close();
+        candidate.close();
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("precision", Map.of("pnet", precision.getPnet(), "rnet", precision.getRnet(),
+                "onet", precision.getOnet()));
+        report.put("images", files.size());
+        report.put("referenceFaces", referenceFaces);
+        report.put("candidateFaces", candidateFaces);
+        report.put("matchedFaces", matched);
+        report.put("recall", referenceFaces == 0 ? 1.0 : (double) matched / referenceFaces);
+        report.put("precisionVsFp32", candidateFaces == 0 ? 1.0 : (double) matched / candidateFaces);
+        report.put("meanIou", matched == 0 ? 0.0 : iouSum / matched);
+        report.put("meanAbsConfidenceDelta", matched == 0 ? 0.0 : confidenceDeltaSum / matched);
+        report.put("meanLandmarkErrorPx", matched == 0 ? 0.0 : landmarkErrorSum / matched);
+        report.put("fp32MeanMillis", files.isEmpty() ? 0.0 : referenceNanos / 1e6 / files.size());
+        report.put("candidateMeanMillis", files.isEmpty() ? 0.0 : candidateNanos / 1e6 / files.size());
+
+        ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        System.out.println(mapper.writeValueAsString(report));
+        if (options.containsKey("output")) {
+            mapper.writeValue(new File(options.get("output")), report);
+        }
+    }
+
+    private static FaceDetectionProperties properties(String directory) {
+        FaceDetectionProperties properties = new FaceDetectionProperties();
+        properties.getModel().setDirectory(directory);
+        properties.getInference().setLanes(1);
+        properties.getWarmup().setEnabled(false);
+        return properties;
+    }
+
+    private static ModelPrecision precision(String value) {
+        return value == null ? ModelPrecision.FP32 : ModelPrecision.valueOf(value.toUpperCase(Locale.ROOT));
+    }
+
+    private static boolean isImage(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".png") || name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".bmp");
+    }
+
+    public static double iou(FaceAnnotation.BoundingBox a, FaceAnnotation.BoundingBox b) {
+        int ix = Math.max(0, Math.min(a.getX() + a.getW(), b.getX() + b.getW()) - Math.max(a.getX(), b.getX()));
+        int iy = Math.max(0, Math.min(a.getY() + a.getH(), b.getY() + b.getH()) - Math.max(a.getY(), b.getY()));
+        double intersection = (double) ix * iy;
+        double union = (double) a.getW() * a.getH() + (double) b.getW() * b.getH() - intersection;
+        return union <= 0 ? 0 : intersection / union;
+    }
+
+    private static double landmarkError(FaceAnnotation actual, FaceAnnotation expected) {
+        FaceAnnotation.Landmark[] a = actual.getLandmarks();
+        FaceAnnotation.Landmark[] e = expected.getLandmarks();
+        int count = Math.min(a.length, e.length);
+        if (count == 0) {
+            return 0;
+        }
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += Math.hypot(a[i].getPosition().getX() - e[i].getPosition().getX(),
+                    a[i].getPosition().getY() - e[i].getPosition().getY());
+        }
+        return sum / count;
+    }
+}
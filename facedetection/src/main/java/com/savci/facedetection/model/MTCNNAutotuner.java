@@ -0,0 +1,293 @@
+package com.savci.facedetection.model;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.savci.facedetection.config.FaceDetectionProperties;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Size;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.bytedeco.opencv.global.opencv_imgcodecs.IMREAD_COLOR;
+import static org.bytedeco.opencv.global.opencv_imgcodecs.imread;
+import static org.bytedeco.opencv.global.opencv_imgproc.INTER_AREA;
+import static org.bytedeco.opencv.global.opencv_imgproc.resize;
+
+/**
+ * Benchmarks a small grid of lane count, TensorFlow intra/inter-op threads and
+ * RNet/ONet batch size on a frame with faces, and keeps the configuration with the
+ * best throughput whose p95 latency stays under the configured ceiling. Results
+ * are stored per hardware fingerprint so later starts on the same host reuse
+ * them.
+ * <p>
+ * The search runs in two stages to keep it short: threading on whole frames
+ * first, then batch size on RNet/ONet crops with the winning threading.
+ */
+public class MTCNNAutotuner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MTCNNAutotuner.class);
+    private static final int BENCHMARK_CROPS = 256;
+
+    private final FaceDetectionProperties properties;
+    private final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    /**
+     * metCeiling is false for the fallback to the configured threading when no
+     * candidate stayed under the latency ceiling; such results are not stored.
+     */
+    public record Result(String fingerprint, int lanes, int intraOpThreads, int interOpThreads, int batchSize,
+            double framesPerSecond, double p95Millis, boolean metCeiling, String tunedAt) {
+    }
+
+    public MTCNNAutotuner(FaceDetectionProperties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * Applies the stored result for this host to the inference properties,
+     * tuning and storing one first if there is none. A result that missed the
+     * latency ceiling is applied but not stored, so the next start tunes again.
+     */
+    public Result resolve() {
+        Result result = load().orElseGet(() -> {
+            Result tuned = tune();
+            store(tuned);
+            return tuned;
+        });
+        FaceDetectionProperties.Inference inference = properties.getInference();
+        inference.setLanes(result.lanes());
+        inference.setIntraOpThreads(result.intraOpThreads());
+        inference.setInterOpThreads(result.interOpThreads());
+        inference.setBatchSize(result.batchSize());
+        LOGGER.info("Using autotuned inference settings {}", result);
+        return result;
+    }
+
+    public Optional<Result> load() {
+        return Optional.ofNullable(readAll().get(fingerprint()));
+    }
+
+    public void store(Result result) {
+        if (!result.metCeiling()) {
+            LOGGER.warn("Not storing autotune result {}, it did not meet the latency ceiling", result);
+            return;
+        }
+        Map<String, Result> all = readAll();
+        all.put(result.fingerprint(), result);
+        Path file = Path.of(properties.getAutotune().getFile());
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            mapper.writeValue(file.toFile(), all);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to store autotune result in " + file, e);
+        }
+    }
+
+    public Result tune() {
+        FaceDetectionProperties.Autotune autotune = properties.getAutotune();
+        int cores = Runtime.getRuntime().availableProcessors();
+        long ceilingNanos = TimeUnit.MILLISECONDS.toNanos(autotune.getLatencyCeilingMillis());
+
+        int[] best = null;
+        double bestFps = 0;
+        double bestP95 = Double.MAX_VALUE;
+        try (Mat frame = benchmarkFrame()) {
+            for (int lanes : autotune.getLanes()) {
+                for (int intra : autotune.getIntraOpThreads()) {
+                    if (lanes * intra > cores) {
+                        continue; // oversubscribed, would only add contention
+                    }
+                    for (int inter : autotune.getInterOpThreads()) {
+                        double[] measured = benchmarkFrames(lanes, intra, inter, frame);
+                        LOGGER.info("Autotune lanes={} intraOp={} interOp={}: {} fps, p95 {} ms", lanes, intra,
+                                inter, String.format("%.1f", measured[0]), String.format("%.1f", measured[1] / 1e6));
+                        if (measured[1] <= ceilingNanos && measured[0] > bestFps) {
+                            best = new int[] { lanes, intra, inter };
+                            bestFps = measured[0];
+                            bestP95 = measured[1];
+                        }
+                    }
+                }
+            }
+        }
+        boolean metCeiling = best != null;
+        if (!metCeiling) {
+            LOGGER.warn("No configuration met the {} ms latency ceiling, keeping configured threading",
+                    autotune.getLatencyCeilingMillis());
+            FaceDetectionProperties.Inference inference = properties.getInference();
+            best = new int[] { inference.getLanes(), inference.getIntraOpThreads(), inference.getInterOpThreads() };
+        }
+
+        int bestBatch = properties.getInference().getBatchSize();
+        long bestCropNanos = Long.MAX_VALUE;
+        for (int batchSize : autotune.getBatchSizes()) {
+            long nanos = benchmarkCrops(best[1], best[2], batchSize);
+            LOGGER.info("Autotune batchSize={}: {} us per crop", batchSize, nanos / 1000 / BENCHMARK_CROPS);
+            if (nanos < bestCropNanos) {
+                bestCropNanos = nanos;
+                bestBatch = batchSize;
+            }
+        }
+
+        return new Result(fingerprint(), best[0], best[1], best[2], bestBatch, bestFps,
+                bestP95 == Double.MAX_VALUE ? 0 : bestP95 / 1e6, metCeiling, Instant.now().toString());
+    }
+
+    /**
+     * The autotune image scaled to the benchmark resolution. Its faces give RNet
+     * and ONet the candidates a real frame does; noise leaves them almost idle.
+     * Falls back to noise when the image cannot be read.
+     */
+    private Mat benchmarkFrame() {
+        FaceDetectionProperties.Autotune autotune = properties.getAutotune();
+        Mat frame = MTCNNUtils.syntheticFrame(autotune.getResolution(), new Random(0));
+        try (Mat image = imread(autotune.getImage(), IMREAD_COLOR); Size size = frame.size()) {
+            if (image.empty()) {
+                LOGGER.warn("Cannot read autotune image {}, benchmarking on noise", autotune.getImage());
+                return frame;
+            }
+            // Same size and type, so the noise frame is overwritten in place
+            resize(image, frame, size, 0, 0, INTER_AREA);
+        }
+        return frame;
+    }
+
+    /**
+     * Returns frames per second and p95 latency in nanos with all lanes busy.
+     */
+    private double[] benchmarkFrames(int lanes, int intra, int inter, Mat frame) {
+        MTCNN mtcnn = new MTCNN(candidate(lanes, intra, inter, properties.getInference().getBatchSize()));
+        mtcnn.initialize();
+        ExecutorService workers = Executors.newFixedThreadPool(lanes);
+        try {
+            List<Future<List<Long>>> futures = new ArrayList<>();
+            long durationNanos = TimeUnit.SECONDS.toNanos(properties.getAutotune().getDurationSeconds());
+            for (int i = 0; i < lanes; i++) {
+                futures.add(workers.submit(() -> {
+                    mtcnn.detect(frame); // warm-up, not measured
+                    List<Long> latencies = new ArrayList<>();
+                    long end = System.nanoTime() + durationNanos;
+                    while (System.nanoTime() < end) {
+                        long start = System.nanoTime();
+                        mtcnn.detect(frame);
+                        latencies.add(System.nanoTime() - start);
+                    }
+                    return latencies;
+                }));
+            }
+            List<Long> latencies = new ArrayList<>();
+            for (Future<List<Long>> future : futures) {
+                latencies.addAll(future.get());
+            }
+            Collections.sort(latencies);
+            double fps = latencies.size() / (durationNanos / 1e9);
+            double p95 = latencies.isEmpty() ? Double.MAX_VALUE
+                    : latencies.get((int) Math.min(latencies.size() - 1, Math.ceil(latencies.size() * 0.95) - 1));
+            return new double[] { fps, p95 };
+        } catch (Exception e) {
+            throw new IllegalStateException("Autotune benchmark failed", e);
+        } finally {
+            workers.shutdownNow();
+            mtcnn.close();
+        }
+    }
+
+    private long benchmarkCrops(int intra, int inter, int batchSize) {
+        MTCNN mtcnn = new MTCNN(candidate(1, intra, inter, batchSize));
+        mtcnn.initialize();
+        try {
+            mtcnn.timeRefinementStages(BENCHMARK_CROPS); // warm-up, not measured
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < 3; i++) {
+                best = Math.min(best, mtcnn.timeRefinementStages(BENCHMARK_CROPS));
+            }
+            return best;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Autotune interrupted", e);
+        } finally {
+            mtcnn.close();
+        }
+    }
+
+    private FaceDetectionProperties candidate(int lanes, int intra, int inter, int batchSize) {
+        FaceDetectionProperties candidate = new FaceDetectionProperties();
+        candidate.getModel().setDirectory(properties.getModel().getDirectory());
+        candidate.getModel().getPrecision().setPnet(properties.getModel().getPrecision().getPnet());
+        candidate.getModel().getPrecision().setRnet(properties.getModel().getPrecision().getRnet());
+        candidate.getModel().getPrecision().setOnet(properties.getModel().getPrecision().getOnet());
+        candidate.getPostprocessing().setKernel(properties.getPostprocessing().getKernel());
+        candidate.getInference().setBackend(properties.getInference().getBackend());
+        candidate.getInference().setLanes(lanes);
+        candidate.getInference().setIntraOpThreads(intra);
+        candidate.getInference().setInterOpThreads(inter);
+        candidate.getInference().setBatchSize(batchSize);
+        candidate.getWarmup().setEnabled(false);
+        candidate.getAutotune().setEnabled(false);
+        return candidate;
+    }
+
+    private Map<String, Result> readAll() {
+        Path file = Path.of(properties.getAutotune().getFile());
+        if (!Files.exists(file)) {
+            return new TreeMap<>();
+        }
+        try {
+            return mapper.readValue(file.toFile(), new TypeReference<TreeMap<String, Result>>() {
+            });
+        } catch (IOException e) {
+            LOGGER.warn("Ignoring unreadable autotune file {}", file, e);
+            return new TreeMap<>();
+        }
+    }
+
+    /**
+     * Identifies hardware and model setup a tuning result is valid for: core
+     * count, architecture, CPU model, L2/L3 cache sizes, backend and model
+     * precision.
+     */
+    String fingerprint() {
+        String cpuModel = readFirstLine(Path.of("/proc/cpuinfo"), "model name").orElse("unknown");
+        String caches = Stream.of(2, 3)
+                .map(level -> readFirstLine(Path.of("/sys/devices/system/cpu/cpu0/cache/index" + level + "/size"),
+                        "").orElse("?"))
+                .collect(Collectors.joining("/"));
+        FaceDetectionProperties.Precision precision = properties.getModel().getPrecision();
+        return String.join("|", String.valueOf(Runtime.getRuntime().availableProcessors()),
+                System.getProperty("os.arch"), cpuModel, caches, properties.getInference().getBackend().name(),
+                precision.getPnet() + "/" + precision.getRnet() + "/" + precision.getOnet());
+    }
+
+    private static Optional<String> readFirstLine(Path file, String prefix) {
+        try (Stream<String> lines = Files.lines(file)) {
+            return lines.filter(line -> line.startsWith(prefix)).findFirst()
+                    .map(line -> line.contains(":") ? line.substring(line.indexOf(':') + 1) : line)
+                    .map(String::trim);
+        } catch (IOException | UncheckedIOException e) {
+            return Optional.empty();
+        }
+    }
+}
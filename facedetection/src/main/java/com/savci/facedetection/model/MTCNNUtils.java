@@ -14,8 +14,10 @@ import org.nd4j.linalg.ops.transforms.Transforms;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import static org.bytedeco.opencv.global.opencv_core.BORDER_CONSTANT;
+import static org.bytedeco.opencv.global.opencv_core.CV_8UC3;
 import static org.bytedeco.opencv.global.opencv_imgproc.*;
 import static org.nd4j.linalg.indexing.NDArrayIndex.*;
 
@@ -37,6 +39,20 @@ public class MTCNNUtils {
         return scales;
     }
 
+    /**
+     * Random BGR noise frame of the given WIDTHxHEIGHT, for warm-up and benchmarks.
+     */
+    static Mat syntheticFrame(String resolution, Random random) {
+        String[] wh = resolution.toLowerCase().split("x");
+        int width = Integer.parseInt(wh[0].trim());
+        int height = Integer.parseInt(wh[1].trim());
+        byte[] pixels = new byte[width * height * 3];
+        random.nextBytes(pixels);
+        Mat frame = new Mat(height, width, CV_8UC3);
+        frame.data().put(pixels);
+        return frame;
+    }
+
     static Mat scaleImage(Mat image, double scale) {
         int widthScaled = (int) Math.ceil(image.cols() * scale);
         int heightScaled = (int) Math.ceil(image.rows() * scale);
@@ -208,10 +224,25 @@ public class MTCNNUtils {
                 .build();
     }
 
+    static final int ALIGNED_FACE_SIZE = 224;
+
     public static Mat faceAligner(Mat image, FaceAnnotation faceAnnotation) {
+        Mat output = new Mat();
+
+        warpAffine(image, output, alignmentMatrix(faceAnnotation), new Size(ALIGNED_FACE_SIZE, ALIGNED_FACE_SIZE),
+                INTER_CUBIC, BORDER_CONSTANT, Scalar.ZERO);
+
+        return output;
+    }
+
+    /**
+     * The 2x3 affine transform that rotates and scales the face so the eyes are
+     * level and land on fixed positions in a 224x224 crop.
+     */
+    static Mat alignmentMatrix(FaceAnnotation faceAnnotation) {
         double[] desiredLeftEye = new double[] { 0.27, 0.27 };
-        int desiredFaceWidth = 224;
-        int desiredFaceHeight = 224;
+        int desiredFaceWidth = ALIGNED_FACE_SIZE;
+        int desiredFaceHeight = ALIGNED_FACE_SIZE;
 
         FaceAnnotation.Landmark[] landmark = faceAnnotation.getLandmarks();
         FaceAnnotation.Landmark leftEye = landmark[0];
@@ -244,11 +275,6 @@ public class MTCNNUtils {
         indexer.put(1, 2, eyeCenterY);
         indexer.release();
 
-        Mat output = new Mat();
-
-        warpAffine(image, output, m, new Size(desiredFaceWidth, desiredFaceHeight),
-                INTER_CUBIC, BORDER_CONSTANT, Scalar.ZERO);
-
-        return output;
+        return m;
     }
-}
\ No newline at end of file
+}
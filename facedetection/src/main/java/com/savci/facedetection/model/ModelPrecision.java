@@ -0,0 +1,21 @@
+package com.savci.facedetection.model;
+
+/**
+ * Numeric precision of a bundled network graph. Reduced-precision graphs are
+ * produced offline by tools/quantize_models.py next to the FP32 ones.
+ */
+public enum ModelPrecision {
+    FP32(""),
+    /** Eight-bit quantized weights and quantized conv/matmul kernels. */
+    INT8("-int8");
+
+    private final String suffix;
+
+    ModelPrecision(String suffix) {
+        this.suffix = suffix;
+    }
+
+    public String fileName(String network) {
+        return network + suffix + ".pb";
+    }
+}
@@ -0,0 +1,26 @@
+package com.savci.facedetection.model;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+class NdArrayBoxKernels implements BoxKernels {
+
+    @Override
+    public INDArray[] generateBoundingBox(INDArray imap, INDArray reg, double scale, double stepThreshold) {
+        return MTCNNUtils.generateBoundingBox(imap, reg, scale, stepThreshold);
+    }
+
+    @Override
+    public INDArray bbreg(INDArray boundingBox, INDArray reg) {
+        return MTCNNUtils.bbreg(boundingBox, reg);
+    }
+
+    @Override
+    public INDArray rerec(INDArray bbox) {
+        return MTCNNUtils.rerec(bbox);
+    }
+
+    @Override
+    public FaceDetectionDto pad(INDArray totalBoxes, int w, int h) {
+        return MTCNNUtils.pad(totalBoxes, w, h);
+    }
+}
@@ -0,0 +1,211 @@
+package com.savci.facedetection.model;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Struct-of-arrays implementation: each box matrix is copied out of ND4J once,
+ * split into one float[] per column, processed with plain loops and copied back
+ * once. Arithmetic is done in float in the same operation order as the INDArray
+ * version so results are bit-identical.
+ */
+class ScalarBoxKernels implements BoxKernels {
+
+    private static final int STRIDE = 2;
+    private static final int CELL_SIZE = 12;
+
+    @Override
+    public INDArray[] generateBoundingBox(INDArray imap, INDArray reg, double scale, double stepThreshold) {
+        int width = (int) imap.size(0);
+        int height = (int) imap.size(1);
+        float[] prob = flatten(imap);
+        float[] offsets = flatten(reg);
+        float threshold = (float) stepThreshold;
+        float s = (float) scale;
+
+        int count = 0;
+        for (float p : prob) {
+            if (p >= threshold) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            return new INDArray[] { Nd4j.empty(), Nd4j.empty() };
+        }
+
+        float[] boxes = new float[count * 9];
+        float[] regs = new float[count * 4];
+        int k = 0;
+        for (int i = 0; i < width; i++) {
+            for (int j = 0; j < height; j++) {
+                int cell = i * height + j;
+                if (prob[cell] < threshold) {
+                    continue;
+                }
+                int row = k * 9;
+                boxes[row] = floor((i * STRIDE + 1) / s);
+                boxes[row + 1] = floor((j * STRIDE + 1) / s);
+                boxes[row + 2] = floor((i * STRIDE + CELL_SIZE) / s);
+                boxes[row + 3] = floor((j * STRIDE + CELL_SIZE) / s);
+                boxes[row + 4] = prob[cell];
+                System.arraycopy(offsets, cell * 4, boxes, row + 5, 4);
+                System.arraycopy(offsets, cell * 4, regs, k * 4, 4);
+                k++;
+            }
+        }
+        return new INDArray[] { Nd4j.create(boxes, new long[] { count, 9 }, 'c'),
+                Nd4j.create(regs, new long[] { count, 4 }, 'c') };
+    }
+
+    @Override
+    public INDArray bbreg(INDArray boundingBox, INDArray reg) {
+        if (reg.shape()[1] == 1) {
+            reg = reg.transpose();
+        }
+        int n = (int) boundingBox.size(0);
+        float[][] box = columns(boundingBox);
+        float[][] r = columns(reg);
+        bbreg(box[0], box[1], box[2], box[3], r[0], r[1], r[2], r[3], 0, n);
+        return matrix(box, n);
+    }
+
+    @Override
+    public INDArray rerec(INDArray bbox) {
+        int n = (int) bbox.size(0);
+        float[][] box = columns(bbox);
+        rerec(box[0], box[1], box[2], box[3], 0, n);
+        for (float[] column : box) {
+            floor(column, 0, n);
+        }
+        return matrix(box, n);
+    }
+
+    @Override
+    public FaceDetectionDto pad(INDArray totalBoxes, int w, int h) {
+        if (totalBoxes.isEmpty()) {
+            return new FaceDetectionDto.Builder().x(Nd4j.empty()).y(Nd4j.empty()).dx(Nd4j.empty())
+                    .dy(Nd4j.empty()).edx(Nd4j.empty()).edy(Nd4j.empty()).ex(Nd4j.empty()).ey(Nd4j.empty())
+                    .tmph(Nd4j.empty()).tmpw(Nd4j.empty()).build();
+        }
+        int n = (int) totalBoxes.size(0);
+        float[][] box = columns(totalBoxes);
+        float[] dx = new float[n];
+        float[] dy = new float[n];
+        float[] edx = new float[n];
+        float[] edy = new float[n];
+        float[] x = new float[n];
+        float[] y = new float[n];
+        float[] ex = new float[n];
+        float[] ey = new float[n];
+        pad(box[0], box[1], box[2], box[3], w, h, dx, dy, edx, edy, x, y, ex, ey, 0, n);
+
+        // MTCNNUtils.pad updates edx/edy in place on the tmpW/tmpH arrays, so the
+        // widths it returns are the clipped ones; keep that behaviour.
+        INDArray edxArray = Nd4j.createFromArray(edx);
+        INDArray edyArray = Nd4j.createFromArray(edy);
+        return new FaceDetectionDto.Builder().x(Nd4j.createFromArray(x)).y(Nd4j.createFromArray(y))
+                .dx(Nd4j.createFromArray(dx)).dy(Nd4j.createFromArray(dy)).edx(edxArray).edy(edyArray)
+                .ex(Nd4j.createFromArray(ex)).ey(Nd4j.createFromArray(ey)).tmph(edyArray).tmpw(edxArray)
+                .build();
+    }
+
+    // The kernels below process boxes [from, to) so subclasses can hand over their tails
+
+    void bbreg(float[] x1, float[] y1, float[] x2, float[] y2, float[] r1, float[] r2, float[] r3, float[] r4,
+            int from, int to) {
+        for (int i = from; i < to; i++) {
+            float w = x2[i] - x1[i] + 1;
+            float h = y2[i] - y1[i] + 1;
+            x1[i] = x1[i] + r1[i] * w;
+            y1[i] = y1[i] + r2[i] * h;
+            x2[i] = x2[i] + r3[i] * w;
+            y2[i] = y2[i] + r4[i] * h;
+        }
+    }
+
+    void rerec(float[] x1, float[] y1, float[] x2, float[] y2, int from, int to) {
+        for (int i = from; i < to; i++) {
+            float h = y2[i] - y1[i];
+            float w = x2[i] - x1[i];
+            float l = Math.max(w, h);
+            x1[i] = x1[i] + w * 0.5f - l * 0.5f;
+            y1[i] = y1[i] + h * 0.5f - l * 0.5f;
+            x2[i] = x1[i] + l;
+            y2[i] = y1[i] + l;
+        }
+    }
+
+    void floor(float[] values, int from, int to) {
+        for (int i = from; i < to; i++) {
+            values[i] = floor(values[i]);
+        }
+    }
+
+    void pad(float[] x1, float[] y1, float[] x2, float[] y2, float w, float h, float[] dx, float[] dy,
+            float[] edx, float[] edy, float[] x, float[] y, float[] ex, float[] ey, int from, int to) {
+        for (int i = from; i < to; i++) {
+            float tmpW = x2[i] - x1[i] + 1;
+            float tmpH = y2[i] - y1[i] + 1;
+            dx[i] = 1;
+            dy[i] = 1;
+            edx[i] = tmpW;
+            edy[i] = tmpH;
+            x[i] = floor(x1[i]);
+            y[i] = floor(y1[i]);
+            ex[i] = floor(x2[i]);
+            ey[i] = floor(y2[i]);
+
+            if (ex[i] > w) {
+                edx[i] = w - ex[i] + tmpW;
+                ex[i] = w;
+            }
+            if (ey[i] > h) {
+                edy[i] = h - ey[i] + tmpH;
+                ey[i] = h;
+            }
+            if (x[i] < 1) {
+                dx[i] = 2 - x[i];
+                x[i] = 1;
+            }
+            if (y[i] < 1) {
+                dy[i] = 2 - y[i];
+                y[i] = 1;
+            }
+        }
+    }
+
+    static float floor(float value) {
+        return (float) Math.floor(value);
+    }
+
+    static float[] flatten(INDArray array) {
+        return array.dup('c').data().asFloat();
+    }
+
+    /**
+     * Splits a [rows, cols] matrix into one array per column with a single bulk copy.
+     */
+    static float[][] columns(INDArray matrix) {
+        int rows = (int) matrix.size(0);
+        int cols = (int) matrix.size(1);
+        float[] flat = flatten(matrix);
+        float[][] columns = new float[cols][rows];
+        for (int i = 0, offset = 0; i < rows; i++, offset += cols) {
+            for (int c = 0; c < cols; c++) {
+                columns[c][i] = flat[offset + c];
+            }
+        }
+        return columns;
+    }
+
+    static INDArray matrix(float[][] columns, int rows) {
+        int cols = columns.length;
+        float[] flat = new float[rows * cols];
+        for (int i = 0, offset = 0; i < rows; i++, offset += cols) {
+            for (int c = 0; c < cols; c++) {
+                flat[offset + c] = columns[c][i];
+            }
+        }
+        return Nd4j.create(flat, new long[] { rows, cols }, 'c');
+    }
+}
@@ -0,0 +1,135 @@
+package com.savci.facedetection.model;
+
+import com.savci.facedetection.config.FaceDetectionProperties;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.tensorflow.conversion.graphrunner.GraphRunner;
+import org.tensorflow.framework.ConfigProto;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+
+/**
+ * The frozen TensorFlow graphs run through nd4j-tensorflow, one session per
+ * network.
+ */
+class TensorFlowBackend implements InferenceBackend {
+
+    static final String P_NET_INPUT = "input_1:0";
+    static final String P_NET_BBOX = "conv2d_5/BiasAdd:0";
+    static final String P_NET_CLASS = "softmax_1/truediv:0";
+    static final String R_NET_INPUT = "input_2:0";
+    static final String R_NET_BBOX = "dense_3/BiasAdd:0";
+    static final String R_NET_CLASS = "softmax_2/Softmax:0";
+    static final String O_NET_INPUT = "input_3:0";
+    static final String O_NET_BBOX = "dense_6/BiasAdd:0";
+    static final String O_NET_LANDMARK = "dense_7/BiasAdd:0";
+    static final String O_NET_CLASS = "softmax_3/Softmax:0";
+
+    private final GraphRunner pNet;
+    private final GraphRunner rNet;
+    private final GraphRunner oNet;
+
+    TensorFlowBackend(GraphRunner pNet, GraphRunner rNet, GraphRunner oNet) {
+        this.pNet = pNet;
+        this.rNet = rNet;
+        this.oNet = oNet;
+    }
+
+    @Override
+    public Map<String, INDArray> runPNet(INDArray input) {
+        Map<String, INDArray> result = pNet.run(Collections.singletonMap(P_NET_INPUT, input));
+        return outputs(BBOX, result.get(P_NET_BBOX), CLASS, result.get(P_NET_CLASS));
+    }
+
+    @Override
+    public Map<String, INDArray> runRNet(INDArray input) {
+        Map<String, INDArray> result = rNet.run(Collections.singletonMap(R_NET_INPUT, input));
+        return outputs(BBOX, result.get(R_NET_BBOX), CLASS, result.get(R_NET_CLASS));
+    }
+
+    @Override
+    public Map<String, INDArray> runONet(INDArray input) {
+        Map<String, INDArray> result = oNet.run(Collections.singletonMap(O_NET_INPUT, input));
+        Map<String, INDArray> outputs = outputs(BBOX, result.get(O_NET_BBOX), CLASS, result.get(O_NET_CLASS));
+        outputs.put(LANDMARK, result.get(O_NET_LANDMARK));
+        return outputs;
+    }
+
+    private static Map<String, INDArray> outputs(String key1, INDArray value1, String key2, INDArray value2) {
+        Map<String, INDArray> outputs = new LinkedHashMap<>();
+        outputs.put(key1, value1);
+        outputs.put(key2, value2);
+        return outputs;
+    }
+
+    @Override
+    public void close() {
+        pNet.close();
+        rNet.close();
+        oNet.close();
+    }
+
+    static class Loader implements InferenceBackend.Loader {
+
+        private final FaceDetectionProperties properties;
+        private String pNetFile;
+        private String rNetFile;
+        private String oNetFile;
+        private byte[] pNetGraph;
+        private byte[] rNetGraph;
+        private byte[] oNetGraph;
+
+        Loader(FaceDetectionProperties properties) {
+            this.properties = properties;
+        }
+
+        @Override
+        public void load(Function<String, byte[]> readModel, ExecutorService executor) {
+            FaceDetectionProperties.Precision precision = properties.getModel().getPrecision();
+            pNetFile = precision.getPnet().fileName("pnet");
+            rNetFile = precision.getRnet().fileName("rnet");
+            oNetFile = precision.getOnet().fileName("onet");
+            CompletableFuture<byte[]> p = CompletableFuture.supplyAsync(() -> readModel.apply(pNetFile), executor);
+            CompletableFuture<byte[]> r = CompletableFuture.supplyAsync(() -> readModel.apply(rNetFile), executor);
+            CompletableFuture<byte[]> o = CompletableFuture.supplyAsync(() -> readModel.apply(oNetFile), executor);
+            pNetGraph = p.join();
+            rNetGraph = r.join();
+            oNetGraph = o.join();
+        }
+
+        @Override
+        public InferenceBackend create() {
+            GraphRunner pNet = createGraphRunner(pNetFile, pNetGraph, P_NET_INPUT, P_NET_BBOX, P_NET_CLASS);
+            GraphRunner rNet = createGraphRunner(rNetFile, rNetGraph, R_NET_INPUT, R_NET_BBOX, R_NET_CLASS);
+            GraphRunner oNet = createGraphRunner(oNetFile, oNetGraph, O_NET_INPUT, O_NET_BBOX, O_NET_LANDMARK,
+                    O_NET_CLASS);
+            return new TensorFlowBackend(pNet, rNet, oNet);
+        }
+
+        private GraphRunner createGraphRunner(String tensorflowModelUri, byte[] graph, String inputName,
+                String... outputName) {
+            ConfigProto configProto = ConfigProto.newBuilder()
+                    .setIntraOpParallelismThreads(properties.getInference().getIntraOpThreads())
+                    .setInterOpParallelismThreads(properties.getInference().getInterOpThreads())
+                    .build();
+
+            try {
+                return GraphRunner.builder()
+                        .graphBytes(graph)
+                        .inputNames(Collections.singletonList(inputName))
+                        .outputNames(Arrays.asList(outputName))
+                        .sessionOptionsConfigProto(configProto)
+                        .build();
+            } catch (RuntimeException e) {
+                throw new IllegalStateException(String.format("Failed to load TF model [%s] and input [%s]:",
+                        tensorflowModelUri, inputName), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.savci.facedetection.model;
+
+import org.bytedeco.javacpp.PointerScope;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Rect;
+import org.bytedeco.opencv.opencv_core.Scalar;
+import org.bytedeco.opencv.opencv_core.Size;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.bytedeco.opencv.global.opencv_core.CV_32F;
+import static org.bytedeco.opencv.global.opencv_core.CV_32FC3;
+import static org.bytedeco.opencv.global.opencv_core.CV_8UC3;
+import static org.bytedeco.opencv.global.opencv_imgproc.INTER_AREA;
+import static org.bytedeco.opencv.global.opencv_imgproc.resize;
+
+/**
+ * Converts BGR Mats into the normalized, width-major [N, W, H, C] tensors the
+ * MTCNN graphs expect, in one pass from the Mat's memory into the tensor's.
+ * Equivalent to
+ * {@code loader.asMatrix(mat).permute(0, 3, 2, 1).sub(127.5).mul(0.0078125)}.
+ * <p>
+ * Holds reusable tensors and crop Mats, so an instance must only be used by one
+ * thread at a time; each {@link InferenceLane} owns one.
+ */
+final class TensorPreprocessor {
+
+    static final float MEAN = 127.5f;
+    static final float SCALE = 0.0078125f;
+
+    // Square blocks keep both the row-major reads and the transposed writes in cache
+    private static final int BLOCK = 32;
+    private static final int MAX_CACHED_TENSORS = 32;
+
+    // Crops are padded and converted inside views of these, grown to the largest crop seen
+    private Mat cropCanvas;
+    private Mat cropFloats;
+    private final Map<Integer, Mat> resizedCrops = new HashMap<>();
+
+    private final Map<Shape, INDArray> tensors = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Shape, INDArray> eldest) {
+            if (size() <= MAX_CACHED_TENSORS) {
+                return false;
+            }
+            // Outside any workspace, so its buffer is only freed when closed
+            eldest.getValue().close();
+            return true;
+        }
+    };
+
+    private record Shape(int width, int height) {
+    }
+
+    /**
+     * The crop coordinates of a {@link FaceDetectionDto} as plain arrays, so
+     * lanes on other threads can crop ranges of the same boxes.
+     */
+    record CropBoxes(int[] dy, int[] edy, int[] dx, int[] edx, int[] y, int[] ey, int[] x, int[] ex, int[] tmpw,
+            int[] tmph) {
+
+        static CropBoxes of(FaceDetectionDto faceDetectionDto) {
+            return new CropBoxes(faceDetectionDto.getDy().toIntVector(), faceDetectionDto.getEdy().toIntVector(),
+                    faceDetectionDto.getDx().toIntVector(), faceDetectionDto.getEdx().toIntVector(),
+                    faceDetectionDto.getY().toIntVector(), faceDetectionDto.getEy().toIntVector(),
+                    faceDetectionDto.getX().toIntVector(), faceDetectionDto.getEx().toIntVector(),
+                    faceDetectionDto.getTmpw().toIntVector(), faceDetectionDto.getTmph().toIntVector());
+        }
+    }
+
+    /**
+     * PNet input for one pyramid level. The returned tensor is reused for the next
+     * frame of the same size, so it is only valid until the next call.
+     */
+    INDArray toPNetInput(Mat image) {
+        if (image.type() != CV_8UC3) {
+            throw new IllegalArgumentException("Expected an 8-bit BGR image but got Mat type " + image.type());
+        }
+        int width = image.cols();
+        int height = image.rows();
+        INDArray tensor = tensors.computeIfAbsent(new Shape(width, height), shape -> {
+            // Outlives the frame, so it must not live in the frame workspace
+            try (MemoryWorkspace ignored = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
+                return Nd4j.createUninitialized(DataType.FLOAT, 1, shape.width(), shape.height(), 3);
+            }
+        });
+        // Rows of a view are step() apart and only the last one's pixels are known to be mapped
+        long rowStride = image.step();
+        ByteBuffer src = image.data().capacity((height - 1) * rowStride + width * 3L).asByteBuffer();
+        transposeNormalize(src, (int) rowStride, width, height, tensor.data().asNioFloat(), 0);
+        return tensor;
+    }
+
+    /**
+     * RNet/ONet input: pads every box crop with zeros where it leaves the image,
+     * resizes it to size x size and writes it normalized into one [N, size, size, 3]
+     * batch. Returns an empty array for a box with exactly one empty dimension.
+     */
+    INDArray cropBatch(Mat image, FaceDetectionDto faceDetectionDto, int numBoxes, int size) {
+        return cropBatch(image, CropBoxes.of(faceDetectionDto), 0, numBoxes, size);
+    }
+
+    /**
+     * The batch of boxes from (inclusive) to (exclusive) only.
+     */
+    INDArray cropBatch(Mat image, CropBoxes boxes, int from, int to, int size) {
+        int[] dy = boxes.dy();
+        int[] edy = boxes.edy();
+        int[] dx = boxes.dx();
+        int[] edx = boxes.edx();
+        int[] y = boxes.y();
+        int[] ey = boxes.ey();
+        int[] x = boxes.x();
+        int[] ex = boxes.ex();
+        int[] tmpw = boxes.tmpw();
+        int[] tmph = boxes.tmph();
+
+        int numBoxes = to - from;
+        int cropLength = size * size * 3;
+        int maxHeight = 0;
+        int maxWidth = 0;
+        for (int k = from; k < to; k++) {
+            if ((tmph[k] <= 0 || tmpw[k] <= 0) && (tmph[k] != 0 || tmpw[k] != 0)) {
+                return Nd4j.empty();
+            }
+            maxHeight = Math.max(maxHeight, tmph[k]);
+            maxWidth = Math.max(maxWidth, tmpw[k]);
+        }
+        ensureCropCanvas(maxHeight, maxWidth);
+        // Created outside the scope below, which would free it
+        Mat resized = resizedCrops.computeIfAbsent(size, s -> new Mat(s, s, CV_32FC3));
+        INDArray tensor = Nd4j.createUninitialized(DataType.FLOAT, numBoxes, size, size, 3);
+        FloatBuffer batch = tensor.data().asNioFloat();
+
+        // Frees the views, Rects and Sizes of the crops when done instead of on GC
+        try (PointerScope scope = new PointerScope()) {
+            Size newSize = new Size(size, size);
+            for (int k = from; k < to; k++) {
+                int offset = (k - from) * cropLength;
+                if (tmph[k] == 0 && tmpw[k] == 0) {
+                    for (int i = offset; i < offset + cropLength; i++) {
+                        batch.put(i, -MEAN * SCALE);
+                    }
+                    continue;
+                }
+                Rect cropRect = new Rect(0, 0, tmpw[k], tmph[k]);
+                Mat tmp = cropCanvas.apply(cropRect);
+                tmp.put(Scalar.ZERO);
+                Mat source = image.apply(new Rect(x[k] - 1, y[k] - 1, ex[k] - x[k] + 1, ey[k] - y[k] + 1));
+                source.copyTo(tmp.apply(new Rect(dx[k] - 1, dy[k] - 1, edx[k] - dx[k] + 1, edy[k] - dy[k] + 1)));
+
+                // Resize in float like the INDArray based path did, to keep INTER_AREA results identical
+                Mat tmpFloat = cropFloats.apply(cropRect);
+                tmp.convertTo(tmpFloat, CV_32F);
+                resize(tmpFloat, resized, newSize, 0, 0, INTER_AREA);
+
+                FloatBuffer resizedBuffer = resized.createBuffer();
+                transposeNormalize(resizedBuffer, size * 3, size, size, batch, offset);
+            }
+        }
+        return tensor;
+    }
+
+    private void ensureCropCanvas(int height, int width) {
+        if (cropCanvas != null && cropCanvas.rows() >= height && cropCanvas.cols() >= width) {
+            return;
+        }
+        if (cropCanvas != null) {
+            height = Math.max(height, cropCanvas.rows());
+            width = Math.max(width, cropCanvas.cols());
+            cropCanvas.close();
+            cropFloats.close();
+        }
+        cropCanvas = new Mat(height, width, CV_8UC3);
+        cropFloats = new Mat(height, width, CV_32FC3);
+    }
+
+    /**
+     * Closes every cached tensor and Mat; they are allocated again on the next
+     * frame.
+     */
+    void release() {
+        tensors.values().forEach(INDArray::close);
+        tensors.clear();
+        if (cropCanvas != null) {
+            cropCanvas.close();
+            cropFloats.close();
+            cropCanvas = null;
+            cropFloats = null;
+        }
+        resizedCrops.values().forEach(Mat::close);
+        resizedCrops.clear();
+    }
+
+    /**
+     * Writes the rows rowStride bytes apart in src into dst from dstOffset,
+     * width-major and normalized.
+     */
+    static void transposeNormalize(ByteBuffer src, int rowStride, int width, int height, FloatBuffer dst,
+            int dstOffset) {
+        for (int y0 = 0; y0 < height; y0 += BLOCK) {
+            int y1 = Math.min(y0 + BLOCK, height);
+            for (int x0 = 0; x0 < width; x0 += BLOCK) {
+                int x1 = Math.min(x0 + BLOCK, width);
+                for (int x = x0; x < x1; x++) {
+                    int s = y0 * rowStride + x * 3;
+                    int d = dstOffset + (x * height + y0) * 3;
+                    for (int y = y0; y < y1; y++, s += rowStride, d += 3) {
+                        dst.put(d, ((src.get(s) & 0xFF) - MEAN) * SCALE);
+                        dst.put(d + 1, ((src.get(s + 1) & 0xFF) - MEAN) * SCALE);
+                        dst.put(d + 2, ((src.get(s + 2) & 0xFF) - MEAN) * SCALE);
+                    }
+                }
+            }
+        }
+    }
+
+    static void transposeNormalize(FloatBuffer src, int rowStride, int width, int height, FloatBuffer dst,
+            int dstOffset) {
+        for (int y0 = 0; y0 < height; y0 += BLOCK) {
+            int y1 = Math.min(y0 + BLOCK, height);
+            for (int x0 = 0; x0 < width; x0 += BLOCK) {
+                int x1 = Math.min(x0 + BLOCK, width);
+                for (int x = x0; x < x1; x++) {
+                    int s = y0 * rowStride + x * 3;
+                    int d = dstOffset + (x * height + y0) * 3;
+                    for (int y = y0; y < y1; y++, s += rowStride, d += 3) {
+                        dst.put(d, (src.get(s) - MEAN) * SCALE);
+                        dst.put(d + 1, (src.get(s + 1) - MEAN) * SCALE);
+                        dst.put(d + 2, (src.get(s + 2) - MEAN) * SCALE);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.savci.facedetection.model;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tile layout and result merging for detecting very large frames in pieces.
+ * <p>
+ * Neighbouring tiles overlap by the largest face they look for plus a margin,
+ * so every such face lies wholly inside some tile away from its inner edges.
+ * A box touching an inner tile edge is therefore a cut face seen whole
+ * elsewhere and is dropped; duplicates from the overlaps are then removed by
+ * one NMS pass over all tiles, as ONet's output stage does.
+ */
+final class TiledDetection {
+
+    /** Boxes within this many pixels of an inner tile edge count as cut. */
+    static final int EDGE_MARGIN = 4;
+
+    private static final double MERGE_NMS_THRESHOLD = 0.7;
+
+    private TiledDetection() {
+    }
+
+    record Tile(int x, int y, int width, int height) {
+    }
+
+    static int overlap(int maxFaceSize) {
+        return maxFaceSize + 2 * EDGE_MARGIN;
+    }
+
+    /**
+     * Tiles of at most tileSize covering the frame, the last row and column
+     * aligned to its far edges so all tiles of a wide frame have full size.
+     */
+    static List<Tile> tiles(int width, int height, int tileSize, int overlap) {
+        if (tileSize <= overlap) {
+            throw new IllegalArgumentException("Tile size " + tileSize + " must exceed the overlap " + overlap);
+        }
+        int[] xs = origins(width, tileSize, tileSize - overlap);
+        int[] ys = origins(height, tileSize, tileSize - overlap);
+        List<Tile> tiles = new ArrayList<>(xs.length * ys.length);
+        for (int y : ys) {
+            for (int x : xs) {
+                tiles.add(new Tile(x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y)));
+            }
+        }
+        return tiles;
+    }
+
+    private static int[] origins(int length, int tileSize, int step) {
+        if (length <= tileSize) {
+            return new int[] { 0 };
+        }
+        int count = (length - tileSize + step - 1) / step + 1;
+        int[] origins = new int[count];
+        for (int i = 0; i < count - 1; i++) {
+            origins[i] = i * step;
+        }
+        origins[count - 1] = length - tileSize;
+        return origins;
+    }
+
+    /**
+     * Moves each tile's detections to frame coordinates, drops boxes cut by an
+     * inner tile edge and suppresses the duplicates of the overlaps.
+     *
+     * @param parts detections per tile, in the order of tiles; a tile covering
+     *              the whole frame keeps all of its boxes
+     */
+    static FaceDetections merge(List<Tile> tiles, List<FaceDetections> parts, int width, int height,
+            boolean landmarks) {
+        int total = parts.stream().mapToInt(FaceDetections::count).sum();
+        float[] merged = new float[total * FaceDetections.STRIDE];
+        int count = 0;
+        for (int t = 0; t < tiles.size(); t++) {
+            Tile tile = tiles.get(t);
+            FaceDetections part = parts.get(t);
+            float[] data = part.data();
+            for (int i = 0; i < part.count(); i++) {
+                int base = i * FaceDetections.STRIDE;
+                if (isCut(tile, data[base], data[base + 1], data[base + 2], data[base + 3], width, height)) {
+                    continue;
+                }
+                int target = count++ * FaceDetections.STRIDE;
+                System.arraycopy(data, base, merged, target, FaceDetections.STRIDE);
+                translate(merged, target, tile.x(), tile.y(), part.hasLandmarks());
+            }
+        }
+        if (count <= 1) {
+            return new FaceDetections(merged, count, landmarks);
+        }
+
+        float[][] boxes = new float[count][];
+        for (int i = 0; i < count; i++) {
+            int base = i * FaceDetections.STRIDE;
+            boxes[i] = Arrays.copyOfRange(merged, base, base + 5);
+        }
+        INDArray pick = MTCNNUtils.nms(Nd4j.createFromArray(boxes), MERGE_NMS_THRESHOLD, MTCNN.NMS_METHOD.MIN);
+        int[] rows = pick.toIntVector();
+        float[] kept = new float[rows.length * FaceDetections.STRIDE];
+        for (int i = 0; i < rows.length; i++) {
+            System.arraycopy(merged, rows[i] * FaceDetections.STRIDE, kept, i * FaceDetections.STRIDE,
+                    FaceDetections.STRIDE);
+        }
+        return new FaceDetections(kept, rows.length, landmarks);
+    }
+
+    private static boolean isCut(Tile tile, float x1, float y1, float x2, float y2, int width, int height) {
+        return (tile.x() > 0 && x1 < EDGE_MARGIN)
+                || (tile.y() > 0 && y1 < EDGE_MARGIN)
+                || (tile.x() + tile.width() < width && x2 > tile.width() - EDGE_MARGIN)
+                || (tile.y() + tile.height() < height && y2 > tile.height() - EDGE_MARGIN);
+    }
+
+    // Faces without landmarks keep zeros in their landmark slots
+    private static void translate(float[] data, int base, int dx, int dy, boolean landmarks) {
+        data[base] += dx;
+        data[base + 1] += dy;
+        data[base + 2] += dx;
+        data[base + 3] += dy;
+        if (!landmarks) {
+            return;
+        }
+        for (int j = 0; j < FaceDetections.LANDMARKS; j++) {
+            data[base + 5 + j] += dx;
+            data[base + 5 + FaceDetections.LANDMARKS + j] += dy;
+        }
+    }
+}
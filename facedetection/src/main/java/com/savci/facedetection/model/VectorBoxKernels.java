@@ -0,0 +1,114 @@
+package com.savci.facedetection.model;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link ScalarBoxKernels} with the elementwise loops written against the
+ * jdk.incubator.vector API. Requires {@code --add-modules jdk.incubator.vector};
+ * only instantiated by {@link BoxKernels#create} when the module is present.
+ * Boxes left over after the last full vector go through the scalar loops.
+ */
+class VectorBoxKernels extends ScalarBoxKernels {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    @Override
+    void bbreg(float[] x1, float[] y1, float[] x2, float[] y2, float[] r1, float[] r2, float[] r3, float[] r4,
+            int from, int to) {
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+            FloatVector vx1 = FloatVector.fromArray(SPECIES, x1, i);
+            FloatVector vy1 = FloatVector.fromArray(SPECIES, y1, i);
+            FloatVector vx2 = FloatVector.fromArray(SPECIES, x2, i);
+            FloatVector vy2 = FloatVector.fromArray(SPECIES, y2, i);
+            FloatVector w = vx2.sub(vx1).add(1f);
+            FloatVector h = vy2.sub(vy1).add(1f);
+            vx1.add(FloatVector.fromArray(SPECIES, r1, i).mul(w)).intoArray(x1, i);
+            vy1.add(FloatVector.fromArray(SPECIES, r2, i).mul(h)).intoArray(y1, i);
+            vx2.add(FloatVector.fromArray(SPECIES, r3, i).mul(w)).intoArray(x2, i);
+            vy2.add(FloatVector.fromArray(SPECIES, r4, i).mul(h)).intoArray(y2, i);
+        }
+        super.bbreg(x1, y1, x2, y2, r1, r2, r3, r4, i, to);
+    }
+
+    @Override
+    void rerec(float[] x1, float[] y1, float[] x2, float[] y2, int from, int to) {
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+            FloatVector vx1 = FloatVector.fromArray(SPECIES, x1, i);
+            FloatVector vy1 = FloatVector.fromArray(SPECIES, y1, i);
+            FloatVector h = FloatVector.fromArray(SPECIES, y2, i).sub(vy1);
+            FloatVector w = FloatVector.fromArray(SPECIES, x2, i).sub(vx1);
+            FloatVector l = w.max(h);
+            FloatVector halfL = l.mul(0.5f);
+            vx1 = vx1.add(w.mul(0.5f)).sub(halfL);
+            vy1 = vy1.add(h.mul(0.5f)).sub(halfL);
+            vx1.intoArray(x1, i);
+            vy1.intoArray(y1, i);
+            vx1.add(l).intoArray(x2, i);
+            vy1.add(l).intoArray(y2, i);
+        }
+        super.rerec(x1, y1, x2, y2, i, to);
+    }
+
+    @Override
+    void floor(float[] values, int from, int to) {
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+            floor(FloatVector.fromArray(SPECIES, values, i)).intoArray(values, i);
+        }
+        super.floor(values, i, to);
+    }
+
+    @Override
+    void pad(float[] x1, float[] y1, float[] x2, float[] y2, float w, float h, float[] dx, float[] dy,
+            float[] edx, float[] edy, float[] x, float[] y, float[] ex, float[] ey, int from, int to) {
+        FloatVector one = FloatVector.broadcast(SPECIES, 1f);
+        FloatVector two = FloatVector.broadcast(SPECIES, 2f);
+        FloatVector vw = FloatVector.broadcast(SPECIES, w);
+        FloatVector vh = FloatVector.broadcast(SPECIES, h);
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+            FloatVector vx1 = FloatVector.fromArray(SPECIES, x1, i);
+            FloatVector vy1 = FloatVector.fromArray(SPECIES, y1, i);
+            FloatVector vx2 = FloatVector.fromArray(SPECIES, x2, i);
+            FloatVector vy2 = FloatVector.fromArray(SPECIES, y2, i);
+            FloatVector tmpW = vx2.sub(vx1).add(1f);
+            FloatVector tmpH = vy2.sub(vy1).add(1f);
+            FloatVector vx = floor(vx1);
+            FloatVector vy = floor(vy1);
+            FloatVector vex = floor(vx2);
+            FloatVector vey = floor(vy2);
+
+            VectorMask<Float> clipEx = vex.compare(VectorOperators.GT, vw);
+            tmpW.blend(vw.sub(vex).add(tmpW), clipEx).intoArray(edx, i);
+            vex.blend(vw, clipEx).intoArray(ex, i);
+
+            VectorMask<Float> clipEy = vey.compare(VectorOperators.GT, vh);
+            tmpH.blend(vh.sub(vey).add(tmpH), clipEy).intoArray(edy, i);
+            vey.blend(vh, clipEy).intoArray(ey, i);
+
+            VectorMask<Float> clipX = vx.compare(VectorOperators.LT, one);
+            one.blend(two.sub(vx), clipX).intoArray(dx, i);
+            vx.blend(one, clipX).intoArray(x, i);
+
+            VectorMask<Float> clipY = vy.compare(VectorOperators.LT, one);
+            one.blend(two.sub(vy), clipY).intoArray(dy, i);
+            vy.blend(one, clipY).intoArray(y, i);
+        }
+        super.pad(x1, y1, x2, y2, w, h, dx, dy, edx, edy, x, y, ex, ey, i, to);
+    }
+
+    /**
+     * There is no vector floor operator; truncate through int and step down where
+     * truncation rounded a negative value up. Box coordinates stay far inside the
+     * int range.
+     */
+    private static FloatVector floor(FloatVector v) {
+        FloatVector truncated = (FloatVector) v.convert(VectorOperators.F2I, 0).convert(VectorOperators.I2F, 0);
+        return truncated.sub(1f, truncated.compare(VectorOperators.GT, v));
+    }
+}
@@ -0,0 +1,226 @@
+package com.savci.facedetection.resultlog;
+
+import com.savci.facedetection.config.FaceDetectionProperties;
+import com.savci.facedetection.model.FaceDetections;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Append-only binary log of detection results in rolling memory-mapped
+ * segment files, see {@link ResultRecord} for the layout. Callers only enqueue
+ * on a lock-free queue; a single writer thread copies records into the current
+ * mapping, so appending costs no serialization or I/O on the detection path.
+ * When the queue is full results are dropped and counted instead of blocking.
+ * <p>
+ * Written records reach the page cache immediately and survive a process
+ * crash; segments are forced to disk when they roll and on close.
+ */
+public class ResultLog implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResultLog.class);
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final FaceDetectionProperties.ResultLog config;
+    private final Path directory;
+    private final ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Counter written;
+    private final Counter dropped;
+    private final Thread writer;
+    private volatile boolean running = true;
+    private volatile boolean idle;
+
+    // Writer thread only
+    private long nextSequence;
+    private MappedByteBuffer segment;
+    private int position;
+    private long minTimestamp;
+    private long maxTimestamp;
+
+    public ResultLog(FaceDetectionProperties.ResultLog config, MeterRegistry meterRegistry) throws IOException {
+        if (config.getSegmentBytes() < ResultRecord.SEGMENT_HEADER_BYTES + ResultRecord.length(1)
+                || config.getSegmentBytes() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid result log segment size " + config.getSegmentBytes());
+        }
+        this.config = config;
+        this.directory = Path.of(config.getDirectory());
+        Files.createDirectories(directory);
+        // Never append to segments of a previous run, their tail may be torn
+        List<Path> existing = ResultLogReader.segments(directory);
+        this.nextSequence = existing.isEmpty() ? 0 : ResultLogReader.sequence(existing.get(existing.size() - 1)) + 1;
+        this.written = Counter.builder("facedetection.resultlog.records")
+                .description("Detection results written to the result log")
+                .register(meterRegistry);
+        this.dropped = Counter.builder("facedetection.resultlog.dropped")
+                .description("Detection results dropped because the result log queue was full")
+                .register(meterRegistry);
+        Gauge.builder("facedetection.resultlog.queue.depth", queued, AtomicInteger::get)
+                .description("Detection results waiting to be written")
+                .register(meterRegistry);
+        this.writer = new Thread(this::drain, "result-log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        LOGGER.info("Logging detection results to {}", directory.toAbsolutePath());
+    }
+
+    public boolean append(String userId, String frameId, FaceDetections faces) {
+        return append(System.currentTimeMillis(), userId, frameId, faces);
+    }
+
+    /**
+     * Queues a result for writing. Returns false when it was dropped because
+     * the queue is full or the log is closed.
+     */
+    public boolean append(long timestampMillis, String userId, String frameId, FaceDetections faces) {
+        if (!running || queued.incrementAndGet() > config.getQueueCapacity()) {
+            queued.decrementAndGet();
+            dropped.increment();
+            return false;
+        }
+        queue.offer(new Entry(timestampMillis, ResultRecord.userHash(userId), ResultRecord.frameId(frameId), faces));
+        if (idle) {
+            LockSupport.unpark(writer);
+        }
+        return true;
+    }
+
+    /**
+     * Writes what is queued, then forces the current segment to disk.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                Entry entry = queue.poll();
+                if (entry == null) {
+                    if (!running) {
+                        break;
+                    }
+                    idle = true;
+                    // Re-check after publishing idle so a concurrent append either is seen or unparks us
+                    if (queue.isEmpty() && running) {
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    }
+                    idle = false;
+                    continue;
+                }
+                queued.decrementAndGet();
+                write(entry);
+            }
+            if (segment != null) {
+                segment.force();
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Result log writer stopped", e);
+            running = false;
+        }
+    }
+
+    private void write(Entry entry) throws IOException {
+        FaceDetections faces = entry.faces();
+        int length = ResultRecord.length(faces.count());
+        if (length > config.getSegmentBytes() - ResultRecord.SEGMENT_HEADER_BYTES) {
+            LOGGER.warn("Result with {} faces does not fit in a result log segment", faces.count());
+            dropped.increment();
+            return;
+        }
+        if (segment == null || position + length > segment.capacity()) {
+            roll();
+        }
+        MappedByteBuffer buffer = segment;
+        int offset = position;
+        buffer.putInt(offset + 4, faces.count());
+        buffer.putLong(offset + 8, entry.timestampMillis());
+        buffer.putLong(offset + 16, entry.userHash());
+        buffer.putLong(offset + 24, entry.frameId().getMostSignificantBits());
+        buffer.putLong(offset + 32, entry.frameId().getLeastSignificantBits());
+        int face = offset + ResultRecord.RECORD_HEADER_BYTES;
+        int landmarks = faces.hasLandmarks() ? ResultRecord.MAX_LANDMARKS : 0;
+        for (int i = 0; i < faces.count(); i++) {
+            buffer.putInt(face, faces.x(i));
+            buffer.putInt(face + 4, faces.y(i));
+            buffer.putInt(face + 8, faces.width(i));
+            buffer.putInt(face + 12, faces.height(i));
+            buffer.putFloat(face + 16, faces.score(i));
+            buffer.putInt(face + 20, landmarks);
+            for (int j = 0; j < landmarks; j++) {
+                buffer.putInt(face + 24 + j * 8, faces.landmarkX(i, j));
+                buffer.putInt(face + 28 + j * 8, faces.landmarkY(i, j));
+            }
+            face += ResultRecord.FACE_BYTES;
+        }
+        if (minTimestamp == 0 || entry.timestampMillis() < minTimestamp) {
+            minTimestamp = entry.timestampMillis();
+            ResultRecord.LONG.setRelease(buffer, ResultRecord.MIN_TIMESTAMP_OFFSET, minTimestamp);
+        }
+        if (entry.timestampMillis() > maxTimestamp) {
+            maxTimestamp = entry.timestampMillis();
+            ResultRecord.LONG.setRelease(buffer, ResultRecord.MAX_TIMESTAMP_OFFSET, maxTimestamp);
+        }
+        // Publishing the length last makes the record visible to readers as a whole
+        ResultRecord.INT.setRelease(buffer, offset, length);
+        position = offset + length;
+        written.increment();
+    }
+
+    private void roll() throws IOException {
+        if (segment != null) {
+            segment.force();
+        }
+        Path file = directory.resolve(ResultLogReader.segmentName(nextSequence++));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, config.getSegmentBytes());
+        }
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+        segment.putInt(0, ResultRecord.MAGIC);
+        segment.putInt(4, ResultRecord.VERSION);
+        position = ResultRecord.SEGMENT_HEADER_BYTES;
+        minTimestamp = 0;
+        maxTimestamp = 0;
+        LOGGER.debug("Started result log segment {}", file);
+        deleteExpired();
+    }
+
+    private void deleteExpired() throws IOException {
+        if (config.getMaxSegments() <= 0) {
+            return;
+        }
+        List<Path> segments = ResultLogReader.segments(directory);
+        for (int i = 0; i < segments.size() - config.getMaxSegments(); i++) {
+            Files.deleteIfExists(segments.get(i));
+        }
+    }
+
+    private record Entry(long timestampMillis, long userHash, UUID frameId, FaceDetections faces) {
+    }
+}
@@ -0,0 +1,104 @@
+package com.savci.facedetection.resultlog;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Scans result log segments by time range. Segments are mapped read-only and
+ * records are handed out as {@link ResultRecord} views over the mapping, so
+ * nothing is copied unless the visitor asks for it. Scanning while the log is
+ * being written is safe and sees every record published before it got there.
+ */
+public class ResultLogReader {
+
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".log";
+
+    private final Path directory;
+
+    public ResultLogReader(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Visits every record with a timestamp in [fromMillis, toMillis], in write
+     * order. The record passed to the visitor is only valid during the call.
+     *
+     * @return the number of records visited
+     */
+    public long scan(long fromMillis, long toMillis, Consumer<ResultRecord> visitor) throws IOException {
+        ResultRecord record = new ResultRecord();
+        long visited = 0;
+        for (Path file : segments(directory)) {
+            MappedByteBuffer segment;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                if (channel.size() < ResultRecord.SEGMENT_HEADER_BYTES) {
+                    continue;
+                }
+                segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            segment.order(ByteOrder.LITTLE_ENDIAN);
+            if (segment.getInt(0) != ResultRecord.MAGIC || segment.getInt(4) != ResultRecord.VERSION) {
+                throw new IOException("Not a result log segment: " + file);
+            }
+            long min = (long) ResultRecord.LONG.getAcquire(segment, ResultRecord.MIN_TIMESTAMP_OFFSET);
+            long max = (long) ResultRecord.LONG.getAcquire(segment, ResultRecord.MAX_TIMESTAMP_OFFSET);
+            if (min == 0 || max < fromMillis || min > toMillis) {
+                continue;
+            }
+            int offset = ResultRecord.SEGMENT_HEADER_BYTES;
+            while (offset + ResultRecord.RECORD_HEADER_BYTES <= segment.capacity()) {
+                int length = (int) ResultRecord.INT.getAcquire(segment, offset);
+                if (length == 0) {
+                    break; // end of what was written
+                }
+                if (length < ResultRecord.RECORD_HEADER_BYTES || offset + length > segment.capacity()) {
+                    throw new IOException("Corrupt record at " + offset + " in " + file);
+                }
+                record.wrap(segment, offset);
+                long timestamp = record.getTimestampMillis();
+                if (timestamp >= fromMillis && timestamp <= toMillis) {
+                    visitor.accept(record);
+                    visited++;
+                }
+                offset += length;
+            }
+        }
+        return visited;
+    }
+
+    static List<Path> segments(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(ResultLogReader::isSegment)
+                    .sorted(Comparator.comparingLong(ResultLogReader::sequence))
+                    .toList();
+        }
+    }
+
+    static String segmentName(long sequence) {
+        return String.format("%s%019d%s", PREFIX, sequence, SUFFIX);
+    }
+
+    static long sequence(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    private static boolean isSegment(Path file) {
+        String name = file.getFileName().toString();
+        return name.startsWith(PREFIX) && name.endsWith(SUFFIX)
+                && name.length() == PREFIX.length() + 19 + SUFFIX.length();
+    }
+}
@@ -0,0 +1,98 @@
+package com.savci.facedetection.resultlog;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Command line reader for the result log. Prints one CSV line per record, or
+ * only totals with --summary. Times are ISO-8601 instants or epoch millis.
+ *
+ * <pre>
+ * --dir=results --from=2026-10-01T00:00:00Z --to=2026-10-02T00:00:00Z --user=alice
+ * </pre>
+ */
+public final class ResultLogTool {
+
+    private ResultLogTool() {
+        throw new UnsupportedOperationException("Utility class.");
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (arg.equals("--summary")) {
+                options.put("summary", "true");
+            } else if (arg.startsWith("--") && arg.contains("=")) {
+                options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            } else {
+                throw new IllegalArgumentException("Expected --key=value or --summary but got: " + arg);
+            }
+        }
+        ResultLogReader reader = new ResultLogReader(Path.of(options.getOrDefault("dir", "results")));
+        long from = parseTime(options.get("from"), Long.MIN_VALUE);
+        long to = parseTime(options.get("to"), Long.MAX_VALUE);
+        String user = options.get("user");
+        long userHash = user == null ? 0 : ResultRecord.userHash(user);
+        boolean summary = options.containsKey("summary");
+
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        long[] totals = new long[2];
+        if (!summary) {
+            out.write("timestamp,userHash,frameId,faces,boxes");
+            out.newLine();
+        }
+        reader.scan(from, to, record -> {
+            if (user != null && record.getUserHash() != userHash) {
+                return;
+            }
+            totals[0]++;
+            totals[1] += record.getFaceCount();
+            if (!summary) {
+                try {
+                    out.write(toCsv(record));
+                    out.newLine();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+        if (summary) {
+            out.write("records=" + totals[0] + " faces=" + totals[1]);
+            out.newLine();
+        }
+        out.flush();
+    }
+
+    // Boxes as x:y:w:h:confidence separated by spaces
+    private static String toCsv(ResultRecord record) {
+        StringBuilder line = new StringBuilder()
+                .append(Instant.ofEpochMilli(record.getTimestampMillis())).append(',')
+                .append(Long.toHexString(record.getUserHash())).append(',')
+                .append(record.getFrameId()).append(',')
+                .append(record.getFaceCount()).append(',');
+        for (int i = 0; i < record.getFaceCount(); i++) {
+            if (i > 0) {
+                line.append(' ');
+            }
+            line.append(record.getX(i)).append(':').append(record.getY(i)).append(':')
+                    .append(record.getW(i)).append(':').append(record.getH(i)).append(':')
+                    .append(String.format("%.4f", record.getConfidence(i)));
+        }
+        return line.toString();
+    }
+
+    private static long parseTime(String value, long defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        return value.chars().allMatch(Character::isDigit) ? Long.parseLong(value)
+                : Instant.parse(value).toEpochMilli();
+    }
+}
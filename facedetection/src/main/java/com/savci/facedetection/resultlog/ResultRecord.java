@@ -0,0 +1,161 @@
+package com.savci.facedetection.resultlog;
+
+import com.savci.facedetection.model.FaceAnnotation;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Read-only view of one record in a mapped result log segment. Accessors read
+ * straight from the mapping; a reader reuses one instance for every record, so
+ * copy what you need to keep before the visitor returns.
+ * <p>
+ * Segment layout, little-endian: a {@value #SEGMENT_HEADER_BYTES} byte header
+ * (magic, version, min and max record timestamp) followed by records. A record
+ * is length, face count, timestamp millis, user hash, frameId as two longs,
+ * then {@value #FACE_BYTES} bytes per face: x, y, w, h, confidence (float),
+ * landmark count and five landmark x/y pairs. A zero length marks the end of
+ * the written part of a segment; the writer publishes the length last.
+ */
+public final class ResultRecord {
+
+    static final int MAGIC = 0x4644524C; // "FDRL"
+    static final int VERSION = 1;
+
+    static final int SEGMENT_HEADER_BYTES = 32;
+    static final int MIN_TIMESTAMP_OFFSET = 8;
+    static final int MAX_TIMESTAMP_OFFSET = 16;
+
+    static final int RECORD_HEADER_BYTES = 40;
+    static final int FACE_BYTES = 64;
+    static final int MAX_LANDMARKS = 5;
+
+    private static final int FACE_COUNT_OFFSET = 4;
+    private static final int TIMESTAMP_OFFSET = 8;
+    private static final int USER_HASH_OFFSET = 16;
+    private static final int FRAME_ID_OFFSET = 24;
+    private static final int CONFIDENCE_OFFSET = 16;
+    private static final int LANDMARK_COUNT_OFFSET = 20;
+    private static final int LANDMARKS_OFFSET = 24;
+
+    // Ordered access for the fields the writer publishes to concurrent readers
+    static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private ByteBuffer buffer;
+    private int offset;
+
+    ResultRecord wrap(ByteBuffer buffer, int offset) {
+        this.buffer = buffer;
+        this.offset = offset;
+        return this;
+    }
+
+    public long getTimestampMillis() {
+        return buffer.getLong(offset + TIMESTAMP_OFFSET);
+    }
+
+    public long getUserHash() {
+        return buffer.getLong(offset + USER_HASH_OFFSET);
+    }
+
+    public UUID getFrameId() {
+        return new UUID(buffer.getLong(offset + FRAME_ID_OFFSET), buffer.getLong(offset + FRAME_ID_OFFSET + 8));
+    }
+
+    public int getFaceCount() {
+        return buffer.getInt(offset + FACE_COUNT_OFFSET);
+    }
+
+    public int getX(int face) {
+        return buffer.getInt(face(face));
+    }
+
+    public int getY(int face) {
+        return buffer.getInt(face(face) + 4);
+    }
+
+    public int getW(int face) {
+        return buffer.getInt(face(face) + 8);
+    }
+
+    public int getH(int face) {
+        return buffer.getInt(face(face) + 12);
+    }
+
+    public float getConfidence(int face) {
+        return buffer.getFloat(face(face) + CONFIDENCE_OFFSET);
+    }
+
+    /**
+     * Zero for results that stopped before ONet.
+     */
+    public int getLandmarkCount(int face) {
+        return buffer.getInt(face(face) + LANDMARK_COUNT_OFFSET);
+    }
+
+    public int getLandmarkX(int face, int landmark) {
+        return buffer.getInt(face(face) + LANDMARKS_OFFSET + landmark * 8);
+    }
+
+    public int getLandmarkY(int face, int landmark) {
+        return buffer.getInt(face(face) + LANDMARKS_OFFSET + landmark * 8 + 4);
+    }
+
+    /**
+     * Copies the record's faces out of the mapping.
+     */
+    public FaceAnnotation[] toFaces() {
+        FaceAnnotation.Landmark.LandmarkType[] types = FaceAnnotation.Landmark.LandmarkType.values();
+        FaceAnnotation[] faces = new FaceAnnotation[getFaceCount()];
+        for (int i = 0; i < faces.length; i++) {
+            FaceAnnotation face = new FaceAnnotation();
+            face.setBoundingBox(FaceAnnotation.BoundingBox.of(getX(i), getY(i), getW(i), getH(i)));
+            face.setConfidence(getConfidence(i));
+            FaceAnnotation.Landmark[] landmarks = new FaceAnnotation.Landmark[getLandmarkCount(i)];
+            for (int j = 0; j < landmarks.length; j++) {
+                landmarks[j] = FaceAnnotation.Landmark.of(types[j],
+                        FaceAnnotation.Landmark.Position.of(getLandmarkX(i, j), getLandmarkY(i, j)));
+            }
+            face.setLandmarks(landmarks);
+            faces[i] = face;
+        }
+        return faces;
+    }
+
+    /**
+     * 64-bit FNV-1a of the UTF-8 userId, as stored in records.
+     */
+    public static long userHash(String userId) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : userId.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Frame ids are UUID strings on the WebSocket protocol; anything else is
+     * stored as its name-based UUID.
+     */
+    static UUID frameId(String frameId) {
+        try {
+            return UUID.fromString(frameId);
+        } catch (IllegalArgumentException e) {
+            return UUID.nameUUIDFromBytes(frameId.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    static int length(int faceCount) {
+        return RECORD_HEADER_BYTES + faceCount * FACE_BYTES;
+    }
+
+    private int face(int face) {
+        return offset + RECORD_HEADER_BYTES + face * FACE_BYTES;
+    }
+}
@@ -0,0 +1,177 @@
+package com.savci.facedetection.service;
+
+import com.savci.facedetection.config.FaceDetectionProperties;
+import com.savci.facedetection.model.DetectionLevel;
+import com.savci.facedetection.model.DetectionOptions;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Tracks how long frames wait for inference against the configured latency SLO
+ * and degrades in steps as the wait grows, so latency stays bounded under
+ * overload instead of every queue growing. The signal is an exponentially
+ * weighted average of queue delay that also decays while no frames are
+ * measured, so a node that rejects everything recovers by itself.
+ * <p>
+ * Going to {@link Level#REJECT} marks the node as refusing traffic on the
+ * readiness probe.
+ */
+public class AdmissionController {
+
+    public enum Level {
+        NORMAL,
+        /** Larger minimum face size, fewer pyramid levels. */
+        RAISED_MIN_FACE,
+        /** Also downscale large frames. */
+        CAPPED_RESOLUTION,
+        /** Also skip ONet and return RNet boxes without landmarks. */
+        NO_LANDMARKS,
+        /** Refuse new frames with a busy message. */
+        REJECT
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdmissionController.class);
+    private static final double ALPHA = 0.2;
+    // Step down only once pressure is clearly below the threshold, to avoid flapping
+    private static final double HYSTERESIS = 0.8;
+
+    private final FaceDetectionProperties.Admission admission;
+    private final ApplicationEventPublisher events;
+    private final long sloNanos;
+    private final Map<Level, Counter> frames = new EnumMap<>(Level.class);
+    private final LongSupplier clock;
+    private double averageDelayNanos;
+    private long lastSampleNanos;
+    private volatile Level level = Level.NORMAL;
+
+    public AdmissionController(FaceDetectionProperties.Admission admission, MeterRegistry meterRegistry,
+            ApplicationEventPublisher events) {
+        this(admission, meterRegistry, events, System::nanoTime);
+    }
+
+    AdmissionController(FaceDetectionProperties.Admission admission, MeterRegistry meterRegistry,
+            ApplicationEventPublisher events, LongSupplier clock) {
+        this.admission = admission;
+        this.events = events;
+        this.clock = clock;
+        this.lastSampleNanos = clock.getAsLong();
+        this.sloNanos = TimeUnit.MILLISECONDS.toNanos(admission.getLatencySloMillis());
+        for (Level value : Level.values()) {
+            frames.put(value, Counter.builder("facedetection.admission.frames")
+                    .description("Frames run or rejected per degradation level")
+                    .tag("level", value.name())
+                    .register(meterRegistry));
+        }
+        Gauge.builder("facedetection.load", this, AdmissionController::getLoad)
+                .description("Queue delay relative to the latency SLO, 1.0 means at the SLO")
+                .register(meterRegistry);
+        Gauge.builder("facedetection.degradation.level", this, controller -> controller.getLevel().ordinal())
+                .description("Current degradation level, 0 is normal")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Decides whether to queue a new frame; {@link Level#REJECT} means refuse
+     * it. Frames that are let in are counted by {@link #start} at the level they
+     * run at.
+     */
+    public Level admit() {
+        Level current = update();
+        if (current == Level.REJECT) {
+            frames.get(current).increment();
+        }
+        return current;
+    }
+
+    /**
+     * Records how long a frame waited and returns the level it runs at, which
+     * may have changed since it was admitted. Never {@link Level#REJECT}: a
+     * frame that made it through the queue is detected, at most degraded.
+     */
+    public Level start(long queueDelayNanos) {
+        recordQueueDelay(queueDelayNanos);
+        Level current = level == Level.REJECT ? Level.NO_LANDMARKS : level;
+        frames.get(current).increment();
+        return current;
+    }
+
+    public void recordQueueDelay(long delayNanos) {
+        synchronized (this) {
+            long now = clock.getAsLong();
+            averageDelayNanos = decayed(now) * (1 - ALPHA) + delayNanos * ALPHA;
+            lastSampleNanos = now;
+        }
+        update();
+    }
+
+    public DetectionOptions options(Level level) {
+        DetectionOptions defaults = DetectionOptions.DEFAULT;
+        return new DetectionOptions(
+                level.compareTo(Level.RAISED_MIN_FACE) >= 0 ? admission.getDegradedMinFaceSize()
+                        : defaults.minFaceSize(),
+                defaults.maxFaceSize(),
+                level.compareTo(Level.CAPPED_RESOLUTION) >= 0 ? admission.getMaxInputSide()
+                        : defaults.maxInputSide(),
+                level.compareTo(Level.NO_LANDMARKS) >= 0 ? DetectionLevel.REFINED : DetectionLevel.FULL);
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public long getRetryAfterMillis() {
+        return admission.getLatencySloMillis();
+    }
+
+    public synchronized double getLoad() {
+        return decayed(clock.getAsLong()) / sloNanos;
+    }
+
+    private Level update() {
+        double load = getLoad();
+        List<Double> thresholds = admission.getThresholds();
+        Level previous = level;
+        int next = previous.ordinal();
+        while (next < thresholds.size() && next < Level.REJECT.ordinal() && load >= thresholds.get(next)) {
+            next++;
+        }
+        while (next > 0 && load < thresholds.get(next - 1) * HYSTERESIS) {
+            next--;
+        }
+        Level updated = Level.values()[next];
+        if (updated != previous) {
+            synchronized (this) {
+                if (level == previous) {
+                    level = updated;
+                    LOGGER.info("Degradation level {} -> {} at load {}", previous, updated,
+                            String.format("%.2f", load));
+                    if (updated == Level.REJECT || previous == Level.REJECT) {
+                        AvailabilityChangeEvent.publish(events, this, updated == Level.REJECT
+                                ? ReadinessState.REFUSING_TRAFFIC
+                                : ReadinessState.ACCEPTING_TRAFFIC);
+                    }
+                }
+            }
+        }
+        return level;
+    }
+
+    // Decays with a time constant of one SLO, so an idle node is back to normal within a few SLOs
+    private double decayed(long now) {
+        double idle = Math.max(0, now - lastSampleNanos);
+        return averageDelayNanos * Math.exp(-idle / sloNanos);
+    }
+}
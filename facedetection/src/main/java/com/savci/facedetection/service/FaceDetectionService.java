@@ -1,51 +1,311 @@
 package com.savci.facedetection.service;
 
+import com.savci.facedetection.cluster.WorkerPool;
+import com.savci.facedetection.config.FaceDetectionProperties;
 import com.savci.facedetection.entity.FaceDetectionResult;
 import com.savci.facedetection.exception.FaceDetectionException;
-import com.savci.facedetection.model.FaceAnnotation;
+import com.savci.facedetection.exception.ServiceBusyException;
+import com.savci.facedetection.model.AlignedFaces;
+import com.savci.facedetection.model.Cancellation;
+import com.savci.facedetection.model.DetectionLevel;
+import com.savci.facedetection.model.DetectionOptions;
+import com.savci.facedetection.model.FaceDetections;
 import com.savci.facedetection.model.MTCNN;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import org.bytedeco.opencv.opencv_core.Mat;
-import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-@Service
 public class FaceDetectionService {
     private static final Logger LOGGER = LoggerFactory.getLogger(FaceDetectionService.class);
 
+    private static final String ANONYMOUS = "anonymous";
+
     private final MTCNN mtcnn;
+    private final FairScheduler scheduler;
+    private final AdmissionController admission;
+    private final WorkerPool workerPool;
+    private final NativeMemoryBudget memoryBudget;
+    private final ExecutorService decoder;
 
     public FaceDetectionService(MTCNN mtcnn) {
+        this(mtcnn, null, null, null);
+    }
+
+    public FaceDetectionService(MTCNN mtcnn, FairScheduler scheduler, AdmissionController admission,
+            NativeMemoryBudget memoryBudget) {
+        this(mtcnn, scheduler, admission, memoryBudget, new FaceDetectionProperties.Scheduling());
+    }
+
+    /**
+     * Runs inference through the fair scheduler, one queue per session key. The
+     * admission controller, if any, rejects or degrades frames based on their
+     * queue delay, and the memory budget, if any, rejects frames while the
+     * native memory of frames in flight is used up. Frames are decoded on a
+     * pool sized by scheduling.decode-threads, off the caller's thread.
+     */
+    public FaceDetectionService(MTCNN mtcnn, FairScheduler scheduler, AdmissionController admission,
+            NativeMemoryBudget memoryBudget, FaceDetectionProperties.Scheduling scheduling) {
         this.mtcnn = mtcnn;
+        this.scheduler = scheduler;
+        this.admission = admission;
+        this.workerPool = null;
+        this.memoryBudget = memoryBudget;
+        int threads = scheduling.getDecodeThreads() > 0 ? scheduling.getDecodeThreads()
+                : Runtime.getRuntime().availableProcessors();
+        AtomicInteger decoderThreads = new AtomicInteger();
+        this.decoder = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, scheduling.getMaxQueuedDecodes())), task -> {
+                    Thread thread = new Thread(task, "frame-decoder-" + decoderThreads.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Gateway mode: frames are detected by remote workers.
+     */
+    public FaceDetectionService(WorkerPool workerPool) {
+        this.mtcnn = null;
+        this.scheduler = null;
+        this.admission = null;
+        this.workerPool = workerPool;
+        this.memoryBudget = null;
+        this.decoder = null;
     }
 
     public CompletableFuture<FaceDetectionResult> detectFaces(byte[] imageData) {
+        return detectFaces(null, imageData, false);
+    }
+
+    public CompletableFuture<FaceDetectionResult> detectFaces(byte[] imageData, boolean align) {
+        return detectFaces(null, imageData, align);
+    }
+
+    /**
+     * Detects faces and, when {@code align} is set, also warps every face into
+     * the result's aligned crop buffer, which the caller must close. The session
+     * key only matters for worker affinity in gateway mode.
+     */
+    public CompletableFuture<FaceDetectionResult> detectFaces(String sessionKey, byte[] imageData, boolean align) {
+        return detectFaces(sessionKey, imageData, DetectionLevel.FULL, align);
+    }
+
+    /**
+     * Detects faces down to the given cascade level. Levels below
+     * {@link DetectionLevel#FULL} skip the later networks and return boxes
+     * without landmarks, so there is nothing to align. Admission control may
+     * lower the level further but never raises it.
+     */
+    public CompletableFuture<FaceDetectionResult> detectFaces(String sessionKey, byte[] imageData,
+            DetectionLevel level, boolean align) {
+        return detectFaces(sessionKey, imageData, level, align, Cancellation.NONE);
+    }
+
+    /**
+     * Returns at once: the frame is decoded on the decoder pool and detected on
+     * the inference threads. Once the cancellation is triggered the frame stops
+     * at the next check, including while it is still queued, and the future
+     * fails with a {@link CancellationException}.
+     */
+    public CompletableFuture<FaceDetectionResult> detectFaces(String sessionKey, byte[] imageData,
+            DetectionLevel level, boolean align, Cancellation cancellation) {
         Assert.notNull(imageData, "Image data must not be null");
+        Assert.notNull(level, "Detection level must not be null");
+        Assert.notNull(cancellation, "Cancellation must not be null");
 
+        if (workerPool != null) {
+            if (cancellation.isCancelled()) {
+                return CompletableFuture.failedFuture(new CancellationException("Frame cancelled"));
+            }
+            return workerPool.detect(sessionKey, imageData, level)
+                    .thenApply(detections -> {
+                        if (!align) {
+                            return toResult(null, detections, false);
+                        }
+                        try (Mat image = ImageUtils.byteArrayToMat(imageData)) {
+                            return toResult(image, detections, true);
+                        }
+                    })
+                    .exceptionallyCompose(e -> {
+                        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause()
+                                : e;
+                        if (cause instanceof ServiceBusyException) {
+                            // The worker is overloaded, the client backs off as on a standalone node
+                            return CompletableFuture.failedFuture(cause);
+                        }
+                        LOGGER.error("Error detecting faces on a worker", e);
+                        return CompletableFuture.failedFuture(
+                                new FaceDetectionException("Failed to process image for face detection", e));
+                    });
+        }
+
+        CompletableFuture<CompletableFuture<FaceDetectionResult>> decoded;
+        try {
+            // Detection is started inside the decoder task, so it never runs on the caller's thread
+            decoded = CompletableFuture.supplyAsync(() -> {
+                cancellation.throwIfCancelled();
+                return detect(sessionKey, ImageUtils.byteArrayToMat(imageData), level, align, cancellation);
+            }, decoder);
+        } catch (RejectedExecutionException e) {
+            // The decoder queue is full, the node is as overloaded as when admission rejects
+            return CompletableFuture.failedFuture(busy());
+        }
+        return decoded.thenCompose(Function.identity()).exceptionallyCompose(this::failure);
+    }
+
+    /**
+     * Detects faces in an already decoded BGR frame, e.g. one wrapped in place
+     * by shared-memory ingestion. Only the Mat header is copied, so the pixels
+     * must stay valid until the future completes. Without a scheduler the frame
+     * is detected on the caller's thread.
+     */
+    public CompletableFuture<FaceDetectionResult> detectFaces(String sessionKey, Mat image, DetectionLevel level,
+            Cancellation cancellation) {
+        Assert.notNull(image, "Image must not be null");
+        Assert.notNull(level, "Detection level must not be null");
+        Assert.notNull(cancellation, "Cancellation must not be null");
+        if (workerPool != null) {
+            return CompletableFuture.failedFuture(
+                    new UnsupportedOperationException("Decoded frames cannot be sent to workers"));
+        }
+        return detect(sessionKey, new Mat(image), level, false, cancellation).exceptionallyCompose(this::failure);
+    }
+
+    /**
+     * Takes ownership of the decoded frame, which is closed once the result is
+     * built.
+     */
+    private CompletableFuture<FaceDetectionResult> detect(String sessionKey, Mat image, DetectionLevel level,
+            boolean align, Cancellation cancellation) {
+        // Native memory of the decoded frame and the budget lease, released as soon as the result is built
+        NativeMemoryBudget.Lease lease = null;
         try {
-            // Convert byte array to OpenCV Mat
-            Mat image = ImageUtils.byteArrayToMat(imageData);
-            // Validate image
             if (image.empty()) {
-                CompletableFuture.failedFuture(new IllegalArgumentException("Could not read image data"));
+                return CompletableFuture.failedFuture(new IllegalArgumentException("Could not read image data"));
             }
+            cancellation.throwIfCancelled();
 
-            // Detect faces using MTCNN
-            FaceAnnotation[] faceAnnotations = mtcnn.detectFace(image);
+            if (admission != null && admission.admit() == AdmissionController.Level.REJECT) {
+                return CompletableFuture.failedFuture(busy());
+            }
 
-            // Create result object
-            FaceDetectionResult result = new FaceDetectionResult();
-            result.setFaces(faceAnnotations);
-            result.setTotalFaces(faceAnnotations.length);
+            if (memoryBudget != null) {
+                lease = memoryBudget.tryAcquire(image.total());
+                if (lease == null) {
+                    LOGGER.debug("Native memory budget exhausted, rejecting frame");
+                    return CompletableFuture.failedFuture(busy());
+                }
+            }
 
-            return CompletableFuture.completedFuture(result);
+            if (scheduler == null) {
+                // On the decoder pool for encoded frames, on the caller's thread for decoded ones
+                FaceDetections detections = mtcnn.detect(image, DetectionOptions.DEFAULT.withLevelAtMost(level),
+                        cancellation);
+                return CompletableFuture.completedFuture(toResult(image, detections, align));
+            }
 
+            // Decoded first so the scheduler can charge the frame by its pixel count
+            String user = sessionKey == null ? ANONYMOUS : sessionKey;
+            long submitted = System.nanoTime();
+            Mat frame = image;
+            NativeMemoryBudget.Lease frameLease = lease;
+            // Owned by the future from here on
+            image = null;
+            lease = null;
+            return scheduler.submit(user, frame.total(), () -> {
+                // Frames of closed or superseded sessions leave the queue without running
+                cancellation.throwIfCancelled();
+                return mtcnn.detect(frame, startOptions(submitted).withLevelAtMost(level), cancellation);
+            })
+                    .thenApply(detections -> toResult(frame, detections, align))
+                    .whenComplete((result, e) -> release(frame, frameLease));
         } catch (Exception e) {
-            LOGGER.error("Error detecting faces in image", e);
-            return CompletableFuture
-                    .failedFuture(new FaceDetectionException("Failed to process image for face detection", e));
+            return CompletableFuture.failedFuture(e);
+        } finally {
+            release(image, lease);
+        }
+    }
+
+    private CompletableFuture<FaceDetectionResult> failure(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof ServiceBusyException || cause instanceof IllegalArgumentException) {
+            return CompletableFuture.failedFuture(cause);
+        }
+        if (cause instanceof RejectedExecutionException) {
+            // This user's queue is full, tell the client to back off like on overload
+            return CompletableFuture.failedFuture(busy());
+        }
+        if (cause instanceof CancellationException) {
+            LOGGER.debug("Frame cancelled: {}", cause.getMessage());
+            return CompletableFuture.failedFuture(cause);
+        }
+        LOGGER.error("Error detecting faces in image", cause);
+        return CompletableFuture
+                .failedFuture(new FaceDetectionException("Failed to process image for face detection", cause));
+    }
+
+    private ServiceBusyException busy() {
+        return new ServiceBusyException(AdmissionController.Level.REJECT.ordinal(),
+                admission == null ? 0 : admission.getRetryAfterMillis());
+    }
+
+    private static void release(Mat image, NativeMemoryBudget.Lease lease) {
+        if (image != null) {
+            image.close();
+        }
+        if (lease != null) {
+            lease.close();
+        }
+    }
+
+    /**
+     * Degradation is decided when the frame leaves the queue, from the pressure
+     * at that moment rather than when it arrived.
+     */
+    private DetectionOptions startOptions(long submittedNanos) {
+        if (admission == null) {
+            return DetectionOptions.DEFAULT;
+        }
+        return admission.options(admission.start(System.nanoTime() - submittedNanos));
+    }
+
+    public void close() {
+        if (decoder != null) {
+            decoder.shutdownNow();
+        }
+    }
+
+    /**
+     * Drops worker affinity and scheduler state held for a closed session.
+     */
+    public void releaseSession(String sessionKey) {
+        if (workerPool != null) {
+            workerPool.releaseAffinity(sessionKey);
+        }
+        if (scheduler != null) {
+            scheduler.release(sessionKey);
+        }
+    }
+
+    private static FaceDetectionResult toResult(Mat image, FaceDetections detections, boolean align) {
+        // Create result object
+        FaceDetectionResult result = new FaceDetectionResult();
+        result.setDetections(detections);
+        // Degraded results carry no landmarks to align on
+        if (align && detections.hasLandmarks()) {
+            result.setAlignedFaces(AlignedFaces.align(image, detections.toAnnotations()));
         }
+        return result;
     }
 }
@@ -0,0 +1,204 @@
+package com.savci.facedetection.service;
+
+import com.savci.facedetection.config.FaceDetectionProperties;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Deficit round-robin over per-user queues in front of inference. Each user
+ * with queued work is visited in turn and credited {@code quantum * weight}
+ * per visit; a task runs once its user's deficit covers its cost (pixels). A
+ * user sending large frames at a high rate therefore gets the same share of
+ * pixels per round as everyone else with the same weight, instead of filling a
+ * FIFO ahead of them.
+ * <p>
+ * Exports per-user queue depth and queue wait time.
+ */
+public class FairScheduler implements AutoCloseable {
+
+    private final FaceDetectionProperties.Scheduling scheduling;
+    private final MeterRegistry meterRegistry;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition workAvailable = lock.newCondition();
+    private final Map<String, UserQueue> queues = new HashMap<>();
+    private final Deque<UserQueue> active = new ArrayDeque<>();
+    private final List<Thread> dispatchers = new ArrayList<>();
+    private volatile boolean running = true;
+
+    public FairScheduler(FaceDetectionProperties.Scheduling scheduling, int concurrency,
+            MeterRegistry meterRegistry) {
+        this.scheduling = scheduling;
+        this.meterRegistry = meterRegistry;
+        for (int i = 0; i < Math.max(1, concurrency); i++) {
+            Thread dispatcher = new Thread(this::dispatch, "fair-scheduler-" + i);
+            dispatcher.setDaemon(true);
+            dispatcher.start();
+            dispatchers.add(dispatcher);
+        }
+    }
+
+    /**
+     * Queues the task for the user. Fails fast with a
+     * {@link RejectedExecutionException} when the user already has the maximum
+     * number of tasks queued.
+     */
+    public <T> CompletableFuture<T> submit(String userId, long cost, Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        lock.lock();
+        try {
+            UserQueue queue = queues.computeIfAbsent(userId, UserQueue::new);
+            if (queue.tasks.size() >= scheduling.getMaxQueuedPerUser()) {
+                return CompletableFuture.failedFuture(new RejectedExecutionException(
+                        "Too many frames queued for user " + userId));
+            }
+            queue.tasks.add(new Task(Math.max(1, cost), System.nanoTime(), () -> {
+                try {
+                    future.complete(task.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            }, future));
+            if (!queue.active) {
+                queue.active = true;
+                active.addLast(queue);
+            }
+            workAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+        return future;
+    }
+
+    public int getQueueDepth(String userId) {
+        lock.lock();
+        try {
+            UserQueue queue = queues.get(userId);
+            return queue == null ? 0 : queue.tasks.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forgets a user and its meters, e.g. when its session closes. Its queued
+     * tasks are cancelled without running; one already running is not
+     * interrupted.
+     */
+    public void release(String userId) {
+        List<Task> dropped;
+        lock.lock();
+        try {
+            UserQueue queue = queues.remove(userId);
+            if (queue == null) {
+                return;
+            }
+            if (queue.active) {
+                active.remove(queue);
+            }
+            dropped = new ArrayList<>(queue.tasks);
+            queue.tasks.clear();
+            queue.meters.forEach(meterRegistry::remove);
+        } finally {
+            lock.unlock();
+        }
+        // Outside the lock, the futures' callbacks run on this thread
+        dropped.forEach(task -> task.future.cancel(false));
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        dispatchers.forEach(Thread::interrupt);
+    }
+
+    private void dispatch() {
+        while (running) {
+            Task task;
+            try {
+                task = next();
+            } catch (InterruptedException e) {
+                return;
+            }
+            task.run.run();
+        }
+    }
+
+    private Task next() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                while (active.isEmpty()) {
+                    workAvailable.await();
+                }
+                UserQueue queue = active.peekFirst();
+                if (!queue.credited) {
+                    queue.deficit += scheduling.getQuantum() * queue.weight;
+                    queue.credited = true;
+                }
+                Task head = queue.tasks.peekFirst();
+                if (head.cost > queue.deficit) {
+                    // Out of credit for this round, the next visit tops it up
+                    queue.credited = false;
+                    active.addLast(active.pollFirst());
+                    continue;
+                }
+                queue.tasks.pollFirst();
+                queue.deficit -= head.cost;
+                if (queue.tasks.isEmpty()) {
+                    // An idle user does not bank credit
+                    queue.deficit = 0;
+                    queue.credited = false;
+                    queue.active = false;
+                    active.pollFirst();
+                }
+                queue.waitTimer.record(System.nanoTime() - head.enqueued, TimeUnit.NANOSECONDS);
+                return head;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private record Task(long cost, long enqueued, Runnable run, CompletableFuture<?> future) {
+    }
+
+    private final class UserQueue {
+        private final Deque<Task> tasks = new ArrayDeque<>();
+        private final long weight;
+        private final Timer waitTimer;
+        private final List<Meter> meters = new ArrayList<>();
+        private long deficit;
+        private boolean credited;
+        private boolean active;
+
+        UserQueue(String userId) {
+            this.weight = Math.max(1, scheduling.getWeights().getOrDefault(userId, scheduling.getDefaultWeight()));
+            this.waitTimer = Timer.builder("facedetection.scheduler.wait")
+                    .description("Time a frame waited for inference")
+                    .tag("user", userId)
+                    .publishPercentiles(0.5, 0.99)
+                    .register(meterRegistry);
+            meters.add(waitTimer);
+            meters.add(Gauge.builder("facedetection.scheduler.queue.depth", tasks, Deque::size)
+                    .description("Frames queued for inference")
+                    .tag("user", userId)
+                    .register(meterRegistry));
+        }
+    }
+}
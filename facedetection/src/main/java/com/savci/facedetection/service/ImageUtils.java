@@ -1,20 +1,133 @@
 package com.savci.facedetection.service;
 
+import com.savci.facedetection.entity.RawFrame;
+
+import org.bytedeco.javacpp.BytePointer;
 import org.bytedeco.opencv.global.opencv_core;
 import org.bytedeco.opencv.global.opencv_imgcodecs;
 import org.bytedeco.opencv.opencv_core.Mat;
 import java.nio.ByteBuffer;
 
+import static org.bytedeco.opencv.global.opencv_imgproc.COLOR_RGB2BGR;
+import static org.bytedeco.opencv.global.opencv_imgproc.COLOR_YUV2BGR_I420;
+import static org.bytedeco.opencv.global.opencv_imgproc.COLOR_YUV2BGR_NV12;
+import static org.bytedeco.opencv.global.opencv_imgproc.cvtColor;
+
 public class ImageUtils {
 
     private ImageUtils() {
         throw new UnsupportedOperationException("Utility class.");
     }
 
+    /**
+     * Decodes an encoded image, or wraps a {@link RawFrame} payload without
+     * imdecode.
+     */
     public static Mat byteArrayToMat(byte[] imageData) {
-        Mat mat = new Mat(1, imageData.length, opencv_core.CV_8UC1);
-        mat.data().put(imageData);
-        return opencv_imgcodecs.imdecode(mat, opencv_imgcodecs.IMREAD_COLOR);
+        if (RawFrame.isRaw(imageData)) {
+            return rawFrameToMat(imageData);
+        }
+        try (Mat mat = new Mat(1, imageData.length, opencv_core.CV_8UC1)) {
+            mat.data().put(imageData);
+            return opencv_imgcodecs.imdecode(mat, opencv_imgcodecs.IMREAD_COLOR);
+        }
+    }
+
+    /**
+     * Copies the pixels into native memory once, dropping row padding; BGR is
+     * used as is and the other formats go through cvtColor.
+     */
+    static Mat rawFrameToMat(byte[] payload) {
+        RawFrame frame = RawFrame.read(payload);
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        int stride = frame.getStride();
+        int pixels = RawFrame.HEADER_BYTES;
+        switch (frame.getFormat()) {
+            case BGR:
+            case RGB: {
+                Mat image = new Mat(height, width, opencv_core.CV_8UC3);
+                copyRows(payload, pixels, stride, image.data(), 0, width * 3, height);
+                if (frame.getFormat() == RawFrame.Format.RGB) {
+                    cvtColor(image, image, COLOR_RGB2BGR);
+                }
+                return image;
+            }
+            default: {
+                try (Mat yuv = new Mat(height * 3 / 2, width, opencv_core.CV_8UC1)) {
+                    BytePointer data = yuv.data();
+                    if (frame.getFormat() == RawFrame.Format.NV12) {
+                        // Luma rows then interleaved chroma rows, all at the same stride
+                        copyRows(payload, pixels, stride, data, 0, width, height * 3 / 2);
+                    } else {
+                        int lumaBytes = width * height;
+                        int chromaBytes = lumaBytes / 4;
+                        int chroma = pixels + stride * height;
+                        copyRows(payload, pixels, stride, data, 0, width, height);
+                        copyRows(payload, chroma, stride / 2, data, lumaBytes, width / 2, height / 2);
+                        copyRows(payload, chroma + stride / 2 * (height / 2), stride / 2, data,
+                                lumaBytes + chromaBytes, width / 2, height / 2);
+                    }
+                    Mat image = new Mat();
+                    cvtColor(yuv, image, frame.getFormat() == RawFrame.Format.NV12 ? COLOR_YUV2BGR_NV12
+                            : COLOR_YUV2BGR_I420);
+                    return image;
+                }
+            }
+        }
+    }
+
+    /**
+     * Wraps raw pixels held in a direct buffer, e.g. a shared-memory slot. BGR
+     * is wrapped without a copy, so the buffer must stay valid as long as the
+     * Mat; the other formats go through one cvtColor into a new Mat.
+     */
+    public static Mat rawPixelsToMat(RawFrame frame, ByteBuffer pixels) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        int stride = frame.getStride();
+        long rows = frame.getFormat() == RawFrame.Format.NV12 || frame.getFormat() == RawFrame.Format.I420
+                ? height * 3L / 2 : height;
+        // Never wrap native memory past the buffer, the header may come from another process
+        if ((long) stride * rows > pixels.remaining()) {
+            throw new IllegalArgumentException("Raw " + frame.getFormat() + " frame " + width + "x" + height
+                    + " needs " + (long) stride * rows + " pixel bytes but got " + pixels.remaining());
+        }
+        BytePointer data = new BytePointer(pixels);
+        switch (frame.getFormat()) {
+            case BGR:
+                return new Mat(height, width, opencv_core.CV_8UC3, data, stride);
+            case RGB:
+                try (Mat rgb = new Mat(height, width, opencv_core.CV_8UC3, data, stride)) {
+                    Mat image = new Mat();
+                    cvtColor(rgb, image, COLOR_RGB2BGR);
+                    return image;
+                }
+            default:
+                if (frame.getFormat() == RawFrame.Format.I420 && stride != width) {
+                    // Padded I420 chroma planes do not fit one strided Mat, compact them on the copying path
+                    byte[] copy = new byte[frame.pixelBytes()];
+                    pixels.get(pixels.position(), copy);
+                    return rawFrameToMat(RawFrame.encode(frame.getFormat(), width, height, stride, copy));
+                }
+                try (Mat yuv = new Mat(height * 3 / 2, width, opencv_core.CV_8UC1, data, stride)) {
+                    Mat image = new Mat();
+                    cvtColor(yuv, image, frame.getFormat() == RawFrame.Format.NV12 ? COLOR_YUV2BGR_NV12
+                            : COLOR_YUV2BGR_I420);
+                    return image;
+                }
+        }
+    }
+
+    private static void copyRows(byte[] source, int offset, int stride, BytePointer target, long targetOffset,
+            int rowBytes, int rows) {
+        if (stride == rowBytes) {
+            target.position(targetOffset).put(source, offset, rowBytes * rows);
+            return;
+        }
+        for (int row = 0; row < rows; row++) {
+            target.position(targetOffset + (long) row * rowBytes).put(source, offset + row * stride, rowBytes);
+        }
     }
 
     public static byte[] convertMatToByteArray(Mat mat) {
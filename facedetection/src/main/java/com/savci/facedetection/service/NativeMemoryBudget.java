@@ -0,0 +1,91 @@
+package com.savci.facedetection.service;
+
+import com.savci.facedetection.config.FaceDetectionProperties;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bytedeco.javacpp.Pointer;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * Caps the native memory claimed by frames in flight. Each frame leases an
+ * estimate based on its pixel count from decode until its result is built;
+ * when the budget is used up new frames are refused instead of letting RSS
+ * grow until the container is killed, since native memory does not show up
+ * in heap metrics.
+ * <p>
+ * Also exports JavaCPP's physical and tracked bytes and the size of the
+ * ND4J per-frame workspaces.
+ */
+public class NativeMemoryBudget {
+
+    private static final long KIB = 1024;
+
+    private final FaceDetectionProperties.Memory memory;
+    private final int totalKib;
+    private final Semaphore available;
+
+    public NativeMemoryBudget(FaceDetectionProperties.Memory memory, MeterRegistry meterRegistry,
+            LongSupplier workspaceBytes) {
+        this.memory = memory;
+        this.totalKib = (int) Math.min(Integer.MAX_VALUE, memory.getFrameBudgetBytes() / KIB);
+        this.available = new Semaphore(totalKib);
+        Gauge.builder("facedetection.native.budget.used", this, NativeMemoryBudget::getUsedBytes)
+                .description("Native bytes leased by frames in flight")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("facedetection.native.physical", Pointer::physicalBytes)
+                .description("Resident memory of the process as seen by JavaCPP")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("facedetection.native.javacpp", Pointer::totalBytes)
+                .description("Native bytes held by JavaCPP pointers, e.g. OpenCV Mats")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("facedetection.native.nd4j.workspaces", workspaceBytes::getAsLong)
+                .description("Off-heap bytes of the ND4J per-frame workspaces")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    public boolean isLimited() {
+        return memory.getFrameBudgetBytes() > 0;
+    }
+
+    /**
+     * Leases the estimate for a frame of the given pixel count, or returns null
+     * when the budget cannot cover it now. A frame larger than the whole budget
+     * leases all of it, so it still runs once nothing else is in flight.
+     */
+    public Lease tryAcquire(long pixels) {
+        if (!isLimited()) {
+            return new Lease(0);
+        }
+        long bytes = pixels * memory.getBytesPerPixel();
+        int kib = (int) Math.max(1, Math.min(totalKib, (bytes + KIB - 1) / KIB));
+        return available.tryAcquire(kib) ? new Lease(kib) : null;
+    }
+
+    public long getUsedBytes() {
+        return isLimited() ? (totalKib - (long) available.availablePermits()) * KIB : 0;
+    }
+
+    public final class Lease implements AutoCloseable {
+        private final int kib;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Lease(int kib) {
+            this.kib = kib;
+        }
+
+        @Override
+        public void close() {
+            if (kib > 0 && released.compareAndSet(false, true)) {
+                available.release(kib);
+            }
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package com.savci.facedetection;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.savci.facedetection.client.FaceDetectionWebSocketClient;
+import com.savci.facedetection.model.FaceAnnotation;
+import com.savci.facedetection.model.MTCNN;
+import com.savci.facedetection.model.MTCNNAccuracyReport;
+
+import org.HdrHistogram.Histogram;
+import org.bytedeco.opencv.global.opencv_imgcodecs;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Performance and output regression gate, run with {@code mvn -Pperf test}.
+ * Detects a fixed local corpus (the bundled client image plus any images in
+ * {@code -Dperf.corpus=dir}) directly through {@link MTCNN} and over the
+ * WebSocket endpoint, on CPU with the bundled models.
+ * <p>
+ * Faces must match the golden faces in {@code perf/baseline.json}, and
+ * throughput and p95 latency may not be worse than its metrics by more than
+ * the regression threshold. Every run writes what it measured in the same
+ * format to {@code target/perf/baseline.json}; copy that over the committed
+ * file to re-baseline. A check without a baseline entry is skipped, not
+ * passed, until one is recorded on the reference machine with
+ * {@code -Dperf.record=true}.
+ */
+@Tag("perf")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class PerformanceRegressionTest {
+
+    private static final Path BUNDLED_IMAGE = Path.of("src/main/java/com/savci/facedetection/client/image.png");
+    private static final Path BASELINE = Path.of("src/test/resources/perf/baseline.json");
+    private static final Path MEASURED = Path.of("target/perf/baseline.json");
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = Integer.getInteger("perf.rounds", 20);
+    private static final boolean RECORD = Boolean.getBoolean("perf.record");
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    private static JsonNode baseline;
+    private static ObjectNode measured;
+    private static List<Path> corpus;
+
+    @Autowired
+    private MTCNN mtcnn;
+
+    @LocalServerPort
+    private int port;
+
+    @BeforeAll
+    static void loadBaseline() throws IOException {
+        baseline = MAPPER.readTree(BASELINE.toFile());
+        measured = MAPPER.createObjectNode();
+        double threshold = Double.parseDouble(System.getProperty("perf.regressionThreshold",
+                baseline.path("regressionThreshold").asText("0.2")));
+        measured.put("regressionThreshold", threshold);
+        measured.put("minIou", baseline.path("minIou").asDouble(0.9));
+        measured.put("landmarkTolerancePx", baseline.path("landmarkTolerancePx").asInt(3));
+        measured.putObject("images");
+        measured.putObject("metrics");
+
+        corpus = new ArrayList<>(List.of(BUNDLED_IMAGE));
+        String extra = System.getProperty("perf.corpus");
+        if (extra != null) {
+            try (Stream<Path> files = Files.list(Path.of(extra))) {
+                files.filter(PerformanceRegressionTest::isImage).sorted().forEach(corpus::add);
+            }
+        }
+    }
+
+    @AfterAll
+    static void writeMeasured() throws IOException {
+        Files.createDirectories(MEASURED.getParent());
+        MAPPER.writeValue(MEASURED.toFile(), measured);
+    }
+
+    @Test
+    void detectionMatchesGoldenFaces() {
+        double minIou = measured.get("minIou").asDouble();
+        int tolerance = measured.get("landmarkTolerancePx").asInt();
+        List<String> missing = new ArrayList<>();
+        for (Path file : corpus) {
+            FaceAnnotation[] faces;
+            try (Mat image = read(file)) {
+                faces = detect(image);
+            }
+            String name = file.getFileName().toString();
+            ((ObjectNode) measured.get("images")).set(name, MAPPER.valueToTree(golden(faces)));
+
+            JsonNode expected = baseline.path("images").path(name);
+            if (expected.isMissingNode()) {
+                missing.add(name);
+                continue;
+            }
+            assertEquals(expected.size(), faces.length, "Face count of " + name);
+            for (JsonNode face : expected) {
+                assertTrue(matches(face, faces, minIou, tolerance), "No face in " + name + " matches " + face);
+            }
+        }
+        assumeTrue(RECORD || missing.isEmpty(), missingBaseline("golden faces of " + missing));
+    }
+
+    @Test
+    void detectFaceStaysWithinBaseline() {
+        List<Mat> images = corpus.stream().map(PerformanceRegressionTest::read).toList();
+        try {
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                images.forEach(this::detect);
+            }
+            Histogram latency = new Histogram(3);
+            long start = System.nanoTime();
+            for (int round = 0; round < MEASURED_ROUNDS; round++) {
+                for (Mat image : images) {
+                    long frameStart = System.nanoTime();
+                    detect(image);
+                    latency.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - frameStart));
+                }
+            }
+            checkMetrics("detectFace", latency, System.nanoTime() - start);
+        } finally {
+            images.forEach(Mat::close);
+        }
+    }
+
+    @Test
+    void webSocketRoundTripStaysWithinBaseline() throws Exception {
+        List<byte[]> frames = new ArrayList<>();
+        for (Path file : corpus) {
+            frames.add(Files.readAllBytes(file));
+        }
+        Map<String, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+        FaceDetectionWebSocketClient client = new FaceDetectionWebSocketClient(UUID.randomUUID().toString(), 1024, 2);
+        client.setVerbose(false);
+        client.setResultListener((frameId, result) -> complete(pending, frameId, null));
+        client.setBusyListener((frameId, retryAfterMillis) -> complete(pending, frameId,
+                new IllegalStateException("Frame " + frameId + " rejected as busy")));
+        client.connect("ws://localhost:" + port + "/face-detection").get(10, TimeUnit.SECONDS);
+        try {
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                for (byte[] frame : frames) {
+                    roundTrip(client, pending, frame);
+                }
+            }
+            Histogram latency = new Histogram(3);
+            long start = System.nanoTime();
+            for (int round = 0; round < MEASURED_ROUNDS; round++) {
+                for (byte[] frame : frames) {
+                    long frameStart = System.nanoTime();
+                    roundTrip(client, pending, frame);
+                    latency.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - frameStart));
+                }
+            }
+            checkMetrics("webSocket", latency, System.nanoTime() - start);
+        } finally {
+            client.close();
+        }
+    }
+
+    private FaceAnnotation[] detect(Mat image) {
+        try {
+            return mtcnn.detectFace(image);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void roundTrip(FaceDetectionWebSocketClient client, Map<String, CompletableFuture<Void>> pending,
+            byte[] frame) throws Exception {
+        String frameId = UUID.randomUUID().toString();
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        pending.put(frameId, result);
+        client.sendFrame(frameId, frame);
+        result.get(30, TimeUnit.SECONDS);
+    }
+
+    private static void complete(Map<String, CompletableFuture<Void>> pending, String frameId, Exception failure) {
+        CompletableFuture<Void> result = pending.remove(frameId);
+        if (result != null && failure != null) {
+            result.completeExceptionally(failure);
+        } else if (result != null) {
+            result.complete(null);
+        }
+    }
+
+    /**
+     * Records the run and fails when throughput dropped or p95 latency grew by
+     * more than the threshold relative to the baseline.
+     */
+    private static void checkMetrics(String name, Histogram latency, long elapsedNanos) {
+        double throughput = latency.getTotalCount() / (elapsedNanos / 1e9);
+        long p95 = latency.getValueAtPercentile(95);
+        ObjectNode metrics = ((ObjectNode) measured.get("metrics")).putObject(name);
+        metrics.put("throughputFps", throughput);
+        metrics.put("p95Micros", p95);
+
+        JsonNode expected = baseline.path("metrics").path(name);
+        if (expected.isMissingNode()) {
+            assumeTrue(RECORD, missingBaseline(name + " metrics"));
+            return;
+        }
+        double threshold = measured.get("regressionThreshold").asDouble();
+        double minThroughput = expected.get("throughputFps").asDouble() * (1 - threshold);
+        long maxP95 = (long) (expected.get("p95Micros").asLong() * (1 + threshold));
+        assertTrue(throughput >= minThroughput, String.format(Locale.ROOT,
+                "%s throughput %.2f fps is below %.2f fps", name, throughput, minThroughput));
+        assertTrue(p95 <= maxP95, String.format(Locale.ROOT,
+                "%s p95 latency %d us is above %d us", name, p95, maxP95));
+    }
+
+    private static String missingBaseline(String what) {
+        return "No baseline for " + what + "; run with -Dperf.record=true on the reference machine and copy "
+                + MEASURED + " over " + BASELINE;
+    }
+
+    private static List<Map<String, Object>> golden(FaceAnnotation[] faces) {
+        List<Map<String, Object>> golden = new ArrayList<>();
+        for (FaceAnnotation face : faces) {
+            FaceAnnotation.BoundingBox box = face.getBoundingBox();
+            List<int[]> landmarks = Stream.of(face.getLandmarks())
+                    .map(l -> new int[] { l.getPosition().getX(), l.getPosition().getY() })
+                    .toList();
+            golden.add(Map.of("box", new int[] { box.getX(), box.getY(), box.getW(), box.getH() },
+                    "landmarks", landmarks));
+        }
+        return golden;
+    }
+
+    private static boolean matches(JsonNode expected, FaceAnnotation[] faces, double minIou, int tolerance) {
+        JsonNode box = expected.get("box");
+        FaceAnnotation.BoundingBox expectedBox = FaceAnnotation.BoundingBox.of(box.get(0).asInt(),
+                box.get(1).asInt(), box.get(2).asInt(), box.get(3).asInt());
+        ArrayNode landmarks = (ArrayNode) expected.get("landmarks");
+        for (FaceAnnotation face : faces) {
+            if (MTCNNAccuracyReport.iou(face.getBoundingBox(), expectedBox) < minIou
+                    || face.getLandmarks().length != landmarks.size()) {
+                continue;
+            }
+            boolean close = true;
+            for (int j = 0; j < landmarks.size() && close; j++) {
+                FaceAnnotation.Landmark.Position position = face.getLandmarks()[j].getPosition();
+                close = Math.abs(position.getX() - landmarks.get(j).get(0).asInt()) <= tolerance
+                        && Math.abs(position.getY() - landmarks.get(j).get(1).asInt()) <= tolerance;
+            }
+            if (close) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Mat read(Path file) {
+        Mat image = opencv_imgcodecs.imread(file.toString(), opencv_imgcodecs.IMREAD_COLOR);
+        assertFalse(image.empty(), "Cannot read " + file);
+        return image;
+    }
+
+    private static boolean isImage(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".png") || name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".bmp");
+    }
+}
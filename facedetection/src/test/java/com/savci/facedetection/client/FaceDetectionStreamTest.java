@@ -0,0 +1,155 @@
+package com.savci.facedetection.client;
+
+import com.savci.facedetection.config.FaceDetectionProperties;
+import com.savci.facedetection.entity.FrameHeader;
+import com.savci.facedetection.entity.RawFrame;
+import com.savci.facedetection.handler.FaceDetectionWebSocketHandler;
+import com.savci.facedetection.model.Cancellation;
+import com.savci.facedetection.model.DetectionOptions;
+import com.savci.facedetection.model.FaceDetections;
+import com.savci.facedetection.model.MTCNN;
+import com.savci.facedetection.service.FaceDetectionService;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.annotation.Bean;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+import org.springframework.web.socket.handler.PerConnectionWebSocketHandler;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the stream against the real WebSocket handler, with a detector that
+ * reports each frame's width as the face's x.
+ */
+@SpringBootTest(classes = FaceDetectionStreamTest.Server.class,
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class FaceDetectionStreamTest {
+
+    private static final WidthMTCNN MTCNN = new WidthMTCNN();
+
+    @LocalServerPort
+    private int port;
+
+    @Test
+    void resultsFollowSubmissionOrderAndSubmitBlocksAtTheLimit() throws Exception {
+        try (FaceDetectionStream stream = new FaceDetectionStream("ordered")) {
+            stream.setMaxInFlight(2);
+            stream.setDelivery(FrameHeader.Delivery.ORDERED);
+            // Several chunks per frame
+            stream.setChunkSize(16);
+            List<Integer> published = new CopyOnWriteArrayList<>();
+            stream.onResult(result -> published.add(result.faces().x(0)));
+            stream.connect("ws://localhost:" + port + "/face-detection").get(10, TimeUnit.SECONDS);
+            assertThrows(IllegalStateException.class, () -> stream.setChunkSize(32));
+
+            CompletableFuture<FrameResult> held = stream.submit(frame(WidthMTCNN.HELD));
+            CompletableFuture<FrameResult> fast = stream.submit(frame(7));
+            // Two frames are in flight, so the third waits for a result
+            CompletableFuture<CompletableFuture<FrameResult>> third = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return stream.submit(frame(9));
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+
+            // The later frame was detected first, its result still waits for the held one
+            assertTrue(MTCNN.detected.await(10, TimeUnit.SECONDS));
+            Thread.sleep(100);
+            assertFalse(held.isDone());
+            assertFalse(fast.isDone());
+            assertFalse(third.isDone());
+
+            MTCNN.release.countDown();
+            assertEquals(0, held.get(10, TimeUnit.SECONDS).sequence());
+            assertEquals(1, fast.get(10, TimeUnit.SECONDS).sequence());
+            FrameResult last = third.get(10, TimeUnit.SECONDS).get(10, TimeUnit.SECONDS);
+            assertEquals(2, last.sequence());
+            assertEquals(9, last.faces().x(0));
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (published.size() < 3) {
+                assertTrue(System.nanoTime() < deadline, "Results were never published");
+                Thread.sleep(1);
+            }
+            assertEquals(List.of(WidthMTCNN.HELD, 7, 9), published);
+        }
+    }
+
+    // A raw 1-pixel-high BGR frame, so the server needs no codec
+    private static byte[] frame(int width) {
+        return RawFrame.encode(RawFrame.Format.BGR, width, 1, width * 3, new byte[width * 3]);
+    }
+
+    @SpringBootConfiguration
+    @EnableAutoConfiguration
+    @EnableWebSocket
+    @EnableConfigurationProperties(FaceDetectionProperties.class)
+    static class Server implements WebSocketConfigurer {
+
+        @Override
+        public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+            registry.addHandler(faceDetectionWebSocketHandler(), "/face-detection/{userId}");
+        }
+
+        @Bean
+        public WebSocketHandler faceDetectionWebSocketHandler() {
+            return new PerConnectionWebSocketHandler(FaceDetectionWebSocketHandler.class);
+        }
+
+        // Without a scheduler every frame is detected on its own decoder thread
+        @Bean(destroyMethod = "close")
+        public FaceDetectionService faceDetectionService(FaceDetectionProperties properties) {
+            properties.getScheduling().setDecodeThreads(4);
+            return new FaceDetectionService(MTCNN, null, null, null, properties.getScheduling());
+        }
+    }
+
+    /**
+     * Answers one face at x = frame width, and holds the frame of width HELD
+     * until released and another frame was detected.
+     */
+    private static final class WidthMTCNN extends MTCNN {
+        static final int HELD = 5;
+
+        private final CountDownLatch detected = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        WidthMTCNN() {
+            super(new FaceDetectionProperties());
+        }
+
+        @Override
+        public FaceDetections detect(Mat image, DetectionOptions options, Cancellation cancellation)
+                throws Exception {
+            if (image.cols() == HELD) {
+                assertTrue(release.await(10, TimeUnit.SECONDS));
+            } else {
+                detected.countDown();
+            }
+            float[] data = new float[FaceDetections.STRIDE];
+            data[0] = image.cols();
+            data[2] = image.cols() + 1;
+            data[3] = 1;
+            return new FaceDetections(data, 1, true);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.savci.facedetection.cluster;
+
+import com.savci.facedetection.model.FaceDetections;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClusterProtocolTest {
+
+    @Test
+    void facesRoundTripOverALoopbackConnection() throws Exception {
+        float[] data = new float[2 * FaceDetections.STRIDE];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = i * 1.5f;
+        }
+        FaceDetections withLandmarks = new FaceDetections(data, 2, true);
+        FaceDetections boxesOnly = new FaceDetections(new float[FaceDetections.STRIDE], 1, false);
+
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+                Socket client = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+                Socket accepted = server.accept()) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(client.getOutputStream()));
+            ClusterProtocol.writeFaces(out, withLandmarks);
+            ClusterProtocol.writeFaces(out, boxesOnly);
+            ClusterProtocol.writeFaces(out, FaceDetections.empty());
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(accepted.getInputStream()));
+            FaceDetections first = ClusterProtocol.readFaces(in);
+            assertEquals(2, first.count());
+            assertTrue(first.hasLandmarks());
+            assertArrayEquals(data, first.data());
+            FaceDetections second = ClusterProtocol.readFaces(in);
+            assertEquals(1, second.count());
+            assertFalse(second.hasLandmarks());
+            assertEquals(0, ClusterProtocol.readFaces(in).count());
+        }
+    }
+
+    @Test
+    void corruptFaceCountIsRejected() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+                Socket client = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+                Socket accepted = server.accept()) {
+            DataOutputStream out = new DataOutputStream(client.getOutputStream());
+            out.writeInt(ClusterProtocol.MAX_FACES + 1);
+            out.flush();
+
+            DataInputStream in = new DataInputStream(accepted.getInputStream());
+            assertThrows(IOException.class, () -> ClusterProtocol.readFaces(in));
+        }
+    }
+}
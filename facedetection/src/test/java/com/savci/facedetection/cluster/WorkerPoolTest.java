@@ -0,0 +1,94 @@
+package com.savci.facedetection.cluster;
+
+import com.savci.facedetection.config.FaceDetectionProperties;
+import com.savci.facedetection.model.DetectionLevel;
+import com.savci.facedetection.model.FaceDetections;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WorkerPoolTest {
+
+    @Test
+    void lostDataConnectionFailsPendingFramesAndReconnects() throws Exception {
+        FaceDetectionProperties properties = new FaceDetectionProperties();
+        properties.getCluster().setRegistryPort(0);
+        // Far longer than the test waits, so only the lost connection can fail the frame
+        properties.getCluster().setRequestTimeoutMillis(60_000);
+        properties.getCluster().setHeartbeatMillis(60_000);
+        WorkerPool pool = new WorkerPool(properties);
+        pool.start();
+        try (ServerSocket worker = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+                Socket registry = new Socket(InetAddress.getLoopbackAddress(), pool.getRegistryPort())) {
+            worker.setSoTimeout(5000);
+            DataOutputStream registration = new DataOutputStream(registry.getOutputStream());
+            registration.writeByte(ClusterProtocol.REGISTER);
+            registration.writeUTF("worker-1");
+            registration.writeUTF("127.0.0.1");
+            registration.writeInt(worker.getLocalPort());
+            registration.writeInt(1);
+            registration.flush();
+
+            try (Socket first = worker.accept()) {
+                awaitHealthy(pool);
+                CompletableFuture<FaceDetections> lost = pool.detect("camera", new byte[] { 1, 2, 3 });
+                readDetect(new DataInputStream(first.getInputStream()), new byte[] { 1, 2, 3 });
+                first.close();
+
+                ExecutionException e = assertThrows(ExecutionException.class, () -> lost.get(5, TimeUnit.SECONDS));
+                assertInstanceOf(IllegalStateException.class, e.getCause());
+            }
+
+            // The gateway opens a new data connection without the worker registering again
+            try (Socket second = worker.accept()) {
+                awaitHealthy(pool);
+                CompletableFuture<FaceDetections> answered = pool.detect("camera", new byte[] { 4 });
+                long requestId = readDetect(new DataInputStream(second.getInputStream()), new byte[] { 4 });
+                FaceDetections faces = new FaceDetections(new float[FaceDetections.STRIDE], 1, true);
+                DataOutputStream out = new DataOutputStream(second.getOutputStream());
+                out.writeByte(ClusterProtocol.RESULT);
+                out.writeLong(requestId);
+                ClusterProtocol.writeFaces(out, faces);
+                out.flush();
+
+                assertArrayEquals(faces.data(), answered.get(5, TimeUnit.SECONDS).data());
+            }
+        } finally {
+            pool.stop();
+        }
+    }
+
+    private static long readDetect(DataInputStream in, byte[] frame) throws IOException {
+        assertEquals(ClusterProtocol.DETECT, in.readByte());
+        long requestId = in.readLong();
+        assertEquals(DetectionLevel.FULL.ordinal(), in.readUnsignedByte());
+        assertEquals("camera", in.readUTF());
+        byte[] received = new byte[in.readInt()];
+        in.readFully(received);
+        assertArrayEquals(frame, received);
+        return requestId;
+    }
+
+    private static void awaitHealthy(WorkerPool pool) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!pool.getWorkerLoads().containsValue(0)) {
+            assertTrue(System.nanoTime() < deadline, "Worker never became healthy");
+            Thread.sleep(1);
+        }
+    }
+}
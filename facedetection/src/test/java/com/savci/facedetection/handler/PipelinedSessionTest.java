@@ -0,0 +1,81 @@
+package com.savci.facedetection.handler;
+
+import com.savci.facedetection.entity.FrameHeader;
+import com.savci.facedetection.model.AlignedFaces;
+import com.savci.facedetection.model.Cancellation;
+import com.savci.facedetection.model.DetectionLevel;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PipelinedSessionTest {
+
+    @Test
+    void orderedDeliveryHoldsRepliesUntilEarlierFramesAreSent() {
+        PipelinedSession session = new PipelinedSession(null, AlignedFaces.Format.NONE, DetectionLevel.FULL, true,
+                FrameHeader.Delivery.ORDERED, 2, false, false);
+        List<Long> sent = new ArrayList<>();
+
+        PipelinedSession.Slot second = session.register(header(2));
+        PipelinedSession.Slot first = session.register(header(1));
+        PipelinedSession.Slot third = session.register(header(3));
+        assertTrue(session.tryAcquire());
+        assertTrue(session.tryAcquire());
+        assertFalse(session.tryAcquire());
+
+        session.complete(third, false, reply(sent, 3));
+        session.complete(second, true, reply(sent, 2));
+        assertTrue(sent.isEmpty());
+        assertTrue(session.tryAcquire());
+
+        session.complete(first, true, reply(sent, 1));
+        assertEquals(List.of(1L, 2L, 3L), sent);
+    }
+
+    @Test
+    void completedDeliverySendsAtOnce() {
+        PipelinedSession session = new PipelinedSession(null, AlignedFaces.Format.NONE, DetectionLevel.FULL, true,
+                FrameHeader.Delivery.COMPLETED, 0, false, false);
+        List<Long> sent = new ArrayList<>();
+
+        session.register(header(1));
+        PipelinedSession.Slot second = session.register(header(2));
+        session.complete(second, session.tryAcquire(), reply(sent, 2));
+
+        assertEquals(List.of(2L), sent);
+    }
+
+    @Test
+    void newerFrameSupersedesAndCloseCancelsAll() {
+        PipelinedSession session = new PipelinedSession(null, AlignedFaces.Format.NONE, DetectionLevel.FULL, true,
+                FrameHeader.Delivery.COMPLETED, 0, false, true);
+
+        Cancellation first = session.start(session.register(header(1)));
+        Cancellation second = session.start(session.register(header(2)));
+        assertTrue(first.isCancelled());
+        assertFalse(second.isCancelled());
+
+        session.close();
+        assertTrue(second.isCancelled());
+        assertTrue(session.isClosed());
+    }
+
+    private static FrameHeader header(long sequence) {
+        return new FrameHeader("00000000-0000-0000-0000-00000000000" + sequence, 0, 1, sequence, 0);
+    }
+
+    private static Supplier<CompletableFuture<Void>> reply(List<Long> sent, long sequence) {
+        return () -> {
+            sent.add(sequence);
+            return CompletableFuture.completedFuture(null);
+        };
+    }
+}
@@ -0,0 +1,90 @@
+package com.savci.facedetection.ingest;
+
+import com.savci.facedetection.client.FrameResult;
+import com.savci.facedetection.client.SharedMemoryFrameProducer;
+import com.savci.facedetection.entity.ControlMessage;
+import com.savci.facedetection.entity.DetectionMessage;
+import com.savci.facedetection.entity.RawFrame;
+import com.savci.facedetection.model.FaceDetections;
+import com.savci.facedetection.service.ImageUtils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrameRingTest {
+
+    @Test
+    void framesAndResultsRoundTripThroughTheMapping(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("camera.ring");
+        FrameRing ring = FrameRing.create(file, 2, 64, 256);
+        SharedMemoryFrameProducer producer = SharedMemoryFrameProducer.attach(file);
+        assertEquals("camera", producer.getChannel());
+
+        byte[] pixels = new byte[2 * 16];
+        pixels[5] = 42;
+        assertEquals(0, producer.publish(RawFrame.Format.BGR, 4, 2, 16, pixels));
+        assertEquals(1, producer.publish(RawFrame.Format.BGR, 4, 2, 16, pixels));
+        assertEquals(2, ring.published());
+
+        RawFrame frame = ring.readFrame(1);
+        assertEquals(RawFrame.Format.BGR, frame.getFormat());
+        assertEquals(4, frame.getWidth());
+        assertEquals(16, frame.getStride());
+        assertEquals(42, ring.pixels(1).get(5));
+
+        assertNull(producer.poll());
+        ring.writeResult(0, DetectionMessage.encode(FaceDetections.empty()));
+        ring.writeResult(1, ControlMessage.busy(2, 150));
+        FrameResult first = producer.take();
+        assertEquals(0, first.sequence());
+        assertFalse(first.isBusy());
+        FrameResult second = producer.take();
+        assertTrue(second.isBusy());
+        assertEquals(150, second.retryAfterMillis());
+
+        // Slot 0 is free again, its result was taken
+        assertEquals(2, producer.publish(RawFrame.Format.BGR, 4, 2, 16, pixels));
+        ring.writeResult(2, null);
+        assertThrows(IllegalStateException.class, producer::take);
+    }
+
+    @Test
+    void rejectsFramesLargerThanSlots(@TempDir Path directory) throws Exception {
+        SharedMemoryFrameProducer producer = SharedMemoryFrameProducer
+                .attach(FrameRing.create(directory.resolve("small.ring"), 2, 16, 64).getPath());
+        assertThrows(IllegalArgumentException.class,
+                () -> producer.publish(RawFrame.Format.BGR, 4, 4, 12, new byte[48]));
+    }
+
+    @Test
+    void hostileHeadersNeverReachPastTheSlot(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("hostile.ring");
+        FrameRing ring = FrameRing.create(file, 2, 64, 64);
+        // A producer writing the slot header directly: NV12 whose stride * height * 3 overflows int
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            mapping.order(ByteOrder.LITTLE_ENDIAN);
+            int slot = FrameRing.RING_HEADER_BYTES;
+            mapping.putInt(slot + 24, RawFrame.Format.NV12.ordinal());
+            mapping.putInt(slot + 28, 16384);
+            mapping.putInt(slot + 32, 16384);
+            mapping.putInt(slot + 36, 65536);
+        }
+        assertThrows(IllegalArgumentException.class, () -> ring.readFrame(0));
+        // A valid header that is larger than the slot must not be wrapped either
+        assertThrows(IllegalArgumentException.class,
+                () -> ImageUtils.rawPixelsToMat(RawFrame.of(RawFrame.Format.NV12, 64, 64, 64), ring.pixels(0)));
+    }
+}
@@ -0,0 +1,76 @@
+package com.savci.facedetection.ingest;
+
+import com.savci.facedetection.client.FrameResult;
+import com.savci.facedetection.client.SharedMemoryFrameProducer;
+import com.savci.facedetection.config.FaceDetectionProperties;
+import com.savci.facedetection.entity.RawFrame;
+import com.savci.facedetection.model.Cancellation;
+import com.savci.facedetection.model.DetectionOptions;
+import com.savci.facedetection.model.FaceDetections;
+import com.savci.facedetection.model.MTCNN;
+import com.savci.facedetection.service.FaceDetectionService;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SharedMemoryIngestionTest {
+
+    @Test
+    void frameCancelledAtShutdownIsAnsweredBusy(@TempDir Path directory) throws Exception {
+        FaceDetectionProperties.SharedMemory config = new FaceDetectionProperties.SharedMemory();
+        config.setDirectory(directory.toString());
+        config.setChannels(List.of("camera"));
+        config.setSlots(2);
+        config.setMaxFrameBytes(64);
+        UntilCancelledMTCNN mtcnn = new UntilCancelledMTCNN();
+        FaceDetectionService service = new FaceDetectionService(mtcnn);
+        try {
+            SharedMemoryIngestion ingestion = new SharedMemoryIngestion(config, service, new SimpleMeterRegistry());
+            SharedMemoryFrameProducer producer = SharedMemoryFrameProducer.attach(directory.resolve("camera.ring"));
+            producer.publish(RawFrame.Format.BGR, 4, 2, 16, new byte[2 * 16]);
+            assertTrue(mtcnn.entered.await(5, TimeUnit.SECONDS));
+
+            ingestion.close();
+
+            // Without a result for the slot the producer would wait forever
+            FrameResult result = producer.take();
+            assertTrue(result.isBusy());
+            assertEquals(0, result.retryAfterMillis());
+        } finally {
+            service.close();
+        }
+    }
+
+    /**
+     * Holds every detection until it is cancelled.
+     */
+    private static final class UntilCancelledMTCNN extends MTCNN {
+        private final CountDownLatch entered = new CountDownLatch(1);
+
+        UntilCancelledMTCNN() {
+            super(new FaceDetectionProperties());
+        }
+
+        @Override
+        public FaceDetections detect(Mat image, DetectionOptions options, Cancellation cancellation)
+                throws Exception {
+            entered.countDown();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (!cancellation.isCancelled() && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            cancellation.throwIfCancelled();
+            return FaceDetections.empty();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.savci.facedetection.model;
+
+import org.bytedeco.javacpp.indexer.UByteIndexer;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Point;
+import org.bytedeco.opencv.opencv_core.Scalar;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.bytedeco.opencv.global.opencv_core.CV_8UC3;
+import static org.bytedeco.opencv.global.opencv_core.absdiff;
+import static org.bytedeco.opencv.global.opencv_core.countNonZero;
+import static org.bytedeco.opencv.global.opencv_imgproc.circle;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AlignedFacesTest {
+
+    private static final int SIZE = MTCNNUtils.ALIGNED_FACE_SIZE;
+    // Where the eyes land in the crop, 0.27 of its size in from the top left and top right
+    private static final int EYE_Y = (int) Math.round(0.27 * SIZE);
+    private static final int LEFT_EYE_X = EYE_Y;
+    private static final int RIGHT_EYE_X = SIZE - 1 - EYE_Y;
+
+    @Test
+    void levelsAndScalesTheEyesOntoFixedPositions() {
+        // A level face and one tilted by 45 degrees, each with a blue left and a red right eye
+        try (Mat image = new Mat(400, 400, CV_8UC3, new Scalar(0, 0, 0, 0));
+                AlignedFaces aligned = AlignedFaces.align(image,
+                        new FaceAnnotation[] { eyes(image, 60, 100, 140, 100), eyes(image, 220, 220, 280, 280) })) {
+            assertEquals(2, aligned.getCount());
+            assertEquals(2 * SIZE, aligned.getBuffer().rows());
+            for (int i = 0; i < aligned.getCount(); i++) {
+                try (Mat face = aligned.getFace(i); UByteIndexer pixels = face.createIndexer()) {
+                    assertEquals(SIZE, face.rows());
+                    assertEquals(SIZE, face.cols());
+                    assertTrue(pixels.get(EYE_Y, LEFT_EYE_X, 0) > 200, "Left eye of face " + i);
+                    assertTrue(pixels.get(EYE_Y, RIGHT_EYE_X, 2) > 200, "Right eye of face " + i);
+                    // Nothing was drawn between the eyes
+                    assertEquals(0, pixels.get(SIZE / 2, SIZE / 2, 0));
+                }
+            }
+        }
+    }
+
+    @Test
+    void rawEncodingRoundTripsExactly() {
+        try (Mat image = new Mat(200, 200, CV_8UC3, new Scalar(0, 0, 0, 0));
+                AlignedFaces aligned = AlignedFaces.align(image,
+                        new FaceAnnotation[] { eyes(image, 50, 80, 110, 70), eyes(image, 60, 150, 130, 150) })) {
+            byte[] payload = aligned.encode(AlignedFaces.Format.RAW, 0);
+            assertTrue(AlignedFaces.isEncoded(payload));
+            assertEquals(16 + 2 * SIZE * SIZE * 3, payload.length);
+
+            List<Mat> faces = AlignedFaces.decode(payload);
+            assertEquals(2, faces.size());
+            for (int i = 0; i < faces.size(); i++) {
+                try (Mat decoded = faces.get(i); Mat face = aligned.getFace(i); Mat difference = new Mat()) {
+                    absdiff(decoded, face, difference);
+                    assertEquals(0, countNonZero(difference.reshape(1)));
+                }
+            }
+        }
+    }
+
+    @Test
+    void jpegEncodingKeepsEveryFace() {
+        try (Mat image = new Mat(200, 200, CV_8UC3, new Scalar(0, 0, 0, 0));
+                AlignedFaces aligned = AlignedFaces.align(image,
+                        new FaceAnnotation[] { eyes(image, 50, 80, 110, 70) })) {
+            List<Mat> faces = AlignedFaces.decode(aligned.encode(AlignedFaces.Format.JPEG, 95));
+            assertEquals(1, faces.size());
+            try (Mat face = faces.get(0); UByteIndexer pixels = face.createIndexer()) {
+                assertEquals(CV_8UC3, face.type());
+                assertEquals(SIZE, face.rows());
+                assertEquals(SIZE, face.cols());
+                assertTrue(pixels.get(EYE_Y, LEFT_EYE_X, 0) > 150);
+            }
+        }
+    }
+
+    @Test
+    void frameWithoutFacesEncodesAnEmptyPayload() {
+        try (Mat image = new Mat(10, 10, CV_8UC3, new Scalar(0, 0, 0, 0));
+                AlignedFaces aligned = AlignedFaces.align(image, new FaceAnnotation[0])) {
+            assertTrue(AlignedFaces.decode(aligned.encode(AlignedFaces.Format.JPEG, 95)).isEmpty());
+            assertTrue(AlignedFaces.decode(aligned.encode(AlignedFaces.Format.RAW, 0)).isEmpty());
+            assertThrows(IllegalArgumentException.class, () -> aligned.encode(AlignedFaces.Format.NONE, 0));
+        }
+        assertFalse(AlignedFaces.isEncoded(new byte[] { 'A', 'L', 'G', 'N' }));
+    }
+
+    // Draws both eyes filled into the image and returns a face with those landmarks
+    private static FaceAnnotation eyes(Mat image, int leftX, int leftY, int rightX, int rightY) {
+        try (Point left = new Point(leftX, leftY); Point right = new Point(rightX, rightY);
+                Scalar blue = new Scalar(255, 0, 0, 0); Scalar red = new Scalar(0, 0, 255, 0)) {
+            circle(image, left, 6, blue, -1, 8, 0);
+            circle(image, right, 6, red, -1, 8, 0);
+        }
+        FaceAnnotation face = new FaceAnnotation();
+        face.setLandmarks(new FaceAnnotation.Landmark[] {
+                FaceAnnotation.Landmark.of(FaceAnnotation.Landmark.LandmarkType.LEFT_EYE,
+                        FaceAnnotation.Landmark.Position.of(leftX, leftY)),
+                FaceAnnotation.Landmark.of(FaceAnnotation.Landmark.LandmarkType.RIGHT_EYE,
+                        FaceAnnotation.Landmark.Position.of(rightX, rightY)) });
+        return face;
+    }
+}
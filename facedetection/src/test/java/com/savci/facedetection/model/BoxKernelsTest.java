@@ -0,0 +1,90 @@
+package com.savci.facedetection.model;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BoxKernelsTest {
+
+    private static final BoxKernels REFERENCE = BoxKernels.create(BoxKernels.Mode.NDARRAY);
+
+    @BeforeAll
+    static void setUp() {
+        Nd4j.setDefaultDataTypes(DataType.FLOAT, DataType.FLOAT);
+        Nd4j.getRandom().setSeed(42);
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = BoxKernels.Mode.class, names = { "SCALAR", "VECTOR" })
+    void generateBoundingBoxMatchesReference(BoxKernels.Mode mode) {
+        BoxKernels kernels = BoxKernels.create(mode);
+        INDArray imap = Nd4j.rand(DataType.FLOAT, 37, 53);
+        INDArray reg = Nd4j.rand(DataType.FLOAT, 37, 53, 4).subi(0.5);
+
+        INDArray[] expected = REFERENCE.generateBoundingBox(imap, reg, 0.42, 0.6);
+        INDArray[] actual = kernels.generateBoundingBox(imap, reg, 0.42, 0.6);
+
+        assertValuesEqual(expected[0], actual[0]);
+        assertValuesEqual(expected[1], actual[1]);
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = BoxKernels.Mode.class, names = { "SCALAR", "VECTOR" })
+    void bbregAndRerecMatchReference(BoxKernels.Mode mode) {
+        BoxKernels kernels = BoxKernels.create(mode);
+        for (int columns = 4; columns <= 6; columns++) {
+            INDArray boxes = randomBoxes(1003, columns);
+            INDArray reg = Nd4j.rand(DataType.FLOAT, 1003, 4).subi(0.5);
+
+            assertValuesEqual(REFERENCE.bbreg(boxes.dup(), reg), kernels.bbreg(boxes.dup(), reg));
+            assertValuesEqual(REFERENCE.rerec(boxes.dup()), kernels.rerec(boxes.dup()));
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = BoxKernels.Mode.class, names = { "SCALAR", "VECTOR" })
+    void padMatchesReference(BoxKernels.Mode mode) {
+        BoxKernels kernels = BoxKernels.create(mode);
+        INDArray boxes = REFERENCE.rerec(randomBoxes(1003, 5));
+
+        FaceDetectionDto expected = REFERENCE.pad(boxes.dup(), 640, 480);
+        FaceDetectionDto actual = kernels.pad(boxes.dup(), 640, 480);
+
+        assertValuesEqual(expected.getX(), actual.getX());
+        assertValuesEqual(expected.getY(), actual.getY());
+        assertValuesEqual(expected.getEx(), actual.getEx());
+        assertValuesEqual(expected.getEy(), actual.getEy());
+        assertValuesEqual(expected.getDx(), actual.getDx());
+        assertValuesEqual(expected.getDy(), actual.getDy());
+        assertValuesEqual(expected.getEdx(), actual.getEdx());
+        assertValuesEqual(expected.getEdy(), actual.getEdy());
+        assertValuesEqual(expected.getTmpw(), actual.getTmpw());
+        assertValuesEqual(expected.getTmph(), actual.getTmph());
+    }
+
+    /**
+     * Boxes partly outside a 640x480 frame on every side.
+     */
+    private static INDArray randomBoxes(int rows, int columns) {
+        INDArray boxes = Nd4j.rand(DataType.FLOAT, rows, columns);
+        INDArray x1 = boxes.getColumn(0).muli(760).subi(60);
+        INDArray y1 = boxes.getColumn(1).muli(580).subi(60);
+        boxes.getColumn(2).muli(120).addi(x1);
+        boxes.getColumn(3).muli(120).addi(y1);
+        return boxes;
+    }
+
+    private static void assertValuesEqual(INDArray expected, INDArray actual) {
+        assertEquals(expected.isEmpty(), actual.isEmpty());
+        if (!expected.isEmpty()) {
+            assertEquals(expected.length(), actual.length());
+            assertArrayEquals(expected.dup('c').data().asFloat(), actual.dup('c').data().asFloat());
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.savci.facedetection.model;
+
+import org.junit.jupiter.api.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class FaceDetectionsTest {
+
+    @Test
+    void flatLayoutMatchesAnnotationView() throws Exception {
+        // Boxes carry an extra trailing column like ONet output does
+        INDArray boxes = Nd4j.createFromArray(new double[][] {
+                { 10.7, 20.2, 50.9, 80.1, 0.93, 0.5 },
+                { 100, 110, 140, 170, 0.81, 0.5 } });
+        INDArray points = Nd4j.createFromArray(new float[][] {
+                { 1, 2, 3, 4, 5, 11, 12, 13, 14, 15 },
+                { 6, 7, 8, 9, 10, 16, 17, 18, 19, 20 } });
+
+        FaceDetections detections = FaceDetections.fromCascade(boxes, points);
+
+        assertEquals(2, detections.count());
+        FaceAnnotation face = detections.toAnnotations()[0];
+        assertEquals(10, face.getBoundingBox().getX());
+        assertEquals(40, face.getBoundingBox().getW());
+        assertEquals(60, face.getBoundingBox().getH());
+        assertEquals(0.93f, (float) face.getConfidence());
+        assertEquals(FaceAnnotation.Landmark.LandmarkType.MOUTH_RIGHT, face.getLandmarks()[4].getType());
+        assertEquals(5, face.getLandmarks()[4].getPosition().getX());
+        assertEquals(15, face.getLandmarks()[4].getPosition().getY());
+        assertEquals(19, detections.landmarkY(1, 3));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        detections.writeTo(new DataOutputStream(bytes));
+        FaceDetections read = FaceDetections.readFrom(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), 16);
+        assertArrayEquals(detections.data(), read.data());
+    }
+
+    @Test
+    void boxesWithoutLandmarksUseStageScores() {
+        INDArray boxes = Nd4j.createFromArray(new float[][] { { 0, 0, 24, 24, 0 } });
+        INDArray scores = Nd4j.createFromArray(new float[] { 0.77f });
+
+        FaceDetections detections = FaceDetections.fromBoxes(boxes, scores);
+
+        assertFalse(detections.hasLandmarks());
+        assertEquals(0.77f, detections.score(0));
+        assertEquals(0, detections.toAnnotations()[0].getLandmarks().length);
+    }
+}
@@ -0,0 +1,81 @@
+package com.savci.facedetection.model;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FramePlanCacheTest {
+
+    private static final double SCALE_FACTOR = 0.709;
+
+    @Test
+    void planMatchesPerFramePyramid() {
+        FramePlan.Key key = new FramePlan.Key(640, 480, 20, 0, 0);
+        try (FramePlan plan = new FramePlan(key, SCALE_FACTOR);
+                Mat frame = MTCNNUtils.syntheticFrame("640x480", new Random(1))) {
+            List<Double> expected = MTCNNUtils.computeScalePyramid(12D / 20, 480 * 12D / 20, SCALE_FACTOR);
+            assertEquals(expected, plan.scales());
+            for (int level = 0; level < expected.size(); level++) {
+                try (Mat scaled = MTCNNUtils.scaleImage(frame, expected.get(level))) {
+                    Mat planned = plan.level(frame, level);
+                    assertEquals(scaled.cols(), planned.cols());
+                    assertEquals(scaled.rows(), planned.rows());
+                }
+            }
+        }
+    }
+
+    @Test
+    void cacheReusesAndEvictsPlans() {
+        try (FramePlanCache cache = new FramePlanCache(2, SCALE_FACTOR)) {
+            FramePlan.Key vga = new FramePlan.Key(640, 480, 20, 0, 0);
+            FramePlan first = use(cache, vga);
+            assertSame(first, use(cache, vga));
+
+            use(cache, new FramePlan.Key(1280, 720, 20, 0, 0));
+            use(cache, new FramePlan.Key(1920, 1080, 20, 0, 0));
+            assertEquals(2, cache.size());
+            assertNotSame(first, use(cache, vga));
+
+            assertFalse(cache.releaseIfIdle(System.nanoTime(), Long.MAX_VALUE));
+            assertTrue(cache.releaseIfIdle(System.nanoTime(), 0));
+            assertEquals(0, cache.size());
+        }
+    }
+
+    @Test
+    void pinnedPlanSurvivesEvictionByTheDownscaledPlan() {
+        try (FramePlanCache cache = new FramePlanCache(1, SCALE_FACTOR);
+                Mat frame = MTCNNUtils.syntheticFrame("1920x1080", new Random(2))) {
+            // Like runCascade: the outer plan's downscaled Mat is in use while the inner plan is looked up
+            FramePlan outer = cache.acquire(new FramePlan.Key(1920, 1080, 20, 0, 960));
+            assertTrue(outer.downscale() < 1);
+            Mat downscaled = outer.downscaled(frame);
+            FramePlan inner = cache.acquire(new FramePlan.Key(downscaled.cols(), downscaled.rows(), 20, 0, 0));
+            assertFalse(downscaled.isNull());
+            try (Mat level = MTCNNUtils.scaleImage(downscaled, inner.scales().get(0))) {
+                assertEquals(level.cols(), inner.level(downscaled, 0).cols());
+            }
+            cache.release(inner);
+            assertFalse(downscaled.isNull());
+
+            cache.release(outer);
+            assertTrue(downscaled.isNull());
+            assertEquals(1, cache.size());
+        }
+    }
+
+    private static FramePlan use(FramePlanCache cache, FramePlan.Key key) {
+        FramePlan plan = cache.acquire(key);
+        cache.release(plan);
+        return plan;
+    }
+}
@@ -0,0 +1,56 @@
+package com.savci.facedetection.model;
+
+import com.savci.facedetection.config.FaceDetectionProperties;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrameWorkspaceTest {
+
+    @Test
+    void workspaceGaugeStaysBoundedAcrossWarmupAndDetections() throws Exception {
+        FaceDetectionProperties properties = new FaceDetectionProperties();
+        properties.getInference().setLanes(1);
+        properties.getWarmup().setEnabled(true);
+        properties.getWarmup().setResolutions(List.of("320x240"));
+        properties.getWarmup().setIterations(2);
+        properties.getAutotune().setEnabled(false);
+        properties.getTiling().setEnabled(false);
+        MTCNN mtcnn = new MTCNN(properties);
+        mtcnn.initialize();
+        try (Mat frame = MTCNNUtils.syntheticFrame("320x240", new Random(3))) {
+            // The loader threads that warmed up are gone, so are their workspaces
+            assertEquals(0, mtcnn.getFrameWorkspaceBytes());
+
+            mtcnn.detect(frame);
+            long oneThread = mtcnn.getFrameWorkspaceBytes();
+            assertTrue(oneThread > 0);
+            for (int i = 0; i < 5; i++) {
+                mtcnn.detect(frame);
+            }
+            assertEquals(oneThread, mtcnn.getFrameWorkspaceBytes());
+
+            for (int i = 0; i < 5; i++) {
+                Thread detector = new Thread(() -> {
+                    try {
+                        mtcnn.detect(frame);
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+                detector.start();
+                detector.join();
+            }
+            // Only this thread's workspace is still counted
+            assertEquals(oneThread, mtcnn.getFrameWorkspaceBytes());
+        } finally {
+            mtcnn.close();
+        }
+    }
+}
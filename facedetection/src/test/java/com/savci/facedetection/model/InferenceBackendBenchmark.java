@@ -0,0 +1,101 @@
+package com.savci.facedetection.model;
+
+import com.savci.facedetection.config.FaceDetectionProperties;
+
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-call latency of each network on each inference backend, at the batch
+ * sizes RNet/ONet see in practice. Small batches show the per-call session
+ * overhead. Run with
+ * {@code MAVEN_OPTS="--add-modules=jdk.incubator.vector" mvn test-compile exec:java
+ * -Dexec.classpathScope=test -Dexec.mainClass=com.savci.facedetection.model.InferenceBackendBenchmark}.
+ * It runs in the Maven JVM without forking: exec:java puts the test classpath
+ * on a class loader, not on java.class.path, so a forked JVM would not find the
+ * benchmark.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(0)
+public class InferenceBackendBenchmark {
+
+    @Param({ "TENSORFLOW", "DL4J" })
+    public InferenceBackend.Type backendType;
+
+    @Param({ "1", "16", "128" })
+    public int batch;
+
+    private InferenceBackend backend;
+    private INDArray pNetInput;
+    private INDArray rNetInput;
+    private INDArray oNetInput;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Nd4j.setDefaultDataTypes(DataType.FLOAT, DataType.FLOAT);
+        FaceDetectionProperties properties = new FaceDetectionProperties();
+        properties.getInference().setBackend(backendType);
+        MTCNN mtcnn = new MTCNN(properties);
+        InferenceBackend.Loader loader = mtcnn.loader(backendType);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            loader.load(mtcnn::readModel, executor);
+        } finally {
+            executor.shutdown();
+        }
+        backend = loader.create();
+        // First pyramid level of a 640x480 frame with the default 20px minimum face size
+        pNetInput = Nd4j.rand(DataType.FLOAT, 1, 384, 288, 3).subi(0.5);
+        rNetInput = Nd4j.rand(DataType.FLOAT, batch, 24, 24, 3).subi(0.5);
+        oNetInput = Nd4j.rand(DataType.FLOAT, batch, 48, 48, 3).subi(0.5);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        backend.close();
+    }
+
+    @Benchmark
+    public Map<String, INDArray> pNet() {
+        return backend.runPNet(pNetInput);
+    }
+
+    @Benchmark
+    public Map<String, INDArray> rNet() {
+        return backend.runRNet(rNetInput);
+    }
+
+    @Benchmark
+    public Map<String, INDArray> oNet() {
+        return backend.runONet(oNetInput);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(InferenceBackendBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,89 @@
+package com.savci.facedetection.model;
+
+import com.savci.facedetection.config.FaceDetectionProperties;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The imported Keras models must give the frozen graphs' outputs, so switching
+ * the backend never changes detections beyond float rounding.
+ */
+class InferenceBackendEquivalenceTest {
+
+    private static final double TOLERANCE = 1e-3;
+
+    private static InferenceBackend tensorFlow;
+    private static InferenceBackend dl4j;
+
+    @BeforeAll
+    static void setUp() {
+        Nd4j.setDefaultDataTypes(DataType.FLOAT, DataType.FLOAT);
+        Nd4j.getRandom().setSeed(42);
+        tensorFlow = create(InferenceBackend.Type.TENSORFLOW);
+        dl4j = create(InferenceBackend.Type.DL4J);
+    }
+
+    @AfterAll
+    static void tearDown() {
+        tensorFlow.close();
+        dl4j.close();
+    }
+
+    @Test
+    void pNetOutputsMatch() {
+        // Normalized pixels are in [-1, 1]
+        INDArray input = Nd4j.rand(DataType.FLOAT, 1, 96, 72, 3).muli(2).subi(1);
+        assertOutputsMatch(tensorFlow.runPNet(input), dl4j.runPNet(input), 2);
+    }
+
+    @Test
+    void rNetOutputsMatch() {
+        INDArray input = Nd4j.rand(DataType.FLOAT, 16, 24, 24, 3).muli(2).subi(1);
+        assertOutputsMatch(tensorFlow.runRNet(input), dl4j.runRNet(input), 2);
+    }
+
+    @Test
+    void oNetOutputsMatch() {
+        INDArray input = Nd4j.rand(DataType.FLOAT, 16, 48, 48, 3).muli(2).subi(1);
+        assertOutputsMatch(tensorFlow.runONet(input), dl4j.runONet(input), 3);
+    }
+
+    private static void assertOutputsMatch(Map<String, INDArray> expected, Map<String, INDArray> actual,
+            int outputs) {
+        assertEquals(outputs, expected.size());
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, INDArray> entry : expected.entrySet()) {
+            INDArray other = actual.get(entry.getKey());
+            assertArrayEquals(entry.getValue().shape(), other.shape(), entry.getKey());
+            double difference = entry.getValue().sub(other).amaxNumber().doubleValue();
+            assertTrue(difference <= TOLERANCE, entry.getKey() + " differs by " + difference);
+        }
+    }
+
+    private static InferenceBackend create(InferenceBackend.Type type) {
+        FaceDetectionProperties properties = new FaceDetectionProperties();
+        properties.getInference().setBackend(type);
+        MTCNN mtcnn = new MTCNN(properties);
+        InferenceBackend.Loader loader = mtcnn.loader(type);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            loader.load(mtcnn::readModel, executor);
+        } finally {
+            executor.shutdown();
+        }
+        return loader.create();
+    }
+}
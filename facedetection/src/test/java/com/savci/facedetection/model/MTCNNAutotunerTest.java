@@ -0,0 +1,32 @@
+package com.savci.facedetection.model;
+
+import com.savci.facedetection.config.FaceDetectionProperties;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MTCNNAutotunerTest {
+
+    @Test
+    void storesOnlyResultsThatMetTheCeiling(@TempDir Path directory) {
+        FaceDetectionProperties properties = new FaceDetectionProperties();
+        properties.getAutotune().setFile(directory.resolve("autotune.json").toString());
+        MTCNNAutotuner autotuner = new MTCNNAutotuner(properties);
+        String fingerprint = autotuner.fingerprint();
+
+        // The fallback to the configured threading when every candidate was too slow
+        autotuner.store(new MTCNNAutotuner.Result(fingerprint, 2, 0, 8, 128, 0, 0, false, Instant.now().toString()));
+        assertTrue(autotuner.load().isEmpty());
+
+        MTCNNAutotuner.Result tuned = new MTCNNAutotuner.Result(fingerprint, 4, 2, 2, 64, 37.5, 180, true,
+                Instant.now().toString());
+        autotuner.store(tuned);
+        assertEquals(tuned, autotuner.load().orElseThrow());
+    }
+}
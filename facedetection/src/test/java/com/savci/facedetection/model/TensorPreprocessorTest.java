@@ -0,0 +1,102 @@
+package com.savci.facedetection.model;
+
+import org.bytedeco.javacpp.indexer.UByteIndexer;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Rect;
+import org.bytedeco.opencv.opencv_core.Scalar;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.Random;
+
+import static org.bytedeco.opencv.global.opencv_core.CV_8UC3;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TensorPreprocessorTest {
+
+    @BeforeAll
+    static void setUp() {
+        Nd4j.setDefaultDataTypes(DataType.FLOAT, DataType.FLOAT);
+    }
+
+    @Test
+    void pNetInputIsWidthMajorAndNormalized() {
+        TensorPreprocessor preprocessor = new TensorPreprocessor();
+        try (Mat frame = MTCNNUtils.syntheticFrame("70x50", new Random(1));
+                Mat view = frame.apply(new Rect(3, 5, 40, 30))) {
+            assertNormalized(frame, preprocessor.toPNetInput(frame));
+            // A view is not continuous, its rows are the frame's step apart
+            assertFalse(view.isContinuous());
+            assertNormalized(view, preprocessor.toPNetInput(view));
+        } finally {
+            preprocessor.release();
+        }
+    }
+
+    @Test
+    void cropBatchWritesEveryCropNormalized() {
+        TensorPreprocessor preprocessor = new TensorPreprocessor();
+        try (Mat image = new Mat(40, 40, CV_8UC3, new Scalar(10, 20, 30, 0))) {
+            // A 10x10 box inside the image, then a box with no extent at all
+            TensorPreprocessor.CropBoxes boxes = new TensorPreprocessor.CropBoxes(new int[] { 1, 0 },
+                    new int[] { 10, 0 }, new int[] { 1, 0 }, new int[] { 10, 0 }, new int[] { 5, 0 },
+                    new int[] { 14, 0 }, new int[] { 5, 0 }, new int[] { 14, 0 }, new int[] { 10, 0 },
+                    new int[] { 10, 0 });
+
+            INDArray batch = preprocessor.cropBatch(image, boxes, 0, 2, 24);
+
+            assertArrayEquals(new long[] { 2, 24, 24, 3 }, batch.shape());
+            float[] bgr = { 10, 20, 30 };
+            for (int c = 0; c < 3; c++) {
+                assertEquals(normalize(bgr[c]), batch.getFloat(0, 12, 7, c), 1e-5);
+                assertEquals(normalize(0), batch.getFloat(1, 12, 7, c), 1e-6);
+            }
+        } finally {
+            preprocessor.release();
+        }
+    }
+
+    @Test
+    void evictedAndReleasedTensorsAreClosed() {
+        TensorPreprocessor preprocessor = new TensorPreprocessor();
+        INDArray first;
+        INDArray last = null;
+        try (Mat frame = new Mat(8, 8, CV_8UC3, new Scalar(0, 0, 0, 0))) {
+            first = preprocessor.toPNetInput(frame);
+            // One more shape than the cache holds pushes the first one out
+            for (int width = 9; width <= 8 + 32; width++) {
+                try (Mat wider = new Mat(8, width, CV_8UC3, new Scalar(0, 0, 0, 0))) {
+                    last = preprocessor.toPNetInput(wider);
+                }
+            }
+            assertTrue(first.wasClosed());
+            assertFalse(last.wasClosed());
+        } finally {
+            preprocessor.release();
+        }
+        assertTrue(last.wasClosed());
+    }
+
+    private static void assertNormalized(Mat image, INDArray tensor) {
+        assertArrayEquals(new long[] { 1, image.cols(), image.rows(), 3 }, tensor.shape());
+        try (UByteIndexer pixels = image.createIndexer()) {
+            for (int y = 0; y < image.rows(); y++) {
+                for (int x = 0; x < image.cols(); x++) {
+                    for (int c = 0; c < 3; c++) {
+                        assertEquals(normalize(pixels.get(y, x, c)), tensor.getFloat(0, x, y, c), 1e-6);
+                    }
+                }
+            }
+        }
+    }
+
+    private static float normalize(float pixel) {
+        return (pixel - TensorPreprocessor.MEAN) * TensorPreprocessor.SCALE;
+    }
+}
@@ -0,0 +1,172 @@
+package com.savci.facedetection.model;
+
+import com.savci.facedetection.config.FaceDetectionProperties;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.List;
+
+import static org.bytedeco.opencv.global.opencv_imgcodecs.IMREAD_COLOR;
+import static org.bytedeco.opencv.global.opencv_imgcodecs.imread;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TiledDetectionTest {
+
+    private static final String IMAGE = "src/main/java/com/savci/facedetection/client/image.png";
+
+    @BeforeAll
+    static void setUp() {
+        Nd4j.setDefaultDataTypes(DataType.FLOAT, DataType.FLOAT);
+    }
+
+    @Test
+    void tilesCoverFrameWithOverlap() {
+        int overlap = TiledDetection.overlap(320);
+        List<TiledDetection.Tile> tiles = TiledDetection.tiles(7680, 4320, 1536, overlap);
+
+        assertEquals(7 * 4, tiles.size());
+        TiledDetection.Tile last = tiles.get(tiles.size() - 1);
+        assertEquals(7680, last.x() + last.width());
+        assertEquals(4320, last.y() + last.height());
+        for (int i = 1; i < 7; i++) {
+            TiledDetection.Tile previous = tiles.get(i - 1);
+            assertTrue(previous.x() + previous.width() - tiles.get(i).x() >= overlap);
+        }
+        assertEquals(List.of(new TiledDetection.Tile(0, 0, 800, 600)), TiledDetection.tiles(800, 600, 1536, overlap));
+    }
+
+    @Test
+    void mergeDropsCutFacesAndOverlapDuplicates() {
+        List<TiledDetection.Tile> tiles = List.of(
+                new TiledDetection.Tile(0, 0, 1000, 1000),
+                new TiledDetection.Tile(600, 0, 1000, 1000));
+        // A face at x 700..800 seen whole by both tiles, and one cut by the first tile's right edge
+        FaceDetections left = detections(new float[][] { { 700, 100, 800, 200, 0.9f }, { 950, 300, 1000, 400, 0.99f } });
+        FaceDetections right = detections(new float[][] { { 100, 102, 200, 202, 0.95f }, { 320, 300, 420, 400, 0.97f } });
+
+        FaceDetections merged = TiledDetection.merge(tiles, List.of(left, right), 1600, 1000, true);
+
+        assertEquals(2, merged.count());
+        assertEquals(920, merged.x(0));
+        assertEquals(0.97f, merged.score(0));
+        assertEquals(700, merged.x(1));
+        assertEquals(102, merged.y(1));
+        assertEquals(701, merged.landmarkX(1, 0));
+    }
+
+    @Test
+    void mergeLeavesAbsentLandmarksAtZero() {
+        List<TiledDetection.Tile> tiles = List.of(
+                new TiledDetection.Tile(0, 0, 1000, 1000),
+                new TiledDetection.Tile(600, 0, 1000, 1000));
+        FaceDetections left = detections(new float[][] { { 100, 100, 200, 200, 0.9f } }, false);
+        FaceDetections right = detections(new float[][] { { 320, 300, 420, 400, 0.97f } }, false);
+
+        FaceDetections merged = TiledDetection.merge(tiles, List.of(left, right), 1600, 1000, false);
+
+        assertEquals(2, merged.count());
+        assertEquals(920, merged.x(0));
+        for (int i = 0; i < merged.count(); i++) {
+            for (int j = 0; j < FaceDetections.LANDMARKS; j++) {
+                assertEquals(0, merged.landmarkX(i, j));
+                assertEquals(0, merged.landmarkY(i, j));
+            }
+        }
+    }
+
+    @Test
+    void tiledDetectionFindsTheFacesOfWholeImageDetection() throws Exception {
+        FaceDetectionProperties properties = new FaceDetectionProperties();
+        properties.getInference().setLanes(2);
+        properties.getWarmup().setEnabled(false);
+        properties.getAutotune().setEnabled(false);
+        properties.getTiling().setEnabled(false);
+        MTCNN whole = new MTCNN(properties);
+        whole.initialize();
+
+        FaceDetectionProperties tiledProperties = new FaceDetectionProperties();
+        tiledProperties.getInference().setLanes(2);
+        tiledProperties.getWarmup().setEnabled(false);
+        tiledProperties.getAutotune().setEnabled(false);
+        // 4 x 2 tiles of the 1280x720 image plus the coarse pass
+        tiledProperties.getTiling().setMinImageSide(1000);
+        tiledProperties.getTiling().setTileSize(640);
+        MTCNN tiled = new MTCNN(tiledProperties);
+        tiled.initialize();
+
+        try (Mat image = imread(IMAGE, IMREAD_COLOR)) {
+            assertFalse(image.empty(), "Cannot read " + IMAGE);
+            FaceDetections expected = whole.detect(image);
+            assertTrue(expected.count() > 0);
+            assertMatches(expected, tiled.detect(image), true);
+
+            DetectionOptions refined = DetectionOptions.DEFAULT.withLevelAtMost(DetectionLevel.REFINED);
+            FaceDetections withoutLandmarks = tiled.detect(image, refined);
+            assertFalse(withoutLandmarks.hasLandmarks());
+            assertMatches(whole.detect(image, refined), withoutLandmarks, false);
+        } finally {
+            whole.close();
+            tiled.close();
+        }
+    }
+
+    // Every face found on the whole image overlaps one found on the tiles, landmarks close by
+    private static void assertMatches(FaceDetections expected, FaceDetections actual, boolean landmarks) {
+        assertEquals(expected.count(), actual.count());
+        for (int i = 0; i < expected.count(); i++) {
+            int best = -1;
+            double bestIou = 0;
+            for (int j = 0; j < actual.count(); j++) {
+                double iou = iou(expected, i, actual, j);
+                if (iou > bestIou) {
+                    best = j;
+                    bestIou = iou;
+                }
+            }
+            assertTrue(bestIou > 0.7, "Face " + i + " overlaps its tiled match by only " + bestIou);
+            double tolerance = Math.max(2, 0.1 * expected.width(i));
+            for (int k = 0; k < FaceDetections.LANDMARKS; k++) {
+                if (landmarks) {
+                    assertEquals(expected.landmarkX(i, k), actual.landmarkX(best, k), tolerance);
+                    assertEquals(expected.landmarkY(i, k), actual.landmarkY(best, k), tolerance);
+                } else {
+                    assertEquals(0, actual.landmarkX(best, k));
+                    assertEquals(0, actual.landmarkY(best, k));
+                }
+            }
+        }
+    }
+
+    private static double iou(FaceDetections a, int i, FaceDetections b, int j) {
+        int width = Math.min(a.x(i) + a.width(i), b.x(j) + b.width(j)) - Math.max(a.x(i), b.x(j));
+        int height = Math.min(a.y(i) + a.height(i), b.y(j) + b.height(j)) - Math.max(a.y(i), b.y(j));
+        if (width <= 0 || height <= 0) {
+            return 0;
+        }
+        double intersection = (double) width * height;
+        return intersection / (a.width(i) * a.height(i) + b.width(j) * b.height(j) - intersection);
+    }
+
+    private static FaceDetections detections(float[][] boxes) {
+        return detections(boxes, true);
+    }
+
+    private static FaceDetections detections(float[][] boxes, boolean landmarks) {
+        float[] data = new float[boxes.length * FaceDetections.STRIDE];
+        for (int i = 0; i < boxes.length; i++) {
+            System.arraycopy(boxes[i], 0, data, i * FaceDetections.STRIDE, boxes[i].length);
+            // Landmarks one pixel inside the box corner
+            for (int j = 0; landmarks && j < FaceDetections.LANDMARKS; j++) {
+                data[i * FaceDetections.STRIDE + 5 + j] = boxes[i][0] + 1;
+                data[i * FaceDetections.STRIDE + 10 + j] = boxes[i][1] + 1;
+            }
+        }
+        return new FaceDetections(data, boxes.length, landmarks);
+    }
+}
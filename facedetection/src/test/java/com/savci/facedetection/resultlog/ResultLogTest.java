@@ -0,0 +1,69 @@
+package com.savci.facedetection.resultlog;
+
+import com.savci.facedetection.config.FaceDetectionProperties;
+import com.savci.facedetection.model.FaceAnnotation;
+import com.savci.facedetection.model.FaceDetections;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResultLogTest {
+
+    @Test
+    void recordsRoundTripAcrossSegmentsAndFilterByTime(@TempDir Path directory) throws Exception {
+        FaceDetectionProperties.ResultLog config = new FaceDetectionProperties.ResultLog();
+        config.setDirectory(directory.toString());
+        // Room for a handful of records per segment, so the log rolls several times
+        config.setSegmentBytes(ResultRecord.SEGMENT_HEADER_BYTES + 4 * ResultRecord.length(2));
+
+        List<String> frameIds = new ArrayList<>();
+        try (ResultLog log = new ResultLog(config, new SimpleMeterRegistry())) {
+            for (int i = 0; i < 20; i++) {
+                String frameId = UUID.randomUUID().toString();
+                frameIds.add(frameId);
+                assertTrue(log.append(1000 + i, "user-" + (i % 2), frameId, FaceDetections.fromAnnotations(
+                        new FaceAnnotation[] { face(i), face(i + 100) })));
+            }
+        }
+        assertTrue(ResultLogReader.segments(directory).size() > 1);
+
+        List<String> seen = new ArrayList<>();
+        long visited = new ResultLogReader(directory).scan(1005, 1014, record -> {
+            int i = (int) (record.getTimestampMillis() - 1000);
+            seen.add(record.getFrameId().toString());
+            assertEquals(ResultRecord.userHash("user-" + (i % 2)), record.getUserHash());
+            assertEquals(2, record.getFaceCount());
+            FaceAnnotation[] faces = record.toFaces();
+            assertEquals(i, faces[0].getBoundingBox().getX());
+            assertEquals(0.5f, record.getConfidence(0));
+            assertEquals(5, faces[0].getLandmarks().length);
+            assertEquals(i + 1, faces[0].getLandmarks()[4].getPosition().getY());
+            assertEquals(5, record.getLandmarkCount(1));
+        });
+        assertEquals(10, visited);
+        assertArrayEquals(frameIds.subList(5, 15).toArray(), seen.toArray());
+    }
+
+    private static FaceAnnotation face(int x) {
+        FaceAnnotation face = new FaceAnnotation();
+        face.setBoundingBox(FaceAnnotation.BoundingBox.of(x, 2, 30, 40));
+        face.setConfidence(0.5);
+        FaceAnnotation.Landmark.LandmarkType[] types = FaceAnnotation.Landmark.LandmarkType.values();
+        FaceAnnotation.Landmark[] points = new FaceAnnotation.Landmark[types.length];
+        for (int j = 0; j < points.length; j++) {
+            points[j] = FaceAnnotation.Landmark.of(types[j], FaceAnnotation.Landmark.Position.of(x, x + 1));
+        }
+        face.setLandmarks(points);
+        return face;
+    }
+}
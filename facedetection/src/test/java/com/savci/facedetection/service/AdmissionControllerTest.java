@@ -0,0 +1,107 @@
+package com.savci.facedetection.service;
+
+import com.savci.facedetection.config.FaceDetectionProperties;
+import com.savci.facedetection.service.AdmissionController.Level;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdmissionControllerTest {
+
+    // Thresholds 0.5, 0.75, 1.0, 1.5 of a 200 ms SLO
+    private static final long SLO = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private final AtomicLong clock = new AtomicLong();
+    private final List<Object> events = new ArrayList<>();
+    private SimpleMeterRegistry registry;
+    private AdmissionController controller;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        controller = new AdmissionController(new FaceDetectionProperties.Admission(), registry, events::add,
+                clock::get);
+    }
+
+    @Test
+    void escalatesOneLevelPerThreshold() {
+        assertEquals(Level.NORMAL, controller.admit());
+        feed(0.6);
+        assertEquals(Level.RAISED_MIN_FACE, controller.admit());
+        feed(0.9);
+        assertEquals(Level.CAPPED_RESOLUTION, controller.admit());
+        feed(1.2);
+        assertEquals(Level.NO_LANDMARKS, controller.admit());
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    void stepsDownOnlyWellBelowTheThreshold() {
+        feed(1.2);
+        assertEquals(Level.NO_LANDMARKS, controller.admit());
+        // Below the 1.0 threshold but above 0.8 of it
+        feed(0.85);
+        assertEquals(Level.NO_LANDMARKS, controller.admit());
+        feed(0.7);
+        assertEquals(Level.CAPPED_RESOLUTION, controller.admit());
+        // Below 0.8 of every threshold at once
+        feed(0.1);
+        assertEquals(Level.NORMAL, controller.admit());
+    }
+
+    @Test
+    void rejectsAtTheTopAndRecoversWhenIdle() {
+        feed(2.0);
+        assertEquals(Level.REJECT, controller.admit());
+        assertEquals(Level.REJECT, controller.admit());
+        assertEquals(ReadinessState.REFUSING_TRAFFIC, readiness(0));
+
+        // No frames are measured while rejecting, the load decays by itself
+        clock.addAndGet(10 * SLO);
+        assertTrue(controller.getLoad() < 0.01);
+        assertEquals(Level.NORMAL, controller.admit());
+        assertEquals(ReadinessState.ACCEPTING_TRAFFIC, readiness(1));
+        assertEquals(2, frames(Level.REJECT));
+    }
+
+    @Test
+    void countsFramesAtTheLevelTheyRunAt() {
+        assertEquals(Level.NORMAL, controller.admit());
+        assertEquals(Level.NORMAL, controller.admit());
+        feed(1.2);
+        // Admitted at NORMAL, started after the load went up
+        assertEquals(Level.NO_LANDMARKS, controller.start(SLO));
+        feed(2.0);
+        assertEquals(Level.NO_LANDMARKS, controller.start(2 * SLO));
+
+        assertEquals(0, frames(Level.NORMAL));
+        assertEquals(2, frames(Level.NO_LANDMARKS));
+        assertEquals(0, frames(Level.REJECT));
+    }
+
+    // Enough samples at one delay for the moving average to settle on it
+    private void feed(double load) {
+        for (int i = 0; i < 50; i++) {
+            controller.recordQueueDelay((long) (load * SLO));
+        }
+    }
+
+    private ReadinessState readiness(int index) {
+        return (ReadinessState) ((AvailabilityChangeEvent<?>) events.get(index)).getState();
+    }
+
+    private double frames(Level level) {
+        return registry.get("facedetection.admission.frames").tag("level", level.name()).counter().count();
+    }
+}
@@ -0,0 +1,153 @@
+package com.savci.facedetection.service;
+
+import com.savci.facedetection.config.FaceDetectionProperties;
+import com.savci.facedetection.entity.FaceDetectionResult;
+import com.savci.facedetection.entity.RawFrame;
+import com.savci.facedetection.exception.ServiceBusyException;
+import com.savci.facedetection.model.Cancellation;
+import com.savci.facedetection.model.DetectionLevel;
+import com.savci.facedetection.model.DetectionOptions;
+import com.savci.facedetection.model.FaceDetections;
+import com.savci.facedetection.model.MTCNN;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FaceDetectionServiceTest {
+
+    // Raw frames wrap without a codec, so decoding is instant
+    private static final byte[] FRAME = RawFrame.encode(RawFrame.Format.BGR, 4, 4, 12, new byte[48]);
+
+    @Test
+    void frameOfClosedSessionIsCancelledWithoutDetection() throws Exception {
+        FaceDetectionProperties.Scheduling scheduling = new FaceDetectionProperties.Scheduling();
+        BlockingMTCNN mtcnn = new BlockingMTCNN();
+        try (FairScheduler scheduler = new FairScheduler(scheduling, 1, new SimpleMeterRegistry())) {
+            FaceDetectionService service = new FaceDetectionService(mtcnn, scheduler, null, null, scheduling);
+            CompletableFuture<FaceDetectionResult> running = occupyInference(service, mtcnn);
+
+            Cancellation session = Cancellation.create();
+            CompletableFuture<FaceDetectionResult> queued = service.detectFaces("closed", FRAME,
+                    DetectionLevel.FULL, false, session.child());
+            awaitQueued(scheduler, "closed");
+            // What the WebSocket handler does when the connection closes
+            session.cancel("Session closed");
+            service.releaseSession("closed");
+            mtcnn.release.countDown();
+
+            assertNotNull(running.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(CancellationException.class, failure(queued));
+            assertEquals(1, mtcnn.detected.get());
+            service.close();
+        }
+    }
+
+    @Test
+    void supersededFrameIsCancelledWithoutDetection() throws Exception {
+        FaceDetectionProperties.Scheduling scheduling = new FaceDetectionProperties.Scheduling();
+        BlockingMTCNN mtcnn = new BlockingMTCNN();
+        try (FairScheduler scheduler = new FairScheduler(scheduling, 1, new SimpleMeterRegistry())) {
+            FaceDetectionService service = new FaceDetectionService(mtcnn, scheduler, null, null, scheduling);
+            CompletableFuture<FaceDetectionResult> running = occupyInference(service, mtcnn);
+
+            Cancellation frame = Cancellation.create().child();
+            CompletableFuture<FaceDetectionResult> superseded = service.detectFaces("live", FRAME,
+                    DetectionLevel.FULL, false, frame);
+            awaitQueued(scheduler, "live");
+            frame.cancel("Superseded by a newer frame");
+            mtcnn.release.countDown();
+
+            assertNotNull(running.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(CancellationException.class, failure(superseded));
+            assertEquals(1, mtcnn.detected.get());
+            service.close();
+        }
+    }
+
+    @Test
+    void fullDecoderQueueAnswersBusy() throws Exception {
+        FaceDetectionProperties.Scheduling scheduling = new FaceDetectionProperties.Scheduling();
+        scheduling.setDecodeThreads(1);
+        scheduling.setMaxQueuedDecodes(1);
+        BlockingMTCNN mtcnn = new BlockingMTCNN();
+        // Without a scheduler the frame is detected on the decoder thread, which blocks it
+        FaceDetectionService service = new FaceDetectionService(mtcnn, null, null, null, scheduling);
+        try {
+            CompletableFuture<FaceDetectionResult> running = occupyInference(service, mtcnn);
+            // Never on the caller's thread, however fast the frame decodes
+            assertTrue(mtcnn.thread.startsWith("frame-decoder-"), mtcnn.thread);
+            CompletableFuture<FaceDetectionResult> queued = service.detectFaces(FRAME);
+            CompletableFuture<FaceDetectionResult> rejected = service.detectFaces(FRAME);
+
+            assertTrue(rejected.isCompletedExceptionally());
+            assertInstanceOf(ServiceBusyException.class, failure(rejected));
+
+            mtcnn.release.countDown();
+            assertNotNull(running.get(5, TimeUnit.SECONDS));
+            assertNotNull(queued.get(5, TimeUnit.SECONDS));
+            assertEquals(2, mtcnn.detected.get());
+        } finally {
+            service.close();
+        }
+    }
+
+    private static CompletableFuture<FaceDetectionResult> occupyInference(FaceDetectionService service,
+            BlockingMTCNN mtcnn) throws InterruptedException {
+        CompletableFuture<FaceDetectionResult> running = service.detectFaces("other", FRAME, false);
+        assertTrue(mtcnn.entered.await(5, TimeUnit.SECONDS));
+        return running;
+    }
+
+    private static void awaitQueued(FairScheduler scheduler, String userId) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (scheduler.getQueueDepth(userId) == 0) {
+            assertTrue(System.nanoTime() < deadline, "Frame was never queued");
+            Thread.sleep(1);
+        }
+    }
+
+    private static Throwable failure(CompletableFuture<?> future) throws Exception {
+        Throwable e = future.handle((result, failure) -> failure).get(5, TimeUnit.SECONDS);
+        assertNotNull(e, "Expected the frame to fail");
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    /**
+     * Counts detections and holds the first one until released.
+     */
+    private static final class BlockingMTCNN extends MTCNN {
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final AtomicInteger detected = new AtomicInteger();
+        private volatile String thread;
+
+        BlockingMTCNN() {
+            super(new FaceDetectionProperties());
+        }
+
+        @Override
+        public FaceDetections detect(Mat image, DetectionOptions options, Cancellation cancellation)
+                throws Exception {
+            detected.incrementAndGet();
+            if (thread == null) {
+                thread = Thread.currentThread().getName();
+            }
+            entered.countDown();
+            assertTrue(release.await(5, TimeUnit.SECONDS));
+            return FaceDetections.empty();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.savci.facedetection.service;
+
+import com.savci.facedetection.config.FaceDetectionProperties;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FairSchedulerTest {
+
+    private static final long VGA = 640 * 480;
+    private static final long UHD = 3840 * 2160;
+
+    @Test
+    void lightUserIsNotQueuedBehindHeavyUser() throws Exception {
+        FaceDetectionProperties.Scheduling scheduling = new FaceDetectionProperties.Scheduling();
+        try (FairScheduler scheduler = new FairScheduler(scheduling, 1, new SimpleMeterRegistry())) {
+            CountDownLatch release = new CountDownLatch(1);
+            List<String> order = new CopyOnWriteArrayList<>();
+            // Occupy the only dispatcher so everything below queues up
+            CompletableFuture<Boolean> blocker = scheduler.submit("heavy", UHD,
+                    () -> release.await(5, TimeUnit.SECONDS));
+            List<CompletableFuture<Boolean>> futures = new java.util.ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                futures.add(scheduler.submit("heavy", UHD, () -> order.add("heavy")));
+            }
+            futures.add(scheduler.submit("light", VGA, () -> order.add("light")));
+            release.countDown();
+            blocker.get(5, TimeUnit.SECONDS);
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+
+            assertTrue(order.indexOf("light") <= 1, "light user waited behind " + order.indexOf("light")
+                    + " heavy frames");
+        }
+    }
+
+    @Test
+    void weightScalesShare() throws Exception {
+        FaceDetectionProperties.Scheduling scheduling = new FaceDetectionProperties.Scheduling();
+        scheduling.getWeights().put("premium", 3);
+        try (FairScheduler scheduler = new FairScheduler(scheduling, 1, new SimpleMeterRegistry())) {
+            CountDownLatch release = new CountDownLatch(1);
+            List<String> order = new CopyOnWriteArrayList<>();
+            CompletableFuture<Boolean> blocker = scheduler.submit("blocker", VGA,
+                    () -> release.await(5, TimeUnit.SECONDS));
+            List<CompletableFuture<Boolean>> futures = new java.util.ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(scheduler.submit("basic", VGA, () -> order.add("basic")));
+                futures.add(scheduler.submit("premium", VGA, () -> order.add("premium")));
+            }
+            release.countDown();
+            blocker.get(5, TimeUnit.SECONDS);
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+
+            long premiumFirst = order.subList(0, 8).stream().filter("premium"::equals).count();
+            assertEquals(6, premiumFirst);
+        }
+    }
+
+    @Test
+    void rejectsBeyondQueueLimit() throws Exception {
+        FaceDetectionProperties.Scheduling scheduling = new FaceDetectionProperties.Scheduling();
+        scheduling.setMaxQueuedPerUser(1);
+        try (FairScheduler scheduler = new FairScheduler(scheduling, 1, new SimpleMeterRegistry())) {
+            CountDownLatch release = new CountDownLatch(1);
+            CompletableFuture<Boolean> blocker = scheduler.submit("other", VGA,
+                    () -> release.await(5, TimeUnit.SECONDS));
+            CompletableFuture<Integer> queued = scheduler.submit("user", VGA, () -> 1);
+            CompletableFuture<Integer> rejected = scheduler.submit("user", VGA, () -> 2);
+            release.countDown();
+
+            assertEquals(1, queued.get(5, TimeUnit.SECONDS));
+            Exception e = assertThrows(Exception.class, rejected::join);
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+            blocker.get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void releaseCancelsQueuedTasksAndForgetsTheUser() throws Exception {
+        FaceDetectionProperties.Scheduling scheduling = new FaceDetectionProperties.Scheduling();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        try (FairScheduler scheduler = new FairScheduler(scheduling, 1, registry)) {
+            CountDownLatch release = new CountDownLatch(1);
+            List<String> ran = new CopyOnWriteArrayList<>();
+            CompletableFuture<Boolean> blocker = scheduler.submit("other", VGA,
+                    () -> release.await(5, TimeUnit.SECONDS));
+            List<CompletableFuture<Boolean>> queued = new java.util.ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                queued.add(scheduler.submit("closed", VGA, () -> ran.add("closed")));
+            }
+
+            scheduler.release("closed");
+
+            queued.forEach(future -> assertTrue(future.isCancelled()));
+            assertEquals(0, scheduler.getQueueDepth("closed"));
+            assertNull(registry.find("facedetection.scheduler.queue.depth").tag("user", "closed").gauge());
+            assertNull(registry.find("facedetection.scheduler.wait").tag("user", "closed").timer());
+
+            release.countDown();
+            blocker.get(5, TimeUnit.SECONDS);
+            assertEquals(1, scheduler.submit("other", VGA, () -> 1).get(5, TimeUnit.SECONDS));
+            assertTrue(ran.isEmpty());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.savci.facedetection.service;
+
+import com.savci.facedetection.entity.RawFrame;
+
+import org.bytedeco.javacpp.indexer.UByteIndexer;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.bytedeco.opencv.global.opencv_core.CV_8UC3;
+import static org.bytedeco.opencv.global.opencv_core.absdiff;
+import static org.bytedeco.opencv.global.opencv_core.countNonZero;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ImageUtilsTest {
+
+    @Test
+    void paddedBgrAndRgbFramesWrapWithoutDecoding() {
+        // 2x2 pixels, rows padded to 8 bytes
+        byte[] bgr = { 1, 2, 3, 4, 5, 6, 0, 0, 7, 8, 9, 10, 11, 12, 0, 0 };
+        try (Mat image = ImageUtils.byteArrayToMat(RawFrame.encode(RawFrame.Format.BGR, 2, 2, 8, bgr));
+                Mat swapped = ImageUtils.byteArrayToMat(RawFrame.encode(RawFrame.Format.RGB, 2, 2, 8, bgr));
+                UByteIndexer pixels = image.createIndexer();
+                UByteIndexer rgb = swapped.createIndexer()) {
+            assertEquals(CV_8UC3, image.type());
+            assertEquals(10, pixels.get(1, 1, 0));
+            assertEquals(12, pixels.get(1, 1, 2));
+            assertEquals(12, rgb.get(1, 1, 0));
+        }
+    }
+
+    @Test
+    void nv12AndI420OfTheSameFrameConvertAlike() {
+        int width = 4;
+        int height = 2;
+        byte[] luma = { 16, 60, 120, (byte) 235, 30, 90, (byte) 150, (byte) 200 };
+        byte[] u = { 100, (byte) 140 };
+        byte[] v = { (byte) 180, 70 };
+        byte[] nv12 = new byte[12];
+        byte[] i420 = new byte[12];
+        System.arraycopy(luma, 0, nv12, 0, 8);
+        System.arraycopy(luma, 0, i420, 0, 8);
+        for (int i = 0; i < 2; i++) {
+            nv12[8 + 2 * i] = u[i];
+            nv12[9 + 2 * i] = v[i];
+            i420[8 + i] = u[i];
+            i420[10 + i] = v[i];
+        }
+
+        try (Mat fromNv12 = ImageUtils.byteArrayToMat(
+                RawFrame.encode(RawFrame.Format.NV12, width, height, width, nv12));
+                Mat fromI420 = ImageUtils.byteArrayToMat(
+                        RawFrame.encode(RawFrame.Format.I420, width, height, width, i420));
+                Mat difference = new Mat()) {
+            assertEquals(height, fromNv12.rows());
+            assertEquals(width, fromNv12.cols());
+            absdiff(fromNv12, fromI420, difference);
+            assertEquals(0, countNonZero(difference.reshape(1)));
+        }
+    }
+
+    @Test
+    void truncatedRawFramesAreRejected() {
+        byte[] frame = RawFrame.encode(RawFrame.Format.BGR, 2, 2, 6, new byte[12]);
+        byte[] truncated = Arrays.copyOf(frame, frame.length - 1);
+        assertThrows(IllegalArgumentException.class, () -> ImageUtils.byteArrayToMat(truncated));
+    }
+
+    @Test
+    void oversizedYuvHeaderIsRejectedBeforeAllocating() {
+        // stride * height * 3 overflows int; the size must not wrap to a value that passes the length check
+        assertEquals(1_610_612_736, RawFrame.of(RawFrame.Format.NV12, 16384, 16384, 65536).pixelBytes());
+        byte[] header = RawFrame.header(RawFrame.Format.NV12, 16384, 16384, 65536);
+        assertThrows(IllegalArgumentException.class, () -> ImageUtils.byteArrayToMat(header));
+    }
+}
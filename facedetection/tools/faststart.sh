@@ -0,0 +1,90 @@
+#!/usr/bin/env bash
+# Fast-start packaging: Spring AOT, an AppCDS archive from a training run and
+# JavaCPP native libraries pre-extracted to a fixed cache directory.
+#
+# Usage (from the facedetection module):
+#   tools/faststart.sh build            package with -Pfaststart, extract, train the CDS archive
+#   tools/faststart.sh run [args...]    start the fast-start layout
+#   tools/faststart.sh compare [runs]   startup-to-ready of the plain fat jar vs the fast-start layout
+#
+# AOT fixes the bean set at build time, so properties that switch beans on or
+# off (facedetection.cluster.role, facedetection.result-log.enabled) must be
+# the same at build and run time; pass them to the build as
+# FASTSTART_AOT_ARGS="--facedetection.cluster.role=worker".
+set -euo pipefail
+
+cd "$(dirname "$0")/.."
+OUT=${FASTSTART_DIR:-target/faststart}
+JVM_OPTS=(--add-modules jdk.incubator.vector -Djava.awt.headless=true)
+
+app_jar() {
+    ls "$OUT"/facedetection-*.jar
+}
+
+fast_opts() {
+    echo -XX:SharedArchiveFile="$OUT/app.jsa" -Dspring.aot.enabled=true \
+        -Dorg.bytedeco.javacpp.cachedir="$OUT/javacpp-cache"
+}
+
+build() {
+    ./mvnw -B -q -Pfaststart -DskipTests \
+        ${FASTSTART_AOT_ARGS:+-Dspring-boot.aot.arguments="$FASTSTART_AOT_ARGS"} package
+    rm -rf "$OUT"
+    java -Djarmode=tools -jar target/facedetection-*.jar extract --destination "$OUT"
+    # The training run refreshes the context, which loads and warms up the models, then exits. That
+    # loads the JavaCPP/ND4J class graph for the archive and extracts the native libraries into the cache.
+    java "${JVM_OPTS[@]}" -XX:ArchiveClassesAtExit="$OUT/app.jsa" -Dspring.aot.enabled=true \
+        -Dorg.bytedeco.javacpp.cachedir="$OUT/javacpp-cache" -Dspring.context.exit=onRefresh \
+        -jar "$(app_jar)" --server.port=0 ${FASTSTART_AOT_ARGS:-}
+    echo "Fast-start layout in $OUT ($(du -sh "$OUT/app.jsa" | cut -f1) CDS archive)"
+}
+
+run() {
+    # shellcheck disable=SC2046
+    exec java "${JVM_OPTS[@]}" $(fast_opts) -jar "$(app_jar)" "$@"
+}
+
+# Prints the JVM uptime in ms when Spring Boot reports the context started, i.e. models loaded and
+# the web server listening
+time_to_ready() {
+    local log
+    log=$(mktemp)
+    java "${JVM_OPTS[@]}" "$@" --server.port=0 > "$log" 2>&1 &
+    local pid=$!
+    while ! grep -q "process running for" "$log"; do
+        if ! kill -0 "$pid" 2> /dev/null; then
+            cat "$log" >&2
+            return 1
+        fi
+        sleep 0.2
+    done
+    kill "$pid"
+    wait "$pid" 2> /dev/null || true
+    sed -n 's/.*process running for \([0-9.]*\)).*/\1/p' "$log" | awk '{ printf "%d\n", $1 * 1000 }'
+    rm -f "$log"
+}
+
+compare() {
+    local runs=${1:-3}
+    local fat
+    fat=$(ls target/facedetection-*.jar | grep -v '\.original$' | head -1)
+    echo "run,fatJarMillis,fastStartMillis"
+    for i in $(seq 1 "$runs"); do
+        # A fresh cache per run, like a new pod that has to extract the native libraries
+        local cache
+        cache=$(mktemp -d)
+        local plain fast
+        plain=$(time_to_ready -Dorg.bytedeco.javacpp.cachedir="$cache" -jar "$fat")
+        # shellcheck disable=SC2046
+        fast=$(time_to_ready $(fast_opts) -jar "$(app_jar)")
+        rm -rf "$cache"
+        echo "$i,$plain,$fast"
+    done
+}
+
+case "${1:-}" in
+    build) build ;;
+    run) shift; run "$@" ;;
+    compare) shift; compare "$@" ;;
+    *) sed -n '2,14p' "$0"; exit 1 ;;
+esac
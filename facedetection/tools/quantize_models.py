@@ -0,0 +1,68 @@
+"""Offline conversion of the bundled MTCNN graphs to reduced precision.
+
+Writes <net>-int8.pb next to each <net>.pb so MTCNN can load it with
+facedetection.model.precision.<net>=int8. The graphs are rewritten with the
+TensorFlow 1.x Graph Transform Tool, the same TF line the nd4j-tensorflow
+runtime uses, so every op in the output has a CPU kernel there.
+
+Usage (TensorFlow 1.15):
+    python tools/quantize_models.py [--models src/main/resources/model] [--nets pnet rnet onet]
+
+Check the result with MTCNNAccuracyReport before enabling it.
+"""
+
+import argparse
+import os
+
+import tensorflow as tf
+from tensorflow.tools.graph_transforms import TransformGraph
+
+# Input and output tensors, must match the names used in MTCNN.java
+NETWORKS = {
+    "pnet": (["input_1"], ["conv2d_5/BiasAdd", "softmax_1/truediv"]),
+    "rnet": (["input_2"], ["dense_3/BiasAdd", "softmax_2/Softmax"]),
+    "onet": (["input_3"], ["dense_6/BiasAdd", "dense_7/BiasAdd", "softmax_3/Softmax"]),
+}
+
+INT8_TRANSFORMS = [
+    "strip_unused_nodes",
+    "remove_nodes(op=Identity, op=CheckNumerics)",
+    "fold_constants(ignore_errors=true)",
+    "fold_batch_norms",
+    # Weights stored as eight bit and conv/matmul run through quantized kernels
+    "quantize_weights",
+    "quantize_nodes",
+    "strip_unused_nodes",
+    "sort_by_execution_order",
+]
+
+
+def quantize(models_dir, net):
+    inputs, outputs = NETWORKS[net]
+    source = os.path.join(models_dir, net + ".pb")
+    target = os.path.join(models_dir, net + "-int8.pb")
+
+    graph_def = tf.compat.v1.GraphDef()
+    with tf.io.gfile.GFile(source, "rb") as f:
+        graph_def.ParseFromString(f.read())
+
+    quantized = TransformGraph(graph_def, inputs, outputs, INT8_TRANSFORMS)
+
+    with tf.io.gfile.GFile(target, "wb") as f:
+        f.write(quantized.SerializeToString())
+    print("%s: %d -> %d bytes, written to %s"
+          % (net, os.path.getsize(source), os.path.getsize(target), target))
+
+
+def main():
+    parser = argparse.ArgumentParser(description=__doc__.splitlines()[0])
+    parser.add_argument("--models", default=os.path.join(
+        os.path.dirname(__file__), "..", "src", "main", "resources", "model"))
+    parser.add_argument("--nets", nargs="+", default=list(NETWORKS), choices=list(NETWORKS))
+    args = parser.parse_args()
+    for net in args.nets:
+        quantize(args.models, net)
+
+
+if __name__ == "__main__":
+    main()